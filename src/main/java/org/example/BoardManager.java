@@ -0,0 +1,281 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>BoardManager.</h1>
+ * <p>
+ * The BoardManager class keeps the train dispatches of many stations within a memory budget.
+ * The boards are kept in order of last use, and when the estimated size of the resident boards
+ * is over the budget, the least recently used ones are written to disk as a BoardSnapshot and
+ * dropped from memory. A spilled board is read back the first time it is asked for.
+ * </p>
+ * <p>
+ * The size of a board is estimated from its number of departures, since measuring the heap is
+ * too slow to do on every access. Boards with service patterns, history, primitive columns,
+ * connections or a departure spool are never spilled, because these are not part of a
+ * snapshot. The delay statistics are part of it. Listeners added by the caller are not kept,
+ * so callers should ask the manager for a board each time they use it instead of holding on
+ * to it.
+ * </p>
+ * <p>
+ * The manager counts hits, reloads and evictions, and records how long each reload takes.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.3
+ * @since 2024-01-30
+ */
+
+public class BoardManager {
+
+  /**
+   * The estimated heap use of a departure, including its entries in the store and indexes.
+   */
+  public static final long BYTES_PER_DEPARTURE = 400;
+
+  /**
+   * The estimated heap use of an empty board.
+   */
+  public static final long BYTES_PER_BOARD = 8 * 1024;
+
+  private final Path directory;
+  private final long memoryBudget;
+  private final String engine;
+
+  /**
+   * The resident boards by station, least recently used first.
+   */
+  private final LinkedHashMap<String, TrainDispatch> boards =
+          new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hits;
+  private long reloads;
+  private long creations;
+  private long evictions;
+  private final DelayAggregate reloadMicros = new DelayAggregate();
+
+  /**
+   * Creates a manager that spills boards to a directory. New boards use the list based store.
+   *
+   * @param directory    The directory for spilled boards. It is created if it does not exist.
+   * @param memoryBudget The estimated number of bytes the resident boards may use.
+   * @throws IOException if the directory could not be created.
+   */
+  public BoardManager(Path directory, long memoryBudget) throws IOException {
+    this(directory, memoryBudget, "list");
+  }
+
+  /**
+   * Creates a manager that spills boards to a directory.
+   *
+   * @param directory    The directory for spilled boards. It is created if it does not exist.
+   * @param memoryBudget The estimated number of bytes the resident boards may use.
+   * @param engine       The departure store engine of the boards (see DepartureStore.create).
+   * @throws IOException              if the directory could not be created.
+   * @throws IllegalArgumentException if the budget is not positive or the engine is unknown.
+   */
+  public BoardManager(Path directory, long memoryBudget, String engine)
+          throws IOException, IllegalArgumentException {
+    if (memoryBudget <= 0) {
+      throw new IllegalArgumentException("Memory budget must be positive");
+    }
+    DepartureStore.create(engine);
+    this.directory = Files.createDirectories(directory);
+    this.memoryBudget = memoryBudget;
+    this.engine = engine;
+  }
+
+  /**
+   * Gets the board of a station. A spilled board is read back from disk, and a new board is
+   * created at the specified time if the station has none.
+   * <p>
+   * A board read back is a new instance without the listeners of the one that was spilled.
+   * A caller that keeps the returned board after other boards are asked for may therefore be
+   * changing a board the manager no longer holds, and its changes are lost once the board is
+   * read back.
+   * </p>
+   *
+   * @param station     The station.
+   * @param currentTime The current time of a new board, as an epoch minute.
+   * @return The board of the station.
+   * @throws IOException if a spilled board could not be read, or a board could not be spilled.
+   */
+  public synchronized TrainDispatch get(String station, int currentTime) throws IOException {
+    TrainDispatch board = boards.get(station);
+    if (board != null) {
+      hits++;
+    } else {
+      Path path = pathOf(station);
+      if (Files.exists(path)) {
+        long start = System.nanoTime();
+        board = BoardSnapshot.read(path, DepartureStore.create(engine));
+        Files.delete(path);
+        reloadMicros.add((int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - start) / 1000));
+        reloads++;
+      } else {
+        board = new TrainDispatch(currentTime, DepartureStore.create(engine));
+        creations++;
+      }
+      boards.put(station, board);
+    }
+    evictOverBudget(board);
+    return board;
+  }
+
+  /**
+   * Checks if a station has a board, resident or spilled.
+   *
+   * @param station The station.
+   * @return True if the station has a board, false otherwise.
+   */
+  public synchronized boolean contains(String station) {
+    return boards.containsKey(station) || Files.exists(pathOf(station));
+  }
+
+  /**
+   * Checks if the board of a station is in memory.
+   *
+   * @param station The station.
+   * @return True if the board is resident, false if it is spilled or unknown.
+   */
+  public synchronized boolean isResident(String station) {
+    return boards.containsKey(station);
+  }
+
+  /**
+   * Writes every resident board that can be spilled to disk, for example before shutting
+   * down.
+   *
+   * @throws IOException if a board could not be written.
+   */
+  public synchronized void spillAll() throws IOException {
+    Iterator<Map.Entry<String, TrainDispatch>> iterator = boards.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, TrainDispatch> entry = iterator.next();
+      if (isSpillable(entry.getValue())) {
+        spill(entry.getKey(), entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Gets the estimated heap use of the resident boards.
+   *
+   * @return The estimated number of bytes.
+   */
+  public synchronized long getEstimatedBytes() {
+    long bytes = 0;
+    for (TrainDispatch board : boards.values()) {
+      bytes += estimateBytes(board);
+    }
+    return bytes;
+  }
+
+  /**
+   * Gets the number of boards in memory.
+   *
+   * @return The number of resident boards.
+   */
+  public synchronized int getNumberOfResidentBoards() {
+    return boards.size();
+  }
+
+  /**
+   * Gets the part of the accesses that found the board in memory.
+   *
+   * @return The hit rate between 0 and 1, or 0 if no board has been asked for.
+   */
+  public synchronized double getHitRate() {
+    long accesses = hits + reloads + creations;
+    return (accesses == 0) ? 0 : (double) hits / accesses;
+  }
+
+  /**
+   * Gets the number of boards read back from disk.
+   *
+   * @return The number of reloads.
+   */
+  public synchronized long getNumberOfReloads() {
+    return reloads;
+  }
+
+  /**
+   * Gets the number of boards written to disk to stay within the budget.
+   *
+   * @return The number of evictions.
+   */
+  public synchronized long getNumberOfEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Gets how long the reloads took.
+   *
+   * @return The reload times in microseconds.
+   */
+  public synchronized DelayAggregate getReloadLatency() {
+    DelayAggregate copy = new DelayAggregate();
+    copy.merge(reloadMicros);
+    return copy;
+  }
+
+  /**
+   * Spills the least recently used boards until the resident boards are within the budget.
+   * The board that was just asked for is kept.
+   */
+
+  private void evictOverBudget(TrainDispatch current) throws IOException {
+    long bytes = getEstimatedBytes();
+    Iterator<Map.Entry<String, TrainDispatch>> iterator = boards.entrySet().iterator();
+    while (bytes > memoryBudget && iterator.hasNext()) {
+      Map.Entry<String, TrainDispatch> entry = iterator.next();
+      TrainDispatch board = entry.getValue();
+      if (board != current && isSpillable(board)) {
+        bytes -= estimateBytes(board);
+        spill(entry.getKey(), board);
+        iterator.remove();
+        evictions++;
+      }
+    }
+  }
+
+  /**
+   * Writes a board to its file.
+   */
+
+  private void spill(String station, TrainDispatch board) throws IOException {
+    BoardSnapshot.write(board, pathOf(station));
+  }
+
+  /**
+   * Checks if a board can be written to disk without losing state.
+   */
+
+  private static boolean isSpillable(TrainDispatch board) {
+    return board.getNumberOfPatterns() == 0 && board.getHistory() == null
+            && board.getColumns() == null && board.getConnections() == null
+            && board.getSpool() == null;
+  }
+
+  private static long estimateBytes(TrainDispatch board) {
+    return BYTES_PER_BOARD + board.getNumberOfDepartures() * BYTES_PER_DEPARTURE;
+  }
+
+  /**
+   * Gets the file of a station, with the name encoded so any station name is a valid file
+   * name.
+   */
+
+  private Path pathOf(String station) {
+    return directory.resolve(URLEncoder.encode(station, StandardCharsets.UTF_8) + ".board");
+  }
+}
@@ -0,0 +1,194 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <h1>BoardSnapshot.</h1>
+ * <p>
+ * The BoardSnapshot class writes the board of a train dispatch to a compact binary file and
+ * reads it back. The file holds the current time, the materialization horizon, the dwell
+ * times, the departures that have not left and the delay statistics, which also count the
+ * departures that have. Lines and destinations are written once in a string table and referred
+ * to by number, and the whole file is Deflate-compressed.
+ * </p>
+ * <p>
+ * Service patterns, listeners, the history, the primitive columns, the connections with
+ * their own delays and the departure spool are not part of the snapshot. Snapshots of the
+ * first format, which have no delay statistics, can still be read. A file is written next to
+ * its final name and moved into place, so a crash never leaves half a snapshot.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.3
+ * @since 2024-01-30
+ */
+
+public final class BoardSnapshot {
+
+  private static final int MAGIC = 0x54444253;
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * The first format, without delay statistics.
+   */
+  private static final int FORMAT_WITHOUT_STATISTICS = 1;
+
+  private BoardSnapshot() {
+  }
+
+  /**
+   * Writes the board of a train dispatch to a file.
+   *
+   * @param trainDispatch The dispatch.
+   * @param path          The file.
+   * @throws IOException if the file could not be written.
+   */
+  public static void write(TrainDispatch trainDispatch, Path path) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+      write(trainDispatch, out);
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes the board of a train dispatch to a stream. The stream is not closed.
+   *
+   * @param trainDispatch The dispatch.
+   * @param stream        The stream.
+   * @throws IOException if the stream could not be written.
+   */
+  public static void write(TrainDispatch trainDispatch, OutputStream stream) throws IOException {
+    List<Departure> departures = trainDispatch.sortedList();
+    Map<String, Integer> strings = new HashMap<>();
+    List<String> table = new ArrayList<>();
+    for (Departure departure : departures) {
+      addString(strings, table, departure.getLine());
+      addString(strings, table, departure.getDestination());
+    }
+
+    Deflater compressor = new Deflater();
+    try {
+      DeflaterOutputStream deflater = new DeflaterOutputStream(stream, compressor);
+      DataOutputStream out = new DataOutputStream(deflater);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(trainDispatch.getCurrentMinute());
+      out.writeInt(trainDispatch.getMaterializationHorizon());
+      out.writeInt(trainDispatch.getDwellBefore());
+      out.writeInt(trainDispatch.getDwellAfter());
+      out.writeInt(table.size());
+      for (String string : table) {
+        out.writeUTF(string);
+      }
+      out.writeInt(departures.size());
+      for (Departure departure : departures) {
+        out.writeInt(departure.getDepartureMinute());
+        out.writeInt(strings.get(departure.getLine()));
+        out.writeInt(departure.getTrainNumber());
+        out.writeInt(strings.get(departure.getDestination()));
+        out.writeInt(departure.getTrack());
+        out.writeInt(departure.getDelay());
+      }
+      trainDispatch.getDelayStatistics().write(out);
+      deflater.finish();
+      out.flush();
+    } finally {
+      compressor.end();
+    }
+  }
+
+  /**
+   * Reads a board into a new train dispatch.
+   *
+   * @param path           The file.
+   * @param departureStore The empty store of the new dispatch.
+   * @return The dispatch.
+   * @throws IOException if the file could not be read or is not a snapshot.
+   */
+  public static TrainDispatch read(Path path, DepartureStore departureStore)
+          throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return read(in, departureStore);
+    }
+  }
+
+  /**
+   * Reads a board from a stream into a new train dispatch. The stream is not closed, and it
+   * should hold nothing after the snapshot, since it may be read ahead.
+   *
+   * @param stream         The stream.
+   * @param departureStore The empty store of the new dispatch.
+   * @return The dispatch.
+   * @throws IOException if the stream could not be read or is not a snapshot.
+   */
+  public static TrainDispatch read(InputStream stream, DepartureStore departureStore)
+          throws IOException {
+    Inflater decompressor = new Inflater();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+              new InflaterInputStream(stream, decompressor)));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a board snapshot");
+      }
+      int format = in.readInt();
+      if (format != FORMAT_VERSION && format != FORMAT_WITHOUT_STATISTICS) {
+        throw new IOException("Unknown board snapshot format: " + format);
+      }
+      TrainDispatch trainDispatch = new TrainDispatch(in.readInt(), departureStore);
+      trainDispatch.setMaterializationHorizon(in.readInt());
+      trainDispatch.setDwellTimes(in.readInt(), in.readInt());
+      String[] table = new String[in.readInt()];
+      for (int i = 0; i < table.length; i++) {
+        table[i] = in.readUTF();
+      }
+      int numberOfDepartures = in.readInt();
+      for (int i = 0; i < numberOfDepartures; i++) {
+        int minute = in.readInt();
+        String line = table[in.readInt()];
+        int trainNumber = in.readInt();
+        String destination = table[in.readInt()];
+        int track = in.readInt();
+        int delay = in.readInt();
+        trainDispatch.registerDeparture(new Departure(minute, line, trainNumber, destination,
+                Math.max(track, 0), delay));
+      }
+      if (format == FORMAT_VERSION) {
+        // Replaces what registering the departures counted
+        trainDispatch.getDelayStatistics().read(in);
+      }
+      return trainDispatch;
+    } finally {
+      decompressor.end();
+    }
+  }
+
+  /**
+   * Adds a string to the string table if it is not there yet.
+   */
+
+  private static void addString(Map<String, Integer> strings, List<String> table,
+                                String string) {
+    if (strings.putIfAbsent(string, table.size()) == null) {
+      table.add(string);
+    }
+  }
+}
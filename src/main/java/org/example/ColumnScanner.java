@@ -0,0 +1,90 @@
+package org.example;
+
+/**
+ * <h1>ColumnScanner.</h1>
+ * <p>
+ * A ColumnScanner checks the rows of the primitive departure columns against a filter on time
+ * plus delay, delay and track. The vectorized implementation is used when the
+ * jdk.incubator.vector module is available (started with
+ * <code>--add-modules jdk.incubator.vector</code>), and the scalar one otherwise. Both give the
+ * same results.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-29
+ */
+
+interface ColumnScanner {
+
+  /**
+   * The conditions a row is checked against. All bounds are inclusive.
+   *
+   * @param fromMinute The first epoch minute of time plus delay.
+   * @param toMinute   The last epoch minute of time plus delay.
+   * @param minDelay   The smallest delay.
+   * @param maxDelay   The largest delay.
+   * @param track      The track, -1 for no track, or 0 for any track.
+   */
+  record Filter(int fromMinute, int toMinute, int minDelay, int maxDelay, int track) {
+
+    /**
+     * Checks a single row.
+     */
+    boolean matches(int minute, int delay, int rowTrack) {
+      return minute >= fromMinute && minute <= toMinute && delay >= minDelay
+              && delay <= maxDelay && (track == 0 || rowTrack == track);
+    }
+  }
+
+  /**
+   * Creates the fastest scanner available in this JVM.
+   *
+   * @return The vectorized scanner, or the scalar one if the vector module is missing.
+   */
+  static ColumnScanner create() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      try {
+        return new VectorColumnScanner();
+      } catch (LinkageError e) {
+        // Fall back to the scalar scanner below
+      }
+    }
+    return new ScalarColumnScanner();
+  }
+
+  /**
+   * Gets the name of the scanner, for reports.
+   *
+   * @return The name.
+   */
+  String getName();
+
+  /**
+   * Counts the rows in a range that match a filter.
+   *
+   * @param minutes The time plus delay column.
+   * @param delays  The delay column.
+   * @param tracks  The track column.
+   * @param start   The first row.
+   * @param end     The row after the last one.
+   * @param filter  The filter.
+   * @return The number of matching rows.
+   */
+  int count(int[] minutes, int[] delays, int[] tracks, int start, int end, Filter filter);
+
+  /**
+   * Finds the rows in a range that match a filter.
+   *
+   * @param minutes The time plus delay column.
+   * @param delays  The delay column.
+   * @param tracks  The track column.
+   * @param start   The first row.
+   * @param end     The row after the last one.
+   * @param filter  The filter.
+   * @param rows    Receives the matching rows in order. It must hold end - start rows.
+   * @return The number of matching rows.
+   */
+  int select(int[] minutes, int[] delays, int[] tracks, int start, int end, Filter filter,
+             int[] rows);
+}
@@ -0,0 +1,452 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>CommandDispatcher.</h1>
+ * <p>
+ * The CommandDispatcher class lets many threads change one train dispatch without locks. Every
+ * change is published as a command into a ring buffer of preallocated slots, and a single
+ * dispatcher thread applies the commands to the dispatch in order, in batches. The dispatch is
+ * therefore only ever touched by one thread.
+ * </p>
+ * <p>
+ * A producer claims the next sequence number with one atomic increment, fills the slot of that
+ * number and marks it as published. The dispatcher takes every published command in a row,
+ * applies them, and then frees the slots. A producer waits only when the ring is full, first
+ * spinning briefly and then parking.
+ * </p>
+ * <p>
+ * The dispatcher publishes DispatchSnapshots with copies of the departures, which readers can
+ * use from any thread. Copying the board costs as much as the board is large, so a snapshot is
+ * not taken after every batch: only when a reader waits for one, when the last one is older
+ * than the snapshot interval, or when there is nothing else to do. Commands that refer to
+ * unknown train numbers, fail validation or fail in any other way are skipped and counted. A
+ * new track is refused if it conflicts with another departure, as in the menu.
+ * </p>
+ * <p>
+ * Closing the dispatcher applies every command that was claimed while it was open. A producer
+ * that finds it closed after claiming a slot publishes the slot empty, so the dispatcher is
+ * never left waiting for it, and gets an IllegalStateException.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-02-01
+ */
+
+public class CommandDispatcher implements AutoCloseable {
+
+  /**
+   * The most commands applied before a snapshot is published.
+   */
+  static final int MAX_BATCH = 1024;
+
+  /**
+   * The longest time between two snapshots while commands keep coming, in nanoseconds.
+   */
+  static final long SNAPSHOT_INTERVAL_NANOS = 10_000_000;
+
+  /**
+   * The number of times a producer spins on a full ring before it parks.
+   */
+  private static final int SPINS = 100;
+
+  /**
+   * A slot claimed after the dispatcher was closed, which is skipped.
+   */
+  private static final byte CLOSED = 0;
+  private static final byte REGISTER = 1;
+  private static final byte REMOVE = 2;
+  private static final byte SET_TRACK = 3;
+  private static final byte SET_DELAY = 4;
+  private static final byte SET_TIME = 5;
+
+  /**
+   * A preallocated command. The fields are written by the producer that claimed the slot, and
+   * read by the dispatcher after the slot is published.
+   */
+  private static final class Slot {
+    private byte type;
+    private int minute;
+    private String line;
+    private int trainNumber;
+    private String destination;
+    private int track;
+    private int delay;
+    private int value;
+  }
+
+  private final TrainDispatch trainDispatch;
+  private final Slot[] slots;
+  private final int mask;
+
+  /**
+   * The sequence number of the slot each index was last published with.
+   */
+  private final AtomicLongArray published;
+
+  /**
+   * The last sequence number claimed by a producer.
+   */
+  private final AtomicLong claimed = new AtomicLong(-1);
+
+  /**
+   * The last sequence number applied by the dispatcher. Slots up to it can be reused.
+   */
+  private final AtomicLong applied = new AtomicLong(-1);
+
+  private final Thread dispatcher;
+  private volatile boolean running = true;
+  private volatile boolean idle;
+  private volatile DispatchSnapshot snapshot;
+  private volatile boolean snapshotWanted;
+  private long snapshotNanos;
+  private long rejected;
+  private long batches;
+  private long snapshots;
+
+  /**
+   * Starts a dispatcher thread for a train dispatch. The dispatch must not be changed in any
+   * other way while the dispatcher runs.
+   *
+   * @param trainDispatch The dispatch.
+   * @param capacity      The number of slots in the ring, a power of two.
+   * @throws IllegalArgumentException if the capacity is not a power of two.
+   */
+  public CommandDispatcher(TrainDispatch trainDispatch, int capacity)
+          throws IllegalArgumentException {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.trainDispatch = trainDispatch;
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+    }
+    this.mask = capacity - 1;
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+    this.snapshot = takeSnapshot(-1);
+    this.snapshotNanos = System.nanoTime();
+    this.snapshots = 1;
+    this.dispatcher = Thread.ofPlatform().name("command-dispatcher").daemon()
+            .start(this::run);
+  }
+
+  /**
+   * Publishes the registration of a departure.
+   *
+   * @param departure The departure, which is not used by the dispatch after this call.
+   * @return The sequence number of the command.
+   */
+  public long register(Departure departure) {
+    long sequence = claim();
+    Slot slot = slots[(int) sequence & mask];
+    slot.type = REGISTER;
+    slot.minute = departure.getDepartureMinute();
+    slot.line = departure.getLine();
+    slot.trainNumber = departure.getTrainNumber();
+    slot.destination = departure.getDestination();
+    slot.track = Math.max(departure.getTrack(), 0);
+    slot.delay = departure.getDelay();
+    publish(sequence);
+    return sequence;
+  }
+
+  /**
+   * Publishes the removal of the departure with a train number.
+   *
+   * @param trainNumber The train number.
+   * @return The sequence number of the command.
+   */
+  public long remove(int trainNumber) {
+    return publish(REMOVE, trainNumber, 0);
+  }
+
+  /**
+   * Publishes a new track for the departure with a train number.
+   *
+   * @param trainNumber The train number.
+   * @param track       The track, or 0 for no track.
+   * @return The sequence number of the command.
+   */
+  public long setTrack(int trainNumber, int track) {
+    return publish(SET_TRACK, trainNumber, track);
+  }
+
+  /**
+   * Publishes a new delay for the departure with a train number.
+   *
+   * @param trainNumber The train number.
+   * @param delay       The delay in minutes.
+   * @return The sequence number of the command.
+   */
+  public long setDelay(int trainNumber, int delay) {
+    return publish(SET_DELAY, trainNumber, delay);
+  }
+
+  /**
+   * Publishes a new current time.
+   *
+   * @param currentMinute The time as an epoch minute.
+   * @return The sequence number of the command.
+   */
+  public long setTime(int currentMinute) {
+    return publish(SET_TIME, 0, currentMinute);
+  }
+
+  /**
+   * Gets the latest published snapshot of the board. While commands keep coming it can be up
+   * to the snapshot interval behind; use awaitSnapshot to wait for a command.
+   *
+   * @return The snapshot.
+   */
+  public DispatchSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Waits until a command has been applied and a snapshot that includes it is published.
+   *
+   * @param sequence      The sequence number of the command.
+   * @param timeoutMillis The longest time to wait.
+   * @return The snapshot, or null if the time ran out.
+   */
+  public DispatchSnapshot awaitSnapshot(long sequence, long timeoutMillis) {
+    long end = System.nanoTime() + timeoutMillis * 1_000_000;
+    DispatchSnapshot current = snapshot;
+    while (current.sequence() < sequence) {
+      if (System.nanoTime() > end) {
+        return null;
+      }
+      snapshotWanted = true;
+      LockSupport.parkNanos(50_000);
+      current = snapshot;
+    }
+    return current;
+  }
+
+  /**
+   * Gets the number of commands that were skipped because they could not be applied.
+   *
+   * @return The number of rejected commands.
+   */
+  public synchronized long getNumberOfRejectedCommands() {
+    return rejected;
+  }
+
+  /**
+   * Gets the number of batches applied so far.
+   *
+   * @return The number of batches.
+   */
+  public synchronized long getNumberOfBatches() {
+    return batches;
+  }
+
+  /**
+   * Gets the number of snapshots published so far, including the first one.
+   *
+   * @return The number of snapshots.
+   */
+  public synchronized long getNumberOfSnapshots() {
+    return snapshots;
+  }
+
+  /**
+   * Applies the commands published so far and stops the dispatcher thread.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(dispatcher);
+    dispatcher.join();
+  }
+
+  /**
+   * Publishes a command that changes a departure or the time.
+   */
+
+  private long publish(byte type, int trainNumber, int value) {
+    long sequence = claim();
+    Slot slot = slots[(int) sequence & mask];
+    slot.type = type;
+    slot.trainNumber = trainNumber;
+    slot.value = value;
+    publish(sequence);
+    return sequence;
+  }
+
+  /**
+   * Claims the next sequence number, waiting while its slot has not been applied yet.
+   */
+
+  private long claim() {
+    if (!running) {
+      throw new IllegalStateException("The dispatcher is closed");
+    }
+    long sequence = claimed.incrementAndGet();
+    int spins = 0;
+    while (sequence - slots.length > applied.get()) {
+      // Closed in the meantime, so the ring is never drained again
+      if (!dispatcher.isAlive()) {
+        throw new IllegalStateException("The dispatcher is closed");
+      }
+      // A full ring waits for a whole batch, so a producer parks rather than burn a core
+      if (spins++ < SPINS) {
+        Thread.onSpinWait();
+      } else {
+        LockSupport.parkNanos(50_000);
+      }
+    }
+    return sequence;
+  }
+
+  /**
+   * Marks a slot as published and wakes the dispatcher if it is waiting. A slot claimed while
+   * the dispatcher was open is applied, since the dispatcher does not stop before it has
+   * applied every claimed slot. Otherwise it is published empty and the command fails.
+   */
+
+  private void publish(long sequence) {
+    boolean open = running;
+    if (!open) {
+      slots[(int) sequence & mask].type = CLOSED;
+    }
+    // A volatile write, so the check of idle below cannot move before it
+    published.set((int) sequence & mask, sequence);
+    if (idle) {
+      LockSupport.unpark(dispatcher);
+    }
+    if (!open) {
+      throw new IllegalStateException("The dispatcher is closed");
+    }
+  }
+
+  /**
+   * Applies batches of commands until the dispatcher is closed and the ring is empty.
+   */
+
+  private void run() {
+    long next = 0;
+    while (true) {
+      long end = next;
+      while (end - next < MAX_BATCH && published.get((int) end & mask) == end) {
+        end++;
+      }
+      if (end == next) {
+        if (snapshot.sequence() < next - 1) {
+          // Nothing to apply, so the board is copied now rather than during a batch
+          publishSnapshot(next - 1);
+          continue;
+        }
+        if (!running && claimed.get() < next) {
+          return;
+        }
+        idle = true;
+        // Check again, so a command published just before idle was set is not missed
+        if (published.get((int) next & mask) != next) {
+          LockSupport.parkNanos(1_000_000);
+        }
+        idle = false;
+        continue;
+      }
+      int failed = 0;
+      for (long sequence = next; sequence < end; sequence++) {
+        Slot slot = slots[(int) sequence & mask];
+        if (slot.type != CLOSED && !apply(slot)) {
+          failed++;
+        }
+        slot.line = null;
+        slot.destination = null;
+      }
+      // Counted before the snapshot, so a reader woken by it sees the refusals of the batch
+      synchronized (this) {
+        rejected += failed;
+        batches++;
+      }
+      applied.set(end - 1);
+      if (snapshotWanted || System.nanoTime() - snapshotNanos >= SNAPSHOT_INTERVAL_NANOS) {
+        publishSnapshot(end - 1);
+      }
+      next = end;
+    }
+  }
+
+  /**
+   * Applies one command to the dispatch.
+   *
+   * @return True if it was applied, false if it was rejected.
+   */
+
+  private boolean apply(Slot slot) {
+    try {
+      if (slot.type == REGISTER) {
+        if (trainDispatch.findDuplicateTrainNumber(slot.trainNumber)) {
+          return false;
+        }
+        trainDispatch.registerDeparture(new Departure(slot.minute, slot.line, slot.trainNumber,
+                slot.destination, slot.track, slot.delay));
+        return true;
+      }
+      if (slot.type == SET_TIME) {
+        trainDispatch.setTime(slot.value);
+        return true;
+      }
+      // Found once, and changed through the handle without another lookup
+      DepartureHandle handle = trainDispatch.lookup(slot.trainNumber);
+      if (handle == null) {
+        return false;
+      }
+      return switch (slot.type) {
+        case REMOVE -> trainDispatch.removeDeparture(handle);
+        case SET_TRACK -> trainDispatch.findTrackConflict(slot.value, handle) == null
+                && trainDispatch.setTrack(handle, slot.value);
+        case SET_DELAY -> trainDispatch.setDelay(handle, slot.value);
+        default -> false;
+      };
+    } catch (RuntimeException e) {
+      // A failing listener must not stop the dispatcher, or the producers wait for ever
+      return false;
+    }
+  }
+
+  /**
+   * Takes a snapshot and publishes it to the readers.
+   */
+
+  private void publishSnapshot(long sequence) {
+    snapshotWanted = false;
+    snapshot = takeSnapshot(sequence);
+    snapshotNanos = System.nanoTime();
+    synchronized (this) {
+      snapshots++;
+    }
+  }
+
+  /**
+   * Copies the board, so readers on other threads never see a departure change.
+   */
+
+  private DispatchSnapshot takeSnapshot(long sequence) {
+    List<Departure> board = trainDispatch.sortedList();
+    List<Departure> copies = new ArrayList<>(board.size());
+    for (Departure departure : board) {
+      copies.add(new Departure(departure.getDepartureMinute(), departure.getLine(),
+              departure.getTrainNumber(), departure.getDestination(),
+              Math.max(departure.getTrack(), 0), departure.getDelay()));
+    }
+    return new DispatchSnapshot(sequence, trainDispatch.getCurrentMinute(),
+            Collections.unmodifiableList(copies));
+  }
+}
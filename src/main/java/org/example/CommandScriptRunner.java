@@ -0,0 +1,402 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.DateTimeException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>CommandScriptRunner.</h1>
+ * <p>
+ * The CommandScriptRunner class runs the Train Dispatch without the interactive menu. It reads
+ * one command per line from a single reader, validates the arguments with the InputValidator
+ * class and writes every result to a single buffered writer.
+ * </p>
+ * <p>
+ * Supported commands, one per line (arguments are separated by whitespace, the destination is
+ * always the rest of the line):
+ * </p>
+ * <pre>
+ *   add &lt;hh:mm[+days]&gt; &lt;line&gt; &lt;train number&gt; &lt;track&gt; &lt;delay&gt; &lt;destination&gt;
+ *   remove &lt;train number&gt;
+ *   find &lt;train number | destination&gt;
+ *   set-track &lt;train number&gt; &lt;track&gt;
+ *   set-delay &lt;train number&gt; &lt;delay&gt;
+ *   update-time &lt;hh:mm[+days]&gt;
+ *   assign-tracks &lt;number of tracks&gt;
+ *   most-delayed &lt;count&gt;
+ *   enable-history &lt;retention minutes&gt;
+ *   connect &lt;feeder number&gt; &lt;connecting number&gt; &lt;min transfer&gt; [max wait]
+ *   board-as-of &lt;hh:mm&gt;
+ *   list
+ * </pre>
+ * <p>
+ * Empty lines and lines starting with '#' are ignored. A command that fails validation is
+ * reported with its line number, and the script continues with the next line.
+ * </p>
+ * <p>
+ * A connection without a maximum wait holds the connecting train as long as the feeder needs,
+ * and a maximum wait of 0 never holds it. A set-delay lists the connecting departures whose
+ * delay it changed, both those held back and those let go.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.5
+ * @since 2024-01-08
+ */
+
+public class CommandScriptRunner {
+
+  private static final String HEADER = String.format("%-12s %-7s %-18s %-15s %-12s %-10s%n",
+          "| Time", "Line", "Train Number", "Destination", "Delay", "Track     |")
+          + "-".repeat(80) + "\n";
+
+  private final TrainDispatch trainDispatch;
+  private final InputValidator inputValidator = new InputValidator();
+  private final BufferedReader reader;
+  private final PrintWriter writer;
+
+  private int numberOfErrors;
+
+  /**
+   * Constructs a CommandScriptRunner that applies commands to the specified train dispatch.
+   *
+   * @param trainDispatch The train dispatch to run the commands against.
+   * @param reader        The reader the commands are read from.
+   * @param writer        The writer all output is written to. It should be buffered.
+   */
+
+  public CommandScriptRunner(TrainDispatch trainDispatch, BufferedReader reader,
+                             PrintWriter writer) {
+    this.trainDispatch = trainDispatch;
+    this.reader = reader;
+    this.writer = writer;
+  }
+
+  /**
+   * Gets the number of commands that failed since the runner was created.
+   *
+   * @return The number of failed commands.
+   */
+  public int getNumberOfErrors() {
+    return numberOfErrors;
+  }
+
+  /**
+   * Reads and runs commands until the end of the input, and flushes the writer when done.
+   *
+   * @return The number of commands that were run, including the failed ones.
+   * @throws IOException if the commands could not be read.
+   */
+
+  public int run() throws IOException {
+    int numberOfCommands = 0;
+    int lineNumber = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      // Skip empty lines and comments
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      numberOfCommands++;
+      try {
+        runCommand(line);
+      } catch (IllegalArgumentException | DateTimeException e) {
+        numberOfErrors++;
+        writer.append("Line ").append(Integer.toString(lineNumber)).append(": ")
+                .append(e.getMessage().trim()).append('\n');
+      }
+    }
+    writer.flush();
+    return numberOfCommands;
+  }
+
+  /**
+   * Parses and runs a single command.
+   *
+   * @param line The command line, trimmed and not empty.
+   * @throws IllegalArgumentException if the command or its arguments are not valid.
+   */
+
+  private void runCommand(String line) throws IllegalArgumentException {
+    String[] parts = line.split("\\s+", 2);
+    String arguments = (parts.length > 1) ? parts[1] : "";
+    switch (parts[0].toLowerCase()) {
+      case "add" -> addDeparture(arguments);
+      case "remove" -> removeDeparture(arguments);
+      case "find" -> findDepartures(arguments);
+      case "set-track" -> setTrack(arguments);
+      case "set-delay" -> setDelay(arguments);
+      case "update-time" -> updateTime(arguments);
+      case "assign-tracks" -> assignTracks(arguments);
+      case "most-delayed" -> listMostDelayed(arguments);
+      case "enable-history" -> enableHistory(arguments);
+      case "board-as-of" -> listBoardAsOf(arguments);
+      case "connect" -> addConnection(arguments);
+      case "list" -> listDepartures();
+      default -> throw new IllegalArgumentException("Unknown command: " + parts[0]);
+    }
+  }
+
+  /**
+   * Splits the arguments of a command into the expected number of parts. The last part
+   * contains the rest of the line.
+   *
+   * @param arguments The arguments of the command.
+   * @param count     The expected number of arguments.
+   * @return The arguments as an array with the specified length.
+   * @throws IllegalArgumentException if there are too few arguments.
+   */
+
+  private static String[] splitArguments(String arguments, int count)
+          throws IllegalArgumentException {
+    String[] parts = arguments.isEmpty() ? new String[0] : arguments.split("\\s+", count);
+    if (parts.length < count) {
+      throw new IllegalArgumentException("Expected " + count + " arguments, got "
+              + parts.length + ". ");
+    }
+    return parts;
+  }
+
+  /**
+   * Adds a departure, validating every field the same way as the interactive menu.
+   *
+   * @param arguments Time, line, train number, track, delay and destination.
+   */
+
+  private void addDeparture(String arguments) {
+    String[] parts = splitArguments(arguments, 6);
+    int time = InputValidator.validateTimeInput(parts[0], trainDispatch.getCurrentMinute());
+    String line = InputValidator.validateLineInput(parts[1]);
+    int trainNumber = inputValidator.validateTrainNumber(parts[2], trainDispatch);
+    int track = InputValidator.validateNumericInput(parts[3]);
+    int delay = InputValidator.validateNumericInput(parts[4]);
+    inputValidator.validateFreeTrack(track, time + delay, trainNumber, trainDispatch);
+    String destination = InputValidator.validateDestination(parts[5].trim());
+
+    trainDispatch.registerDeparture(new Departure(time, line, trainNumber, destination,
+            track, delay));
+    writer.append("Departure was successfully added\n");
+  }
+
+  /**
+   * Removes the departure with the specified train number.
+   *
+   * @param arguments The train number.
+   */
+
+  private void removeDeparture(String arguments) {
+    int trainNumber = inputValidator.validateTrainNumberToFind(arguments, trainDispatch);
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(trainNumber));
+    writer.append("Departure with train number ").append(Integer.toString(trainNumber))
+            .append(" was removed\n");
+  }
+
+  /**
+   * Finds a departure by train number if the argument is a number, or departures by
+   * destination otherwise.
+   *
+   * @param arguments The train number or the destination.
+   */
+
+  private void findDepartures(String arguments) {
+    if (!arguments.isEmpty() && Character.isDigit(arguments.charAt(0))) {
+      int trainNumber = inputValidator.validateTrainNumberToFind(arguments, trainDispatch);
+      writer.append(HEADER).append(trainDispatch.findDepartureByNumber(trainNumber).toString());
+      return;
+    }
+    String destination = inputValidator.validateDestinationToFind(arguments, trainDispatch);
+    List<Departure> departures = trainDispatch.findDeparturesByDestination(destination);
+    writer.append(HEADER);
+    departures.forEach(departure -> writer.append(departure.toString()));
+  }
+
+  /**
+   * Sets the track of the departure with the specified train number.
+   *
+   * @param arguments The train number and the track.
+   */
+
+  private void setTrack(String arguments) {
+    String[] parts = splitArguments(arguments, 2);
+    DepartureHandle handle = inputValidator.validateDepartureToFind(parts[0], trainDispatch);
+    int trainNumber = handle.getTrainNumber();
+    int track = InputValidator.validateNumericInput(parts[1]);
+    inputValidator.validateFreeTrack(track, handle, trainDispatch);
+    if (!trainDispatch.setTrack(handle, track)) {
+      writeNoLongerOnBoard(trainNumber);
+      return;
+    }
+    writer.append("Track for departure with train number ").append(Integer.toString(trainNumber))
+            .append(" was set to ").append(Integer.toString(track)).append('\n');
+  }
+
+  /**
+   * Sets the delay of the departure with the specified train number.
+   *
+   * @param arguments The train number and the delay.
+   */
+
+  private void setDelay(String arguments) {
+    String[] parts = splitArguments(arguments, 2);
+    DepartureHandle handle = inputValidator.validateDepartureToFind(parts[0], trainDispatch);
+    int trainNumber = handle.getTrainNumber();
+    int delay = InputValidator.validateNumericInput(parts[1]);
+    // The connecting departures held back or let go by the new delay
+    List<Integer> connecting = new ArrayList<>();
+    DepartureListener listener = new DepartureListener() {
+      @Override
+      public void delayChanged(Departure departure, int oldDelay) {
+        if (departure.getTrainNumber() != trainNumber) {
+          connecting.add(departure.getTrainNumber());
+        }
+      }
+    };
+    boolean changed;
+    trainDispatch.addDepartureListener(listener);
+    try {
+      changed = trainDispatch.setDelay(handle, delay);
+    } finally {
+      trainDispatch.removeDepartureListener(listener);
+    }
+    if (!changed) {
+      writeNoLongerOnBoard(trainNumber);
+      return;
+    }
+    writer.append("Delay for departure with train number ").append(Integer.toString(trainNumber))
+            .append(" was set to ").append(Integer.toString(delay)).append('\n');
+    if (!connecting.isEmpty()) {
+      writer.append(Integer.toString(connecting.size()))
+              .append(" connecting departures were given a new delay: ");
+      for (int i = 0; i < connecting.size(); i++) {
+        writer.append((i == 0) ? "" : ", ").append(Integer.toString(connecting.get(i)));
+      }
+      writer.append('\n');
+    }
+
+    Departure conflict = trainDispatch.findTrackConflict(handle);
+    if (conflict != null) {
+      writer.append("Warning: the departure now conflicts with train number ")
+              .append(Integer.toString(conflict.getTrainNumber())).append(" on track ")
+              .append(Integer.toString(conflict.getTrack())).append('\n');
+    }
+  }
+
+  /**
+   * Writes that a change was refused because the departure left the board or was changed
+   * since it was found.
+   */
+
+  private void writeNoLongerOnBoard(int trainNumber) {
+    writer.append("Departure with train number ").append(Integer.toString(trainNumber))
+            .append(" is no longer on the board or was changed in the meantime\n");
+  }
+
+  /**
+   * Assigns a free track to every departure without a track.
+   *
+   * @param arguments The number of tracks of the station.
+   */
+
+  private void assignTracks(String arguments) {
+    int numberOfTracks = InputValidator.validateNumericInput(arguments);
+    int assigned = trainDispatch.assignFreeTracks(numberOfTracks);
+    writer.append(Integer.toString(assigned)).append(" departures were assigned a track\n");
+  }
+
+  /**
+   * Updates the time of the train dispatch. The time cannot be moved backwards, but it can be
+   * moved to a later service day.
+   *
+   * @param arguments The new time.
+   */
+
+  private void updateTime(String arguments) {
+    int newTime = InputValidator.validateTimeInput(arguments, trainDispatch.getCurrentMinute());
+    trainDispatch.setTime(newTime);
+    writer.append("Time was updated to ").append(ServiceTime.format(newTime)).append('\n');
+  }
+
+  /**
+   * Writes the most delayed departures, largest delay first.
+   *
+   * @param arguments The maximum number of departures.
+   */
+
+  private void listMostDelayed(String arguments) {
+    int count = InputValidator.validateNumericInput(arguments);
+    writer.append(HEADER);
+    trainDispatch.getMostDelayed(count).forEach(departure -> writer.append(departure.toString()));
+  }
+
+  /**
+   * Starts recording the history of the departures.
+   *
+   * @param arguments The number of minutes of history to keep.
+   */
+
+  private void enableHistory(String arguments) {
+    int retentionMinutes = InputValidator.validateNumericInput(arguments);
+    trainDispatch.enableHistory(retentionMinutes);
+    writer.append("History is kept for ").append(Integer.toString(retentionMinutes))
+            .append(" minutes\n");
+  }
+
+  /**
+   * Adds a connection between two trains, and enables connections if needed.
+   *
+   * @param arguments The feeder number, the connecting number, the minimum transfer time and
+   *                  optionally the maximum wait.
+   */
+
+  private void addConnection(String arguments) {
+    String[] parts = arguments.trim().split("\\s+");
+    if (parts.length != 3 && parts.length != 4) {
+      throw new IllegalArgumentException("Expected 3 or 4 arguments. ");
+    }
+    int feeder = inputValidator.validateTrainNumberToFind(parts[0], trainDispatch);
+    int connecting = inputValidator.validateTrainNumberToFind(parts[1], trainDispatch);
+    int minTransfer = InputValidator.validateNumericInput(parts[2]);
+    ConnectionGraph.WaitPolicy policy = ConnectionGraph.WaitPolicy.ALWAYS;
+    int maxWait = 0;
+    if (parts.length == 4) {
+      maxWait = InputValidator.validateNumericInput(parts[3]);
+      policy = maxWait == 0 ? ConnectionGraph.WaitPolicy.NEVER
+              : ConnectionGraph.WaitPolicy.BOUNDED;
+    }
+    trainDispatch.enableConnections().addConnection(
+            new ConnectionGraph.Connection(feeder, connecting, minTransfer, policy, maxWait));
+    writer.append("Train number ").append(Integer.toString(connecting))
+            .append(" now connects from train number ").append(Integer.toString(feeder))
+            .append('\n');
+  }
+
+  /**
+   * Writes the board as it was at an earlier time of the current service day.
+   *
+   * @param arguments The time.
+   */
+
+  private void listBoardAsOf(String arguments) {
+    if (trainDispatch.getHistory() == null) {
+      throw new IllegalArgumentException("The history is not enabled. ");
+    }
+    int minute = ServiceTime.withTime(trainDispatch.getCurrentMinute(),
+            LocalTime.parse(arguments));
+    writer.append(HEADER);
+    trainDispatch.boardAsOf(minute).forEach(departure -> writer.append(departure.toString()));
+  }
+
+  /**
+   * Writes the whole train dispatch.
+   */
+
+  private void listDepartures() {
+    writer.append(trainDispatch.toString());
+  }
+}
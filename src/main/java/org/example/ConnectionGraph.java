@@ -0,0 +1,388 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * <h1>ConnectionGraph.</h1>
+ * <p>
+ * The ConnectionGraph class holds the connections between trains at the station, and holds
+ * connecting departures back when their feeder trains are late. A connection is made between
+ * two train numbers on the same service day, with a minimum transfer time and a wait policy
+ * that tells how long the connecting train may be held.
+ * </p>
+ * <p>
+ * When the delay of a departure is set through the dispatch, the delay the operator asked for
+ * is kept, and the departure gets the larger of that and what its feeders require. Only the
+ * departures downstream of the change are recomputed, in topological order, so each is
+ * visited once, and the new delays are applied to the dispatch together after all of them
+ * are known. When a feeder catches up, the departures it held go back to their own delays.
+ * </p>
+ * <p>
+ * Connections cannot form a cycle. Feeders are treated as arriving when they leave, since the
+ * board only knows the departure times.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-02
+ */
+
+public class ConnectionGraph implements DepartureListener {
+
+  /**
+   * How long a connecting train may be held for a late feeder.
+   */
+  public enum WaitPolicy {
+    /**
+     * The connecting train waits as long as it takes.
+     */
+    ALWAYS,
+    /**
+     * The connecting train waits up to the maximum wait, and leaves on time otherwise.
+     */
+    BOUNDED,
+    /**
+     * The connecting train never waits, and the connection breaks.
+     */
+    NEVER
+  }
+
+  /**
+   * A connection from a feeder train to a connecting train.
+   *
+   * @param feederNumber     The train number of the feeder.
+   * @param connectingNumber The train number of the connecting train.
+   * @param minTransfer      The minutes needed between the feeder and the connecting train.
+   * @param policy           How long the connecting train may be held.
+   * @param maxWait          The most minutes of delay the connecting train is held for, used
+   *                         by the bounded policy.
+   */
+  public record Connection(int feederNumber, int connectingNumber, int minTransfer,
+                           WaitPolicy policy, int maxWait) {
+
+    /**
+     * Gets the delay the connecting train needs for a feeder that leaves at a time.
+     *
+     * @param feederMinute     The effective time of the feeder as an epoch minute.
+     * @param connectingMinute The scheduled time of the connecting train as an epoch minute.
+     * @return The delay the connecting train is held for, 0 if it is not held.
+     */
+    int requiredDelay(int feederMinute, int connectingMinute) {
+      int needed = feederMinute + minTransfer - connectingMinute;
+      return switch (policy) {
+        case ALWAYS -> Math.max(needed, 0);
+        case BOUNDED -> needed <= maxWait ? Math.max(needed, 0) : 0;
+        case NEVER -> 0;
+      };
+    }
+  }
+
+  private final TrainDispatch trainDispatch;
+  private final Map<Integer, List<Connection>> outgoing = new HashMap<>();
+  private final Map<Integer, List<Connection>> incoming = new HashMap<>();
+
+  /**
+   * The delays the operator asked for, by train number and service day, of the departures
+   * that have been held back. Other departures have their own delay.
+   */
+  private final Map<Long, Integer> ownDelays = new HashMap<>();
+
+  /**
+   * The position of each train number in a topological order of the connections, or null
+   * when the connections have changed since it was computed.
+   */
+  private Map<Integer, Integer> ranks;
+
+  private int numberOfConnections;
+  private long numberOfHeldDepartures;
+
+  /**
+   * Creates an empty graph for a dispatch. It is created by TrainDispatch.enableConnections.
+   *
+   * @param trainDispatch The dispatch whose departures are connected.
+   */
+  ConnectionGraph(TrainDispatch trainDispatch) {
+    this.trainDispatch = trainDispatch;
+  }
+
+  /**
+   * Adds a connection. The delays of the departures already on the board are not changed
+   * until the delay of the feeder is set again.
+   *
+   * @param connection The connection.
+   * @throws IllegalArgumentException if the connection connects a train to itself, has a
+   *                                  negative transfer or wait time, or makes a cycle.
+   */
+  public void addConnection(Connection connection) throws IllegalArgumentException {
+    if (connection.feederNumber() == connection.connectingNumber()) {
+      throw new IllegalArgumentException("A train cannot connect to itself");
+    }
+    if (connection.minTransfer() < 0 || connection.maxWait() < 0) {
+      throw new IllegalArgumentException("Transfer and wait times cannot be negative");
+    }
+    if (reaches(connection.connectingNumber(), connection.feederNumber())) {
+      throw new IllegalArgumentException("The connection makes a cycle");
+    }
+    outgoing.computeIfAbsent(connection.feederNumber(), k -> new ArrayList<>()).add(connection);
+    incoming.computeIfAbsent(connection.connectingNumber(), k -> new ArrayList<>())
+            .add(connection);
+    numberOfConnections++;
+    ranks = null;
+  }
+
+  /**
+   * Removes the connections from one train to another.
+   *
+   * @param feederNumber     The train number of the feeder.
+   * @param connectingNumber The train number of the connecting train.
+   * @return True if a connection was removed, false otherwise.
+   */
+  public boolean removeConnection(int feederNumber, int connectingNumber) {
+    List<Connection> fromFeeder = outgoing.getOrDefault(feederNumber, List.of());
+    int before = fromFeeder.size();
+    fromFeeder.removeIf(c -> c.connectingNumber() == connectingNumber);
+    incoming.getOrDefault(connectingNumber, new ArrayList<>())
+            .removeIf(c -> c.feederNumber() == feederNumber);
+    numberOfConnections -= before - fromFeeder.size();
+    ranks = null;
+    return fromFeeder.size() < before;
+  }
+
+  /**
+   * Gets the connections from a feeder train.
+   *
+   * @param feederNumber The train number of the feeder.
+   * @return The connections, which cannot be modified.
+   */
+  public List<Connection> getConnectionsFrom(int feederNumber) {
+    return Collections.unmodifiableList(outgoing.getOrDefault(feederNumber, List.of()));
+  }
+
+  /**
+   * Gets the number of connections.
+   *
+   * @return The number of connections.
+   */
+  public int getNumberOfConnections() {
+    return numberOfConnections;
+  }
+
+  /**
+   * Gets the number of times a departure has been given a new delay because of its feeders.
+   *
+   * @return The number of held departures.
+   */
+  public long getNumberOfHeldDepartures() {
+    return numberOfHeldDepartures;
+  }
+
+  /**
+   * Gets the delay the operator asked for on a departure, without what its feeders add.
+   *
+   * @param departure The departure.
+   * @return The delay in minutes.
+   */
+  public int getOwnDelay(Departure departure) {
+    Integer own = ownDelays.get(key(departure.getTrainNumber(),
+            ServiceTime.dayOf(departure.getDepartureMinute())));
+    return own != null ? own : departure.getDelay();
+  }
+
+  /**
+   * Finds the connections on the board that cannot be made: both trains are on the board on
+   * the same service day, and the connecting train leaves before the feeder plus the transfer.
+   *
+   * @return The broken connections.
+   */
+  public List<Connection> findBrokenConnections() {
+    List<Connection> broken = new ArrayList<>();
+    for (List<Connection> connections : outgoing.values()) {
+      for (Connection connection : connections) {
+        Departure feeder = trainDispatch.findDepartureByNumber(connection.feederNumber());
+        if (feeder == null) {
+          continue;
+        }
+        Departure connecting = trainDispatch.findDepartureByNumber(
+                connection.connectingNumber(), ServiceTime.dayOf(feeder.getDepartureMinute()));
+        if (connecting != null && connecting.getEffectiveMinute()
+                < feeder.getEffectiveMinute() + connection.minTransfer()) {
+          broken.add(connection);
+        }
+      }
+    }
+    return broken;
+  }
+
+  /**
+   * Sets the delay the operator asked for on a departure, and recomputes the delays of the
+   * departures downstream of it. The new delays are passed to apply in topological order,
+   * and only for the departures whose delay changes.
+   *
+   * @param source The departure the operator changed.
+   * @param delay  The delay the operator asked for.
+   * @param apply  Sets the delay of a departure in the dispatch.
+   */
+  void setDelay(Departure source, int delay, ObjIntConsumer<Departure> apply) {
+    int serviceDay = ServiceTime.dayOf(source.getDepartureMinute());
+    if (!incoming.containsKey(source.getTrainNumber())
+            && !outgoing.containsKey(source.getTrainNumber())) {
+      apply.accept(source, delay);
+      return;
+    }
+    if (ranks == null) {
+      ranks = computeRanks();
+    }
+    ownDelays.put(key(source.getTrainNumber(), serviceDay), delay);
+
+    Map<Integer, Integer> newDelays = new HashMap<>();
+    Map<Integer, Departure> departures = new HashMap<>();
+    Set<Integer> queued = new HashSet<>();
+    PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (a, b) -> Integer.compare(ranks.get(a), ranks.get(b)));
+    departures.put(source.getTrainNumber(), source);
+    queue.add(source.getTrainNumber());
+    queued.add(source.getTrainNumber());
+    List<Departure> changed = new ArrayList<>();
+
+    while (!queue.isEmpty()) {
+      int number = queue.poll();
+      Departure departure = departures.get(number);
+      int newDelay = Math.max(getOwnDelay(departure),
+              requiredByFeeders(departure, serviceDay, newDelays, departures));
+      if (newDelay == departure.getDelay() && departure != source) {
+        continue;
+      }
+      newDelays.put(number, newDelay);
+      if (newDelay != departure.getDelay()) {
+        changed.add(departure);
+      }
+      for (Connection connection : outgoing.getOrDefault(number, List.of())) {
+        int next = connection.connectingNumber();
+        if (queued.contains(next)) {
+          continue;
+        }
+        Departure connecting = trainDispatch.findDepartureByNumber(next, serviceDay);
+        if (connecting != null) {
+          departures.put(next, connecting);
+          queue.add(next);
+          queued.add(next);
+        }
+      }
+    }
+
+    // Every delay is known before the dispatch and its indexes are changed
+    for (Departure departure : changed) {
+      int newDelay = newDelays.get(departure.getTrainNumber());
+      if (departure != source) {
+        ownDelays.putIfAbsent(key(departure.getTrainNumber(), serviceDay), departure.getDelay());
+        numberOfHeldDepartures++;
+      }
+      apply.accept(departure, newDelay);
+    }
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    forget(departure);
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    forget(departure);
+  }
+
+  /**
+   * Gets the largest delay the feeders of a departure require, using the new delays of the
+   * feeders that are already recomputed.
+   */
+
+  private int requiredByFeeders(Departure departure, int serviceDay,
+                                Map<Integer, Integer> newDelays,
+                                Map<Integer, Departure> departures) {
+    int required = 0;
+    for (Connection connection : incoming.getOrDefault(departure.getTrainNumber(), List.of())) {
+      int feederNumber = connection.feederNumber();
+      Departure feeder = departures.get(feederNumber);
+      if (feeder == null) {
+        feeder = trainDispatch.findDepartureByNumber(feederNumber, serviceDay);
+        if (feeder == null) {
+          continue;
+        }
+      }
+      int feederDelay = newDelays.getOrDefault(feederNumber, feeder.getDelay());
+      required = Math.max(required, connection.requiredDelay(
+              feeder.getDepartureMinute() + feederDelay, departure.getDepartureMinute()));
+    }
+    return required;
+  }
+
+  /**
+   * Checks if a train number can be reached from another by following connections.
+   */
+
+  private boolean reaches(int from, int to) {
+    ArrayDeque<Integer> stack = new ArrayDeque<>();
+    Set<Integer> seen = new HashSet<>();
+    stack.push(from);
+    while (!stack.isEmpty()) {
+      int number = stack.pop();
+      if (number == to) {
+        return true;
+      }
+      if (seen.add(number)) {
+        for (Connection connection : outgoing.getOrDefault(number, List.of())) {
+          stack.push(connection.connectingNumber());
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Numbers the trains so every feeder comes before the trains it connects to.
+   */
+
+  private Map<Integer, Integer> computeRanks() {
+    Map<Integer, Integer> feeders = new HashMap<>();
+    Set<Integer> numbers = new HashSet<>(outgoing.keySet());
+    numbers.addAll(incoming.keySet());
+    ArrayDeque<Integer> ready = new ArrayDeque<>();
+    for (int number : numbers) {
+      int count = incoming.getOrDefault(number, List.of()).size();
+      feeders.put(number, count);
+      if (count == 0) {
+        ready.add(number);
+      }
+    }
+    Map<Integer, Integer> result = new HashMap<>();
+    while (!ready.isEmpty()) {
+      int number = ready.poll();
+      result.put(number, result.size());
+      for (Connection connection : outgoing.getOrDefault(number, List.of())) {
+        int remaining = feeders.merge(connection.connectingNumber(), -1, Integer::sum);
+        if (remaining == 0) {
+          ready.add(connection.connectingNumber());
+        }
+      }
+    }
+    return result;
+  }
+
+  private void forget(Departure departure) {
+    ownDelays.remove(key(departure.getTrainNumber(),
+            ServiceTime.dayOf(departure.getDepartureMinute())));
+  }
+
+  private static long key(int trainNumber, int serviceDay) {
+    return ((long) serviceDay << 32) | (trainNumber & 0xFFFFFFFFL);
+  }
+}
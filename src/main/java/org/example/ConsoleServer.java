@@ -0,0 +1,178 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>ConsoleServer.</h1>
+ * <p>
+ * The ConsoleServer class lets several operators work on the same board at once. It listens
+ * on a TCP port of the loopback interface, and every connection gets its own session of the
+ * menu of the UserInterface, with its own reader and writer, on one SharedTrainDispatch.
+ * A line based client such as telnet or netcat is enough.
+ * </p>
+ * <p>
+ * Each session runs on its own virtual thread. A session waiting for the operator to type
+ * only holds a small stack on the heap, not a platform thread, so thousands of idle sessions
+ * are cheap. A session ends when the operator quits, disconnects or the server is closed.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-04
+ */
+
+public class ConsoleServer implements AutoCloseable {
+
+  /**
+   * The number of connections that may wait to be accepted.
+   */
+  private static final int BACKLOG = 1024;
+
+  private final SharedTrainDispatch trainDispatch;
+  private final ServerSocket serverSocket;
+  private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+  private final AtomicLong numberOfSessionsStarted = new AtomicLong();
+  private final Thread acceptor;
+
+  /**
+   * Starts a server for a shared dispatch.
+   *
+   * @param trainDispatch The dispatch all sessions work on.
+   * @param port          The port, or 0 to choose a free one.
+   * @throws IOException if the port could not be opened.
+   */
+  public ConsoleServer(SharedTrainDispatch trainDispatch, int port) throws IOException {
+    this.trainDispatch = trainDispatch;
+    this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    this.acceptor = Thread.ofPlatform().daemon().name("console-acceptor").start(this::accept);
+  }
+
+  /**
+   * Gets the port the server listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Gets the number of open sessions.
+   *
+   * @return The number of sessions.
+   */
+  public int getNumberOfSessions() {
+    return sessions.size();
+  }
+
+  /**
+   * Gets the number of sessions started since the server was started.
+   *
+   * @return The number of sessions.
+   */
+  public long getNumberOfSessionsStarted() {
+    return numberOfSessionsStarted.get();
+  }
+
+  /**
+   * Stops accepting connections and ends every session.
+   *
+   * @throws IOException if the server socket could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Socket socket : sessions) {
+      socket.close();
+    }
+    try {
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Accepts connections until the server is closed, starting a session for each.
+   */
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        sessions.add(socket);
+        if (serverSocket.isClosed()) {
+          // The server was closed while the connection was accepted
+          socket.close();
+          return;
+        }
+        numberOfSessionsStarted.incrementAndGet();
+        Thread.ofVirtual().name("console-session").start(() -> runSession(socket));
+      } catch (IOException e) {
+        // The server socket is closed
+      }
+    }
+  }
+
+  /**
+   * Runs the menu for one operator until they quit or disconnect.
+   */
+
+  private void runSession(Socket socket) {
+    try (socket) {
+      Scanner scanner = new Scanner(socket.getInputStream(), StandardCharsets.UTF_8);
+      PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()),
+              true, StandardCharsets.UTF_8);
+      UserInterface userInterface = new UserInterface();
+      userInterface.init(trainDispatch, scanner, out);
+      userInterface.start();
+    } catch (NoSuchElementException | IllegalStateException | IOException e) {
+      // The operator disconnected or the server was closed
+    } finally {
+      sessions.remove(socket);
+    }
+  }
+
+  /**
+   * Serves an empty board, starting at noon, until the process is stopped. With a display
+   * port, the board is also pushed to platform displays by a DisplayServer.
+   *
+   * @param args The port, and optionally the departure store engine and the display port.
+   * @throws IOException          if the port could not be opened.
+   * @throws InterruptedException if the thread is interrupted.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.out.println("Usage: <port> [store] [display port]");
+      return;
+    }
+    SharedTrainDispatch trainDispatch = new SharedTrainDispatch(
+            ServiceTime.of(LocalTime.NOON),
+            DepartureStore.create(args.length > 1 ? args[1] : "list"));
+    try (ConsoleServer server = new ConsoleServer(trainDispatch, Integer.parseInt(args[0]));
+         DisplayServer displays = args.length > 2
+                 ? new DisplayServer(trainDispatch, Integer.parseInt(args[2])) : null) {
+      System.out.println("Serving the console on port " + server.getPort());
+      if (displays != null) {
+        System.out.println("Serving displays on port " + displays.getPort());
+      }
+      while (true) {
+        Thread.sleep(60_000);
+        System.out.println(server.getNumberOfSessions() + " sessions, "
+                + trainDispatch.getNumberOfDepartures() + " departures");
+      }
+    }
+  }
+}
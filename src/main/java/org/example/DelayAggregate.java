@@ -0,0 +1,222 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <h1>DelayAggregate.</h1>
+ * <p>
+ * The DelayAggregate class keeps running delay statistics for a group of departures: the count,
+ * the mean, the max and approximate percentiles. Delays can be added and removed in O(1), and two
+ * aggregates can be merged, for example to combine the statistics of several stations.
+ * </p>
+ * <p>
+ * The percentiles come from a histogram with one bucket per minute below 64 minutes, and 32
+ * buckets for each doubling above that. Delays below 64 minutes are therefore exact, and larger
+ * delays are within about 3 percent. The histogram has at most 864 buckets, so a percentile is
+ * found in constant time no matter how many departures are counted.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-19
+ */
+
+public class DelayAggregate {
+
+  /**
+   * Number of buckets for each doubling of the delay.
+   */
+  private static final int SUB_BUCKETS = 32;
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private long count;
+  private long sum;
+  private long[] buckets = new long[2 * SUB_BUCKETS];
+
+  /**
+   * Adds a delay to the aggregate.
+   *
+   * @param delay The delay (in minutes), not negative.
+   */
+  public void add(int delay) {
+    int index = bucketIndex(delay);
+    if (index >= buckets.length) {
+      buckets = Arrays.copyOf(buckets, index + 1);
+    }
+    buckets[index]++;
+    count++;
+    sum += delay;
+  }
+
+  /**
+   * Removes a delay that was added before, for example when the delay of a departure changes.
+   *
+   * @param delay The delay (in minutes) to remove.
+   */
+  public void remove(int delay) {
+    int index = bucketIndex(delay);
+    if (index >= buckets.length || buckets[index] == 0) {
+      return;
+    }
+    buckets[index]--;
+    count--;
+    sum -= delay;
+  }
+
+  /**
+   * Adds all delays of another aggregate to this one.
+   *
+   * @param other The aggregate to merge into this one.
+   */
+  public void merge(DelayAggregate other) {
+    if (other.buckets.length > buckets.length) {
+      buckets = Arrays.copyOf(buckets, other.buckets.length);
+    }
+    for (int i = 0; i < other.buckets.length; i++) {
+      buckets[i] += other.buckets[i];
+    }
+    count += other.count;
+    sum += other.sum;
+  }
+
+  /**
+   * Gets the number of delays in the aggregate.
+   *
+   * @return The number of delays.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the mean delay.
+   *
+   * @return The mean delay (in minutes), or 0 if the aggregate is empty.
+   */
+  public double getMean() {
+    return (count == 0) ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Gets the largest delay. It is exact below 64 minutes.
+   *
+   * @return The largest delay (in minutes), or 0 if the aggregate is empty.
+   */
+  public int getMax() {
+    for (int i = buckets.length - 1; i >= 0; i--) {
+      if (buckets[i] > 0) {
+        return bucketValue(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the delay that the specified share of the delays are at or below, for example 0.9
+   * for the 90th percentile.
+   *
+   * @param percentile The percentile as a number between 0 and 1.
+   * @return The delay (in minutes) at the percentile, or 0 if the aggregate is empty.
+   */
+  public int getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * count));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return bucketValue(i);
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Gets the share of the delays that are at most the specified number of minutes.
+   *
+   * @param maxDelay The largest delay (in minutes) that counts as punctual, below 64.
+   * @return The share of punctual departures between 0 and 1, or 1 if the aggregate is empty.
+   */
+  public double getPunctuality(int maxDelay) {
+    if (count == 0) {
+      return 1;
+    }
+    long punctual = 0;
+    for (int i = 0; i <= bucketIndex(maxDelay) && i < buckets.length; i++) {
+      punctual += buckets[i];
+    }
+    return (double) punctual / count;
+  }
+
+  /**
+   * Writes the aggregate, so it can be read back with read.
+   *
+   * @param out The output.
+   * @throws IOException if the output could not be written.
+   */
+  void write(DataOutput out) throws IOException {
+    out.writeLong(count);
+    out.writeLong(sum);
+    int length = buckets.length;
+    while (length > 0 && buckets[length - 1] == 0) {
+      length--;
+    }
+    out.writeInt(length);
+    for (int i = 0; i < length; i++) {
+      out.writeLong(buckets[i]);
+    }
+  }
+
+  /**
+   * Replaces the delays of the aggregate with ones written by write.
+   *
+   * @param in The input.
+   * @throws IOException if the input could not be read or is not an aggregate.
+   */
+  void read(DataInput in) throws IOException {
+    long newCount = in.readLong();
+    long newSum = in.readLong();
+    int length = in.readInt();
+    if (length < 0 || length > bucketIndex(Integer.MAX_VALUE) + 1) {
+      throw new IOException("Bad number of delay buckets: " + length);
+    }
+    long[] newBuckets = new long[Math.max(length, 2 * SUB_BUCKETS)];
+    for (int i = 0; i < length; i++) {
+      newBuckets[i] = in.readLong();
+    }
+    count = newCount;
+    sum = newSum;
+    buckets = newBuckets;
+  }
+
+  /**
+   * Finds the bucket of a delay.
+   */
+
+  private static int bucketIndex(int delay) {
+    if (delay < 2 * SUB_BUCKETS) {
+      return delay;
+    }
+    int shift = (31 - Integer.numberOfLeadingZeros(delay)) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (delay >> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * Gets the delay a bucket stands for: the delay itself for the exact buckets, and the middle
+   * of the bucket above them.
+   */
+
+  private static int bucketValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    int lowest = (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    return lowest + ((1 << shift) >> 1);
+  }
+}
@@ -0,0 +1,220 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h1>DelayStatistics.</h1>
+ * <p>
+ * The DelayStatistics class keeps delay aggregates per line, per destination and per hour of
+ * the day, plus one for all departures. It is kept up to date as a DepartureListener, so the
+ * board is never scanned to compute them.
+ * </p>
+ * <p>
+ * A departure is counted with its current delay from the moment it is registered, and a change
+ * of delay replaces the old value. Departures that leave stay in the statistics, while
+ * departures removed by the user are taken out, since they did not run. The aggregates can be
+ * written and read back, so they survive a BoardSnapshot of the board.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-01-19
+ */
+
+public class DelayStatistics implements DepartureListener {
+
+  private final Map<String, DelayAggregate> byLine = new HashMap<>();
+  private final Map<String, DelayAggregate> byDestination = new HashMap<>();
+
+  /**
+   * The aggregates of byDestination by the destination as written on the departure, so a
+   * change of delay does not normalize the destination again.
+   */
+  private final Map<String, DelayAggregate> byRawDestination = new HashMap<>();
+  private final DelayAggregate[] byHour = new DelayAggregate[24];
+  private final DelayAggregate total = new DelayAggregate();
+
+  /**
+   * Constructs an empty DelayStatistics object.
+   */
+
+  public DelayStatistics() {
+    for (int hour = 0; hour < byHour.length; hour++) {
+      byHour[hour] = new DelayAggregate();
+    }
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    add(departure, departure.getDelay());
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    remove(departure, departure.getDelay());
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    remove(departure, oldDelay);
+    add(departure, departure.getDelay());
+  }
+
+  /**
+   * Gets the delays of all counted departures.
+   *
+   * @return The aggregate of all departures.
+   */
+  public DelayAggregate getTotal() {
+    return total;
+  }
+
+  /**
+   * Gets the delays of the departures on a line.
+   *
+   * @param line The line.
+   * @return The aggregate of the line, empty if the line has no departures.
+   */
+  public DelayAggregate getByLine(String line) {
+    return byLine.getOrDefault(line, new DelayAggregate());
+  }
+
+  /**
+   * Gets the delays of the departures to a destination.
+   *
+   * @param destination The destination, compared without case and surrounding spaces.
+   * @return The aggregate of the destination, empty if it has no departures.
+   */
+  public DelayAggregate getByDestination(String destination) {
+    return byDestination.getOrDefault(DestinationIndex.normalize(destination),
+            new DelayAggregate());
+  }
+
+  /**
+   * Gets the delays of the departures scheduled within an hour of the day.
+   *
+   * @param hour The hour of the day, from 0 to 23.
+   * @return The aggregate of the hour.
+   */
+  public DelayAggregate getByHour(int hour) {
+    return byHour[hour];
+  }
+
+  /**
+   * Adds all aggregates of another DelayStatistics object to this one, for example to combine
+   * the statistics of several stations.
+   *
+   * @param other The statistics to merge into this one.
+   */
+  public void merge(DelayStatistics other) {
+    other.byLine.forEach((line, aggregate) ->
+            byLine.computeIfAbsent(line, key -> new DelayAggregate()).merge(aggregate));
+    other.byDestination.forEach((destination, aggregate) ->
+            byDestination.computeIfAbsent(destination, key -> new DelayAggregate())
+                    .merge(aggregate));
+    for (int hour = 0; hour < byHour.length; hour++) {
+      byHour[hour].merge(other.byHour[hour]);
+    }
+    total.merge(other.total);
+  }
+
+  /**
+   * Writes the aggregates, so they can be read back with read.
+   *
+   * @param out The output.
+   * @throws IOException if the output could not be written.
+   */
+  void write(DataOutput out) throws IOException {
+    writeAggregates(out, byLine);
+    writeAggregates(out, byDestination);
+    for (DelayAggregate hour : byHour) {
+      hour.write(out);
+    }
+    total.write(out);
+  }
+
+  /**
+   * Replaces the aggregates with ones written by write.
+   *
+   * @param in The input.
+   * @throws IOException if the input could not be read.
+   */
+  void read(DataInput in) throws IOException {
+    readAggregates(in, byLine);
+    byRawDestination.clear();
+    readAggregates(in, byDestination);
+    for (DelayAggregate hour : byHour) {
+      hour.read(in);
+    }
+    total.read(in);
+  }
+
+  /**
+   * Adds a delay of a departure to each of its aggregates.
+   */
+
+  private void add(Departure departure, int delay) {
+    byLine.computeIfAbsent(departure.getLine(), line -> new DelayAggregate()).add(delay);
+    destinationOf(departure).add(delay);
+    byHour[hourOf(departure)].add(delay);
+    total.add(delay);
+  }
+
+  /**
+   * Removes a delay of a departure from each of its aggregates.
+   */
+
+  private void remove(Departure departure, int delay) {
+    DelayAggregate line = byLine.get(departure.getLine());
+    if (line != null) {
+      line.remove(delay);
+    }
+    destinationOf(departure).remove(delay);
+    byHour[hourOf(departure)].remove(delay);
+    total.remove(delay);
+  }
+
+  /**
+   * Gets the aggregate of the destination of a departure, normalizing each destination as
+   * written once.
+   */
+
+  private DelayAggregate destinationOf(Departure departure) {
+    return byRawDestination.computeIfAbsent(departure.getDestination(),
+            raw -> byDestination.computeIfAbsent(DestinationIndex.normalize(raw),
+                    destination -> new DelayAggregate()));
+  }
+
+  private static void writeAggregates(DataOutput out, Map<String, DelayAggregate> aggregates)
+          throws IOException {
+    out.writeInt(aggregates.size());
+    for (Map.Entry<String, DelayAggregate> entry : aggregates.entrySet()) {
+      out.writeUTF(entry.getKey());
+      entry.getValue().write(out);
+    }
+  }
+
+  private static void readAggregates(DataInput in, Map<String, DelayAggregate> aggregates)
+          throws IOException {
+    aggregates.clear();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      DelayAggregate aggregate = new DelayAggregate();
+      String key = in.readUTF();
+      aggregate.read(in);
+      aggregates.put(key, aggregate);
+    }
+  }
+
+  /**
+   * Gets the hour of the day a departure is scheduled.
+   */
+
+  private static int hourOf(Departure departure) {
+    return ServiceTime.minuteOfDay(departure.getDepartureMinute()) / 60;
+  }
+}
@@ -3,7 +3,7 @@ package org.example;
 import static java.util.Objects.requireNonNull;
 
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -11,15 +11,19 @@ import java.util.Objects;
  * <p>
  * This class represents a departure.
  * </p>
+ * <p>
+ * The time of the departure is stored as an epoch minute (see ServiceTime), so that departures
+ * on different service days are ordered correctly and compared with integer comparisons.
+ * </p>
  *
  * @author Mikael Stray Froeyshov
- * @version 1.1
+ * @version 1.4
  * @since 2023-11-02
  */
 
 public class Departure {
 
-  private final LocalTime time;
+  private final int departureMinute;
   private final String line;
   private final int trainNumber;
   private final String destination;
@@ -27,7 +31,7 @@ public class Departure {
   private int track;
 
   /**
-   * Constructs a Departure object with the specified information.
+   * Constructs a Departure object with the specified information, on service day 0.
    *
    * @param time        Time of the departure.
    * @param line        Line or route of the departure.
@@ -40,10 +44,28 @@ public class Departure {
 
   public Departure(LocalTime time, String line, int trainNumber, String destination,
                    int track, int delay) throws IllegalArgumentException {
+    this(ServiceTime.of(requireNonNull(time, "Time cannot be null")), line, trainNumber,
+            destination, track, delay);
+  }
+
+  /**
+   * Constructs a Departure object on a specific service day.
+   *
+   * @param departureMinute Time of the departure as an epoch minute.
+   * @param line            Line or route of the departure.
+   * @param trainNumber     Train number of the departure.
+   * @param destination     Destination of the departure.
+   * @param track           Track or platform number of the departure.
+   * @param delay           Delay (in minutes) of the departure.
+   * @throws IllegalArgumentException if the input parameters are invalid or missing.
+   */
+
+  public Departure(int departureMinute, String line, int trainNumber, String destination,
+                   int track, int delay) throws IllegalArgumentException {
 
     checkNegativeNumbers(trainNumber, "Train number");
 
-    this.time = requireNonNull(time, "Time cannot be null");
+    this.departureMinute = departureMinute;
     this.line = requireNonNull(line, "Line cannot be null");
     this.trainNumber = trainNumber;
     this.destination = requireNonNull(destination, "Destination cannot be null");
@@ -73,7 +95,17 @@ public class Departure {
    * @return The time of the departure plus the delay.
    */
   public LocalTime getScheduledArrival() {
-    return time.plusMinutes(delay);
+    return ServiceTime.toLocalTime(getEffectiveMinute());
+  }
+
+  /**
+   * Gets the time of the departure plus the delay as an epoch minute. Unlike
+   * getScheduledArrival(), it does not wrap around at midnight.
+   *
+   * @return The epoch minute of the departure plus the delay.
+   */
+  public int getEffectiveMinute() {
+    return departureMinute + delay;
   }
 
   /**
@@ -82,7 +114,16 @@ public class Departure {
    * @return The time of the departure.
    */
   public LocalTime getTime() {
-    return time;
+    return ServiceTime.toLocalTime(departureMinute);
+  }
+
+  /**
+   * Gets the time of the departure as an epoch minute.
+   *
+   * @return The epoch minute of the departure.
+   */
+  public int getDepartureMinute() {
+    return departureMinute;
   }
 
   /**
@@ -151,6 +192,40 @@ public class Departure {
     this.track = (track == 0) ? -1 : track;
   }
 
+  /**
+   * Checks if another departure stands for the same train: the same object, or a departure
+   * with the same train number and scheduled time. Stores that keep departures outside the
+   * heap give out copies, and this is how an index recognises a departure it already holds.
+   *
+   * @param other The departure to compare with.
+   * @return True if it is the same departure, false otherwise.
+   */
+  public boolean isSameDeparture(Departure other) {
+    return other == this || (other != null && other.trainNumber == trainNumber
+            && other.departureMinute == departureMinute);
+  }
+
+  /**
+   * Finds the position of a departure in a list, preferring the same object over a copy.
+   *
+   * @param departures The list to search.
+   * @param departure  The departure to find.
+   * @return The position of the departure, or -1 if it is not in the list.
+   */
+  static int indexOfSame(List<Departure> departures, Departure departure) {
+    for (int i = 0; i < departures.size(); i++) {
+      if (departures.get(i) == departure) {
+        return i;
+      }
+    }
+    for (int i = 0; i < departures.size(); i++) {
+      if (departure.isSameDeparture(departures.get(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Checks if this Departure object is equal to another object.
    *
@@ -166,7 +241,7 @@ public class Departure {
     if (!(o instanceof Departure departure)) {
       return false;
     }
-    return getTime() == departure.getTime()
+    return getDepartureMinute() == departure.getDepartureMinute()
             && getTrainNumber() == departure.getTrainNumber()
             && getTrack() == departure.getTrack()
             && Objects.equals(getLine(), departure.getLine())
@@ -181,7 +256,7 @@ public class Departure {
 
   @Override
   public int hashCode() {
-    return Objects.hash(getTime(), getLine(), getTrainNumber(), getDestination(),
+    return Objects.hash(getDepartureMinute(), getLine(), getTrainNumber(), getDestination(),
             getDelay(), getTrack());
   }
 
@@ -193,14 +268,47 @@ public class Departure {
 
   @Override
   public String toString() {
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
+    return appendTo(new StringBuilder(80)).toString();
+  }
 
+  /**
+   * Appends the row of this departure on the board, as returned by toString. Nothing is
+   * allocated if the builder has room, so a board can be drawn row by row into one builder.
+   *
+   * @param sb The builder to append to.
+   * @return The builder.
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    int start = sb.length();
+    ServiceTime.appendTime(sb.append("|  "), departureMinute);
+    padTo(sb, start + 14).append(' ');
+    start = sb.length();
+    padTo(sb.append(line), start + 12).append(' ');
+    start = sb.length();
+    padTo(sb.append(trainNumber), start + 15).append(' ');
+    start = sb.length();
+    padTo(sb.append(destination), start + 17).append(' ');
     // If delay is 0 or track is -1, don't show them
-    String delayInfo = (delay == 0) ? "" : Integer.toString(delay);
-    String trackInfo = (track == -1) ? "" : Integer.toString(track);
+    start = sb.length();
+    if (delay != 0) {
+      sb.append(delay);
+    }
+    padTo(sb, start + 11).append(' ');
+    start = sb.length();
+    if (track != -1) {
+      sb.append(track);
+    }
+    return padTo(sb, start + 4).append(" |\n");
+  }
 
-    return String.format("%-14s %-12s %-15d %-17s %-11s %-4s %-1s",
-              "|  " + formatter.format(time), line, trainNumber,
-              destination, delayInfo, trackInfo, "|\n");
+  /**
+   * Pads a column with spaces up to its width. Longer values are not cut.
+   */
+
+  private static StringBuilder padTo(StringBuilder sb, int length) {
+    while (sb.length() < length) {
+      sb.append(' ');
+    }
+    return sb;
   }
 }
\ No newline at end of file
@@ -0,0 +1,548 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <h1>DepartureArchive.</h1>
+ * <p>
+ * The DepartureArchive class keeps the departures that have left, for punctuality analysis
+ * over past days. It is a DepartureListener, and departures that leave are collected in memory
+ * and appended to the archive directory as segment files. Departures removed by the user are
+ * not archived, since they did not run.
+ * </p>
+ * <p>
+ * A segment stores each field as a column: the scheduled times are delta encoded, numbers are
+ * written as variable-length integers, and lines and destinations are ids into a dictionary of
+ * the segment. Each column is compressed as a block with Deflater. The header of a segment
+ * holds the smallest and largest time, line and destination, so a query skips the segments
+ * that cannot match, and reads the rest from start to end through a FileChannel.
+ * </p>
+ * <p>
+ * A segment that fails to be written when a departure leaves is not thrown out of the
+ * listener, since the dispatch is in the middle of removing departures from its store. The
+ * departures are kept in memory, and the failure is thrown by the next flush or close, which
+ * tries to write them again.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-28
+ */
+
+public class DepartureArchive implements DepartureListener, Closeable {
+
+  /**
+   * Default number of departures in a segment.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 8192;
+
+  private static final int MAGIC = 0x44455041;
+  private static final int FORMAT_VERSION = 1;
+  private static final String SUFFIX = ".seg";
+
+  /**
+   * The columns of a segment, in the order they are written.
+   */
+  private static final int DICTIONARY = 0;
+  private static final int MINUTES = 1;
+  private static final int NUMBERS = 2;
+  private static final int DELAYS = 3;
+  private static final int TRACKS = 4;
+  private static final int LINES = 5;
+  private static final int DESTINATIONS = 6;
+  private static final int NUMBER_OF_COLUMNS = 7;
+
+  /**
+   * The header of a segment file, which is all that is kept in memory for the segment.
+   */
+  private record Segment(Path path, int rowCount, int minMinute, int maxMinute, String minLine,
+                         String maxLine, String minDestination, String maxDestination,
+                         int headerLength) {
+
+    /**
+     * Checks if the segment can have departures that match a query.
+     */
+    boolean mayMatch(int fromMinute, int toMinute, String line, String destination) {
+      return maxMinute >= fromMinute && minMinute < toMinute
+              && (line == null || (line.compareTo(minLine) >= 0 && line.compareTo(maxLine) <= 0))
+              && (destination == null || (destination.compareTo(minDestination) >= 0
+              && destination.compareTo(maxDestination) <= 0));
+    }
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  private final List<Segment> segments = new ArrayList<>();
+  private final List<Departure> pending = new ArrayList<>();
+  private int nextSegmentNumber;
+
+  /**
+   * The failure of a segment written when a departure left, or null. It is thrown by the next
+   * flush.
+   */
+  private IOException failure;
+
+  /**
+   * Opens an archive in a directory, creating the directory if needed. The headers of the
+   * existing segments are read, so they can be queried.
+   *
+   * @param directory   The directory of the segment files.
+   * @param segmentSize The number of departures in a segment.
+   * @throws IOException if the directory could not be read.
+   */
+
+  public DepartureArchive(Path directory, int segmentSize) throws IOException {
+    if (segmentSize < 1) {
+      throw new IllegalArgumentException("Segment size must be positive");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : files) {
+        segments.add(readHeader(file));
+        String name = file.getFileName().toString();
+        int number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+      }
+    }
+    // The directory is not listed in order, and queries return the oldest segments first
+    segments.sort(Comparator.comparing(Segment::path));
+  }
+
+  /**
+   * Opens an archive in a directory with the default segment size.
+   *
+   * @param directory The directory of the segment files.
+   * @throws IOException if the directory could not be read.
+   */
+
+  public DepartureArchive(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    pending.add(departure);
+    if (pending.size() >= segmentSize && failure == null) {
+      try {
+        writePending();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of segment files.
+   *
+   * @return The number of segments.
+   */
+  public int getNumberOfSegments() {
+    return segments.size();
+  }
+
+  /**
+   * Writes the departures that are not archived yet to a new segment.
+   *
+   * @throws IOException if the segment could not be written, or a segment written when a
+   *                     departure left could not be written since the last flush.
+   */
+  public void flush() throws IOException {
+    IOException failed = failure;
+    failure = null;
+    try {
+      writePending();
+    } catch (IOException e) {
+      if (failed == null) {
+        failed = e;
+      } else {
+        failed.addSuppressed(e);
+      }
+    }
+    if (failed != null) {
+      throw failed;
+    }
+  }
+
+  /**
+   * Writes the departures that are not archived yet.
+   *
+   * @throws IOException if the segment could not be written, or a segment written when a
+   *                     departure left could not be written since the last flush.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  /**
+   * Finds archived departures, including those that are not written to a segment yet.
+   *
+   * @param fromMinute  The first scheduled epoch minute to include.
+   * @param toMinute    The scheduled epoch minute to stop before.
+   * @param line        The line, or null for all lines.
+   * @param destination The destination, compared without case and surrounding spaces, or null
+   *                    for all destinations.
+   * @param action      The action to perform on each matching departure.
+   * @return The number of segments that were read.
+   * @throws IOException if a segment could not be read.
+   */
+  public int query(int fromMinute, int toMinute, String line, String destination,
+                   Consumer<Departure> action) throws IOException {
+    String normalizedDestination = (destination == null)
+            ? null : DestinationIndex.normalize(destination);
+    int segmentsRead = 0;
+    for (Segment segment : segments) {
+      if (segment.mayMatch(fromMinute, toMinute, line, normalizedDestination)) {
+        scanSegment(segment, fromMinute, toMinute, line, normalizedDestination, action);
+        segmentsRead++;
+      }
+    }
+    Map<String, Boolean> destinationMatches = new HashMap<>();
+    for (Departure departure : pending) {
+      int minute = departure.getDepartureMinute();
+      if (minute >= fromMinute && minute < toMinute
+              && (line == null || line.equals(departure.getLine()))
+              && (normalizedDestination == null || destinationMatches.computeIfAbsent(
+                      departure.getDestination(),
+                      raw -> normalizedDestination.equals(DestinationIndex.normalize(raw))))) {
+        action.accept(departure);
+      }
+    }
+    return segmentsRead;
+  }
+
+  /**
+   * Gets the delays of archived departures, for example to compute the punctuality of a line.
+   *
+   * @param fromMinute  The first scheduled epoch minute to include.
+   * @param toMinute    The scheduled epoch minute to stop before.
+   * @param line        The line, or null for all lines.
+   * @param destination The destination, or null for all destinations.
+   * @return The delays of the matching departures.
+   * @throws IOException if a segment could not be read.
+   */
+  public DelayAggregate aggregateDelays(int fromMinute, int toMinute, String line,
+                                        String destination) throws IOException {
+    DelayAggregate aggregate = new DelayAggregate();
+    query(fromMinute, toMinute, line, destination,
+            departure -> aggregate.add(departure.getDelay()));
+    return aggregate;
+  }
+
+  /**
+   * Writes the departures that are not archived yet to a new segment.
+   */
+
+  private void writePending() throws IOException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    Path path = directory.resolve(String.format("%08d", nextSegmentNumber++) + SUFFIX);
+    segments.add(writeSegment(path, pending));
+    pending.clear();
+  }
+
+  /**
+   * Encodes departures as compressed columns and writes them as a new segment. The file is
+   * written under a temporary name first, so a segment is either complete or missing.
+   */
+
+  private static Segment writeSegment(Path path, List<Departure> departures) throws IOException {
+    ColumnWriter[] columns = new ColumnWriter[NUMBER_OF_COLUMNS];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new ColumnWriter();
+    }
+    Map<String, Integer> dictionary = new HashMap<>();
+    int minMinute = Integer.MAX_VALUE;
+    int maxMinute = Integer.MIN_VALUE;
+    String minLine = null;
+    String maxLine = null;
+    String minDestination = null;
+    String maxDestination = null;
+    int previousMinute = 0;
+    for (Departure departure : departures) {
+      int minute = departure.getDepartureMinute();
+      columns[MINUTES].writeSigned(minute - previousMinute);
+      previousMinute = minute;
+      columns[NUMBERS].writeUnsigned(departure.getTrainNumber());
+      columns[DELAYS].writeSigned(departure.getDelay());
+      columns[TRACKS].writeSigned(departure.getTrack());
+      columns[LINES].writeUnsigned(idOf(dictionary, departure.getLine(), columns[DICTIONARY]));
+      columns[DESTINATIONS].writeUnsigned(idOf(dictionary, departure.getDestination(),
+              columns[DICTIONARY]));
+
+      String line = departure.getLine();
+      String destination = DestinationIndex.normalize(departure.getDestination());
+      minMinute = Math.min(minMinute, minute);
+      maxMinute = Math.max(maxMinute, minute);
+      minLine = (minLine == null || line.compareTo(minLine) < 0) ? line : minLine;
+      maxLine = (maxLine == null || line.compareTo(maxLine) > 0) ? line : maxLine;
+      minDestination = (minDestination == null || destination.compareTo(minDestination) < 0)
+              ? destination : minDestination;
+      maxDestination = (maxDestination == null || destination.compareTo(maxDestination) > 0)
+              ? destination : maxDestination;
+    }
+
+    ByteBuffer[] blocks = new ByteBuffer[NUMBER_OF_COLUMNS + 1];
+    ColumnWriter header = new ColumnWriter();
+    header.writeUnsigned(FORMAT_VERSION);
+    header.writeUnsigned(departures.size());
+    header.writeSigned(minMinute);
+    header.writeSigned(maxMinute);
+    header.writeString(minLine);
+    header.writeString(maxLine);
+    header.writeString(minDestination);
+    header.writeString(maxDestination);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+        byte[] compressed = columns[i].compress(deflater);
+        header.writeUnsigned(columns[i].length);
+        header.writeUnsigned(compressed.length);
+        blocks[i + 1] = ByteBuffer.wrap(compressed);
+      }
+    } finally {
+      deflater.end();
+    }
+    ByteBuffer headerBlock = ByteBuffer.allocate(8 + header.length);
+    headerBlock.putInt(MAGIC).putInt(header.length).put(header.bytes, 0, header.length).flip();
+    blocks[0] = headerBlock;
+
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      // A gathering write of the header and all column blocks
+      long remaining = 0;
+      for (ByteBuffer block : blocks) {
+        remaining += block.remaining();
+      }
+      while (remaining > 0) {
+        remaining -= channel.write(blocks);
+      }
+      channel.force(false);
+    }
+    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+    return new Segment(path, departures.size(), minMinute, maxMinute, minLine, maxLine,
+            minDestination, maxDestination, 8 + header.length);
+  }
+
+  /**
+   * Gets the dictionary id of a string, adding it to the dictionary column if it is new.
+   */
+
+  private static int idOf(Map<String, Integer> dictionary, String value,
+                          ColumnWriter dictionaryColumn) {
+    Integer id = dictionary.get(value);
+    if (id == null) {
+      id = dictionary.size();
+      dictionary.put(value, id);
+      dictionaryColumn.writeString(value);
+    }
+    return id;
+  }
+
+  /**
+   * Reads the header of a segment file.
+   */
+
+  private static Segment readHeader(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer start = ByteBuffer.allocate(8);
+      readFully(channel, start);
+      if (start.getInt() != MAGIC) {
+        throw new IOException("Not a departure archive segment: " + path);
+      }
+      int headerLength = start.getInt();
+      ByteBuffer header = ByteBuffer.allocate(headerLength);
+      readFully(channel, header);
+      if (readUnsigned(header) != FORMAT_VERSION) {
+        throw new IOException("Unsupported segment format: " + path);
+      }
+      return new Segment(path, readUnsigned(header), readSigned(header), readSigned(header),
+              readString(header), readString(header), readString(header), readString(header),
+              8 + headerLength);
+    }
+  }
+
+  /**
+   * Reads a whole segment sequentially, decompresses its columns and passes the matching
+   * departures to the action.
+   */
+
+  private static void scanSegment(Segment segment, int fromMinute, int toMinute, String line,
+                                  String normalizedDestination, Consumer<Departure> action)
+          throws IOException {
+    ByteBuffer file;
+    try (FileChannel channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+      file = ByteBuffer.allocate((int) channel.size());
+      readFully(channel, file);
+    }
+    // Skip the version, row count, time range and the four strings, which are already known
+    ByteBuffer header = file.slice(8, segment.headerLength() - 8);
+    for (int i = 0; i < 4; i++) {
+      readUnsigned(header);
+    }
+    for (int i = 0; i < 4; i++) {
+      readString(header);
+    }
+    ByteBuffer[] columns = new ByteBuffer[NUMBER_OF_COLUMNS];
+    int offset = segment.headerLength();
+    Inflater inflater = new Inflater();
+    try {
+      for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+        int rawLength = readUnsigned(header);
+        int compressedLength = readUnsigned(header);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(file.slice(offset, compressedLength));
+        if (rawLength > 0 && inflater.inflate(raw) != rawLength) {
+          throw new IOException("Corrupt segment: " + segment.path());
+        }
+        columns[i] = ByteBuffer.wrap(raw);
+        offset += compressedLength;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt segment: " + segment.path(), e);
+    } finally {
+      inflater.end();
+    }
+
+    List<String> dictionary = new ArrayList<>();
+    while (columns[DICTIONARY].hasRemaining()) {
+      dictionary.add(readString(columns[DICTIONARY]));
+    }
+    // The line and destination are compared once per dictionary entry, and rows by their ids
+    boolean[] lineMatches = new boolean[dictionary.size()];
+    boolean[] destinationMatches = new boolean[dictionary.size()];
+    for (int id = 0; id < dictionary.size(); id++) {
+      String value = dictionary.get(id);
+      lineMatches[id] = line == null || line.equals(value);
+      destinationMatches[id] = normalizedDestination == null
+              || normalizedDestination.equals(DestinationIndex.normalize(value));
+    }
+    int minute = 0;
+    for (int row = 0; row < segment.rowCount(); row++) {
+      minute += readSigned(columns[MINUTES]);
+      int trainNumber = readUnsigned(columns[NUMBERS]);
+      int delay = readSigned(columns[DELAYS]);
+      int track = readSigned(columns[TRACKS]);
+      int lineId = readUnsigned(columns[LINES]);
+      int destinationId = readUnsigned(columns[DESTINATIONS]);
+      if (minute >= fromMinute && minute < toMinute && lineMatches[lineId]
+              && destinationMatches[destinationId]) {
+        action.accept(new Departure(minute, dictionary.get(lineId), trainNumber,
+                dictionary.get(destinationId), Math.max(track, 0), delay));
+      }
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Unexpected end of segment");
+      }
+    }
+    buffer.flip();
+  }
+
+  private static int readUnsigned(ByteBuffer buffer) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  private static int readSigned(ByteBuffer buffer) {
+    int zigzag = readUnsigned(buffer);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = readUnsigned(buffer);
+    String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+            StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+
+  /**
+   * A growing byte array that values are written to as variable-length integers.
+   */
+  private static final class ColumnWriter {
+
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    void writeUnsigned(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    /**
+     * Writes a value that can be negative, with zigzag encoding so small values stay short.
+     */
+    void writeSigned(int value) {
+      writeUnsigned((value << 1) ^ (value >> 31));
+    }
+
+    void writeString(String value) {
+      byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+      writeUnsigned(encoded.length);
+      for (byte b : encoded) {
+        writeByte(b);
+      }
+    }
+
+    byte[] compress(Deflater deflater) {
+      deflater.reset();
+      deflater.setInput(bytes, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[length + 64];
+      int compressedLength = 0;
+      while (!deflater.finished()) {
+        if (compressedLength == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        compressedLength += deflater.deflate(buffer, compressedLength,
+                buffer.length - compressedLength);
+      }
+      return Arrays.copyOf(buffer, compressedLength);
+    }
+
+    private void writeByte(int value) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, length * 2);
+      }
+      bytes[length++] = (byte) value;
+    }
+  }
+}
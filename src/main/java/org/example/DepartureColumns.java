@@ -0,0 +1,254 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <h1>DepartureColumns.</h1>
+ * <p>
+ * The DepartureColumns class keeps the time plus delay, the delay and the track of every
+ * departure in primitive arrays, one array per column and one row per departure. Wide filters
+ * such as "all departures delayed more than ten minutes this afternoon" are then checked over
+ * a few int arrays instead of following a reference to every departure, and the check is
+ * vectorized with the jdk.incubator.vector API when the module is available (see
+ * ColumnScanner).
+ * </p>
+ * <p>
+ * The columns are kept in sync as a DepartureListener. A removed departure is replaced by the
+ * last row, so the rows have no particular order. A dispatch may hold several departures with
+ * the same train number and time, so the rows of a departure are chained, and a change goes
+ * to the row of the same object if there is one.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-29
+ */
+
+public class DepartureColumns implements DepartureListener {
+
+  /**
+   * The number of rows checked at a time when departures are selected.
+   */
+  private static final int BLOCK_SIZE = 4096;
+
+  private final ColumnScanner scanner;
+  private int[] minutes = new int[16];
+  private int[] delays = new int[16];
+  private int[] tracks = new int[16];
+  private Departure[] departures = new Departure[16];
+
+  /**
+   * The next row with the same train number and scheduled time, or -1.
+   */
+  private int[] sameKey = new int[16];
+  private int size;
+
+  /**
+   * The last row added of each departure, by train number and scheduled time.
+   */
+  private final Map<Long, Integer> rows = new HashMap<>();
+
+  /**
+   * Creates empty columns that use the fastest scanner available.
+   */
+  public DepartureColumns() {
+    this(ColumnScanner.create());
+  }
+
+  /**
+   * Creates empty columns that use a specific scanner.
+   *
+   * @param scanner The scanner.
+   */
+  DepartureColumns(ColumnScanner scanner) {
+    this.scanner = scanner;
+  }
+
+  /**
+   * Gets the name of the scanner that checks the rows.
+   *
+   * @return "vector" followed by the vector width, or "scalar".
+   */
+  public String getScannerName() {
+    return scanner.getName();
+  }
+
+  /**
+   * Gets the number of rows.
+   *
+   * @return The number of departures in the columns.
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    if (size == minutes.length) {
+      int capacity = size * 2;
+      minutes = Arrays.copyOf(minutes, capacity);
+      delays = Arrays.copyOf(delays, capacity);
+      tracks = Arrays.copyOf(tracks, capacity);
+      departures = Arrays.copyOf(departures, capacity);
+      sameKey = Arrays.copyOf(sameKey, capacity);
+    }
+    set(size, departure);
+    Integer next = rows.put(key(departure), size);
+    sameKey[size] = (next == null) ? -1 : next;
+    size++;
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    remove(departure);
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    remove(departure);
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    update(departure);
+  }
+
+  @Override
+  public void trackChanged(Departure departure, int oldTrack) {
+    update(departure);
+  }
+
+  /**
+   * Counts the departures that match a filter.
+   *
+   * @param fromMinute The first epoch minute of time plus delay.
+   * @param toMinute   The last epoch minute of time plus delay.
+   * @param minDelay   The smallest delay.
+   * @param maxDelay   The largest delay.
+   * @param track      The track, -1 for departures without a track, or 0 for any track.
+   * @return The number of matching departures.
+   */
+  public int count(int fromMinute, int toMinute, int minDelay, int maxDelay, int track) {
+    ColumnScanner.Filter filter =
+            new ColumnScanner.Filter(fromMinute, toMinute, minDelay, maxDelay, track);
+    return scanner.count(minutes, delays, tracks, 0, size, filter);
+  }
+
+  /**
+   * Passes the departures that match a filter to an action, in no particular order.
+   *
+   * @param fromMinute The first epoch minute of time plus delay.
+   * @param toMinute   The last epoch minute of time plus delay.
+   * @param minDelay   The smallest delay.
+   * @param maxDelay   The largest delay.
+   * @param track      The track, -1 for departures without a track, or 0 for any track.
+   * @param action     The action to perform.
+   */
+  public void select(int fromMinute, int toMinute, int minDelay, int maxDelay, int track,
+                     Consumer<Departure> action) {
+    ColumnScanner.Filter filter =
+            new ColumnScanner.Filter(fromMinute, toMinute, minDelay, maxDelay, track);
+    int[] block = new int[Math.min(size, BLOCK_SIZE)];
+    for (int start = 0; start < size; start += BLOCK_SIZE) {
+      int count = scanner.select(minutes, delays, tracks, start,
+              Math.min(size, start + BLOCK_SIZE), filter, block);
+      for (int i = 0; i < count; i++) {
+        action.accept(departures[block[i]]);
+      }
+    }
+  }
+
+  /**
+   * Writes a departure to a row.
+   */
+
+  private void set(int row, Departure departure) {
+    minutes[row] = departure.getEffectiveMinute();
+    delays[row] = departure.getDelay();
+    tracks[row] = departure.getTrack();
+    departures[row] = departure;
+  }
+
+  /**
+   * Writes the new delay or track of a departure to its row.
+   */
+
+  private void update(Departure departure) {
+    int row = rowOf(departure);
+    if (row >= 0) {
+      set(row, departure);
+    }
+  }
+
+  /**
+   * Removes the row of a departure by moving the last row into its place.
+   */
+
+  private void remove(Departure departure) {
+    int row = rowOf(departure);
+    if (row < 0) {
+      return;
+    }
+    relink(key(departure), row, sameKey[row]);
+    size--;
+    if (row != size) {
+      Departure last = departures[size];
+      set(row, last);
+      sameKey[row] = sameKey[size];
+      relink(key(last), size, row);
+    }
+    departures[size] = null;
+  }
+
+  /**
+   * Finds the row of a departure, or -1 if it has none. The row of the same object is
+   * preferred over one of a copy.
+   */
+
+  private int rowOf(Departure departure) {
+    Integer first = rows.get(key(departure));
+    if (first == null) {
+      return -1;
+    }
+    for (int row = first; row >= 0; row = sameKey[row]) {
+      if (departures[row] == departure) {
+        return row;
+      }
+    }
+    return first;
+  }
+
+  /**
+   * Makes the chain of a key point to another row where it pointed to a row. A replacement
+   * of -1 leaves the row out of the chain.
+   */
+
+  private void relink(long key, int row, int replacement) {
+    int first = rows.get(key);
+    if (first == row) {
+      if (replacement < 0) {
+        rows.remove(key);
+      } else {
+        rows.put(key, replacement);
+      }
+      return;
+    }
+    int previous = first;
+    while (sameKey[previous] != row) {
+      previous = sameKey[previous];
+    }
+    sameKey[previous] = replacement;
+  }
+
+  /**
+   * Combines the train number and the scheduled time, which identify a departure.
+   */
+
+  private static long key(Departure departure) {
+    return ((long) departure.getTrainNumber() << 32)
+            | (departure.getDepartureMinute() & 0xFFFFFFFFL);
+  }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+/**
+ * <h1>DepartureHandle.</h1>
+ * <p>
+ * The DepartureHandle class refers to a departure found by TrainDispatch.lookup, so the
+ * commands that follow can change it without looking it up again. The handle remembers the
+ * version of the dispatch it was made at. As long as the dispatch has not changed since, the
+ * departure is used as it is.
+ * </p>
+ * <p>
+ * If the dispatch has changed, the departure is found again by train number and service day,
+ * and the change is only applied if its delay and track are still the ones the handle saw.
+ * Otherwise the change is refused, as the operator decided on a departure that is no longer
+ * the same. The version belongs to the whole dispatch rather than to the departure, since some
+ * departure stores hand out copies of their departures.
+ * </p>
+ * <p>
+ * The departure shown to the caller can be a copy of the one the dispatch works on, so a
+ * SharedTrainDispatch never hands out a departure that another thread can change.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-02-06
+ */
+
+public final class DepartureHandle {
+
+  private Departure departure;
+  private Departure view;
+  private long version;
+  private int delay;
+  private int track;
+
+  /**
+   * Constructs a handle to a departure.
+   *
+   * @param departure The departure as found by the dispatch.
+   * @param version   The version of the dispatch when the departure was found.
+   */
+  DepartureHandle(Departure departure, long version) {
+    update(departure, version);
+  }
+
+  /**
+   * Gets the departure, as it was when the handle was last used.
+   *
+   * @return The departure.
+   */
+  public Departure getDeparture() {
+    return view;
+  }
+
+  /**
+   * Gets the departure the dispatch found, which is the one it changes.
+   *
+   * @return The departure in the dispatch.
+   */
+  Departure getDispatchDeparture() {
+    return departure;
+  }
+
+  /**
+   * Replaces the departure shown to the caller, for example with a copy.
+   *
+   * @param view The departure to show.
+   */
+  void setView(Departure view) {
+    this.view = view;
+  }
+
+  /**
+   * Gets the train number of the departure.
+   *
+   * @return The train number.
+   */
+  public int getTrainNumber() {
+    return departure.getTrainNumber();
+  }
+
+  /**
+   * Gets the version of the dispatch the handle was last used at.
+   *
+   * @return The version.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Checks if the departure found again still has the delay and track the handle saw.
+   *
+   * @param current The departure as it is in the dispatch now.
+   * @return True if it is unchanged.
+   */
+  boolean isUnchanged(Departure current) {
+    return current.getDelay() == delay && current.getTrack() == track;
+  }
+
+  /**
+   * Moves the handle to a new version after it was used to change the departure.
+   *
+   * @param departure The departure as it is after the change.
+   * @param version   The version of the dispatch after the change.
+   */
+  void update(Departure departure, long version) {
+    this.departure = departure;
+    this.view = departure;
+    this.version = version;
+    this.delay = departure.getDelay();
+    this.track = departure.getTrack();
+  }
+}
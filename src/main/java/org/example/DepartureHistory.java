@@ -0,0 +1,319 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * <h1>DepartureHistory.</h1>
+ * <p>
+ * The DepartureHistory class records every change to the departures of a train dispatch, so the
+ * board can be shown as it was at an earlier version or time, for example when an incident is
+ * investigated. Each departure, identified by its train number and scheduled time, has a chain
+ * of versions from the newest to the oldest. Each version holds the delay, the track and
+ * whether the departure was on the board.
+ * </p>
+ * <p>
+ * The history is kept in sync as a DepartureListener, so it only adds work when departures
+ * change and current reads of the dispatch are not slowed down. Versions older than the
+ * retention are dropped by collectGarbage, which can run on a background thread. A collection
+ * that fails is logged, and the next one runs as planned.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.3
+ * @since 2024-01-25
+ */
+
+public class DepartureHistory implements DepartureListener, AutoCloseable {
+
+  private static final System.Logger LOGGER = System.getLogger(DepartureHistory.class.getName());
+
+  /**
+   * The state of a departure from one change until the next.
+   */
+  private record Version(long version, int minute, int delay, int track, boolean onBoard,
+                         Version previous) {
+
+    /**
+     * Gets a copy of this version without the versions before it.
+     */
+    Version withoutPrevious() {
+      return new Version(version, minute, delay, track, onBoard, null);
+    }
+  }
+
+  /**
+   * A departure and its newest version.
+   */
+  private static final class Row {
+    private final Departure departure;
+    private Version latest;
+
+    Row(Departure departure) {
+      this.departure = departure;
+    }
+  }
+
+  /**
+   * The departures by train number and scheduled time, since the dispatch may give out copies.
+   */
+  private final Map<Long, Row> rows = new HashMap<>();
+
+  /**
+   * The clock of the dispatch, as an epoch minute.
+   */
+  private final IntSupplier clock;
+
+  private final int retentionMinutes;
+  private long version;
+  private long numberOfVersions;
+  private ScheduledExecutorService collector;
+
+  /**
+   * Constructs an empty history.
+   *
+   * @param clock            The current time of the dispatch as an epoch minute.
+   * @param retentionMinutes The number of minutes of history to keep.
+   */
+
+  public DepartureHistory(IntSupplier clock, int retentionMinutes) {
+    if (retentionMinutes < 0) {
+      throw new IllegalArgumentException("Retention cannot be negative");
+    }
+    this.clock = clock;
+    this.retentionMinutes = retentionMinutes;
+  }
+
+  /**
+   * Gets the number of the newest version. Every change to a departure is a new version.
+   *
+   * @return The newest version, or 0 if nothing has changed yet.
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the number of versions kept in the history.
+   *
+   * @return The number of versions.
+   */
+  public synchronized long getNumberOfVersions() {
+    return numberOfVersions;
+  }
+
+  @Override
+  public synchronized void departureRegistered(Departure departure) {
+    record(departure, true);
+  }
+
+  @Override
+  public synchronized void departureRemoved(Departure departure) {
+    record(departure, false);
+  }
+
+  @Override
+  public synchronized void departureExpired(Departure departure) {
+    record(departure, false);
+  }
+
+  @Override
+  public synchronized void delayChanged(Departure departure, int oldDelay) {
+    record(departure, true);
+  }
+
+  @Override
+  public synchronized void trackChanged(Departure departure, int oldTrack) {
+    record(departure, true);
+  }
+
+  /**
+   * Gets the board as it was right after a version.
+   *
+   * @param version The version.
+   * @return Copies of the departures on the board, sorted by time plus delay.
+   */
+  public synchronized List<Departure> boardAsOfVersion(long version) {
+    List<Departure> board = new ArrayList<>();
+    for (Row row : rows.values()) {
+      Version state = row.latest;
+      while (state != null && state.version > version) {
+        state = state.previous;
+      }
+      if (state != null && state.onBoard) {
+        board.add(copy(row.departure, state));
+      }
+    }
+    board.sort(Comparator.comparingInt(Departure::getEffectiveMinute));
+    return board;
+  }
+
+  /**
+   * Gets the board as it was at the end of a minute. Departures that had left by then are not
+   * included, even if the dispatch had not removed them yet.
+   *
+   * @param minute The epoch minute.
+   * @return Copies of the departures on the board, sorted by time plus delay.
+   */
+  public synchronized List<Departure> boardAsOf(int minute) {
+    List<Departure> board = new ArrayList<>();
+    for (Row row : rows.values()) {
+      Version state = row.latest;
+      while (state != null && state.minute > minute) {
+        state = state.previous;
+      }
+      if (state != null && state.onBoard
+              && row.departure.getDepartureMinute() + state.delay >= minute) {
+        board.add(copy(row.departure, state));
+      }
+    }
+    board.sort(Comparator.comparingInt(Departure::getEffectiveMinute));
+    return board;
+  }
+
+  /**
+   * Drops the versions that are older than the retention. The newest version before the
+   * retention is kept, since it is the state at the start of the retained history, and
+   * departures that were off the board by then are dropped entirely.
+   *
+   * @return The number of dropped versions.
+   */
+  public long collectGarbage() {
+    // The clock of a shared dispatch takes its lock, which is held while the dispatch calls
+    // the history, so the clock is read before the history is locked
+    return collectGarbage(clock.getAsInt());
+  }
+
+  /**
+   * Drops the versions that are older than the retention at the specified time.
+   *
+   * @param currentMinute The current time of the dispatch as an epoch minute.
+   * @return The number of dropped versions.
+   */
+  public synchronized long collectGarbage(int currentMinute) {
+    int oldestMinute = currentMinute - retentionMinutes;
+    long dropped = 0;
+    Iterator<Row> iterator = rows.values().iterator();
+    while (iterator.hasNext()) {
+      Row row = iterator.next();
+      Version latest = row.latest;
+      if (latest.minute <= oldestMinute && !latest.onBoard) {
+        dropped += length(latest);
+        iterator.remove();
+        continue;
+      }
+      // Find the version that was current at the oldest minute, and drop those before it
+      Version base = latest;
+      while (base.previous != null && base.minute > oldestMinute) {
+        base = base.previous;
+      }
+      if (base.previous != null) {
+        dropped += length(base.previous);
+        row.latest = rebuild(latest, base);
+      }
+    }
+    numberOfVersions -= dropped;
+    return dropped;
+  }
+
+  /**
+   * Starts collecting garbage on a background daemon thread.
+   *
+   * @param periodSeconds The number of seconds between each collection.
+   */
+  public synchronized void startBackgroundCollection(int periodSeconds) {
+    if (collector != null) {
+      return;
+    }
+    collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "departure-history-collector");
+      thread.setDaemon(true);
+      return thread;
+    });
+    collector.scheduleWithFixedDelay(this::collectInBackground, periodSeconds, periodSeconds,
+            TimeUnit.SECONDS);
+  }
+
+  /**
+   * Collects garbage on the background thread. An exception would cancel every later
+   * collection, so it is logged instead.
+   */
+
+  private void collectInBackground() {
+    try {
+      collectGarbage();
+    } catch (Throwable e) {
+      LOGGER.log(System.Logger.Level.ERROR, "Collecting the departure history failed", e);
+    }
+  }
+
+  /**
+   * Stops the background collection, if it was started.
+   */
+  @Override
+  public synchronized void close() {
+    if (collector != null) {
+      collector.shutdownNow();
+      collector = null;
+    }
+  }
+
+  /**
+   * Adds a new version with the current state of a departure.
+   */
+
+  private void record(Departure departure, boolean onBoard) {
+    version++;
+    numberOfVersions++;
+    long key = ((long) departure.getTrainNumber() << 32)
+            | (departure.getDepartureMinute() & 0xFFFFFFFFL);
+    Row row = rows.computeIfAbsent(key, k -> new Row(departure));
+    row.latest = new Version(version, clock.getAsInt(), departure.getDelay(),
+            departure.getTrack(), onBoard, row.latest);
+  }
+
+  /**
+   * Copies the versions from the latest down to the base, and ends the chain at the base.
+   */
+
+  private static Version rebuild(Version latest, Version base) {
+    // A loop rather than recursion, since a departure can have thousands of versions
+    List<Version> newerThanBase = new ArrayList<>();
+    for (Version current = latest; current != base; current = current.previous) {
+      newerThanBase.add(current);
+    }
+    Version rebuilt = base.withoutPrevious();
+    for (int i = newerThanBase.size() - 1; i >= 0; i--) {
+      Version version = newerThanBase.get(i);
+      rebuilt = new Version(version.version, version.minute, version.delay, version.track,
+              version.onBoard, rebuilt);
+    }
+    return rebuilt;
+  }
+
+  private static long length(Version version) {
+    long length = 0;
+    for (Version current = version; current != null; current = current.previous) {
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Creates a copy of a departure with the delay and track of a version.
+   */
+
+  private static Departure copy(Departure departure, Version state) {
+    return new Departure(departure.getDepartureMinute(), departure.getLine(),
+            departure.getTrainNumber(), departure.getDestination(),
+            Math.max(state.track, 0), state.delay);
+  }
+}
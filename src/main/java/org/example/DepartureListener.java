@@ -0,0 +1,74 @@
+package org.example;
+
+/**
+ * <h1>DepartureListener.</h1>
+ * <p>
+ * A DepartureListener is notified by the TrainDispatch class when departures are registered,
+ * removed or leave, when their delay or track is changed through the dispatch, and when the
+ * time is set. It lets indexes and other views of the departures stay in sync with the
+ * dispatch without scanning the whole list.
+ * </p>
+ * <p>
+ * All methods have empty default implementations, so a listener only overrides the events it
+ * needs. Listeners are called on the thread that changes the dispatch, and must not change the
+ * dispatch themselves.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-01-15
+ */
+
+public interface DepartureListener {
+
+  /**
+   * Called after a departure is registered.
+   *
+   * @param departure The registered departure.
+   */
+  default void departureRegistered(Departure departure) {
+  }
+
+  /**
+   * Called after a departure is removed by the user.
+   *
+   * @param departure The removed departure.
+   */
+  default void departureRemoved(Departure departure) {
+  }
+
+  /**
+   * Called after a departure has left, and is removed because it is before the current time.
+   *
+   * @param departure The departure that has left.
+   */
+  default void departureExpired(Departure departure) {
+  }
+
+  /**
+   * Called after the delay of a departure is changed.
+   *
+   * @param departure The changed departure.
+   * @param oldDelay  The delay (in minutes) before the change.
+   */
+  default void delayChanged(Departure departure, int oldDelay) {
+  }
+
+  /**
+   * Called after the track of a departure is changed.
+   *
+   * @param departure The changed departure.
+   * @param oldTrack  The track before the change, -1 if it was not assigned.
+   */
+  default void trackChanged(Departure departure, int oldTrack) {
+  }
+
+  /**
+   * Called when the current time of the dispatch is set, before departures of service
+   * patterns are created for the new window and before departures that have left are removed.
+   *
+   * @param currentMinute The new current time as an epoch minute.
+   */
+  default void timeChanged(int currentMinute) {
+  }
+}
@@ -0,0 +1,490 @@
+package org.example;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * <h1>DepartureQuery.</h1>
+ * <p>
+ * The DepartureQuery class finds the departures of a train dispatch that match several
+ * conditions at once: line, destination, a window of time plus delay, track, a range of
+ * delays and a set of train numbers. The result can be sorted and limited. A query is created
+ * with TrainDispatch.query, and the conditions are added one by one before list is called.
+ * </p>
+ * <p>
+ * A small planner estimates how many departures each index would give for the query: the
+ * train numbers, the destination index, the track occupancy, the index of delayed departures
+ * and the store's own order by time plus delay. The index with the fewest candidates is read,
+ * and the other conditions are checked on each candidate in a single pass, without building
+ * lists in between. When the index already gives the departures in the sort order, the pass
+ * stops as soon as the limit is reached. Otherwise only the best departures up to the limit
+ * are kept in a heap. explain describes the chosen plan.
+ * </p>
+ * <p>
+ * When the dispatch keeps primitive columns (see TrainDispatch.enableColumns), a query that no
+ * index narrows down to a small part of the board checks the time, delay and track conditions
+ * over the columns instead, vectorized where possible.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.3
+ * @since 2024-01-28
+ */
+
+public class DepartureQuery {
+
+  /**
+   * The orders a result can be sorted in.
+   */
+  public enum SortKey {
+    /**
+     * By time plus delay, earliest first.
+     */
+    TIME(Comparator.comparingInt(Departure::getEffectiveMinute)
+            .thenComparingInt(Departure::getTrainNumber)),
+    /**
+     * By delay, largest first, and by time plus delay for equal delays.
+     */
+    DELAY(Comparator.comparingInt(Departure::getDelay).reversed()
+            .thenComparingInt(Departure::getEffectiveMinute)
+            .thenComparingInt(Departure::getTrainNumber)),
+    /**
+     * By train number, and by scheduled time for equal numbers.
+     */
+    TRAIN_NUMBER(Comparator.comparingInt(Departure::getTrainNumber)
+            .thenComparingInt(Departure::getDepartureMinute));
+
+    private final Comparator<Departure> comparator;
+
+    SortKey(Comparator<Departure> comparator) {
+      this.comparator = comparator;
+    }
+  }
+
+  /**
+   * The indexes a query can read its candidates from.
+   */
+  private enum Access {
+    NUMBERS, DESTINATION, TRACK, DELAY, TIME, SCAN, COLUMNS
+  }
+
+  /**
+   * Stops a pass over an index once the limit is reached. It is thrown without a stack trace.
+   */
+  private static final class StopScan extends RuntimeException {
+    private static final StopScan INSTANCE = new StopScan();
+
+    private StopScan() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final int ANY_TRACK = 0;
+  private static final int NO_TRACK = -1;
+
+  /**
+   * A time window is wide when it holds more than this part of the board.
+   */
+  private static final int WIDE_FRACTION = 8;
+
+  private final TrainDispatch trainDispatch;
+  private final DepartureStore departureStore;
+  private final DestinationIndex destinationIndex;
+  private final TrackOccupancy trackOccupancy;
+  private final TopDelayIndex topDelayIndex;
+
+  private String line;
+  private String destination;
+  private int fromMinute = Integer.MIN_VALUE;
+  private int toMinute = Integer.MAX_VALUE;
+  private int track = ANY_TRACK;
+  private int minDelay;
+  private int maxDelay = Integer.MAX_VALUE;
+  private int[] trainNumbers;
+  private SortKey sortKey = SortKey.TIME;
+  private int limit = Integer.MAX_VALUE;
+
+  /**
+   * The normalized names by the destination as written on the departures, so a destination
+   * is normalized once per query rather than once per candidate.
+   */
+  private final Map<String, String> destinationKeys = new HashMap<>();
+
+  /**
+   * Creates a query over the departures and indexes of a train dispatch.
+   *
+   * @param trainDispatch    The dispatch, used for its clock and to remove departures that
+   *                         have left.
+   * @param departureStore   The store of the dispatch.
+   * @param destinationIndex The destination index of the dispatch.
+   * @param trackOccupancy   The track occupancy of the dispatch.
+   * @param topDelayIndex    The index of delayed departures of the dispatch.
+   */
+  DepartureQuery(TrainDispatch trainDispatch, DepartureStore departureStore,
+                 DestinationIndex destinationIndex, TrackOccupancy trackOccupancy,
+                 TopDelayIndex topDelayIndex) {
+    this.trainDispatch = trainDispatch;
+    this.departureStore = departureStore;
+    this.destinationIndex = destinationIndex;
+    this.trackOccupancy = trackOccupancy;
+    this.topDelayIndex = topDelayIndex;
+  }
+
+  /**
+   * Only includes departures on a line.
+   *
+   * @param line The line, compared without case.
+   * @return This query.
+   */
+  public DepartureQuery line(String line) {
+    this.line = line.trim();
+    return this;
+  }
+
+  /**
+   * Only includes departures to a destination.
+   *
+   * @param destination The destination, compared without case and surrounding spaces.
+   * @return This query.
+   */
+  public DepartureQuery destination(String destination) {
+    this.destination = DestinationIndex.normalize(destination);
+    return this;
+  }
+
+  /**
+   * Only includes departures whose time plus delay is within a window.
+   *
+   * @param fromMinute The first epoch minute of the window.
+   * @param toMinute   The last epoch minute of the window.
+   * @return This query.
+   * @throws IllegalArgumentException if the window ends before it starts.
+   */
+  public DepartureQuery between(int fromMinute, int toMinute) throws IllegalArgumentException {
+    if (toMinute < fromMinute) {
+      throw new IllegalArgumentException("The time window ends before it starts");
+    }
+    this.fromMinute = fromMinute;
+    this.toMinute = toMinute;
+    return this;
+  }
+
+  /**
+   * Only includes departures whose time plus delay is within a window on the current service
+   * day.
+   *
+   * @param from The first time of the window.
+   * @param to   The last time of the window.
+   * @return This query.
+   * @throws IllegalArgumentException if the window ends before it starts.
+   */
+  public DepartureQuery between(LocalTime from, LocalTime to) throws IllegalArgumentException {
+    int currentMinute = trainDispatch.getCurrentMinute();
+    return between(ServiceTime.withTime(currentMinute, from),
+            ServiceTime.withTime(currentMinute, to));
+  }
+
+  /**
+   * Only includes departures on a track.
+   *
+   * @param track The track.
+   * @return This query.
+   * @throws IllegalArgumentException if the track is not positive.
+   */
+  public DepartureQuery track(int track) throws IllegalArgumentException {
+    if (track <= 0) {
+      throw new IllegalArgumentException("Track must be a positive number");
+    }
+    this.track = track;
+    return this;
+  }
+
+  /**
+   * Only includes departures that have not been given a track.
+   *
+   * @return This query.
+   */
+  public DepartureQuery withoutTrack() {
+    this.track = NO_TRACK;
+    return this;
+  }
+
+  /**
+   * Only includes departures with a delay within a range.
+   *
+   * @param minDelay The smallest delay in minutes.
+   * @param maxDelay The largest delay in minutes.
+   * @return This query.
+   * @throws IllegalArgumentException if the range is empty or negative.
+   */
+  public DepartureQuery delayBetween(int minDelay, int maxDelay)
+          throws IllegalArgumentException {
+    if (minDelay < 0 || maxDelay < minDelay) {
+      throw new IllegalArgumentException("Invalid delay range: " + minDelay + "-" + maxDelay);
+    }
+    this.minDelay = minDelay;
+    this.maxDelay = maxDelay;
+    return this;
+  }
+
+  /**
+   * Only includes departures with one of the specified train numbers.
+   *
+   * @param trainNumbers The train numbers.
+   * @return This query.
+   */
+  public DepartureQuery trainNumbers(int... trainNumbers) {
+    this.trainNumbers = Arrays.stream(trainNumbers).sorted().distinct().toArray();
+    return this;
+  }
+
+  /**
+   * Sorts the result.
+   *
+   * @param sortKey The order of the result, by time plus delay if not set.
+   * @return This query.
+   */
+  public DepartureQuery sortBy(SortKey sortKey) {
+    this.sortKey = sortKey;
+    return this;
+  }
+
+  /**
+   * Limits the number of departures in the result.
+   *
+   * @param limit The maximum number of departures.
+   * @return This query.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DepartureQuery limit(int limit) throws IllegalArgumentException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Limit cannot be negative");
+    }
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * Runs the query.
+   *
+   * @return The matching departures after the current time, sorted and limited.
+   */
+  public List<Departure> list() {
+    return trainDispatch.read(() -> trainDispatch.handOut(find()));
+  }
+
+  /**
+   * Finds the matching departures as they are in the store.
+   */
+
+  private List<Departure> find() {
+    trainDispatch.removeDepartureIfBeforeCurrentTime();
+    Access access = plan();
+    List<Departure> result = new ArrayList<>();
+    if (limit == 0) {
+      return result;
+    }
+    if (isOrdered(access)) {
+      // The index gives the sort order, so the pass stops once the limit is reached. Departures
+      // that tie with the last one are kept too, and cut after the final sort.
+      try {
+        scan(access, departure -> {
+          if (matches(departure)) {
+            if (result.size() >= limit
+                    && primaryKey(departure) != primaryKey(result.get(result.size() - 1))) {
+              throw StopScan.INSTANCE;
+            }
+            result.add(departure);
+          }
+        });
+      } catch (StopScan stop) {
+        // The limit is reached
+      }
+    } else if (limit < Integer.MAX_VALUE) {
+      // Keep the best departures in a heap with the worst one on top
+      PriorityQueue<Departure> best = new PriorityQueue<>(sortKey.comparator.reversed());
+      scan(access, departure -> {
+        if (matches(departure)) {
+          best.add(departure);
+          if (best.size() > limit) {
+            best.poll();
+          }
+        }
+      });
+      result.addAll(best);
+    } else {
+      scan(access, departure -> {
+        if (matches(departure)) {
+          result.add(departure);
+        }
+      });
+    }
+    result.sort(sortKey.comparator);
+    return (result.size() > limit) ? new ArrayList<>(result.subList(0, limit)) : result;
+  }
+
+  /**
+   * Counts the matching departures, without sorting or the limit.
+   *
+   * @return The number of matching departures after the current time.
+   */
+  public int count() {
+    return trainDispatch.read(this::countMatching);
+  }
+
+  /**
+   * Counts the matching departures.
+   */
+
+  private int countMatching() {
+    trainDispatch.removeDepartureIfBeforeCurrentTime();
+    Access access = plan();
+    if (access == Access.COLUMNS && line == null && destination == null
+            && trainNumbers == null) {
+      // The columns hold every condition of the query
+      return trainDispatch.getColumns().count(fromMinute, toMinute, minDelay, maxDelay, track);
+    }
+    int[] count = new int[1];
+    scan(access, departure -> {
+      if (matches(departure)) {
+        count[0]++;
+      }
+    });
+    return count[0];
+  }
+
+  /**
+   * Describes how the query would be run: the index that is read, the estimated number of
+   * candidates and whether the pass can stop early.
+   *
+   * @return The description of the plan.
+   */
+  public String explain() {
+    return trainDispatch.read(this::describePlan);
+  }
+
+  /**
+   * Describes the chosen plan.
+   */
+
+  private String describePlan() {
+    trainDispatch.removeDepartureIfBeforeCurrentTime();
+    Access access = plan();
+    String description = access + " (" + estimate(access) + " candidates)";
+    return isOrdered(access) && limit < Integer.MAX_VALUE
+            ? description + ", stops at the limit" : description;
+  }
+
+  /**
+   * Chooses the index with the fewest estimated candidates. On equal estimates the index that
+   * gives the sort order is preferred. The columns replace a scan, or a wide time window that
+   * cannot stop at the limit.
+   */
+
+  private Access plan() {
+    Access best = Access.SCAN;
+    for (Access access : Access.values()) {
+      if (access == Access.COLUMNS) {
+        continue;
+      }
+      int estimate = estimate(access);
+      int bestEstimate = estimate(best);
+      if (estimate < bestEstimate
+              || (estimate == bestEstimate && isOrdered(access) && !isOrdered(best))) {
+        best = access;
+      }
+    }
+    DepartureColumns columns = trainDispatch.getColumns();
+    boolean wide = best == Access.SCAN || (best == Access.TIME
+            && estimate(best) > departureStore.size() / WIDE_FRACTION
+            && !(isOrdered(best) && limit < Integer.MAX_VALUE));
+    return (columns != null && wide) ? Access.COLUMNS : best;
+  }
+
+  /**
+   * Estimates the number of candidates an index gives, or Integer.MAX_VALUE if it cannot be
+   * used for the query.
+   */
+
+  private int estimate(Access access) {
+    return switch (access) {
+      case NUMBERS -> (trainNumbers == null) ? Integer.MAX_VALUE : trainNumbers.length;
+      case DESTINATION -> (destination == null)
+              ? Integer.MAX_VALUE : destinationIndex.getCount(destination);
+      case TRACK -> (track <= 0)
+              ? Integer.MAX_VALUE : trackOccupancy.getNumberOfDepartures(track);
+      case DELAY -> (minDelay <= 0) ? Integer.MAX_VALUE : topDelayIndex.size();
+      case TIME -> (fromMinute == Integer.MIN_VALUE && toMinute == Integer.MAX_VALUE)
+              ? Integer.MAX_VALUE : departureStore.estimateBetween(fromMinute, toMinute);
+      case SCAN -> departureStore.size();
+      case COLUMNS -> (trainDispatch.getColumns() == null)
+              ? Integer.MAX_VALUE : trainDispatch.getColumns().size();
+    };
+  }
+
+  /**
+   * Checks if an index gives its departures in the sort order of the query.
+   */
+
+  private boolean isOrdered(Access access) {
+    return switch (access) {
+      case TRACK, TIME -> sortKey == SortKey.TIME;
+      case DELAY -> sortKey == SortKey.DELAY;
+      case NUMBERS, DESTINATION, SCAN, COLUMNS -> false;
+    };
+  }
+
+  /**
+   * Gets the first part of the sort key, which the ordered indexes never decrease.
+   */
+
+  private int primaryKey(Departure departure) {
+    return (sortKey == SortKey.DELAY) ? departure.getDelay() : departure.getEffectiveMinute();
+  }
+
+  /**
+   * Passes the candidates of an index to an action.
+   */
+
+  private void scan(Access access, Consumer<Departure> action) {
+    switch (access) {
+      case NUMBERS -> {
+        for (int trainNumber : trainNumbers) {
+          departureStore.forEachWithNumber(trainNumber, action);
+        }
+      }
+      case DESTINATION -> departureStore.forEachWithDestination(destination, action);
+      case TRACK -> trackOccupancy.forEachBetween(track, fromMinute, toMinute, action);
+      case DELAY -> topDelayIndex.forEachWithDelayAtLeast(minDelay, action);
+      case TIME -> departureStore.forEachBetween(fromMinute, toMinute, action);
+      case SCAN -> departureStore.forEach(action);
+      case COLUMNS -> trainDispatch.getColumns()
+              .select(fromMinute, toMinute, minDelay, maxDelay, track, action);
+      default -> throw new IllegalStateException("Unknown access: " + access);
+    }
+  }
+
+  /**
+   * Checks a candidate against every condition of the query.
+   */
+
+  private boolean matches(Departure departure) {
+    int effectiveMinute = departure.getEffectiveMinute();
+    int delay = departure.getDelay();
+    return effectiveMinute >= fromMinute && effectiveMinute <= toMinute
+            && delay >= minDelay && delay <= maxDelay
+            && (track == ANY_TRACK || departure.getTrack() == track)
+            && (line == null || line.equalsIgnoreCase(departure.getLine()))
+            && (destination == null || destination.equals(destinationKeys.computeIfAbsent(
+                    departure.getDestination(), DestinationIndex::normalize)))
+            && (trainNumbers == null
+                || Arrays.binarySearch(trainNumbers, departure.getTrainNumber()) >= 0);
+  }
+}
@@ -0,0 +1,305 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * <h1>DepartureSpool.</h1>
+ * <p>
+ * The DepartureSpool class keeps the departures of a train dispatch that leave beyond its
+ * residency window on disk, until the window reaches them. The departures are sorted into
+ * buckets of an hour by their scheduled time, and each bucket is a file in the spool directory
+ * that departures are appended to. Paging in reads the buckets in order of time, sorts each
+ * one and deletes its file, so a bucket is read once however long the timetable is.
+ * </p>
+ * <p>
+ * New departures are collected in memory and appended to their buckets when enough of them
+ * are waiting, so the memory used by the spool stays the same however many departures it
+ * holds. Only the number of departures of each train number is kept in memory, so the dispatch
+ * can still tell if a train number is taken. A spool opened on a directory with buckets from
+ * before continues with them. A bucket cut off in the middle of a departure, for example by a
+ * crash while it was appended to, is cut back to its last whole departure.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-02-08
+ */
+
+public class DepartureSpool implements Closeable {
+
+  /**
+   * The length of a bucket in minutes.
+   */
+  public static final int BUCKET_MINUTES = 60;
+
+  /**
+   * Default number of departures collected in memory before they are written.
+   */
+  public static final int DEFAULT_FLUSH_SIZE = 1024;
+
+  private static final String SUFFIX = ".bucket";
+
+  private final Path directory;
+  private final int flushSize;
+
+  /**
+   * The departures that are not written yet, by bucket.
+   */
+  private final TreeMap<Integer, List<Departure>> pending = new TreeMap<>();
+  private int numberOfPending;
+
+  /**
+   * The buckets that have a file.
+   */
+  private final TreeSet<Integer> bucketsOnDisk = new TreeSet<>();
+
+  /**
+   * The number of departures of each train number in the spool.
+   */
+  private final Map<Integer, Integer> trainNumbers = new HashMap<>();
+  private int numberOfDepartures;
+
+  /**
+   * Opens a spool in a directory, creating the directory if needed. The buckets already in
+   * the directory are read once to count their departures.
+   *
+   * @param directory The directory of the bucket files.
+   * @param flushSize The number of departures collected in memory before they are written.
+   * @throws IOException              if the directory could not be read.
+   * @throws IllegalArgumentException if the flush size is not positive.
+   */
+  public DepartureSpool(Path directory, int flushSize) throws IOException {
+    if (flushSize < 1) {
+      throw new IllegalArgumentException("Flush size must be positive");
+    }
+    this.directory = directory;
+    this.flushSize = flushSize;
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        bucketsOnDisk.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+        long whole = readBucket(file, this::count);
+        if (whole < Files.size(file)) {
+          // Later departures would be appended after the partial one
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(whole);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a spool in a directory with the default flush size.
+   *
+   * @param directory The directory of the bucket files.
+   * @throws IOException if the directory could not be read.
+   */
+  public DepartureSpool(Path directory) throws IOException {
+    this(directory, DEFAULT_FLUSH_SIZE);
+  }
+
+  /**
+   * Adds a departure to its bucket.
+   *
+   * @param departure The departure.
+   * @throws UncheckedIOException if the waiting departures could not be written.
+   */
+  public void add(Departure departure) {
+    pending.computeIfAbsent(bucketOf(departure.getDepartureMinute()), bucket -> new ArrayList<>())
+            .add(departure);
+    count(departure);
+    if (++numberOfPending >= flushSize) {
+      try {
+        flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Checks if the spool has a departure with the specified train number.
+   *
+   * @param trainNumber The train number.
+   * @return True if a departure in the spool has the number.
+   */
+  public boolean containsTrainNumber(int trainNumber) {
+    return trainNumbers.containsKey(trainNumber);
+  }
+
+  /**
+   * Gets the number of departures in the spool.
+   *
+   * @return The number of departures.
+   */
+  public int getNumberOfDepartures() {
+    return numberOfDepartures;
+  }
+
+  /**
+   * Gets the number of bucket files.
+   *
+   * @return The number of files.
+   */
+  public int getNumberOfBucketFiles() {
+    return bucketsOnDisk.size();
+  }
+
+  /**
+   * Takes out the departures of every bucket that starts before the specified time, in order of
+   * their scheduled time. A bucket is taken out whole, so departures up to an hour after the
+   * time can be included.
+   *
+   * @param untilMinute The epoch minute to stop before.
+   * @param sink        Receives the departures.
+   * @return The number of departures taken out.
+   * @throws UncheckedIOException if a bucket could not be read or deleted.
+   */
+  public int pageIn(int untilMinute, Consumer<Departure> sink) {
+    int untilBucket = bucketOf(untilMinute - 1);
+    int pagedIn = 0;
+    while (true) {
+      int bucket = Math.min(bucketsOnDisk.isEmpty() ? Integer.MAX_VALUE : bucketsOnDisk.first(),
+              pending.isEmpty() ? Integer.MAX_VALUE : pending.firstKey());
+      if (bucket > untilBucket) {
+        return pagedIn;
+      }
+      List<Departure> departures = takeBucket(bucket);
+      departures.sort(Comparator.comparingInt(Departure::getDepartureMinute));
+      for (Departure departure : departures) {
+        uncount(departure);
+        sink.accept(departure);
+      }
+      pagedIn += departures.size();
+    }
+  }
+
+  /**
+   * Appends the waiting departures to their bucket files.
+   *
+   * @throws IOException if a bucket could not be written.
+   */
+  public void flush() throws IOException {
+    for (Map.Entry<Integer, List<Departure>> entry : pending.entrySet()) {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+              Files.newOutputStream(pathOf(entry.getKey()), StandardOpenOption.CREATE,
+                      StandardOpenOption.APPEND)))) {
+        for (Departure departure : entry.getValue()) {
+          out.writeInt(departure.getDepartureMinute());
+          out.writeInt(departure.getTrainNumber());
+          out.writeInt(departure.getDelay());
+          // No track is -1 on a departure, but is given to the constructor as 0
+          out.writeInt(Math.max(departure.getTrack(), 0));
+          out.writeUTF(departure.getLine());
+          out.writeUTF(departure.getDestination());
+        }
+      }
+      bucketsOnDisk.add(entry.getKey());
+    }
+    pending.clear();
+    numberOfPending = 0;
+  }
+
+  /**
+   * Writes the waiting departures, so the spool can be opened again.
+   *
+   * @throws IOException if a bucket could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  /**
+   * Removes a bucket from memory and disk, and returns its departures.
+   */
+
+  private List<Departure> takeBucket(int bucket) {
+    List<Departure> departures = new ArrayList<>();
+    if (bucketsOnDisk.remove(bucket)) {
+      Path path = pathOf(bucket);
+      try {
+        readBucket(path, departures::add);
+        Files.delete(path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    List<Departure> waiting = pending.remove(bucket);
+    if (waiting != null) {
+      departures.addAll(waiting);
+      numberOfPending -= waiting.size();
+    }
+    return departures;
+  }
+
+  /**
+   * Reads the departures of a bucket file from start to end, and returns the length of the
+   * whole departures read. A departure cut off at the end of the file is left out.
+   */
+
+  private static long readBucket(Path path, Consumer<Departure> sink) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+    DataInputStream in = new DataInputStream(buffer);
+    long whole = 0;
+    while (whole < bytes.length) {
+      Departure departure;
+      try {
+        int departureMinute = in.readInt();
+        int trainNumber = in.readInt();
+        int delay = in.readInt();
+        int track = in.readInt();
+        String line = in.readUTF();
+        String destination = in.readUTF();
+        departure = new Departure(departureMinute, line, trainNumber, destination, track, delay);
+      } catch (EOFException e) {
+        return whole;
+      }
+      sink.accept(departure);
+      whole = bytes.length - buffer.available();
+    }
+    return whole;
+  }
+
+  private void count(Departure departure) {
+    trainNumbers.merge(departure.getTrainNumber(), 1, Integer::sum);
+    numberOfDepartures++;
+  }
+
+  private void uncount(Departure departure) {
+    trainNumbers.computeIfPresent(departure.getTrainNumber(),
+            (number, count) -> (count == 1) ? null : count - 1);
+    numberOfDepartures--;
+  }
+
+  private Path pathOf(int bucket) {
+    return directory.resolve(bucket + SUFFIX);
+  }
+
+  private static int bucketOf(int minute) {
+    return Math.floorDiv(minute, BUCKET_MINUTES);
+  }
+}
@@ -0,0 +1,212 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <h1>DepartureStore.</h1>
+ * <p>
+ * The DepartureStore interface is the storage of a train dispatch. It keeps the departures and
+ * is responsible for ordering them by time plus delay, finding them by train number and
+ * destination, and removing the ones that have left. The dispatch handles the clock, the
+ * listeners and the service patterns on top of it.
+ * </p>
+ * <p>
+ * A departure is identified by its train number and scheduled time. A store may give out the
+ * objects that were added, or copies of them, so delays and tracks are always changed through
+ * the store.
+ * </p>
+ * <p>
+ * The engines are chosen by name with create: "list" is the reference implementation,
+ * "indexed" keeps hash and tree indexes, and "off-heap" keeps the departures outside the Java
+ * heap.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-01-27
+ */
+
+public interface DepartureStore {
+
+  /**
+   * Creates an empty store of the named engine.
+   *
+   * @param engine The name of the engine: "list", "indexed" or "off-heap".
+   * @return The new store.
+   * @throws IllegalArgumentException if there is no engine with the name.
+   */
+  static DepartureStore create(String engine) throws IllegalArgumentException {
+    return switch (engine) {
+      case "list" -> new ListDepartureStore();
+      case "indexed" -> new IndexedDepartureStore();
+      case "off-heap" -> new OffHeapDepartureStore();
+      default -> throw new IllegalArgumentException("Unknown departure store: " + engine);
+    };
+  }
+
+  /**
+   * Gets the number of departures in the store.
+   *
+   * @return The number of departures.
+   */
+  int size();
+
+  /**
+   * Checks if the store is empty.
+   *
+   * @return True if there are no departures, false otherwise.
+   */
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Adds a departure.
+   *
+   * @param departure The departure to add.
+   */
+  void add(Departure departure);
+
+  /**
+   * Removes a departure. The same object is removed if it is in the store, otherwise an equal
+   * departure.
+   *
+   * @param departure The departure to remove.
+   * @return The removed departure, or null if it was not in the store.
+   */
+  Departure remove(Departure departure);
+
+  /**
+   * Finds the departure with a train number. If several departures have the number, the one
+   * that leaves first is returned.
+   *
+   * @param trainNumber The train number.
+   * @return The departure, or null if there is none.
+   */
+  Departure findByNumber(int trainNumber);
+
+  /**
+   * Finds the departure with a train number on a service day.
+   *
+   * @param trainNumber The train number.
+   * @param serviceDay  The service day, as days since 1970-01-01.
+   * @return The departure, or null if there is none.
+   */
+  Departure findByNumber(int trainNumber, int serviceDay);
+
+  /**
+   * Passes every departure with a train number to an action, in no particular order. A train
+   * number can have departures on several service days.
+   *
+   * @param trainNumber The train number.
+   * @param action      The action to perform.
+   */
+  default void forEachWithNumber(int trainNumber, Consumer<Departure> action) {
+    forEach(departure -> {
+      if (departure.getTrainNumber() == trainNumber) {
+        action.accept(departure);
+      }
+    });
+  }
+
+  /**
+   * Passes every departure to a destination to an action, in no particular order. The
+   * destinations are compared as normalized by DestinationIndex.
+   *
+   * @param destination The destination.
+   * @param action      The action to perform.
+   */
+  default void forEachWithDestination(String destination, Consumer<Departure> action) {
+    String key = DestinationIndex.normalize(destination);
+    // The departures share a few destinations, so each name is only normalized once
+    Map<String, Boolean> matches = new HashMap<>();
+    forEach(departure -> {
+      if (matches.computeIfAbsent(departure.getDestination(),
+              raw -> key.equals(DestinationIndex.normalize(raw)))) {
+        action.accept(departure);
+      }
+    });
+  }
+
+  /**
+   * Finds the departures to a destination, compared without case and surrounding spaces.
+   *
+   * @param destination The destination.
+   * @return The departures sorted by time plus delay.
+   */
+  List<Departure> findByDestination(String destination);
+
+  /**
+   * Gets all departures.
+   *
+   * @return The departures sorted by time plus delay.
+   */
+  List<Departure> sortedList();
+
+  /**
+   * Passes the departures whose time plus delay is within a window to an action, sorted by
+   * time plus delay. The default implementation sorts the whole store.
+   *
+   * @param fromMinute The first epoch minute of the window.
+   * @param toMinute   The last epoch minute of the window.
+   * @param action     The action to perform.
+   */
+  default void forEachBetween(int fromMinute, int toMinute, Consumer<Departure> action) {
+    for (Departure departure : sortedList()) {
+      int effectiveMinute = departure.getEffectiveMinute();
+      if (effectiveMinute > toMinute) {
+        return;
+      }
+      if (effectiveMinute >= fromMinute) {
+        action.accept(departure);
+      }
+    }
+  }
+
+  /**
+   * Estimates the number of departures forEachBetween has to look at for a window. It is used
+   * to choose between indexes, so it should be cheap rather than exact.
+   *
+   * @param fromMinute The first epoch minute of the window.
+   * @param toMinute   The last epoch minute of the window.
+   * @return The estimated number of departures, the whole store by default.
+   */
+  default int estimateBetween(int fromMinute, int toMinute) {
+    return size();
+  }
+
+  /**
+   * Passes every departure to an action, in no particular order.
+   *
+   * @param action The action to perform.
+   */
+  void forEach(Consumer<Departure> action);
+
+  /**
+   * Removes all departures that leave before a minute.
+   *
+   * @param minute  The epoch minute.
+   * @param expired An action to perform on each removed departure.
+   * @return The number of removed departures.
+   */
+  int removeBefore(int minute, Consumer<Departure> expired);
+
+  /**
+   * Sets the delay of a departure in the store, and on the specified object.
+   *
+   * @param departure The departure.
+   * @param delay     The new delay.
+   */
+  void setDelay(Departure departure, int delay);
+
+  /**
+   * Sets the track of a departure in the store, and on the specified object.
+   *
+   * @param departure The departure.
+   * @param track     The new track, or 0 for no track.
+   */
+  void setTrack(Departure departure, int track);
+}
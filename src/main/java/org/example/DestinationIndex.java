@@ -0,0 +1,305 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * <h1>DestinationIndex.</h1>
+ * <p>
+ * The DestinationIndex class is a trie over the normalized names of the destinations that have
+ * departures in a train dispatch. It finds destinations by prefix, and tolerates typos by
+ * computing the edit distance to the search text while walking the trie, so that branches that
+ * are too far away are never visited.
+ * </p>
+ * <p>
+ * Each destination keeps a count of its departures, and is only found while the count is above
+ * zero. The index is kept in sync with the dispatch as a DepartureListener.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-15
+ */
+
+public class DestinationIndex implements DepartureListener {
+
+  /**
+   * Orders matches from best to worst: fewest typos, whole names before prefixes, most
+   * departures, then alphabetically.
+   */
+  private static final Comparator<Match> BEST_FIRST = Comparator
+          .comparingInt((Match match) -> match.distance)
+          .thenComparing(match -> !match.wholeName)
+          .thenComparing(match -> -match.node.count)
+          .thenComparing(match -> match.node.name);
+
+  private final Node root = new Node();
+  private int numberOfDestinations;
+
+  /**
+   * Gets the number of destinations that currently have departures.
+   *
+   * @return The number of destinations.
+   */
+  public int getNumberOfDestinations() {
+    return numberOfDestinations;
+  }
+
+  /**
+   * Normalizes a destination name for searching: trimmed, lower case and with single spaces.
+   *
+   * @param destination The destination name.
+   * @return The normalized name.
+   */
+  public static String normalize(String destination) {
+    return destination.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    add(departure.getDestination());
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    remove(departure.getDestination());
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    remove(departure.getDestination());
+  }
+
+  /**
+   * Counts one more departure to the specified destination.
+   *
+   * @param destination The destination name.
+   */
+  public void add(String destination) {
+    String key = normalize(destination);
+    Node node = root;
+    node.subtreeCount++;
+    for (int i = 0; i < key.length(); i++) {
+      node = node.getOrAddChild(key.charAt(i));
+      node.subtreeCount++;
+    }
+    if (node.count++ == 0) {
+      node.name = destination.trim();
+      numberOfDestinations++;
+    }
+  }
+
+  /**
+   * Counts one less departure to the specified destination.
+   *
+   * @param destination The destination name.
+   */
+  public void remove(String destination) {
+    String key = normalize(destination);
+    Node node = root;
+    // Find the node first, so that the counts are not changed for unknown names
+    for (int i = 0; i < key.length() && node != null; i++) {
+      node = node.getChild(key.charAt(i));
+    }
+    if (node == null || node.count == 0) {
+      return;
+    }
+    node = root;
+    node.subtreeCount--;
+    for (int i = 0; i < key.length(); i++) {
+      node = node.getChild(key.charAt(i));
+      node.subtreeCount--;
+    }
+    if (--node.count == 0) {
+      numberOfDestinations--;
+    }
+  }
+
+  /**
+   * Checks if the specified destination currently has departures.
+   *
+   * @param destination The destination name.
+   * @return True if the destination has departures, false otherwise.
+   */
+  public boolean contains(String destination) {
+    return getCount(destination) > 0;
+  }
+
+  /**
+   * Gets the number of departures to the specified destination.
+   *
+   * @param destination The destination name.
+   * @return The number of departures, 0 if the destination is unknown.
+   */
+  public int getCount(String destination) {
+    String key = normalize(destination);
+    Node node = root;
+    for (int i = 0; i < key.length() && node != null; i++) {
+      node = node.getChild(key.charAt(i));
+    }
+    return (node == null) ? 0 : node.count;
+  }
+
+  /**
+   * Finds destinations that start with, or are close to, the search text. The number of typos
+   * that are tolerated depends on the length of the search text.
+   *
+   * @param query The search text.
+   * @param limit The maximum number of destinations to return.
+   * @return The destination names, best match first.
+   */
+  public List<String> search(String query, int limit) {
+    int length = normalize(query).length();
+    int maxDistance = (length <= 2) ? 0 : (length <= 5) ? 1 : 2;
+    return search(query, maxDistance, limit);
+  }
+
+  /**
+   * Finds destinations where the whole name, or the beginning of the name, is at most
+   * maxDistance insertions, deletions or substitutions away from the search text.
+   *
+   * @param query       The search text.
+   * @param maxDistance The maximum edit distance.
+   * @param limit       The maximum number of destinations to return.
+   * @return The destination names, best match first.
+   */
+  public List<String> search(String query, int maxDistance, int limit) {
+    String key = normalize(query);
+    if (limit <= 0) {
+      return List.of();
+    }
+    // The worst of the best matches found so far is at the head of the queue
+    PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+    int[] firstRow = new int[key.length() + 1];
+    for (int j = 0; j < firstRow.length; j++) {
+      firstRow[j] = j;
+    }
+    search(root, key, firstRow, firstRow[key.length()], maxDistance, limit, best);
+
+    List<String> result = new ArrayList<>(best.size());
+    best.stream().sorted(BEST_FIRST).forEach(match -> result.add(match.node.name));
+    return result;
+  }
+
+  /**
+   * Visits a node of the trie with the edit distances between the text of the node and every
+   * prefix of the search text.
+   *
+   * @param node           The node to visit.
+   * @param key            The normalized search text.
+   * @param row            Edit distances from the text of the node to each prefix of the key.
+   * @param prefixDistance The smallest distance from the whole key to the text of this node or
+   *                       any of its ancestors.
+   * @param maxDistance    The maximum edit distance.
+   * @param limit          The maximum number of matches to keep.
+   * @param best           The best matches found so far.
+   */
+
+  private static void search(Node node, String key, int[] row, int prefixDistance,
+                             int maxDistance, int limit, PriorityQueue<Match> best) {
+    if (node.count > 0 && prefixDistance <= maxDistance) {
+      // The prefix distance is never larger than the distance to the whole name
+      boolean wholeName = row[key.length()] == prefixDistance;
+      offer(best, new Match(node, prefixDistance, wholeName), limit);
+    }
+    // Stop when no extension of this node can come within the distance
+    if (prefixDistance > maxDistance && minimum(row) > maxDistance) {
+      return;
+    }
+    for (int i = 0; i < node.size; i++) {
+      Node child = node.children[i];
+      if (child.subtreeCount == 0) {
+        continue;
+      }
+      int[] childRow = nextRow(row, key, node.keys[i]);
+      search(child, key, childRow, Math.min(prefixDistance, childRow[key.length()]),
+              maxDistance, limit, best);
+    }
+  }
+
+  /**
+   * Gets the smallest value of a row of the edit distance table.
+   */
+
+  private static int minimum(int[] row) {
+    int minimum = row[0];
+    for (int value : row) {
+      minimum = Math.min(minimum, value);
+    }
+    return minimum;
+  }
+
+  /**
+   * Computes the next row of the edit distance table when a character is added to the text
+   * of the node.
+   */
+
+  private static int[] nextRow(int[] row, String key, char c) {
+    int[] next = new int[row.length];
+    next[0] = row[0] + 1;
+    for (int j = 1; j < row.length; j++) {
+      int substitution = row[j - 1] + ((key.charAt(j - 1) == c) ? 0 : 1);
+      next[j] = Math.min(substitution, Math.min(row[j] + 1, next[j - 1] + 1));
+    }
+    return next;
+  }
+
+  /**
+   * Adds a match to the best matches, keeping at most limit matches.
+   */
+
+  private static void offer(PriorityQueue<Match> best, Match match, int limit) {
+    best.add(match);
+    if (best.size() > limit) {
+      best.poll();
+    }
+  }
+
+  /**
+   * A destination found by a search.
+   */
+
+  private record Match(Node node, int distance, boolean wholeName) {
+  }
+
+  /**
+   * A node of the trie. Children are kept in small arrays sorted by character.
+   */
+
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private int size;
+    private int count;
+    private int subtreeCount;
+    private String name;
+
+    private Node getChild(char c) {
+      int index = Arrays.binarySearch(keys, 0, size, c);
+      return (index >= 0) ? children[index] : null;
+    }
+
+    private Node getOrAddChild(char c) {
+      int index = Arrays.binarySearch(keys, 0, size, c);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insertAt = -index - 1;
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, Math.max(2, size * 2));
+        children = Arrays.copyOf(children, keys.length);
+      }
+      System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+      System.arraycopy(children, insertAt, children, insertAt + 1, size - insertAt);
+      Node child = new Node();
+      keys[insertAt] = c;
+      children[insertAt] = child;
+      size++;
+      return child;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>DirectBufferPool.</h1>
+ * <p>
+ * The DirectBufferPool class hands out direct byte buffers of one size and takes them back, so
+ * the buffers written to sockets are allocated once instead of for every message. Direct
+ * buffers are costly to allocate and are only freed by the garbage collector, which makes
+ * reuse worth more than for heap buffers.
+ * </p>
+ * <p>
+ * Buffers can be taken and given back from any thread. At most a fixed number of free buffers
+ * are kept; the rest are left to the garbage collector.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-05
+ */
+
+final class DirectBufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger numberOfFree = new AtomicInteger();
+  private final AtomicInteger numberOfAllocations = new AtomicInteger();
+
+  /**
+   * Creates an empty pool.
+   *
+   * @param bufferSize The capacity of the buffers.
+   * @param maxPooled  The most free buffers kept.
+   */
+  DirectBufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Takes a cleared buffer from the pool, or allocates one if the pool is empty.
+   *
+   * @return The buffer.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = free.poll();
+    if (buffer == null) {
+      numberOfAllocations.incrementAndGet();
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    numberOfFree.decrementAndGet();
+    return buffer.clear();
+  }
+
+  /**
+   * Gives a buffer back. It must not be used after this.
+   *
+   * @param buffer The buffer, taken from this pool.
+   */
+  void release(ByteBuffer buffer) {
+    if (numberOfFree.incrementAndGet() <= maxPooled) {
+      free.add(buffer);
+    } else {
+      numberOfFree.decrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the capacity of the buffers.
+   *
+   * @return The capacity in bytes.
+   */
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Gets the number of buffers allocated so far.
+   *
+   * @return The number of allocations.
+   */
+  int getNumberOfAllocations() {
+    return numberOfAllocations.get();
+  }
+}
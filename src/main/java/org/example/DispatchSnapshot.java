@@ -0,0 +1,37 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * <h1>DispatchSnapshot.</h1>
+ * <p>
+ * A DispatchSnapshot is the board of a train dispatch as it was after a batch of commands was
+ * applied by a CommandDispatcher. It holds copies of the departures, so it can be read from any
+ * thread and never changes.
+ * </p>
+ *
+ * @param sequence      The sequence number of the last command included.
+ * @param currentMinute The current time of the dispatch as an epoch minute.
+ * @param departures    The departures sorted by time plus delay.
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-01
+ */
+
+public record DispatchSnapshot(long sequence, int currentMinute, List<Departure> departures) {
+
+  /**
+   * Finds a departure by its train number.
+   *
+   * @param trainNumber The train number.
+   * @return The first departure with the number, or null if there is none.
+   */
+  public Departure findByNumber(int trainNumber) {
+    for (Departure departure : departures) {
+      if (departure.getTrainNumber() == trainNumber) {
+        return departure;
+      }
+    }
+    return null;
+  }
+}
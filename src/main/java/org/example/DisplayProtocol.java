@@ -0,0 +1,189 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>DisplayProtocol.</h1>
+ * <p>
+ * The DisplayProtocol class holds the binary wire format between the DisplayServer and the
+ * platform displays. A display sends one subscribe message with a filter: every departure, the
+ * departures of one track, or the departures to one destination. The server then sends a
+ * snapshot of the matching departures, and delta frames as they change. All numbers are big
+ * endian.
+ * </p>
+ * <p>
+ * A frame is a type byte, the current time as an int epoch minute and a short count, followed
+ * by that many records. A record has a fixed width: an operation byte, the scheduled epoch
+ * minute and train number as ints, the delay and track as shorts (-1 for no track), the line
+ * in 8 bytes and the destination in 16 bytes, as UTF-8 padded with zeros and cut to fit.
+ * Departures are identified by train number and scheduled time. A time frame has no records;
+ * the display drops the departures whose time plus delay is before the new time.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-05
+ */
+
+final class DisplayProtocol {
+
+  static final byte SUBSCRIBE = 1;
+
+  static final byte FILTER_ALL = 0;
+  static final byte FILTER_TRACK = 1;
+  static final byte FILTER_DESTINATION = 2;
+
+  /**
+   * The first frame after a subscription. The display replaces its departures with these.
+   */
+  static final byte SNAPSHOT = 1;
+  static final byte DELTA = 2;
+  static final byte TIME = 3;
+
+  static final byte UPSERT = 1;
+  static final byte REMOVE = 2;
+
+  static final int LINE_WIDTH = 8;
+  static final int DESTINATION_WIDTH = 16;
+  static final int HEADER_SIZE = 1 + 4 + 2;
+  static final int RECORD_SIZE = 1 + 4 + 4 + 2 + 2 + LINE_WIDTH + DESTINATION_WIDTH;
+
+  /**
+   * A decoded record.
+   *
+   * @param operation       UPSERT or REMOVE.
+   * @param departureMinute The scheduled time as an epoch minute.
+   * @param trainNumber     The train number.
+   * @param delay           The delay in minutes.
+   * @param track           The track, -1 if none.
+   * @param line            The line.
+   * @param destination     The destination, possibly cut.
+   */
+  record Update(byte operation, int departureMinute, int trainNumber, int delay, int track,
+                String line, String destination) {
+  }
+
+  /**
+   * A decoded frame.
+   *
+   * @param type          SNAPSHOT, DELTA or TIME.
+   * @param currentMinute The current time of the dispatch as an epoch minute.
+   * @param updates       The records.
+   */
+  record Frame(byte type, int currentMinute, List<Update> updates) {
+  }
+
+  private DisplayProtocol() {
+  }
+
+  /**
+   * Writes the header of a frame. The count can be changed later with setCount.
+   */
+  static void putHeader(ByteBuffer buffer, byte type, int currentMinute, int count) {
+    buffer.put(type).putInt(currentMinute).putShort((short) count);
+  }
+
+  /**
+   * Sets the count of a frame that starts at the beginning of the buffer.
+   */
+  static void setCount(ByteBuffer buffer, int count) {
+    buffer.putShort(HEADER_SIZE - 2, (short) count);
+  }
+
+  /**
+   * Writes a record of a departure, straight from its fields and without allocating.
+   */
+  static void putRecord(ByteBuffer buffer, byte operation, Departure departure) {
+    buffer.put(operation)
+            .putInt(departure.getDepartureMinute())
+            .putInt(departure.getTrainNumber())
+            .putShort((short) departure.getDelay())
+            .putShort((short) departure.getTrack());
+    putText(buffer, departure.getLine(), LINE_WIDTH);
+    putText(buffer, departure.getDestination(), DESTINATION_WIDTH);
+  }
+
+  /**
+   * Writes a subscribe message.
+   *
+   * @param buffer      The buffer to write to.
+   * @param filter      FILTER_ALL, FILTER_TRACK or FILTER_DESTINATION.
+   * @param track       The track, used by FILTER_TRACK.
+   * @param destination The destination, used by FILTER_DESTINATION.
+   */
+  static void putSubscribe(ByteBuffer buffer, byte filter, int track, String destination) {
+    buffer.put(SUBSCRIBE).put(filter);
+    if (filter == FILTER_TRACK) {
+      buffer.putInt(track);
+    } else if (filter == FILTER_DESTINATION) {
+      byte[] bytes = destination.getBytes(StandardCharsets.UTF_8);
+      buffer.putShort((short) bytes.length).put(bytes);
+    }
+  }
+
+  /**
+   * Reads a frame, as a display would.
+   *
+   * @param in The stream from the server.
+   * @return The frame.
+   * @throws IOException if the frame could not be read.
+   */
+  static Frame read(DataInput in) throws IOException {
+    byte type = in.readByte();
+    int currentMinute = in.readInt();
+    int count = in.readUnsignedShort();
+    List<Update> updates = new ArrayList<>(count);
+    byte[] line = new byte[LINE_WIDTH];
+    byte[] destination = new byte[DESTINATION_WIDTH];
+    for (int i = 0; i < count; i++) {
+      byte operation = in.readByte();
+      int departureMinute = in.readInt();
+      int trainNumber = in.readInt();
+      int delay = in.readShort();
+      int track = in.readShort();
+      in.readFully(line);
+      in.readFully(destination);
+      updates.add(new Update(operation, departureMinute, trainNumber, delay, track,
+              text(line), text(destination)));
+    }
+    return new Frame(type, currentMinute, updates);
+  }
+
+  /**
+   * Writes a text as UTF-8 in a fixed width, cut at a whole character and padded with zeros.
+   */
+
+  private static void putText(ByteBuffer buffer, String text, int width) {
+    int end = buffer.position() + width;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80 && buffer.position() < end) {
+        buffer.put((byte) c);
+      } else if (c < 0x800 && buffer.position() + 2 <= end) {
+        buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+      } else if (c >= 0x800 && buffer.position() + 3 <= end) {
+        // Characters outside the basic plane are not used in station names
+        buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F))
+                .put((byte) (0x80 | c & 0x3F));
+      } else {
+        break;
+      }
+    }
+    while (buffer.position() < end) {
+      buffer.put((byte) 0);
+    }
+  }
+
+  private static String text(byte[] bytes) {
+    int length = 0;
+    while (length < bytes.length && bytes[length] != 0) {
+      length++;
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,551 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>DisplayServer.</h1>
+ * <p>
+ * The DisplayServer class pushes departures to platform displays over TCP, in the compact
+ * binary format of DisplayProtocol. A display subscribes with a filter on a track or a
+ * destination, gets a snapshot of the matching departures and then a delta frame for every
+ * change. All connections are served by one thread with a non-blocking Selector.
+ * </p>
+ * <p>
+ * The server follows a SharedTrainDispatch as a DepartureListener. Each change is encoded once,
+ * straight from the departure, into a pooled direct buffer, and the same buffer is queued for
+ * every display that matches. The selector thread writes the queued frames of a display with
+ * one gathering write, so frames are never copied per message or per display. A buffer goes
+ * back to its pool when every display has been sent it.
+ * </p>
+ * <p>
+ * A display that falls more than MAX_QUEUED_FRAMES behind is disconnected, so a stuck display
+ * cannot hold on to buffers. It can connect again and get a new snapshot.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-02-05
+ */
+
+public class DisplayServer implements DepartureListener, AutoCloseable {
+
+  /**
+   * The most frames queued for a display before it is disconnected.
+   */
+  static final int MAX_QUEUED_FRAMES = 4096;
+
+  /**
+   * The most frames written with one gathering write.
+   */
+  private static final int MAX_GATHER = 64;
+
+  private static final int SNAPSHOT_BUFFER_SIZE = 4096;
+
+  /**
+   * A frame shared by the displays it is queued for.
+   */
+  private static final class Frame {
+    private final ByteBuffer buffer;
+    private final DirectBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Frame(DirectBufferPool pool) {
+      this.pool = pool;
+      this.buffer = pool.acquire();
+    }
+
+    private void release() {
+      if (references.decrementAndGet() == 0) {
+        pool.release(buffer);
+      }
+    }
+  }
+
+  /**
+   * A frame queued for one display, with its own position in the shared buffer.
+   */
+  private record Pending(Frame frame, ByteBuffer view) {
+  }
+
+  /**
+   * A connected display.
+   */
+  private static final class Display {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer request = ByteBuffer.allocate(256);
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ArrayDeque<Pending> writing = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private volatile boolean overflowed;
+    private byte filter;
+    private int track;
+    private String destination;
+
+    private Display(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    private boolean matches(int departureTrack, String departureDestination) {
+      return switch (filter) {
+        case DisplayProtocol.FILTER_TRACK -> departureTrack == track;
+        case DisplayProtocol.FILTER_DESTINATION ->
+                departureDestination.equalsIgnoreCase(destination);
+        default -> true;
+      };
+    }
+  }
+
+  private final SharedTrainDispatch trainDispatch;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final DirectBufferPool deltaPool = new DirectBufferPool(
+          DisplayProtocol.HEADER_SIZE + DisplayProtocol.RECORD_SIZE, 4096);
+  private final DirectBufferPool snapshotPool = new DirectBufferPool(SNAPSHOT_BUFFER_SIZE, 64);
+  private final List<Display> displays = new CopyOnWriteArrayList<>();
+  private final ConcurrentLinkedQueue<Display> ready = new ConcurrentLinkedQueue<>();
+  private final AtomicLong numberOfFramesSent = new AtomicLong();
+  private final AtomicLong numberOfWrites = new AtomicLong();
+  private final Thread selectorThread;
+  private volatile boolean closed;
+
+  /**
+   * Starts serving displays on a port of all interfaces.
+   *
+   * @param trainDispatch The dispatch to show.
+   * @param port          The port, or 0 to choose a free one.
+   * @throws IOException if the port could not be opened.
+   */
+  public DisplayServer(SharedTrainDispatch trainDispatch, int port) throws IOException {
+    this.trainDispatch = trainDispatch;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    trainDispatch.addDepartureListener(this);
+    this.selectorThread = Thread.ofPlatform().daemon().name("display-selector")
+            .start(this::select);
+  }
+
+  /**
+   * Gets the port the server listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Gets the number of subscribed displays.
+   *
+   * @return The number of displays.
+   */
+  public int getNumberOfDisplays() {
+    return displays.size();
+  }
+
+  /**
+   * Gets the number of frames sent to all displays together.
+   *
+   * @return The number of frames.
+   */
+  public long getNumberOfFramesSent() {
+    return numberOfFramesSent.get();
+  }
+
+  /**
+   * Gets the number of gathering writes made.
+   *
+   * @return The number of writes.
+   */
+  public long getNumberOfWrites() {
+    return numberOfWrites.get();
+  }
+
+  /**
+   * Gets the number of direct buffers allocated, which stays low while buffers are reused.
+   *
+   * @return The number of buffers.
+   */
+  public int getNumberOfBuffersAllocated() {
+    return deltaPool.getNumberOfAllocations() + snapshotPool.getNumberOfAllocations();
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    sendUpdate(DisplayProtocol.UPSERT, departure, departure.getTrack(), false);
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    sendUpdate(DisplayProtocol.REMOVE, departure, departure.getTrack(), false);
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    sendUpdate(DisplayProtocol.REMOVE, departure, departure.getTrack(), false);
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    sendUpdate(DisplayProtocol.UPSERT, departure, departure.getTrack(), false);
+  }
+
+  @Override
+  public void trackChanged(Departure departure, int oldTrack) {
+    // Displays of the old track only, then every display that shows the new track
+    sendUpdate(DisplayProtocol.REMOVE, departure, oldTrack, true);
+    sendUpdate(DisplayProtocol.UPSERT, departure, departure.getTrack(), false);
+  }
+
+  @Override
+  public void timeChanged(int currentMinute) {
+    Frame frame = null;
+    for (Display display : displays) {
+      if (frame == null) {
+        frame = new Frame(deltaPool);
+        DisplayProtocol.putHeader(frame.buffer, DisplayProtocol.TIME, currentMinute, 0);
+        frame.buffer.flip();
+      }
+      enqueue(display, frame);
+    }
+    finish(frame);
+  }
+
+  /**
+   * Stops the server, disconnects the displays and stops following the dispatch.
+   *
+   * @throws IOException if the server could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    trainDispatch.removeDepartureListener(this);
+    closed = true;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Display display : displays) {
+      disconnect(display);
+    }
+    serverChannel.close();
+    selector.close();
+  }
+
+  /**
+   * Encodes a change of a departure once, and queues it for every display that shows the
+   * departure on a track.
+   *
+   * @param onlyTrackDisplays True to skip the displays that do not filter on the track.
+   */
+
+  private void sendUpdate(byte operation, Departure departure, int track,
+                          boolean onlyTrackDisplays) {
+    Frame frame = null;
+    for (Display display : displays) {
+      if (onlyTrackDisplays && (display.filter != DisplayProtocol.FILTER_TRACK
+              || track == departure.getTrack())) {
+        continue;
+      }
+      if (!display.matches(track, departure.getDestination())) {
+        continue;
+      }
+      if (frame == null) {
+        frame = new Frame(deltaPool);
+        DisplayProtocol.putHeader(frame.buffer, DisplayProtocol.DELTA,
+                trainDispatch.getCurrentMinute(), 1);
+        DisplayProtocol.putRecord(frame.buffer, operation, departure);
+        frame.buffer.flip();
+      }
+      enqueue(display, frame);
+    }
+    finish(frame);
+  }
+
+  /**
+   * Queues a frame for a display and asks the selector thread to write it.
+   */
+
+  private void enqueue(Display display, Frame frame) {
+    frame.references.incrementAndGet();
+    display.queue.add(new Pending(frame, frame.buffer.duplicate()));
+    if (display.queued.incrementAndGet() > MAX_QUEUED_FRAMES) {
+      display.overflowed = true;
+    }
+    ready.add(display);
+  }
+
+  /**
+   * Drops the reference of the thread that encoded a frame, and wakes the selector thread.
+   */
+
+  private void finish(Frame frame) {
+    if (frame != null) {
+      frame.release();
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Serves the displays until the server is closed.
+   */
+
+  private void select() {
+    try {
+      while (!closed) {
+        selector.select();
+        Display display;
+        while ((display = ready.poll()) != null) {
+          if (display.key.isValid()) {
+            write(display);
+          }
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Display selected = (Display) key.attachment();
+          try {
+            if (key.isReadable()) {
+              read(selected);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(selected);
+            }
+          } catch (RuntimeException e) {
+            // One display must not stop the others from being served
+            disconnect(selected);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      // The selector is closed
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    key.attach(new Display(channel, key));
+  }
+
+  /**
+   * Reads subscribe messages from a display. A new subscription replaces the old one and
+   * starts with a new snapshot.
+   */
+
+  private void read(Display display) {
+    try {
+      if (display.channel.read(display.request) < 0) {
+        disconnect(display);
+        return;
+      }
+    } catch (IOException e) {
+      disconnect(display);
+      return;
+    }
+    ByteBuffer request = display.request.flip();
+    while (true) {
+      request.mark();
+      if (request.remaining() < 2) {
+        break;
+      }
+      if (request.get() != DisplayProtocol.SUBSCRIBE) {
+        disconnect(display);
+        return;
+      }
+      byte filter = request.get();
+      int track = 0;
+      String destination = null;
+      if (filter != DisplayProtocol.FILTER_ALL && filter != DisplayProtocol.FILTER_TRACK
+              && filter != DisplayProtocol.FILTER_DESTINATION) {
+        disconnect(display);
+        return;
+      }
+      if (filter == DisplayProtocol.FILTER_TRACK) {
+        if (request.remaining() < 4) {
+          request.reset();
+          break;
+        }
+        track = request.getInt();
+      } else if (filter == DisplayProtocol.FILTER_DESTINATION) {
+        if (request.remaining() < 2) {
+          request.reset();
+          break;
+        }
+        int length = request.getShort(request.position());
+        // A message longer than the request buffer could never be read whole
+        if (length < 0 || 4 + length > request.capacity()) {
+          disconnect(display);
+          return;
+        }
+        if (request.remaining() < 2 + length) {
+          request.reset();
+          break;
+        }
+        request.getShort();
+        byte[] bytes = new byte[length];
+        request.get(bytes);
+        destination = new String(bytes, StandardCharsets.UTF_8);
+      }
+      subscribe(display, filter, track, destination);
+    }
+    request.compact();
+    write(display);
+  }
+
+  /**
+   * Sets the filter of a display and queues a snapshot of the departures it matches. The
+   * dispatch is locked, so no change is missed or sent twice between the snapshot and the
+   * deltas.
+   */
+
+  private void subscribe(Display display, byte filter, int track, String destination) {
+    trainDispatch.withLock(dispatch -> {
+      displays.remove(display);
+      display.filter = filter;
+      display.track = track;
+      display.destination = destination;
+      queueSnapshot(display, dispatch);
+      displays.add(display);
+      return null;
+    });
+  }
+
+  /**
+   * Queues the departures a display matches, in as many frames as they need. The first frame
+   * is a snapshot and the rest are deltas.
+   */
+
+  private void queueSnapshot(Display display, TrainDispatch dispatch) {
+    int currentMinute = dispatch.getCurrentMinute();
+    int perFrame = (SNAPSHOT_BUFFER_SIZE - DisplayProtocol.HEADER_SIZE)
+            / DisplayProtocol.RECORD_SIZE;
+    Frame frame = startSnapshotFrame(DisplayProtocol.SNAPSHOT, currentMinute);
+    int count = 0;
+    for (Departure departure : dispatch.sortedList()) {
+      if (!display.matches(departure.getTrack(), departure.getDestination())) {
+        continue;
+      }
+      if (count == perFrame) {
+        endSnapshotFrame(display, frame, count);
+        frame = startSnapshotFrame(DisplayProtocol.DELTA, currentMinute);
+        count = 0;
+      }
+      DisplayProtocol.putRecord(frame.buffer, DisplayProtocol.UPSERT, departure);
+      count++;
+    }
+    endSnapshotFrame(display, frame, count);
+  }
+
+  private Frame startSnapshotFrame(byte type, int currentMinute) {
+    Frame frame = new Frame(snapshotPool);
+    DisplayProtocol.putHeader(frame.buffer, type, currentMinute, 0);
+    return frame;
+  }
+
+  private void endSnapshotFrame(Display display, Frame frame, int count) {
+    DisplayProtocol.setCount(frame.buffer, count);
+    frame.buffer.flip();
+    enqueue(display, frame);
+    frame.release();
+  }
+
+  /**
+   * Writes as many queued frames of a display as the socket takes, with gathering writes,
+   * and waits for the socket to be writable if some are left.
+   */
+
+  private void write(Display display) {
+    if (display.overflowed) {
+      disconnect(display);
+      return;
+    }
+    try {
+      while (true) {
+        Pending pending;
+        while (display.writing.size() < MAX_GATHER && (pending = display.queue.poll()) != null) {
+          display.writing.add(pending);
+        }
+        if (display.writing.isEmpty()) {
+          display.key.interestOps(SelectionKey.OP_READ);
+          return;
+        }
+        int count = 0;
+        for (Pending queued : display.writing) {
+          display.gather[count++] = queued.view();
+        }
+        display.channel.write(display.gather, 0, count);
+        numberOfWrites.incrementAndGet();
+        Arrays.fill(display.gather, 0, count, null);
+        while (!display.writing.isEmpty() && !display.writing.peek().view().hasRemaining()) {
+          display.writing.poll().frame().release();
+          display.queued.decrementAndGet();
+          numberOfFramesSent.incrementAndGet();
+        }
+        if (!display.writing.isEmpty()) {
+          // The socket is full, so the rest is written when it becomes writable
+          display.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+    } catch (IOException e) {
+      disconnect(display);
+    }
+  }
+
+  /**
+   * Closes the connection of a display and gives back the frames queued for it.
+   */
+
+  private void disconnect(Display display) {
+    displays.remove(display);
+    display.key.cancel();
+    try {
+      display.channel.close();
+    } catch (IOException e) {
+      // Closing is best effort
+    }
+    Pending pending;
+    while ((pending = display.writing.poll()) != null) {
+      pending.frame().release();
+    }
+    while ((pending = display.queue.poll()) != null) {
+      pending.frame().release();
+    }
+  }
+}
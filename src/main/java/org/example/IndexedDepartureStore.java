@@ -0,0 +1,251 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>IndexedDepartureStore.</h1>
+ * <p>
+ * The IndexedDepartureStore class keeps the departures in a tree by time plus delay, and in
+ * hash indexes by train number and destination. The board is read in order without sorting,
+ * lookups by train number and destination only touch the matching departures, and the
+ * departures that have left are taken from the front of the tree.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-01-27
+ */
+
+public class IndexedDepartureStore implements DepartureStore {
+
+  private final TreeMap<Integer, List<Departure>> byEffectiveMinute = new TreeMap<>();
+  private final Map<Integer, List<Departure>> byNumber = new HashMap<>();
+  private final Map<String, List<Departure>> byDestination = new HashMap<>();
+  private int size;
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void add(Departure departure) {
+    addTo(byEffectiveMinute, departure.getEffectiveMinute(), departure);
+    addTo(byNumber, departure.getTrainNumber(), departure);
+    addTo(byDestination, DestinationIndex.normalize(departure.getDestination()), departure);
+    size++;
+  }
+
+  @Override
+  public Departure remove(Departure departure) {
+    List<Departure> withNumber = byNumber.get(departure.getTrainNumber());
+    if (withNumber == null) {
+      return null;
+    }
+    // Prefer the same object over an equal one, like the reference implementation
+    int index = withNumber.indexOf(departure);
+    for (int i = 0; i < withNumber.size(); i++) {
+      if (withNumber.get(i) == departure) {
+        index = i;
+        break;
+      }
+    }
+    if (index < 0) {
+      return null;
+    }
+    Departure removed = withNumber.get(index);
+    removeFrom(byNumber, removed.getTrainNumber(), removed);
+    removeFrom(byEffectiveMinute, removed.getEffectiveMinute(), removed);
+    removeFrom(byDestination, DestinationIndex.normalize(removed.getDestination()), removed);
+    size--;
+    return removed;
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber) {
+    List<Departure> withNumber = byNumber.get(trainNumber);
+    if (withNumber == null) {
+      return null;
+    }
+    Departure found = null;
+    for (int i = 0; i < withNumber.size(); i++) {
+      Departure departure = withNumber.get(i);
+      if (found == null || departure.getEffectiveMinute() < found.getEffectiveMinute()) {
+        found = departure;
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber, int serviceDay) {
+    List<Departure> withNumber = byNumber.get(trainNumber);
+    if (withNumber == null) {
+      return null;
+    }
+    for (int i = 0; i < withNumber.size(); i++) {
+      Departure departure = withNumber.get(i);
+      if (ServiceTime.dayOf(departure.getDepartureMinute()) == serviceDay) {
+        return departure;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void forEachWithNumber(int trainNumber, Consumer<Departure> action) {
+    List<Departure> withNumber = byNumber.get(trainNumber);
+    if (withNumber != null) {
+      withNumber.forEach(action);
+    }
+  }
+
+  @Override
+  public void forEachWithDestination(String destination, Consumer<Departure> action) {
+    List<Departure> toDestination = byDestination.get(DestinationIndex.normalize(destination));
+    if (toDestination != null) {
+      toDestination.forEach(action);
+    }
+  }
+
+  @Override
+  public List<Departure> findByDestination(String destination) {
+    List<Departure> toDestination = byDestination.get(DestinationIndex.normalize(destination));
+    if (toDestination == null) {
+      return List.of();
+    }
+    List<Departure> result = new ArrayList<>(toDestination);
+    result.sort((first, second) ->
+            Integer.compare(first.getEffectiveMinute(), second.getEffectiveMinute()));
+    return result;
+  }
+
+  @Override
+  public List<Departure> sortedList() {
+    List<Departure> result = new ArrayList<>(size);
+    for (List<Departure> departures : byEffectiveMinute.values()) {
+      result.addAll(departures);
+    }
+    return result;
+  }
+
+  @Override
+  public void forEachBetween(int fromMinute, int toMinute, Consumer<Departure> action) {
+    if (fromMinute > toMinute) {
+      return;
+    }
+    for (List<Departure> departures
+            : byEffectiveMinute.subMap(fromMinute, true, toMinute, true).values()) {
+      departures.forEach(action);
+    }
+  }
+
+  /**
+   * Estimates the number of departures in a window, assuming they are spread evenly between
+   * the first and the last departure.
+   */
+  @Override
+  public int estimateBetween(int fromMinute, int toMinute) {
+    if (size == 0) {
+      return 0;
+    }
+    long first = byEffectiveMinute.firstKey();
+    long last = byEffectiveMinute.lastKey();
+    long overlap = Math.min(toMinute, last) - Math.max(fromMinute, first) + 1;
+    if (overlap <= 0) {
+      return 0;
+    }
+    return (int) Math.max(1, size * overlap / (last - first + 1));
+  }
+
+  @Override
+  public void forEach(Consumer<Departure> action) {
+    for (List<Departure> departures : byEffectiveMinute.values()) {
+      departures.forEach(action);
+    }
+  }
+
+  @Override
+  public int removeBefore(int minute, Consumer<Departure> expired) {
+    int count = 0;
+    Iterator<List<Departure>> iterator = byEffectiveMinute.headMap(minute).values().iterator();
+    while (iterator.hasNext()) {
+      for (Departure departure : iterator.next()) {
+        removeFrom(byNumber, departure.getTrainNumber(), departure);
+        removeFrom(byDestination, DestinationIndex.normalize(departure.getDestination()),
+                departure);
+        expired.accept(departure);
+        count++;
+      }
+      iterator.remove();
+    }
+    size -= count;
+    return count;
+  }
+
+  @Override
+  public void setDelay(Departure departure, int delay) {
+    Departure stored = findStored(departure);
+    if (stored == null) {
+      departure.setDelay(delay);
+      return;
+    }
+    removeFrom(byEffectiveMinute, stored.getEffectiveMinute(), stored);
+    stored.setDelay(delay);
+    departure.setDelay(delay);
+    addTo(byEffectiveMinute, stored.getEffectiveMinute(), stored);
+  }
+
+  @Override
+  public void setTrack(Departure departure, int track) {
+    Departure stored = findStored(departure);
+    if (stored != null) {
+      stored.setTrack(track);
+    }
+    departure.setTrack(track);
+  }
+
+  /**
+   * Finds the stored departure that is the same as the specified one.
+   */
+
+  private Departure findStored(Departure departure) {
+    List<Departure> withNumber = byNumber.get(departure.getTrainNumber());
+    if (withNumber == null) {
+      return null;
+    }
+    int index = Departure.indexOfSame(withNumber, departure);
+    return (index < 0) ? null : withNumber.get(index);
+  }
+
+  private static <K> void addTo(Map<K, List<Departure>> index, K key, Departure departure) {
+    index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(departure);
+  }
+
+  /**
+   * Removes a departure from the list of a key, comparing by identity.
+   */
+
+  private static <K> void removeFrom(Map<K, List<Departure>> index, K key,
+                                     Departure departure) {
+    List<Departure> departures = index.get(key);
+    if (departures == null) {
+      return;
+    }
+    for (int i = 0; i < departures.size(); i++) {
+      if (departures.get(i) == departure) {
+        departures.remove(i);
+        break;
+      }
+    }
+    if (departures.isEmpty()) {
+      index.remove(key);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package org.example;
 
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 /**
  * <h1>InputValidator.</h1>
@@ -11,7 +12,7 @@ import java.time.format.DateTimeFormatter;
  * </p>
  *
  * @author Mikael Stray Froeyshov
- * @version 1.0
+ * @version 1.2
  * @since 2023-12-04
  */
 
@@ -19,6 +20,11 @@ public class InputValidator {
 
   private static final String INPUT_CANNOT_BE_EMPTY = "Input cannot be empty. ";
 
+  /**
+   * The format of times in messages. A formatter is costly to create and safe to share.
+   */
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
   /**
    * Method to ensure right time format when creating a new departure.
    * Ensures that the time user input is not empty or before the current time.
@@ -31,15 +37,50 @@ public class InputValidator {
 
   public static LocalTime validateTimeInput(String newTime, LocalTime timeNow)
           throws IllegalArgumentException {
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
     if (newTime.isEmpty()) {
       throw new IllegalArgumentException(INPUT_CANNOT_BE_EMPTY);
     }
-    if (LocalTime.parse(newTime).isBefore(timeNow)) {
+    LocalTime time = LocalTime.parse(newTime);
+    if (time.isBefore(timeNow)) {
       throw new IllegalArgumentException("Time cannot be before the current time: "
-              + formatter.format(timeNow) + ". ");
+              + TIME_FORMAT.format(timeNow) + ". ");
     }
-    return LocalTime.parse(newTime);
+    return time;
+  }
+
+  /**
+   * Method to ensure right time format when creating a new departure or updating the time on a
+   * dispatch holding several service days. The time is given as hh:mm on the current service
+   * day, or as hh:mm+N for N service days after the current one.
+   *
+   * @param newTime   The new time as a String.
+   * @param minuteNow The current time as an epoch minute.
+   * @return The user input as an epoch minute.
+   * @throws IllegalArgumentException if the input is empty or before the current time.
+   */
+
+  public static int validateTimeInput(String newTime, int minuteNow)
+          throws IllegalArgumentException {
+    if (newTime.isEmpty()) {
+      throw new IllegalArgumentException(INPUT_CANNOT_BE_EMPTY);
+    }
+    int dayOffset = 0;
+    int plusIndex = newTime.indexOf('+');
+    if (plusIndex >= 0) {
+      dayOffset = Integer.parseInt(newTime.substring(plusIndex + 1));
+      if (dayOffset < 0 || dayOffset > 7) {
+        throw new IllegalArgumentException("Day offset has to be between 0 and 7. ");
+      }
+      newTime = newTime.substring(0, plusIndex);
+    }
+    int dayStart = ServiceTime.dayOf(minuteNow) * ServiceTime.MINUTES_PER_DAY;
+    int epochMinute = dayStart + dayOffset * ServiceTime.MINUTES_PER_DAY
+            + ServiceTime.of(LocalTime.parse(newTime));
+    if (epochMinute < minuteNow) {
+      throw new IllegalArgumentException("Time cannot be before the current time: "
+              + ServiceTime.format(minuteNow) + ". ");
+    }
+    return epochMinute;
   }
 
   /**
@@ -120,6 +161,22 @@ public class InputValidator {
 
   public int validateTrainNumberToFind(String trainNumber, TrainDispatch trainDispatch)
           throws IllegalArgumentException {
+    return validateDepartureToFind(trainNumber, trainDispatch).getTrainNumber();
+  }
+
+  /**
+   * Method to ensure right train number format when finding a departure to change.
+   * Validates the input like validateTrainNumberToFind, and returns a handle to the departure
+   * so it is only looked up once.
+   *
+   * @param trainNumber The user input as a String.
+   * @param trainDispatch The TrainDispatch instance.
+   * @return A handle to the departure with the train number.
+   * @throws IllegalArgumentException if the input is empty, not a number or not between 1 and 9999.
+   */
+
+  public DepartureHandle validateDepartureToFind(String trainNumber, TrainDispatch trainDispatch)
+          throws IllegalArgumentException {
     if (trainNumber.isEmpty()) {
       throw new IllegalArgumentException(INPUT_CANNOT_BE_EMPTY);
     }
@@ -127,21 +184,23 @@ public class InputValidator {
     if (trainNumberInt <= 0 || trainNumberInt > 9999) {
       throw new IllegalArgumentException("Train number has to be positive and max 4 digits. ");
     }
-    if (!trainDispatch.findDuplicateTrainNumber(trainNumberInt)) {
+    DepartureHandle handle = trainDispatch.lookup(trainNumberInt);
+    if (handle == null) {
       throw new IllegalArgumentException("Train number does not exist. ");
     }
-    return trainNumberInt;
+    return handle;
   }
 
   /**
    * Method to ensure right destination format when finding a departure.
-   * Ensures that the destination user input is not empty, consists in the list
-   * and consists of only letters.
+   * Ensures that the destination user input is not empty and consists of only letters, and
+   * finds the destination in the list. The input can be the beginning of the destination and
+   * contain a few typos, in which case the best matching destination is returned.
    *
    * @param destination The user input as a String.
    * @param trainDispatch The TrainDispatch instance.
-   * @return The user input as a String.
-   * @throws IllegalArgumentException if the input is not valid
+   * @return The destination in the list that matches the input best.
+   * @throws IllegalArgumentException if the input is not valid or matches no destination.
    */
 
   public String validateDestinationToFind(String destination, TrainDispatch trainDispatch)
@@ -150,10 +209,59 @@ public class InputValidator {
       throw new IllegalArgumentException(INPUT_CANNOT_BE_EMPTY);
     } else if (!destination.matches("^[ A-Za-z0]+$")) {
       throw new IllegalArgumentException("Destination can only contain letters and numbers. ");
-    } else if (trainDispatch.findDeparturesByDestination(destination).isEmpty()) {
+    }
+    List<String> matches = trainDispatch.findDestinations(destination, 1);
+    if (matches.isEmpty()) {
       throw new IllegalArgumentException("Destination does not exist. ");
     }
-    return destination;
+    return matches.get(0);
+  }
+
+  /**
+   * Method to ensure that a track is free when setting the track of a departure.
+   * Ensures that no other departure on the track leaves so close in time that their dwell
+   * windows overlap.
+   *
+   * @param track The track, already validated by validateNumericInput. 0 means no track.
+   * @param effectiveMinute The time plus delay of the departure as an epoch minute.
+   * @param trainNumber The train number of the departure.
+   * @param trainDispatch The TrainDispatch instance.
+   * @return The track.
+   * @throws IllegalArgumentException if the track is occupied by another departure.
+   */
+
+  public int validateFreeTrack(int track, int effectiveMinute, int trainNumber,
+                               TrainDispatch trainDispatch) throws IllegalArgumentException {
+    return checkFreeTrack(track,
+            trainDispatch.findTrackConflict(track, effectiveMinute, trainNumber));
+  }
+
+  /**
+   * Method to ensure that a track is free when setting the track of the departure of a handle.
+   *
+   * @param track The track, already validated by validateNumericInput. 0 means no track.
+   * @param handle The handle of the departure.
+   * @param trainDispatch The TrainDispatch instance.
+   * @return The track.
+   * @throws IllegalArgumentException if the track is occupied by another departure.
+   */
+
+  public int validateFreeTrack(int track, DepartureHandle handle, TrainDispatch trainDispatch)
+          throws IllegalArgumentException {
+    return checkFreeTrack(track, trainDispatch.findTrackConflict(track, handle));
+  }
+
+  /**
+   * Throws if a departure conflicts with the track.
+   */
+
+  private static int checkFreeTrack(int track, Departure conflict) {
+    if (conflict != null) {
+      throw new IllegalArgumentException("Track " + track + " is occupied by train number "
+              + conflict.getTrainNumber() + " at "
+              + ServiceTime.format(conflict.getEffectiveMinute()) + ". ");
+    }
+    return track;
   }
 
   /**
@@ -0,0 +1,246 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>JourneyPlanner.</h1>
+ * <p>
+ * The JourneyPlanner class finds the journey that arrives first from one station to another,
+ * changing trains where needed. It uses the Connection Scan Algorithm: the timetable is cut into
+ * connections, each a train going from one stop to the next, and these are kept in arrays
+ * sorted by the time they leave. A query scans the connections once from the time the
+ * passenger starts, keeping the earliest known arrival at every station, and stops as soon as
+ * no later connection can arrive earlier at the destination.
+ * </p>
+ * <p>
+ * The connections are plain int arrays, so a scan reads memory in order and creates no objects
+ * until the journey is put together. A planner never changes once made, and can be used by
+ * several threads at once. It is made by a StationRegistry, with the delays of the moment.
+ * </p>
+ * <p>
+ * A passenger needs a minimum transfer time to change trains at a station, but not to stay on
+ * the same train or to board the first train at the station they start from.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-07
+ */
+
+public final class JourneyPlanner {
+
+  /**
+   * A part of a journey on one train.
+   *
+   * @param trainNumber     The train number.
+   * @param line            The line of the train.
+   * @param from            The station the passenger boards at.
+   * @param departureMinute The time the train leaves, including its delay, as an epoch minute.
+   * @param to              The station the passenger leaves the train at.
+   * @param arrivalMinute   The time the train arrives, including its delay, as an epoch minute.
+   */
+  public record Leg(int trainNumber, String line, String from, int departureMinute, String to,
+                    int arrivalMinute) {
+  }
+
+  /**
+   * A journey from one station to another.
+   *
+   * @param legs The legs in the order they are travelled.
+   */
+  public record Journey(List<Leg> legs) {
+
+    /**
+     * Gets the time the journey starts.
+     *
+     * @return The departure of the first leg as an epoch minute.
+     */
+    public int departureMinute() {
+      return legs.get(0).departureMinute();
+    }
+
+    /**
+     * Gets the time the journey ends.
+     *
+     * @return The arrival of the last leg as an epoch minute.
+     */
+    public int arrivalMinute() {
+      return legs.get(legs.size() - 1).arrivalMinute();
+    }
+
+    /**
+     * Gets the number of times the passenger changes trains.
+     *
+     * @return The number of transfers.
+     */
+    public int numberOfTransfers() {
+      return legs.size() - 1;
+    }
+  }
+
+  private static final int UNREACHED = Integer.MAX_VALUE;
+
+  private final String[] stationNames;
+  private final Map<String, Integer> stationIds;
+  private final int[] tripNumbers;
+  private final String[] tripLines;
+  private final int transferMinutes;
+
+  // The connections, sorted by departure
+  private final int[] departureStations;
+  private final int[] arrivalStations;
+  private final int[] departureMinutes;
+  private final int[] arrivalMinutes;
+  private final int[] trips;
+
+  /**
+   * Constructs a planner over connections that are already sorted by departure. The arrays are
+   * owned by the planner from then on.
+   *
+   * @param stationNames      The names of the stations, by station id.
+   * @param tripNumbers       The train number of each trip.
+   * @param tripLines         The line of each trip.
+   * @param transferMinutes   The minimum time to change trains.
+   * @param departureStations The station id each connection leaves from.
+   * @param arrivalStations   The station id each connection arrives at.
+   * @param departureMinutes  The time each connection leaves, sorted ascending.
+   * @param arrivalMinutes    The time each connection arrives, not before it leaves.
+   * @param trips             The trip each connection belongs to.
+   */
+  JourneyPlanner(String[] stationNames, int[] tripNumbers, String[] tripLines,
+                 int transferMinutes, int[] departureStations, int[] arrivalStations,
+                 int[] departureMinutes, int[] arrivalMinutes, int[] trips) {
+    this.stationNames = stationNames;
+    this.stationIds = new HashMap<>();
+    for (int i = 0; i < stationNames.length; i++) {
+      stationIds.put(stationNames[i], i);
+    }
+    this.tripNumbers = tripNumbers;
+    this.tripLines = tripLines;
+    this.transferMinutes = transferMinutes;
+    this.departureStations = departureStations;
+    this.arrivalStations = arrivalStations;
+    this.departureMinutes = departureMinutes;
+    this.arrivalMinutes = arrivalMinutes;
+    this.trips = trips;
+  }
+
+  /**
+   * Gets the number of connections the planner scans.
+   *
+   * @return The number of connections.
+   */
+  public int getNumberOfConnections() {
+    return trips.length;
+  }
+
+  /**
+   * Finds the journey that arrives first at a station, leaving another station no earlier than
+   * the specified time. Of the journeys that arrive at the same time, the one found first is
+   * returned.
+   *
+   * @param from   The station to start from.
+   * @param to     The station to go to.
+   * @param minute The earliest time to leave, as an epoch minute.
+   * @return The journey, or null if the destination cannot be reached.
+   * @throws IllegalArgumentException if a station is unknown or the stations are the same.
+   */
+  public Journey findEarliestArrival(String from, String to, int minute)
+          throws IllegalArgumentException {
+    int source = stationId(from);
+    int target = stationId(to);
+    if (source == target) {
+      throw new IllegalArgumentException("The stations must be different");
+    }
+
+    int[] earliestArrival = new int[stationNames.length];
+    Arrays.fill(earliestArrival, UNREACHED);
+    int[] arrivedBy = new int[stationNames.length];
+    int[] boardedAt = new int[tripNumbers.length];
+    Arrays.fill(boardedAt, -1);
+    earliestArrival[source] = minute;
+
+    for (int i = firstDepartingAt(minute); i < trips.length; i++) {
+      // No connection leaving this late can arrive earlier
+      if (departureMinutes[i] >= earliestArrival[target]) {
+        break;
+      }
+      int trip = trips[i];
+      if (boardedAt[trip] < 0) {
+        if (!canBoard(departureStations[i], departureMinutes[i], earliestArrival, source)) {
+          continue;
+        }
+        boardedAt[trip] = i;
+      }
+      int station = arrivalStations[i];
+      if (arrivalMinutes[i] < earliestArrival[station]) {
+        earliestArrival[station] = arrivalMinutes[i];
+        arrivedBy[station] = i;
+      }
+    }
+    return (earliestArrival[target] == UNREACHED) ? null
+            : journeyTo(target, source, arrivedBy, boardedAt);
+  }
+
+  /**
+   * Checks if a passenger at a station can catch a train leaving it at the specified time.
+   */
+
+  private boolean canBoard(int station, int departureMinute, int[] earliestArrival,
+                           int source) {
+    int arrival = earliestArrival[station];
+    if (arrival == UNREACHED) {
+      return false;
+    }
+    return departureMinute >= ((station == source) ? arrival : arrival + transferMinutes);
+  }
+
+  /**
+   * Puts the journey together by following the connections back from the destination.
+   */
+
+  private Journey journeyTo(int target, int source, int[] arrivedBy, int[] boardedAt) {
+    List<Leg> legs = new ArrayList<>();
+    int station = target;
+    while (station != source) {
+      int last = arrivedBy[station];
+      int first = boardedAt[trips[last]];
+      int trip = trips[last];
+      legs.add(new Leg(tripNumbers[trip], tripLines[trip],
+              stationNames[departureStations[first]], departureMinutes[first],
+              stationNames[station], arrivalMinutes[last]));
+      station = departureStations[first];
+    }
+    return new Journey(List.copyOf(legs.reversed()));
+  }
+
+  /**
+   * Finds the first connection that leaves at or after the specified time.
+   */
+
+  private int firstDepartingAt(int minute) {
+    int low = 0;
+    int high = departureMinutes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (departureMinutes[middle] < minute) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int stationId(String station) {
+    Integer id = stationIds.get(station);
+    if (id == null) {
+      throw new IllegalArgumentException("Unknown station: " + station);
+    }
+    return id;
+  }
+}
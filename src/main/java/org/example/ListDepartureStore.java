@@ -0,0 +1,129 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <h1>ListDepartureStore.</h1>
+ * <p>
+ * The ListDepartureStore class is the reference implementation of DepartureStore. The
+ * departures are kept in a list in the order they were added, lookups scan the list and the
+ * list is sorted when the board is read. Other engines are tested against its behavior.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-27
+ */
+
+public class ListDepartureStore implements DepartureStore {
+
+  private final List<Departure> departureList = new ArrayList<>();
+
+  @Override
+  public int size() {
+    return departureList.size();
+  }
+
+  @Override
+  public void add(Departure departure) {
+    departureList.add(departure);
+  }
+
+  @Override
+  public Departure remove(Departure departure) {
+    int index = indexOf(departure);
+    return (index < 0) ? null : departureList.remove(index);
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber) {
+    // A single pass instead of sorting, keeping the earliest departure if the number is reused
+    // Indexed loops, so a lookup allocates no iterator even before it is compiled
+    Departure found = null;
+    for (int i = 0; i < departureList.size(); i++) {
+      Departure departure = departureList.get(i);
+      if (departure.getTrainNumber() == trainNumber && (found == null
+              || departure.getEffectiveMinute() < found.getEffectiveMinute())) {
+        found = departure;
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber, int serviceDay) {
+    for (int i = 0; i < departureList.size(); i++) {
+      Departure departure = departureList.get(i);
+      if (departure.getTrainNumber() == trainNumber
+              && ServiceTime.dayOf(departure.getDepartureMinute()) == serviceDay) {
+        return departure;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<Departure> findByDestination(String destination) {
+    // Filter before sorting, so that only the matching departures are sorted
+    String trimmedDestination = destination.trim();
+    return departureList.stream()
+            .filter(departure -> departure.getDestination().trim()
+                    .equalsIgnoreCase(trimmedDestination))
+            .sorted(Comparator.comparingInt(Departure::getEffectiveMinute))
+            .toList();
+  }
+
+  @Override
+  public List<Departure> sortedList() {
+    return departureList.stream()
+            .sorted(Comparator.comparingInt(Departure::getEffectiveMinute))
+            .toList();
+  }
+
+  @Override
+  public void forEach(Consumer<Departure> action) {
+    departureList.forEach(action);
+  }
+
+  @Override
+  public int removeBefore(int minute, Consumer<Departure> expired) {
+    int sizeBefore = departureList.size();
+    departureList.removeIf(departure -> {
+      if (departure.getEffectiveMinute() >= minute) {
+        return false;
+      }
+      expired.accept(departure);
+      return true;
+    });
+    return sizeBefore - departureList.size();
+  }
+
+  @Override
+  public void setDelay(Departure departure, int delay) {
+    departure.setDelay(delay);
+  }
+
+  @Override
+  public void setTrack(Departure departure, int track) {
+    departure.setTrack(track);
+  }
+
+  /**
+   * Finds the position of a departure in the list, preferring the same object over an equal one.
+   *
+   * @param departure The departure to find.
+   * @return The position of the departure, or -1 if it is not in the list.
+   */
+
+  private int indexOf(Departure departure) {
+    for (int i = 0; i < departureList.size(); i++) {
+      if (departureList.get(i) == departure) {
+        return i;
+      }
+    }
+    return departureList.indexOf(departure);
+  }
+}
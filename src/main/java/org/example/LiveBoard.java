@@ -0,0 +1,258 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>LiveBoard.</h1>
+ * <p>
+ * The LiveBoard class keeps a departure board up to date on a terminal, for station monitors.
+ * It remembers the rows that are on the screen, and a refresh only sends the rows that have
+ * changed since the last one. Within a changed row only the spans of changed characters are
+ * sent, each after an ANSI escape sequence that moves the cursor there. The
+ * bytes sent per refresh therefore grow with the number of changes, not with the size of the
+ * board.
+ * </p>
+ * <p>
+ * The rows look like the board printed by the user interface, cut to the height of the
+ * terminal. The first refresh clears the screen and draws every row. Started on its own, it
+ * follows a ReplicationLeader and refreshes whenever a change or a new time arrives.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-02-03
+ */
+
+public class LiveBoard {
+
+  /**
+   * Clears the screen and moves the cursor to the top left corner.
+   */
+  static final String CLEAR_SCREEN = "\u001b[2J\u001b[H";
+
+  /**
+   * Erases the rest of the row after the cursor.
+   */
+  static final String ERASE_TO_END_OF_ROW = "\u001b[K";
+
+  /**
+   * The number of rows of the header and the line under the departures.
+   */
+  private static final int FRAME_ROWS = 7;
+
+  /**
+   * The fewest unchanged characters worth a cursor move to skip, about the length of one.
+   */
+  private static final int MIN_GAP = 8;
+
+  private final int height;
+  private String[] screen;
+  private long bytesWritten;
+  private long refreshes;
+
+  /**
+   * Creates a board for a terminal.
+   *
+   * @param height The number of rows of the terminal.
+   * @throws IllegalArgumentException if the terminal cannot show the header and a departure.
+   */
+  public LiveBoard(int height) throws IllegalArgumentException {
+    if (height < FRAME_ROWS + 1) {
+      throw new IllegalArgumentException("The terminal must have at least "
+              + (FRAME_ROWS + 1) + " rows");
+    }
+    this.height = height;
+  }
+
+  /**
+   * Draws the changes of the board since the last refresh.
+   *
+   * @param trainDispatch The dispatch to show.
+   * @param out           The terminal.
+   * @return The number of characters written, 0 if nothing has changed.
+   * @throws IOException if the terminal could not be written.
+   */
+  public int refresh(TrainDispatch trainDispatch, Appendable out) throws IOException {
+    String[] rows = layout(trainDispatch);
+    int written = 0;
+    if (screen == null) {
+      out.append(CLEAR_SCREEN);
+      written += CLEAR_SCREEN.length();
+      screen = new String[height];
+      Arrays.fill(screen, "");
+    }
+    for (int row = 0; row < height; row++) {
+      written += drawRow(row, screen[row], rows[row], out);
+    }
+    screen = rows;
+    if (written > 0) {
+      // Park the cursor under the board
+      written += moveTo(height, 0, out);
+    }
+    bytesWritten += written;
+    refreshes++;
+    return written;
+  }
+
+  /**
+   * Makes the next refresh clear the screen and draw every row, for when the terminal has
+   * been written to by something else.
+   */
+  public void invalidate() {
+    screen = null;
+  }
+
+  /**
+   * Gets the number of characters written by all refreshes.
+   *
+   * @return The number of characters.
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Gets the number of refreshes.
+   *
+   * @return The number of refreshes.
+   */
+  public long getNumberOfRefreshes() {
+    return refreshes;
+  }
+
+  /**
+   * Lays the board out as the rows of the terminal, without line breaks.
+   */
+
+  private String[] layout(TrainDispatch trainDispatch) {
+    // The departures that have left are removed first, so the count in the header is right
+    List<Departure> departures = trainDispatch.sortedList();
+    String[] rows = new String[height];
+    StringBuilder header = new StringBuilder(FRAME_ROWS * 81);
+    trainDispatch.appendHeader(header);
+    int row = 0;
+    int start = 0;
+    for (int i = 0; i < header.length(); i++) {
+      if (header.charAt(i) == '\n') {
+        rows[row++] = header.substring(start, i);
+        start = i + 1;
+      }
+    }
+    int room = height - row - 1;
+    int shown = departures.size() <= room ? departures.size() : room - 1;
+    StringBuilder text = new StringBuilder(81);
+    for (int i = 0; i < shown; i++) {
+      text.setLength(0);
+      departures.get(i).appendTo(text);
+      rows[row++] = text.substring(0, text.length() - 1);
+    }
+    if (shown < departures.size()) {
+      rows[row++] = String.format("|  %-76s|", (departures.size() - shown) + " more");
+    }
+    rows[row++] = "-".repeat(80);
+    Arrays.fill(rows, row, height, "");
+    return rows;
+  }
+
+  /**
+   * Writes the parts of a row that have changed. Changed characters closer together than a
+   * cursor move are sent as one span, with the unchanged characters between them.
+   *
+   * @return The number of characters written.
+   */
+
+  private static int drawRow(int row, String before, String after, Appendable out)
+          throws IOException {
+    if (before.equals(after)) {
+      return 0;
+    }
+    int common = Math.min(before.length(), after.length());
+    int written = 0;
+    int column = 0;
+    while (true) {
+      while (column < common && before.charAt(column) == after.charAt(column)) {
+        column++;
+      }
+      if (column == common) {
+        break;
+      }
+      int end = column + 1;
+      int same = 0;
+      while (end < common && same < MIN_GAP) {
+        same = before.charAt(end) == after.charAt(end) ? same + 1 : 0;
+        end++;
+      }
+      end -= same;
+      written += moveTo(row, column, out);
+      out.append(after, column, end);
+      written += end - column;
+      column = end;
+    }
+    if (after.length() > common) {
+      written += moveTo(row, common, out);
+      out.append(after, common, after.length());
+      written += after.length() - common;
+    } else if (before.length() > common) {
+      written += moveTo(row, common, out);
+      out.append(ERASE_TO_END_OF_ROW);
+      written += ERASE_TO_END_OF_ROW.length();
+    }
+    return written;
+  }
+
+  /**
+   * Moves the cursor to a row and column, both counted from 0.
+   *
+   * @return The number of characters written.
+   */
+
+  private static int moveTo(int row, int column, Appendable out) throws IOException {
+    String sequence = "\u001b[" + (row + 1) + ';' + (column + 1) + 'H';
+    out.append(sequence);
+    return sequence.length();
+  }
+
+  /**
+   * Shows the board of a replication leader on the terminal until the process is stopped.
+   *
+   * @param args The host and port of the leader, and optionally the number of rows of the
+   *             terminal (24 by default).
+   * @throws InterruptedException if the thread is interrupted.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length < 2) {
+      System.out.println("Usage: <host> <port> [rows]");
+      return;
+    }
+    LiveBoard board = new LiveBoard(args.length > 2 ? Integer.parseInt(args[2]) : 24);
+    PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8)), false);
+    try (ReplicationFollower follower =
+                 new ReplicationFollower(args[0], Integer.parseInt(args[1]))) {
+      long shown = -1;
+      while (true) {
+        long applied = follower.getAppliedSequence();
+        if (applied != shown) {
+          follower.read(trainDispatch -> {
+            try {
+              return board.refresh(trainDispatch, out);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+          out.flush();
+          shown = applied;
+        }
+        // Every change, including the time moving on, is a new mutation from the leader
+        follower.awaitSequence(applied + 1, 1000);
+      }
+    }
+  }
+}
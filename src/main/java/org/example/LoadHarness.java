@@ -0,0 +1,392 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>LoadHarness.</h1>
+ * <p>
+ * The LoadHarness class runs many concurrent readers and writers against one train dispatch,
+ * to see how it behaves with for example 500 displays and 20 feeds. Readers read the board and
+ * look up departures by number and destination. Writers change delays and tracks, and move the
+ * clock forward while registering new departures, so the size of the board stays about the
+ * same.
+ * </p>
+ * <p>
+ * Each thread runs at a fixed rate. The latency of an operation is measured both from when it
+ * actually started, and from when it should have started according to the rate. The second is
+ * corrected for coordinated omission: when the dispatch stalls, the operations that a real
+ * display would have sent during the stall are counted as waiting instead of not existing.
+ * </p>
+ * <p>
+ * The dispatch is not thread-safe, so every operation holds one lock. It is a ReentrantLock
+ * rather than a monitor, since a virtual thread waiting for a monitor also blocks the platform
+ * thread it runs on. The report has one line per operation and can be compared between
+ * releases with diff.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-26
+ */
+
+public class LoadHarness {
+
+  /**
+   * The operations of the harness. The first three are done by readers and the rest by writers.
+   */
+  public enum Operation {
+    BOARD, NUMBER, DESTINATION, DELAY, TRACK, CLOCK
+  }
+
+  /**
+   * The load to generate.
+   *
+   * @param readers         The number of reader threads.
+   * @param writers         The number of writer threads.
+   * @param virtualThreads  True to run on virtual threads, false for platform threads.
+   * @param departures      The number of departures on the board.
+   * @param readsPerSecond  The rate of each reader, or 0 to read as fast as possible.
+   * @param writesPerSecond The rate of each writer, or 0 to write as fast as possible.
+   * @param durationMillis  How long to generate load, in milliseconds.
+   */
+  public record Profile(int readers, int writers, boolean virtualThreads, int departures,
+                        int readsPerSecond, int writesPerSecond, int durationMillis) {
+
+    /**
+     * Validates the profile.
+     */
+    public Profile {
+      if (readers < 0 || writers < 0 || readers + writers == 0) {
+        throw new IllegalArgumentException("There must be at least one reader or writer");
+      }
+      if (departures < 1 || readsPerSecond < 0 || writesPerSecond < 0 || durationMillis < 1) {
+        throw new IllegalArgumentException("Departures, rates and duration must be positive");
+      }
+    }
+  }
+
+  /**
+   * Number of minutes ahead of the clock that departures are registered.
+   */
+  private static final int WINDOW = 6 * 60;
+
+  private static final String[] DESTINATIONS = {"Oslo S", "Lillestrom", "Drammen", "Asker",
+      "Spikkestad", "Ski", "Eidsvoll", "Kongsberg", "Moss", "Hamar", "Halden", "Gjovik"};
+  private static final String[] LINES = {"F4", "R10", "R11", "L1", "L2", "RE20"};
+
+  private final Profile profile;
+  private final TrainDispatch trainDispatch = new TrainDispatch(0);
+  private final ReentrantLock lock = new ReentrantLock();
+  private final AtomicInteger nextTrainNumber = new AtomicInteger(1);
+  private final int departuresPerMinute;
+
+  /**
+   * Constructs a harness and fills the board with departures spread over the next six hours.
+   *
+   * @param profile The load to generate.
+   */
+
+  public LoadHarness(Profile profile) {
+    this.profile = profile;
+    this.departuresPerMinute = (profile.departures() + WINDOW - 1) / WINDOW;
+    for (int i = 0; i < profile.departures(); i++) {
+      registerNewDeparture(1 + i / departuresPerMinute);
+    }
+  }
+
+  /**
+   * Runs the profile and waits for all threads to finish.
+   *
+   * @return The report of the run.
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  public Report run() throws InterruptedException {
+    int numberOfThreads = profile.readers() + profile.writers();
+    List<Callable<Recorder>> workers = new ArrayList<>(numberOfThreads);
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    long end = start + TimeUnit.MILLISECONDS.toNanos(profile.durationMillis());
+    for (int i = 0; i < profile.readers(); i++) {
+      workers.add(() -> work(true, profile.readsPerSecond(), start, end));
+    }
+    for (int i = 0; i < profile.writers(); i++) {
+      workers.add(() -> work(false, profile.writesPerSecond(), start, end));
+    }
+
+    Recorder total = new Recorder();
+    try (ExecutorService executor = profile.virtualThreads()
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(numberOfThreads)) {
+      for (Future<Recorder> result : executor.invokeAll(workers)) {
+        total.merge(result.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A load thread failed", e.getCause());
+    }
+    return new Report(profile, total);
+  }
+
+  /**
+   * Runs operations at a fixed rate until the end time.
+   */
+
+  private Recorder work(boolean reader, int rate, long start, long end) {
+    Recorder recorder = new Recorder();
+    long interval = (rate == 0) ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+    // Spread the threads over the first interval, so they do not all start at once
+    long intended = start + ((interval == 0) ? 0 : ThreadLocalRandom.current().nextLong(interval));
+    while (true) {
+      long now = System.nanoTime();
+      if (now >= end) {
+        return recorder;
+      }
+      if (interval == 0) {
+        intended = now;
+      } else if (now < intended) {
+        LockSupport.parkNanos(intended - now);
+        continue;
+      }
+      long started = System.nanoTime();
+      Operation operation = reader ? read() : write();
+      long finished = System.nanoTime();
+      recorder.record(operation, finished - started, finished - intended);
+      intended += interval;
+    }
+  }
+
+  /**
+   * Performs a random read: a fifth board reads, half number lookups and the rest destination
+   * lookups.
+   */
+
+  private Operation read() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int choice = random.nextInt(10);
+    lock.lock();
+    try {
+      if (choice < 2) {
+        trainDispatch.sortedList();
+        return Operation.BOARD;
+      } else if (choice < 7) {
+        trainDispatch.findDepartureByNumber(randomTrainNumber(random));
+        return Operation.NUMBER;
+      }
+      trainDispatch.findDeparturesByDestination(DESTINATIONS[random.nextInt(DESTINATIONS.length)]);
+      return Operation.DESTINATION;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Performs a random write: mostly delay and track changes, and every tenth time a clock
+   * advance of one minute.
+   */
+
+  private Operation write() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int choice = random.nextInt(10);
+    lock.lock();
+    try {
+      if (choice < 1) {
+        int minute = trainDispatch.getCurrentMinute() + 1;
+        trainDispatch.setTime(minute);
+        for (int i = 0; i < departuresPerMinute; i++) {
+          registerNewDeparture(minute + WINDOW);
+        }
+        return Operation.CLOCK;
+      }
+      // The departure may have left, like a feed that updates a train that just departed
+      int trainNumber = randomTrainNumber(random);
+      boolean onBoard = trainDispatch.findDuplicateTrainNumber(trainNumber);
+      if (choice < 6) {
+        if (onBoard) {
+          trainDispatch.setDelay(trainNumber, random.nextInt(30));
+        }
+        return Operation.DELAY;
+      }
+      if (onBoard) {
+        trainDispatch.setTrack(trainNumber, 1 + random.nextInt(20));
+      }
+      return Operation.TRACK;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Registers a departure with a new train number at the specified minute.
+   */
+
+  private void registerNewDeparture(int minute) {
+    int trainNumber = nextTrainNumber.getAndIncrement();
+    trainDispatch.registerDeparture(new Departure(minute, LINES[trainNumber % LINES.length],
+            trainNumber, DESTINATIONS[trainNumber % DESTINATIONS.length], 0, 0));
+  }
+
+  /**
+   * Picks one of the most recent train numbers, which are mostly still on the board.
+   */
+
+  private int randomTrainNumber(ThreadLocalRandom random) {
+    int newest = nextTrainNumber.get();
+    return Math.max(1, newest - 1 - random.nextInt(profile.departures()));
+  }
+
+  /**
+   * The latencies recorded by one thread, in microseconds.
+   */
+  private static final class Recorder {
+
+    private final DelayAggregate[] serviceLatencies = new DelayAggregate[Operation.values().length];
+    private final DelayAggregate[] correctedLatencies =
+            new DelayAggregate[Operation.values().length];
+
+    Recorder() {
+      for (int i = 0; i < serviceLatencies.length; i++) {
+        serviceLatencies[i] = new DelayAggregate();
+        correctedLatencies[i] = new DelayAggregate();
+      }
+    }
+
+    void record(Operation operation, long serviceNanos, long correctedNanos) {
+      serviceLatencies[operation.ordinal()].add(toMicros(serviceNanos));
+      correctedLatencies[operation.ordinal()].add(toMicros(correctedNanos));
+    }
+
+    void merge(Recorder other) {
+      for (int i = 0; i < serviceLatencies.length; i++) {
+        serviceLatencies[i].merge(other.serviceLatencies[i]);
+        correctedLatencies[i].merge(other.correctedLatencies[i]);
+      }
+    }
+
+    private static int toMicros(long nanos) {
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(0, nanos / 1000));
+    }
+  }
+
+  /**
+   * The result of a run, with the number of operations, the throughput and the latency
+   * percentiles of each operation.
+   */
+  public static final class Report {
+
+    private final Profile profile;
+    private final Recorder recorder;
+
+    private Report(Profile profile, Recorder recorder) {
+      this.profile = profile;
+      this.recorder = recorder;
+    }
+
+    /**
+     * Gets the number of times an operation was done.
+     *
+     * @param operation The operation.
+     * @return The number of operations.
+     */
+    public long getCount(Operation operation) {
+      return recorder.serviceLatencies[operation.ordinal()].getCount();
+    }
+
+    /**
+     * Gets the latency of an operation from when it actually started.
+     *
+     * @param operation The operation.
+     * @return The latencies in microseconds.
+     */
+    public DelayAggregate getServiceLatency(Operation operation) {
+      return recorder.serviceLatencies[operation.ordinal()];
+    }
+
+    /**
+     * Gets the latency of an operation from when it should have started, corrected for
+     * coordinated omission.
+     *
+     * @param operation The operation.
+     * @return The latencies in microseconds.
+     */
+    public DelayAggregate getCorrectedLatency(Operation operation) {
+      return recorder.correctedLatencies[operation.ordinal()];
+    }
+
+    /**
+     * Formats the report with one line per operation. Latencies are in microseconds.
+     *
+     * @return The report as text.
+     */
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format(Locale.ROOT, "# readers=%d writers=%d threads=%s "
+                      + "departures=%d read-rate=%d write-rate=%d duration-ms=%d%n",
+              profile.readers(), profile.writers(),
+              profile.virtualThreads() ? "virtual" : "platform", profile.departures(),
+              profile.readsPerSecond(), profile.writesPerSecond(), profile.durationMillis()));
+      report.append(String.format(Locale.ROOT, "%-12s %10s %10s %8s %8s %8s %8s %8s %8s %8s%n",
+              "operation", "count", "ops/s", "p50", "p99", "p99.9", "max",
+              "co-p50", "co-p99", "co-p99.9"));
+      double seconds = profile.durationMillis() / 1000.0;
+      for (Operation operation : Operation.values()) {
+        DelayAggregate service = getServiceLatency(operation);
+        DelayAggregate corrected = getCorrectedLatency(operation);
+        report.append(String.format(Locale.ROOT,
+                "%-12s %10d %10.0f %8d %8d %8d %8d %8d %8d %8d%n",
+                operation.name().toLowerCase(Locale.ROOT), service.getCount(),
+                service.getCount() / seconds, service.getPercentile(0.5),
+                service.getPercentile(0.99), service.getPercentile(0.999), service.getMax(),
+                corrected.getPercentile(0.5), corrected.getPercentile(0.99),
+                corrected.getPercentile(0.999)));
+      }
+      return report.toString();
+    }
+  }
+
+  /**
+   * Runs the harness from the command line and writes the report to standard output.
+   * <p>
+   * Options, all optional: <code>--readers 500 --writers 20 --threads virtual|platform
+   * --departures 5000 --read-rate 20 --write-rate 50 --seconds 30</code>
+   * </p>
+   *
+   * @param args Command line arguments.
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int readers = 500;
+    int writers = 20;
+    boolean virtualThreads = true;
+    int departures = 5000;
+    int readRate = 20;
+    int writeRate = 50;
+    int seconds = 30;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--readers" -> readers = Integer.parseInt(value);
+        case "--writers" -> writers = Integer.parseInt(value);
+        case "--threads" -> virtualThreads = value.equals("virtual");
+        case "--departures" -> departures = Integer.parseInt(value);
+        case "--read-rate" -> readRate = Integer.parseInt(value);
+        case "--write-rate" -> writeRate = Integer.parseInt(value);
+        case "--seconds" -> seconds = Integer.parseInt(value);
+        default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    Profile profile = new Profile(readers, writers, virtualThreads, departures, readRate,
+            writeRate, seconds * 1000);
+    System.out.print(new LoadHarness(profile).run());
+  }
+}
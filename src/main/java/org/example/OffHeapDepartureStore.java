@@ -0,0 +1,567 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <h1>OffHeapDepartureStore.</h1>
+ * <p>
+ * The OffHeapDepartureStore class stores departures as fixed-width records in direct buffers
+ * outside the Java heap, so a board with millions of departures does not give the garbage
+ * collector millions of objects to trace. Lines and destinations are stored as ids from an
+ * OffHeapStringDictionary, and the indexes only use primitive arrays.
+ * </p>
+ * <p>
+ * The store gives out Departure objects that are copies of its records, so a change to such an
+ * object must be written back with setDelay or setTrack. A record is identified by its train
+ * number and scheduled departure minute, as DepartureStore requires. Each departure read is a
+ * new object, so scans allocate one object per row; DepartureStoreBenchmark compares them with
+ * the other stores.
+ * </p>
+ * <p>
+ * The store cannot be used after it is closed. Closing drops the direct buffers, but their
+ * memory is only returned when the garbage collector frees the buffers, since Java 21 has no
+ * supported way to free a direct buffer at once.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.4
+ * @since 2024-01-24
+ */
+
+public class OffHeapDepartureStore implements DepartureStore, AutoCloseable {
+
+  /**
+   * Record layout: departure minute, train number, delay, track, line id, destination id, next
+   * record with the same train number, and the id of the normalized destination, which is -1
+   * when the slot is free.
+   */
+  private static final int RECORD_SIZE = 32;
+  private static final int MINUTE = 0;
+  private static final int NUMBER = 4;
+  private static final int DELAY = 8;
+  private static final int TRACK = 12;
+  private static final int LINE = 16;
+  private static final int DESTINATION = 20;
+  private static final int NEXT = 24;
+  private static final int KEY = 28;
+
+  private static final int DEFAULT_CHUNK_BITS = 16;
+  private static final int NONE = -1;
+
+  private final int chunkBits;
+  private final int chunkMask;
+  private ByteBuffer[] chunks = new ByteBuffer[4];
+  private final OffHeapStringDictionary strings = new OffHeapStringDictionary();
+
+  private int capacity;
+  private int highestSlot;
+  private int size;
+  private int[] freeSlots = new int[16];
+  private int numberOfFreeSlots;
+
+  /**
+   * Train numbers and the first record with each number, in an open addressing hash table.
+   */
+  private int[] numberKeys = new int[64];
+  private int[] numberHeads = new int[64];
+  private int numberOfKeys;
+
+  /**
+   * The records sorted by time plus delay, as keys combining the minute and the slot. It is
+   * sorted again only when a scan follows a change.
+   */
+  private long[] order = new long[0];
+  private boolean orderChanged;
+  private boolean closed;
+
+  /**
+   * Constructs an empty store that allocates 65536 records at a time.
+   */
+
+  public OffHeapDepartureStore() {
+    this(DEFAULT_CHUNK_BITS);
+  }
+
+  /**
+   * Constructs an empty store that allocates 2 to the power of chunkBits records at a time.
+   *
+   * @param chunkBits The base 2 logarithm of the number of records in a chunk, from 4 to 20.
+   */
+
+  public OffHeapDepartureStore(int chunkBits) {
+    if (chunkBits < 4 || chunkBits > 20) {
+      throw new IllegalArgumentException("Chunk bits must be from 4 to 20");
+    }
+    this.chunkBits = chunkBits;
+    this.chunkMask = (1 << chunkBits) - 1;
+    Arrays.fill(numberHeads, NONE);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of bytes the store has allocated outside the heap.
+   *
+   * @return The number of off-heap bytes.
+   */
+  public long getOffHeapBytes() {
+    return closed ? 0 : (long) capacity * RECORD_SIZE + strings.getOffHeapBytes();
+  }
+
+  @Override
+  public void add(Departure departure) {
+    checkOpen();
+    int slot = allocateSlot();
+    ByteBuffer chunk = chunk(slot);
+    int offset = offset(slot);
+    chunk.putInt(offset + MINUTE, departure.getDepartureMinute());
+    chunk.putInt(offset + NUMBER, departure.getTrainNumber());
+    chunk.putInt(offset + DELAY, departure.getDelay());
+    chunk.putInt(offset + TRACK, departure.getTrack());
+    chunk.putInt(offset + LINE, strings.intern(departure.getLine()));
+    chunk.putInt(offset + DESTINATION, strings.intern(departure.getDestination()));
+    chunk.putInt(offset + KEY,
+            strings.intern(DestinationIndex.normalize(departure.getDestination())));
+    int index = numberIndex(departure.getTrainNumber());
+    if (numberHeads[index] == NONE) {
+      numberKeys[index] = departure.getTrainNumber();
+      numberOfKeys++;
+    }
+    chunk.putInt(offset + NEXT, numberHeads[index]);
+    numberHeads[index] = slot;
+    size++;
+    orderChanged = true;
+    if (numberOfKeys * 2 > numberKeys.length) {
+      rehashNumbers();
+    }
+  }
+
+  /**
+   * Removes a departure from the store.
+   *
+   * @param trainNumber The train number of the departure.
+   * @param departureMinute The scheduled departure as an epoch minute.
+   * @return True if a departure was removed, false if there was none.
+   */
+  public boolean remove(int trainNumber, int departureMinute) {
+    int slot = findSlot(trainNumber, departureMinute);
+    if (slot == NONE) {
+      return false;
+    }
+    unlink(slot);
+    return true;
+  }
+
+  @Override
+  public Departure remove(Departure departure) {
+    int slot = findSlot(departure.getTrainNumber(), departure.getDepartureMinute());
+    if (slot == NONE) {
+      return null;
+    }
+    Departure removed = read(slot);
+    unlink(slot);
+    return removed;
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber) {
+    int slot = findSlot(trainNumber);
+    return (slot == NONE) ? null : read(slot);
+  }
+
+  @Override
+  public Departure findByNumber(int trainNumber, int serviceDay) {
+    checkOpen();
+    for (int slot = numberHeads[numberIndex(trainNumber)]; slot != NONE;
+         slot = getInt(slot, NEXT)) {
+      if (ServiceTime.dayOf(getInt(slot, MINUTE)) == serviceDay) {
+        return read(slot);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void forEachWithNumber(int trainNumber, Consumer<Departure> action) {
+    checkOpen();
+    for (int slot = numberHeads[numberIndex(trainNumber)]; slot != NONE;
+         slot = getInt(slot, NEXT)) {
+      action.accept(read(slot));
+    }
+  }
+
+  /**
+   * Sets the delay of a departure.
+   *
+   * @param trainNumber The train number of the departure.
+   * @param departureMinute The scheduled departure as an epoch minute.
+   * @param delay The new delay.
+   * @return True if the departure was found, false if not.
+   */
+  public boolean setDelay(int trainNumber, int departureMinute, int delay) {
+    int slot = findSlot(trainNumber, departureMinute);
+    if (slot == NONE) {
+      return false;
+    }
+    chunk(slot).putInt(offset(slot) + DELAY, delay);
+    orderChanged = true;
+    return true;
+  }
+
+  /**
+   * Sets the track of a departure.
+   *
+   * @param trainNumber The train number of the departure.
+   * @param departureMinute The scheduled departure as an epoch minute.
+   * @param track The new track, or -1 if the departure has no track.
+   * @return True if the departure was found, false if not.
+   */
+  public boolean setTrack(int trainNumber, int departureMinute, int track) {
+    int slot = findSlot(trainNumber, departureMinute);
+    if (slot == NONE) {
+      return false;
+    }
+    chunk(slot).putInt(offset(slot) + TRACK, track);
+    return true;
+  }
+
+  @Override
+  public void setDelay(Departure departure, int delay) {
+    setDelay(departure.getTrainNumber(), departure.getDepartureMinute(), delay);
+    departure.setDelay(delay);
+  }
+
+  @Override
+  public void setTrack(Departure departure, int track) {
+    setTrack(departure.getTrainNumber(), departure.getDepartureMinute(),
+            (track == 0) ? -1 : track);
+    departure.setTrack(track);
+  }
+
+  @Override
+  public void forEachBetween(int fromMinute, int toMinute, Consumer<Departure> action) {
+    sortIfChanged();
+    for (int i = firstIndexFrom(fromMinute);
+         i < order.length && (int) (order[i] >> 32) <= toMinute; i++) {
+      action.accept(read((int) order[i]));
+    }
+  }
+
+  /**
+   * Counts the departures in a window exactly, with two binary searches in the sorted order.
+   */
+  @Override
+  public int estimateBetween(int fromMinute, int toMinute) {
+    if (fromMinute > toMinute) {
+      return 0;
+    }
+    sortIfChanged();
+    return firstIndexFrom(toMinute + 1) - firstIndexFrom(fromMinute);
+  }
+
+  @Override
+  public void forEach(Consumer<Departure> action) {
+    forEachInOrder(action);
+  }
+
+  /**
+   * Passes every departure to an action, sorted by time plus delay.
+   *
+   * @param action The action to perform on copies of the departures.
+   */
+  public void forEachInOrder(Consumer<Departure> action) {
+    sortIfChanged();
+    for (long key : order) {
+      action.accept(read((int) key));
+    }
+  }
+
+  @Override
+  public List<Departure> sortedList() {
+    List<Departure> result = new ArrayList<>(size);
+    forEachInOrder(result::add);
+    return result;
+  }
+
+  /**
+   * Finds all departures to a destination, sorted by time plus delay. The destinations are
+   * compared as ids of their normalized names, so no strings are read during the scan.
+   *
+   * @param destination The destination.
+   * @return Copies of the departures to the destination.
+   */
+  @Override
+  public List<Departure> findByDestination(String destination) {
+    checkOpen();
+    List<Departure> result = new ArrayList<>();
+    int id = strings.find(DestinationIndex.normalize(destination));
+    if (id == NONE) {
+      return result;
+    }
+    sortIfChanged();
+    for (long key : order) {
+      int slot = (int) key;
+      if (getInt(slot, KEY) == id) {
+        result.add(read(slot));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void forEachWithDestination(String destination, Consumer<Departure> action) {
+    checkOpen();
+    int id = strings.find(DestinationIndex.normalize(destination));
+    if (id == NONE) {
+      return;
+    }
+    // In slot order, since no order is promised and the records are then read in sequence
+    for (int slot = 0; slot < highestSlot; slot++) {
+      if (getInt(slot, KEY) == id) {
+        action.accept(read(slot));
+      }
+    }
+  }
+
+  @Override
+  public int removeBefore(int minute, Consumer<Departure> expired) {
+    sortIfChanged();
+    int count = 0;
+    while (count < order.length && (int) (order[count] >> 32) < minute) {
+      int slot = (int) order[count++];
+      expired.accept(read(slot));
+      unlink(slot);
+    }
+    if (count > 0) {
+      order = Arrays.copyOfRange(order, count, order.length);
+      orderChanged = false;
+    }
+    return count;
+  }
+
+  /**
+   * Closes the store, dropping its buffers so the garbage collector can free their memory. The
+   * store cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    chunks = null;
+    order = null;
+    strings.close();
+  }
+
+  /**
+   * Reads a record into a new Departure object. A departure without track is stored as -1 and
+   * passed to the constructor as 0.
+   */
+
+  private Departure read(int slot) {
+    ByteBuffer chunk = chunk(slot);
+    int offset = offset(slot);
+    return new Departure(chunk.getInt(offset + MINUTE),
+            strings.get(chunk.getInt(offset + LINE)),
+            chunk.getInt(offset + NUMBER),
+            strings.get(chunk.getInt(offset + DESTINATION)),
+            Math.max(chunk.getInt(offset + TRACK), 0),
+            chunk.getInt(offset + DELAY));
+  }
+
+  /**
+   * Finds the record of the departure with a train number that leaves first.
+   */
+
+  private int findSlot(int trainNumber) {
+    checkOpen();
+    int best = NONE;
+    int bestMinute = 0;
+    for (int slot = numberHeads[numberIndex(trainNumber)]; slot != NONE;
+         slot = getInt(slot, NEXT)) {
+      int effectiveMinute = getInt(slot, MINUTE) + getInt(slot, DELAY);
+      if (best == NONE || effectiveMinute <= bestMinute) {
+        best = slot;
+        bestMinute = effectiveMinute;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Finds the record of a departure by train number and scheduled minute.
+   */
+
+  private int findSlot(int trainNumber, int departureMinute) {
+    checkOpen();
+    for (int slot = numberHeads[numberIndex(trainNumber)]; slot != NONE;
+         slot = getInt(slot, NEXT)) {
+      if (getInt(slot, MINUTE) == departureMinute) {
+        return slot;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Takes a record out of its train number chain and frees its slot.
+   */
+
+  private void unlink(int slot) {
+    int index = numberIndex(getInt(slot, NUMBER));
+    int previous = NONE;
+    for (int current = numberHeads[index]; current != slot; current = getInt(current, NEXT)) {
+      previous = current;
+    }
+    int next = getInt(slot, NEXT);
+    if (previous == NONE) {
+      numberHeads[index] = next;
+    } else {
+      chunk(previous).putInt(offset(previous) + NEXT, next);
+    }
+    if (numberHeads[index] == NONE) {
+      deleteNumber(index);
+    }
+    chunk(slot).putInt(offset(slot) + KEY, NONE);
+    if (numberOfFreeSlots == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, numberOfFreeSlots * 2);
+    }
+    freeSlots[numberOfFreeSlots++] = slot;
+    size--;
+    orderChanged = true;
+  }
+
+  /**
+   * Gets a free slot, allocating a new chunk if all slots are in use.
+   */
+
+  private int allocateSlot() {
+    if (numberOfFreeSlots > 0) {
+      return freeSlots[--numberOfFreeSlots];
+    }
+    if (highestSlot == capacity) {
+      int chunkIndex = capacity >>> chunkBits;
+      if (chunkIndex == chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunks.length * 2);
+      }
+      chunks[chunkIndex] = ByteBuffer.allocateDirect(RECORD_SIZE << chunkBits);
+      capacity += 1 << chunkBits;
+    }
+    return highestSlot++;
+  }
+
+  /**
+   * Sorts the records by time plus delay if they changed since the last sort.
+   */
+
+  private void sortIfChanged() {
+    checkOpen();
+    if (!orderChanged) {
+      return;
+    }
+    long[] keys = new long[size];
+    int count = 0;
+    for (int slot = 0; slot < highestSlot; slot++) {
+      if (getInt(slot, KEY) != NONE) {
+        long effectiveMinute = getInt(slot, MINUTE) + getInt(slot, DELAY);
+        keys[count++] = (effectiveMinute << 32) | slot;
+      }
+    }
+    Arrays.sort(keys);
+    order = keys;
+    orderChanged = false;
+  }
+
+  /**
+   * Finds the position of the first departure in the sorted order that leaves at or after a
+   * minute.
+   */
+
+  private int firstIndexFrom(int minute) {
+    int index = Arrays.binarySearch(order, (long) minute << 32);
+    return (index >= 0) ? index : -index - 1;
+  }
+
+  /**
+   * Finds the hash table index of a train number, or the empty index where it belongs.
+   */
+
+  private int numberIndex(int trainNumber) {
+    int mask = numberKeys.length - 1;
+    int index = mix(trainNumber) & mask;
+    while (numberHeads[index] != NONE && numberKeys[index] != trainNumber) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  /**
+   * Deletes a train number from the hash table, moving later entries back so probing still
+   * finds them.
+   */
+
+  private void deleteNumber(int index) {
+    int mask = numberKeys.length - 1;
+    numberOfKeys--;
+    int empty = index;
+    int next = (index + 1) & mask;
+    while (numberHeads[next] != NONE) {
+      int home = mix(numberKeys[next]) & mask;
+      // Move the entry if its home is not between the empty index and its current index
+      if (((next - home) & mask) >= ((next - empty) & mask)) {
+        numberKeys[empty] = numberKeys[next];
+        numberHeads[empty] = numberHeads[next];
+        numberHeads[next] = NONE;
+        empty = next;
+      }
+      next = (next + 1) & mask;
+    }
+  }
+
+  /**
+   * Doubles the hash table of train numbers.
+   */
+
+  private void rehashNumbers() {
+    int[] oldKeys = numberKeys;
+    int[] oldHeads = numberHeads;
+    numberKeys = new int[oldKeys.length * 2];
+    numberHeads = new int[oldKeys.length * 2];
+    Arrays.fill(numberHeads, NONE);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldHeads[i] != NONE) {
+        int index = numberIndex(oldKeys[i]);
+        numberKeys[index] = oldKeys[i];
+        numberHeads[index] = oldHeads[i];
+      }
+    }
+  }
+
+  private static int mix(int value) {
+    int hash = value * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private int getInt(int slot, int field) {
+    return chunk(slot).getInt(offset(slot) + field);
+  }
+
+  private ByteBuffer chunk(int slot) {
+    return chunks[slot >>> chunkBits];
+  }
+
+  private int offset(int slot) {
+    return (slot & chunkMask) * RECORD_SIZE;
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The departure store is closed");
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <h1>OffHeapStringDictionary.</h1>
+ * <p>
+ * The OffHeapStringDictionary class gives each distinct string a small integer id, so that
+ * records can store lines and destinations as fixed-width ids. The UTF-8 bytes of the strings
+ * are kept in a direct buffer outside the Java heap, and the hash table from strings to ids
+ * only uses primitive arrays.
+ * </p>
+ * <p>
+ * There are few distinct lines and destinations, so decoded strings are cached by id. This keeps
+ * scans from creating a new String for every record.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-24
+ */
+
+public class OffHeapStringDictionary implements AutoCloseable {
+
+  private ByteBuffer bytes = ByteBuffer.allocateDirect(4096);
+  private int[] offsets = new int[64];
+  private int[] lengths = new int[64];
+  private String[] decoded = new String[64];
+  private int[] table = new int[128];
+  private int size;
+  private boolean closed;
+
+  /**
+   * Constructs an empty dictionary.
+   */
+
+  public OffHeapStringDictionary() {
+    Arrays.fill(table, -1);
+  }
+
+  /**
+   * Gets the number of distinct strings in the dictionary.
+   *
+   * @return The number of strings.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of bytes allocated outside the heap.
+   *
+   * @return The capacity of the off-heap buffer in bytes.
+   */
+  public long getOffHeapBytes() {
+    return closed ? 0 : bytes.capacity();
+  }
+
+  /**
+   * Gets the id of a string, adding it to the dictionary if it is new.
+   *
+   * @param value The string.
+   * @return The id of the string.
+   */
+  public int intern(String value) {
+    checkOpen();
+    byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+    int slot = findSlot(encoded);
+    if (table[slot] >= 0) {
+      return table[slot];
+    }
+    int id = size++;
+    if (id == offsets.length) {
+      offsets = Arrays.copyOf(offsets, id * 2);
+      lengths = Arrays.copyOf(lengths, id * 2);
+      decoded = Arrays.copyOf(decoded, id * 2);
+    }
+    ensureCapacity(encoded.length);
+    offsets[id] = bytes.position();
+    lengths[id] = encoded.length;
+    decoded[id] = value;
+    bytes.put(encoded);
+    table[slot] = id;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  /**
+   * Gets the id of a string without adding it.
+   *
+   * @param value The string.
+   * @return The id of the string, or -1 if it is not in the dictionary.
+   */
+  public int find(String value) {
+    checkOpen();
+    return table[findSlot(value.getBytes(StandardCharsets.UTF_8))];
+  }
+
+  /**
+   * Gets the string with the specified id.
+   *
+   * @param id The id of the string.
+   * @return The string.
+   */
+  public String get(int id) {
+    checkOpen();
+    String value = decoded[id];
+    if (value == null) {
+      byte[] encoded = new byte[lengths[id]];
+      bytes.get(offsets[id], encoded);
+      value = new String(encoded, StandardCharsets.UTF_8);
+      decoded[id] = value;
+    }
+    return value;
+  }
+
+  /**
+   * Closes the dictionary, dropping its buffer so the garbage collector can free its memory.
+   * The dictionary cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    bytes = null;
+    decoded = null;
+  }
+
+  /**
+   * Finds the slot of the hash table that holds the string, or the empty slot where it belongs.
+   */
+
+  private int findSlot(byte[] encoded) {
+    int mask = table.length - 1;
+    int slot = hash(encoded) & mask;
+    while (table[slot] >= 0 && !equalsAt(table[slot], encoded)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Compares the stored bytes of an id with the specified bytes.
+   */
+
+  private boolean equalsAt(int id, byte[] encoded) {
+    if (lengths[id] != encoded.length) {
+      return false;
+    }
+    int offset = offsets[id];
+    for (int i = 0; i < encoded.length; i++) {
+      if (bytes.get(offset + i) != encoded[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Doubles the hash table and inserts every id again.
+   */
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    Arrays.fill(table, -1);
+    int mask = table.length - 1;
+    for (int id = 0; id < size; id++) {
+      byte[] encoded = new byte[lengths[id]];
+      bytes.get(offsets[id], encoded);
+      int slot = hash(encoded) & mask;
+      while (table[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id;
+    }
+  }
+
+  /**
+   * Grows the off-heap buffer if the specified number of bytes does not fit.
+   */
+
+  private void ensureCapacity(int length) {
+    if (bytes.remaining() >= length) {
+      return;
+    }
+    ByteBuffer larger = ByteBuffer.allocateDirect(
+            Math.max(bytes.capacity() * 2, bytes.position() + length));
+    bytes.flip();
+    larger.put(bytes);
+    bytes = larger;
+  }
+
+  private static int hash(byte[] encoded) {
+    int hash = Arrays.hashCode(encoded);
+    return hash ^ (hash >>> 16);
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The dictionary is closed");
+    }
+  }
+}
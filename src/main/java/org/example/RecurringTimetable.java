@@ -0,0 +1,206 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>RecurringTimetable.</h1>
+ * <p>
+ * The RecurringTimetable class holds the service patterns of a train dispatch and the per-day
+ * overrides of their delay and track. It creates the departures of the patterns for a window of
+ * time, so only the upcoming departures exist as Departure objects.
+ * </p>
+ * <p>
+ * Patterns are kept sorted by their minute of the day, so creating the departures of a window
+ * only looks at the patterns that leave within it. The overrides are sorted by service day,
+ * so those of days that have passed can be removed together, even if no departure was created
+ * for them.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.2
+ * @since 2024-01-12
+ */
+
+public class RecurringTimetable {
+
+  /**
+   * Service patterns grouped by their minute of the day.
+   */
+  private final TreeMap<Integer, List<ServicePattern>> patternsByMinute = new TreeMap<>();
+
+  /**
+   * Delay overrides for departures that are not created yet, by service day and train number.
+   */
+  private final TreeMap<Long, Integer> delayOverrides = new TreeMap<>();
+
+  /**
+   * Track overrides for departures that are not created yet, by service day and train number.
+   */
+  private final TreeMap<Long, Integer> trackOverrides = new TreeMap<>();
+
+  private int numberOfPatterns;
+
+  /**
+   * Gets the number of registered service patterns.
+   *
+   * @return The number of service patterns.
+   */
+  public int getNumberOfPatterns() {
+    return numberOfPatterns;
+  }
+
+  /**
+   * Adds a service pattern.
+   *
+   * @param pattern The service pattern to add.
+   */
+  public void addPattern(ServicePattern pattern) {
+    patternsByMinute.computeIfAbsent(pattern.getMinuteOfDay(), minute -> new ArrayList<>())
+            .add(pattern);
+    numberOfPatterns++;
+  }
+
+  /**
+   * Sets the delay of the departure of a train on a service day that is not created yet.
+   *
+   * @param trainNumber The train number of the pattern.
+   * @param serviceDay  The service day, as days since 1970-01-01.
+   * @param delay       The delay (in minutes) of the departure.
+   */
+  public void setDelayOverride(int trainNumber, int serviceDay, int delay) {
+    delayOverrides.put(key(trainNumber, serviceDay), delay);
+  }
+
+  /**
+   * Sets the track of the departure of a train on a service day that is not created yet.
+   *
+   * @param trainNumber The train number of the pattern.
+   * @param serviceDay  The service day, as days since 1970-01-01.
+   * @param track       The track of the departure.
+   */
+  public void setTrackOverride(int trainNumber, int serviceDay, int track) {
+    trackOverrides.put(key(trainNumber, serviceDay), track);
+  }
+
+  /**
+   * Applies and removes the overrides for the service day of a departure that is created
+   * outside the patterns, such as a departure paged in from a DepartureSpool.
+   *
+   * @param departure The departure, not registered yet.
+   */
+  public void applyOverrides(Departure departure) {
+    long key = key(departure.getTrainNumber(), ServiceTime.dayOf(departure.getDepartureMinute()));
+    Integer track = trackOverrides.remove(key);
+    Integer delay = delayOverrides.remove(key);
+    if (track != null) {
+      departure.setTrack(track);
+    }
+    if (delay != null) {
+      departure.setDelay(delay);
+    }
+  }
+
+  /**
+   * Removes the overrides of the service days before a day. These are never applied if the
+   * train did not run on the day, or is not a pattern or spooled departure.
+   *
+   * @param serviceDay The first service day to keep, as days since 1970-01-01.
+   */
+  public void removeOverridesBefore(int serviceDay) {
+    delayOverrides.headMap(key(0, serviceDay)).clear();
+    trackOverrides.headMap(key(0, serviceDay)).clear();
+  }
+
+  /**
+   * Gets the number of delay and track overrides that are not applied yet.
+   *
+   * @return The number of overrides.
+   */
+  public int getNumberOfOverrides() {
+    return delayOverrides.size() + trackOverrides.size();
+  }
+
+  /**
+   * Creates the departures of all patterns that leave within a window, applying and
+   * removing the overrides for their service days.
+   *
+   * @param fromMinute The start of the window as an epoch minute, inclusive.
+   * @param toMinute   The end of the window as an epoch minute, exclusive.
+   * @param sink       Receives the created departures.
+   */
+  public void materialize(int fromMinute, int toMinute, Consumer<Departure> sink) {
+    forEachDay(fromMinute, toMinute, (serviceDay, fromMinuteOfDay, toMinuteOfDay) ->
+            patternsByMinute.subMap(fromMinuteOfDay, true, toMinuteOfDay, false).values()
+                    .forEach(patterns -> patterns.forEach(pattern ->
+                            materialize(pattern, serviceDay, sink))));
+  }
+
+  /**
+   * Creates the departures of a single pattern that leave within a window.
+   *
+   * @param pattern    The service pattern.
+   * @param fromMinute The start of the window as an epoch minute, inclusive.
+   * @param toMinute   The end of the window as an epoch minute, exclusive.
+   * @param sink       Receives the created departures.
+   */
+  public void materialize(ServicePattern pattern, int fromMinute, int toMinute,
+                          Consumer<Departure> sink) {
+    forEachDay(fromMinute, toMinute, (serviceDay, fromMinuteOfDay, toMinuteOfDay) -> {
+      int minute = pattern.getMinuteOfDay();
+      if (minute >= fromMinuteOfDay && minute < toMinuteOfDay) {
+        materialize(pattern, serviceDay, sink);
+      }
+    });
+  }
+
+  /**
+   * Creates the departure of a pattern on a service day if the pattern runs on it.
+   */
+
+  private void materialize(ServicePattern pattern, int serviceDay, Consumer<Departure> sink) {
+    if (!pattern.runsOn(serviceDay)) {
+      return;
+    }
+    long key = key(pattern.getTrainNumber(), serviceDay);
+    Integer track = trackOverrides.remove(key);
+    Integer delay = delayOverrides.remove(key);
+    sink.accept(pattern.createDeparture(serviceDay,
+            (track == null) ? pattern.getDefaultTrack() : track,
+            (delay == null) ? 0 : delay));
+  }
+
+  /**
+   * Splits a window into the part of it that is on each service day.
+   */
+
+  private static void forEachDay(int fromMinute, int toMinute, DayWindow dayWindow) {
+    if (fromMinute >= toMinute) {
+      return;
+    }
+    for (int day = ServiceTime.dayOf(fromMinute); day <= ServiceTime.dayOf(toMinute - 1); day++) {
+      int dayStart = day * ServiceTime.MINUTES_PER_DAY;
+      dayWindow.accept(day, Math.max(0, fromMinute - dayStart),
+              Math.min(ServiceTime.MINUTES_PER_DAY, toMinute - dayStart));
+    }
+  }
+
+  /**
+   * Combines a train number and a service day into one key, which sorts by the day first.
+   */
+
+  private static long key(int trainNumber, int serviceDay) {
+    return ((long) serviceDay << 32) | (trainNumber & 0xFFFFFFFFL);
+  }
+
+  /**
+   * The part of a window that is on one service day.
+   */
+
+  @FunctionalInterface
+  private interface DayWindow {
+    void accept(int serviceDay, int fromMinuteOfDay, int toMinuteOfDay);
+  }
+}
@@ -0,0 +1,273 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalTime;
+import java.util.function.Function;
+
+/**
+ * <h1>ReplicationFollower.</h1>
+ * <p>
+ * The ReplicationFollower class keeps a copy of the board of a ReplicationLeader in its own
+ * train dispatch, and serves reads from it. A background thread connects to the leader,
+ * replaces the board when a snapshot arrives and applies the mutations in order. When the
+ * connection is lost, it reconnects and asks for the mutations after the last one it applied.
+ * </p>
+ * <p>
+ * The dispatch is not thread safe, so reads go through read, which runs a function while no
+ * mutation is being applied. The lag behind the leader is reported both as a number of
+ * mutations and in milliseconds.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-31
+ */
+
+public class ReplicationFollower implements AutoCloseable {
+
+  /**
+   * Milliseconds to wait before connecting again.
+   */
+  private static final int RECONNECT_MILLIS = 200;
+
+  private final InetSocketAddress leader;
+  private final Thread receiver;
+  private TrainDispatch trainDispatch;
+  private long epoch;
+  private long appliedSequence;
+  private long appliedMillis;
+  private long leaderSequence;
+  private boolean connected;
+  private volatile boolean closed;
+  private volatile Socket socket;
+
+  /**
+   * Starts following a leader.
+   *
+   * @param host The host of the leader.
+   * @param port The port of the leader.
+   */
+  public ReplicationFollower(String host, int port) {
+    this.leader = new InetSocketAddress(host, port);
+    this.trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.MIDNIGHT));
+    this.receiver = Thread.ofPlatform().daemon().name("replication-receiver")
+            .start(this::receive);
+  }
+
+  /**
+   * Reads from the board of the follower.
+   *
+   * @param reader The function that reads the board. It must not change the dispatch.
+   * @param <T>    The type of the result.
+   * @return The result of the function.
+   */
+  public synchronized <T> T read(Function<TrainDispatch, T> reader) {
+    return reader.apply(trainDispatch);
+  }
+
+  /**
+   * Gets the sequence number of the last mutation applied.
+   *
+   * @return The sequence number.
+   */
+  public synchronized long getAppliedSequence() {
+    return appliedSequence;
+  }
+
+  /**
+   * Gets the number of mutations the leader has made that are not applied here yet, as far as
+   * the follower knows.
+   *
+   * @return The lag in mutations.
+   */
+  public synchronized long getLag() {
+    return Math.max(0, leaderSequence - appliedSequence);
+  }
+
+  /**
+   * Gets how old the board of the follower is, when the leader has made changes that are not
+   * applied here yet: the time since the leader made the last mutation that is applied.
+   *
+   * @return The lag in milliseconds, 0 if the follower is up to date.
+   */
+  public synchronized long getLagMillis() {
+    if (leaderSequence <= appliedSequence) {
+      return 0;
+    }
+    return Math.max(0, System.currentTimeMillis() - appliedMillis);
+  }
+
+  /**
+   * Checks if the follower is connected to the leader.
+   *
+   * @return True if it is connected, false otherwise.
+   */
+  public synchronized boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Waits until a mutation has been applied.
+   *
+   * @param sequence     The sequence number of the mutation.
+   * @param timeoutMillis The longest time to wait.
+   * @return True if the mutation was applied, false if the time ran out.
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  public synchronized boolean awaitSequence(long sequence, long timeoutMillis)
+          throws InterruptedException {
+    long end = System.currentTimeMillis() + timeoutMillis;
+    while (appliedSequence < sequence) {
+      long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  /**
+   * Stops following the leader.
+   *
+   * @throws InterruptedException if the thread is interrupted while the receiver stops.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    closed = true;
+    Socket current = socket;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        // Closing is best effort
+      }
+    }
+    receiver.interrupt();
+    receiver.join();
+  }
+
+  /**
+   * Connects to the leader and applies what it sends, until the follower is closed.
+   */
+
+  private void receive() {
+    while (!closed) {
+      try (Socket connection = new Socket()) {
+        socket = connection;
+        connection.connect(leader);
+        connection.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        synchronized (this) {
+          out.writeLong(epoch);
+          out.writeLong(appliedSequence);
+          connected = true;
+        }
+        out.flush();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(connection.getInputStream()));
+        while (!closed) {
+          receiveFrame(in);
+        }
+      } catch (IOException e) {
+        // The leader is not reachable, try again below
+      }
+      synchronized (this) {
+        connected = false;
+      }
+      try {
+        Thread.sleep(RECONNECT_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads one frame from the leader and applies it.
+   */
+
+  private void receiveFrame(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case ReplicationProtocol.SNAPSHOT -> {
+        long snapshotEpoch = in.readLong();
+        long sequence = in.readLong();
+        byte[] bytes = in.readNBytes(in.readInt());
+        TrainDispatch board = BoardSnapshot.read(new ByteArrayInputStream(bytes),
+                new ListDepartureStore());
+        synchronized (this) {
+          trainDispatch = board;
+          epoch = snapshotEpoch;
+          appliedSequence = sequence;
+          appliedMillis = System.currentTimeMillis();
+          leaderSequence = sequence;
+          notifyAll();
+        }
+      }
+      case ReplicationProtocol.MUTATION -> {
+        long sequence = in.readLong();
+        long timeMillis = in.readLong();
+        byte[] mutation = in.readNBytes(in.readInt());
+        synchronized (this) {
+          ReplicationProtocol.apply(new DataInputStream(new ByteArrayInputStream(mutation)),
+                  trainDispatch);
+          appliedSequence = sequence;
+          appliedMillis = timeMillis;
+          leaderSequence = Math.max(leaderSequence, sequence);
+          notifyAll();
+        }
+      }
+      case ReplicationProtocol.HEARTBEAT -> {
+        long sequence = in.readLong();
+        synchronized (this) {
+          leaderSequence = sequence;
+        }
+      }
+      default -> throw new IOException("Unknown frame: " + type);
+    }
+  }
+
+  /**
+   * Follows a leader from the command line. With a sequence number, it waits until that
+   * mutation is applied, prints the board and exits. Without one, it prints the size of the
+   * board and the lag every few seconds.
+   *
+   * @param args The host and port of the leader, and optionally a sequence number.
+   * @throws InterruptedException if the thread is interrupted.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length < 2) {
+      System.out.println("Usage: <host> <port> [sequence]");
+      return;
+    }
+    try (ReplicationFollower follower =
+                 new ReplicationFollower(args[0], Integer.parseInt(args[1]))) {
+      if (args.length > 2) {
+        long sequence = Long.parseLong(args[2]);
+        if (!follower.awaitSequence(sequence, 30_000)) {
+          System.out.println("Timed out at sequence " + follower.getAppliedSequence());
+          return;
+        }
+        System.out.println("Applied " + follower.getAppliedSequence());
+        follower.read(trainDispatch -> {
+          trainDispatch.sortedList().forEach(System.out::println);
+          return null;
+        });
+        return;
+      }
+      while (true) {
+        Thread.sleep(5000);
+        int departures = follower.read(TrainDispatch::getNumberOfDepartures);
+        System.out.println(departures + " departures, sequence " + follower.getAppliedSequence()
+                + ", lag " + follower.getLag() + " (" + follower.getLagMillis() + " ms)");
+      }
+    }
+  }
+}
@@ -0,0 +1,355 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <h1>ReplicationLeader.</h1>
+ * <p>
+ * The ReplicationLeader class streams the changes of a train dispatch to follower processes
+ * over TCP, so the followers can serve reads of the same board. It follows the dispatch as a
+ * DepartureListener and keeps an ordered log of the mutations since the last checkpoint,
+ * each with a sequence number. A checkpoint writes a BoardSnapshot of the board and drops the
+ * log before it.
+ * </p>
+ * <p>
+ * A follower that connects, or reconnects after falling too far behind, is sent the snapshot
+ * and then the log after it. A follower that reconnects while the log still has its next
+ * mutation only gets the tail. Each follower has its own sender thread, so a slow follower
+ * never holds up the dispatch or the other followers.
+ * </p>
+ * <p>
+ * The departures that leave are not sent, since every follower removes them itself when the
+ * time is set. Checkpoints must be made on the thread that changes the dispatch.
+ * </p>
+ * <p>
+ * The log is also compacted without the dispatch: once it reaches the compaction size, a
+ * background thread applies it to a copy of the last snapshot, as a follower would, and makes
+ * that the new snapshot. The log is then dropped up to where the copy was taken, so it stays
+ * bounded however long the leader runs.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-01-31
+ */
+
+public class ReplicationLeader implements DepartureListener, AutoCloseable {
+
+  /**
+   * Milliseconds without mutations before a heartbeat is sent.
+   */
+  static final int HEARTBEAT_MILLIS = 500;
+
+  /**
+   * Default number of mutations in the log before it is compacted into the snapshot.
+   */
+  public static final int DEFAULT_COMPACTION_SIZE = 10_000;
+
+  /**
+   * A mutation in the log.
+   */
+  private record Entry(long sequence, long timeMillis, byte[] mutation) {
+  }
+
+  private final TrainDispatch trainDispatch;
+  private final ServerSocket serverSocket;
+  private final long epoch = ThreadLocalRandom.current().nextLong();
+  private final List<Entry> log = new ArrayList<>();
+  private final List<Socket> followers = new ArrayList<>();
+  private final int compactionSize;
+  private boolean compacting;
+  private long sequence;
+  private long snapshotSequence;
+  private byte[] snapshot;
+  private boolean closed;
+
+  /**
+   * Starts leading a train dispatch, listening for followers on a port of all interfaces.
+   *
+   * @param trainDispatch The dispatch to replicate.
+   * @param port          The port, or 0 to choose a free one.
+   * @throws IOException if the port could not be opened.
+   */
+  public ReplicationLeader(TrainDispatch trainDispatch, int port) throws IOException {
+    this(trainDispatch, port, DEFAULT_COMPACTION_SIZE);
+  }
+
+  /**
+   * Starts leading a train dispatch, compacting the log at the specified size.
+   *
+   * @param trainDispatch  The dispatch to replicate.
+   * @param port           The port, or 0 to choose a free one.
+   * @param compactionSize The number of mutations in the log before it is compacted.
+   * @throws IOException              if the port could not be opened.
+   * @throws IllegalArgumentException if the compaction size is not positive.
+   */
+  public ReplicationLeader(TrainDispatch trainDispatch, int port, int compactionSize)
+          throws IOException, IllegalArgumentException {
+    if (compactionSize < 1) {
+      throw new IllegalArgumentException("Compaction size must be positive");
+    }
+    this.compactionSize = compactionSize;
+    this.trainDispatch = trainDispatch;
+    this.serverSocket = new ServerSocket(port, 50, null);
+    checkpoint();
+    trainDispatch.addDepartureListener(this);
+    Thread.ofPlatform().daemon().name("replication-acceptor").start(this::accept);
+  }
+
+  /**
+   * Gets the port the leader listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Gets the sequence number of the last mutation.
+   *
+   * @return The sequence number, 0 if nothing has changed.
+   */
+  public synchronized long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Gets the number of mutations in the log after the last checkpoint.
+   *
+   * @return The length of the log.
+   */
+  public synchronized int getLogLength() {
+    return log.size();
+  }
+
+  /**
+   * Gets the number of connected followers.
+   *
+   * @return The number of followers.
+   */
+  public synchronized int getNumberOfFollowers() {
+    return followers.size();
+  }
+
+  /**
+   * Writes a snapshot of the board and drops the log before it. It must be called on the
+   * thread that changes the dispatch.
+   *
+   * @throws IOException if the snapshot could not be written.
+   */
+  public void checkpoint() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BoardSnapshot.write(trainDispatch, bytes);
+    synchronized (this) {
+      snapshot = bytes.toByteArray();
+      snapshotSequence = sequence;
+      log.clear();
+    }
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    append(ReplicationProtocol.register(departure));
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    append(ReplicationProtocol.change(ReplicationProtocol.REMOVE, departure, 0));
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    append(ReplicationProtocol.change(ReplicationProtocol.SET_DELAY, departure,
+            departure.getDelay()));
+  }
+
+  @Override
+  public void trackChanged(Departure departure, int oldTrack) {
+    append(ReplicationProtocol.change(ReplicationProtocol.SET_TRACK, departure,
+            Math.max(departure.getTrack(), 0)));
+  }
+
+  @Override
+  public void timeChanged(int currentMinute) {
+    append(ReplicationProtocol.setTime(currentMinute));
+  }
+
+  /**
+   * Stops listening, disconnects the followers and stops following the dispatch.
+   *
+   * @throws IOException if the server socket could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    trainDispatch.removeDepartureListener(this);
+    synchronized (this) {
+      closed = true;
+      for (Socket follower : followers) {
+        follower.close();
+      }
+      notifyAll();
+    }
+    serverSocket.close();
+  }
+
+  /**
+   * Adds a mutation to the log and wakes the sender threads.
+   */
+
+  private synchronized void append(byte[] mutation) {
+    sequence++;
+    log.add(new Entry(sequence, System.currentTimeMillis(), mutation));
+    if (log.size() >= compactionSize && !compacting && !closed) {
+      compacting = true;
+      Thread.ofPlatform().daemon().name("replication-compactor").start(this::compact);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Applies the log to a copy of the snapshot and makes the result the new snapshot. The
+   * dispatch is not read, so it can run on any thread.
+   */
+
+  private void compact() {
+    while (true) {
+      byte[] base;
+      long baseSequence;
+      List<Entry> entries;
+      synchronized (this) {
+        // The log may have filled up again while the last round ran
+        if (log.size() < compactionSize || closed) {
+          compacting = false;
+          return;
+        }
+        base = snapshot;
+        baseSequence = snapshotSequence;
+        entries = new ArrayList<>(log);
+      }
+      try {
+        TrainDispatch board = BoardSnapshot.read(new ByteArrayInputStream(base),
+                new ListDepartureStore());
+        for (Entry entry : entries) {
+          ReplicationProtocol.apply(new DataInputStream(new ByteArrayInputStream(
+                  entry.mutation())), board);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BoardSnapshot.write(board, bytes);
+        synchronized (this) {
+          // A checkpoint made in the meantime is newer than this snapshot
+          if (snapshotSequence == baseSequence) {
+            snapshot = bytes.toByteArray();
+            snapshotSequence = baseSequence + entries.size();
+            log.subList(0, entries.size()).clear();
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // The log is kept, and compacting is tried again at the next mutation
+        synchronized (this) {
+          compacting = false;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Accepts followers until the leader is closed.
+   */
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        synchronized (this) {
+          if (closed) {
+            socket.close();
+            return;
+          }
+          followers.add(socket);
+        }
+        Thread.ofPlatform().daemon().name("replication-sender").start(() -> send(socket));
+      } catch (IOException e) {
+        // The server socket is closed
+      }
+    }
+  }
+
+  /**
+   * Sends a follower what it is missing, and then every new mutation, until it disconnects.
+   */
+
+  private void send(Socket socket) {
+    try (socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(socket.getOutputStream()));
+      long followerEpoch = in.readLong();
+      long position = in.readLong();
+      boolean sameLeader = followerEpoch == epoch;
+      List<Entry> batch = new ArrayList<>();
+      while (true) {
+        byte[] snapshotToSend = null;
+        long latest;
+        synchronized (this) {
+          if (sameLeader && position == sequence && !closed) {
+            wait(HEARTBEAT_MILLIS);
+          }
+          if (closed) {
+            return;
+          }
+          if (!sameLeader || position < snapshotSequence || position > sequence) {
+            // The log does not reach back to the follower, so it starts over from the snapshot
+            snapshotToSend = snapshot;
+            position = snapshotSequence;
+            sameLeader = true;
+          }
+          batch.clear();
+          batch.addAll(log.subList((int) (position - snapshotSequence), log.size()));
+          latest = sequence;
+        }
+        if (snapshotToSend != null) {
+          out.writeByte(ReplicationProtocol.SNAPSHOT);
+          out.writeLong(epoch);
+          out.writeLong(position);
+          out.writeInt(snapshotToSend.length);
+          out.write(snapshotToSend);
+        }
+        for (Entry entry : batch) {
+          out.writeByte(ReplicationProtocol.MUTATION);
+          out.writeLong(entry.sequence());
+          out.writeLong(entry.timeMillis());
+          out.writeInt(entry.mutation().length);
+          out.write(entry.mutation());
+          position = entry.sequence();
+        }
+        if (batch.isEmpty() && snapshotToSend == null) {
+          out.writeByte(ReplicationProtocol.HEARTBEAT);
+          out.writeLong(latest);
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // The follower disconnected
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      synchronized (this) {
+        followers.remove(socket);
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * <h1>ReplicationProtocol.</h1>
+ * <p>
+ * The ReplicationProtocol class holds the wire format shared by ReplicationLeader and
+ * ReplicationFollower. A follower starts by sending the epoch of the leader it followed and
+ * the sequence number of the last mutation it applied. The leader then sends frames: a
+ * snapshot of the whole board when the follower cannot continue from the log, mutations in
+ * order, and heartbeats when there is nothing to send.
+ * </p>
+ * <p>
+ * A mutation is one of register, remove, set track, set delay and set time. Departures are
+ * identified by train number and scheduled time, as in the stores.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-31
+ */
+
+final class ReplicationProtocol {
+
+  static final byte SNAPSHOT = 1;
+  static final byte MUTATION = 2;
+  static final byte HEARTBEAT = 3;
+
+  static final byte REGISTER = 1;
+  static final byte REMOVE = 2;
+  static final byte SET_TRACK = 3;
+  static final byte SET_DELAY = 4;
+  static final byte SET_TIME = 5;
+
+  private ReplicationProtocol() {
+  }
+
+  /**
+   * Encodes the registration of a departure.
+   */
+  static byte[] register(Departure departure) {
+    return encode(out -> {
+      out.writeByte(REGISTER);
+      out.writeInt(departure.getDepartureMinute());
+      out.writeUTF(departure.getLine());
+      out.writeInt(departure.getTrainNumber());
+      out.writeUTF(departure.getDestination());
+      out.writeInt(Math.max(departure.getTrack(), 0));
+      out.writeInt(departure.getDelay());
+    });
+  }
+
+  /**
+   * Encodes a change of a departure: removal, track or delay.
+   */
+  static byte[] change(byte type, Departure departure, int value) {
+    return encode(out -> {
+      out.writeByte(type);
+      out.writeInt(departure.getTrainNumber());
+      out.writeInt(departure.getDepartureMinute());
+      out.writeInt(value);
+    });
+  }
+
+  /**
+   * Encodes a new current time.
+   */
+  static byte[] setTime(int currentMinute) {
+    return encode(out -> {
+      out.writeByte(SET_TIME);
+      out.writeInt(currentMinute);
+    });
+  }
+
+  /**
+   * Reads a mutation and applies it to a train dispatch.
+   *
+   * @param in            The mutation.
+   * @param trainDispatch The dispatch of the follower.
+   * @throws IOException if the mutation could not be read or is unknown.
+   */
+  static void apply(DataInput in, TrainDispatch trainDispatch) throws IOException {
+    byte type = in.readByte();
+    if (type == REGISTER) {
+      int minute = in.readInt();
+      String line = in.readUTF();
+      int trainNumber = in.readInt();
+      String destination = in.readUTF();
+      int track = in.readInt();
+      int delay = in.readInt();
+      trainDispatch.registerDeparture(new Departure(minute, line, trainNumber, destination,
+              track, delay));
+      return;
+    }
+    if (type == SET_TIME) {
+      trainDispatch.setTime(in.readInt());
+      return;
+    }
+    int trainNumber = in.readInt();
+    int minute = in.readInt();
+    int value = in.readInt();
+    switch (type) {
+      case REMOVE -> {
+        Departure departure = trainDispatch.findDepartureByNumber(trainNumber,
+                ServiceTime.dayOf(minute));
+        if (departure != null) {
+          trainDispatch.removeDeparture(departure);
+        }
+      }
+      case SET_TRACK -> trainDispatch.setTrack(trainNumber, ServiceTime.toLocalDate(minute),
+              value);
+      case SET_DELAY -> trainDispatch.setDelay(trainNumber, ServiceTime.toLocalDate(minute),
+              value);
+      default -> throw new IOException("Unknown mutation: " + type);
+    }
+  }
+
+  /**
+   * Writes the fields of a mutation.
+   */
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private static byte[] encode(Writer writer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writer.write(out);
+    } catch (IOException e) {
+      // A ByteArrayOutputStream does not throw
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+/**
+ * <h1>ScalarColumnScanner.</h1>
+ * <p>
+ * The ScalarColumnScanner class checks the departure columns one row at a time. It is used
+ * when the vector module is not available.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-29
+ */
+
+final class ScalarColumnScanner implements ColumnScanner {
+
+  @Override
+  public String getName() {
+    return "scalar";
+  }
+
+  @Override
+  public int count(int[] minutes, int[] delays, int[] tracks, int start, int end,
+                   Filter filter) {
+    int count = 0;
+    for (int row = start; row < end; row++) {
+      if (filter.matches(minutes[row], delays[row], tracks[row])) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int select(int[] minutes, int[] delays, int[] tracks, int start, int end,
+                    Filter filter, int[] rows) {
+    int count = 0;
+    for (int row = start; row < end; row++) {
+      if (filter.matches(minutes[row], delays[row], tracks[row])) {
+        rows[count++] = row;
+      }
+    }
+    return count;
+  }
+}
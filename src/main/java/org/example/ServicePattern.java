@@ -0,0 +1,141 @@
+package org.example;
+
+import static java.util.Objects.requireNonNull;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * <h1>ServicePattern.</h1>
+ * <p>
+ * This class represents a recurring departure, for example a train that leaves at 17:45 every
+ * weekday. The train dispatch creates a Departure from the pattern for each service day it runs
+ * on, but only when that day comes within the upcoming window.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-12
+ */
+
+public class ServicePattern {
+
+  private final int minuteOfDay;
+  private final String line;
+  private final int trainNumber;
+  private final String destination;
+  private final Set<DayOfWeek> days;
+  private final LocalDate validFrom;
+  private final LocalDate validTo;
+  private final int defaultTrack;
+
+  /**
+   * Constructs a ServicePattern object with the specified information.
+   *
+   * @param time         Time of day of the departures.
+   * @param line         Line or route of the departures.
+   * @param trainNumber  Train number of the departures.
+   * @param destination  Destination of the departures.
+   * @param days         The days of the week the departures run on.
+   * @param validFrom    The first date the pattern is valid.
+   * @param validTo      The last date the pattern is valid.
+   * @param defaultTrack Track or platform number of the departures, 0 if not known yet.
+   * @throws IllegalArgumentException if the input parameters are invalid or missing.
+   */
+
+  public ServicePattern(LocalTime time, String line, int trainNumber, String destination,
+                        Set<DayOfWeek> days, LocalDate validFrom, LocalDate validTo,
+                        int defaultTrack) throws IllegalArgumentException {
+    if (trainNumber < 0 || defaultTrack < 0) {
+      throw new IllegalArgumentException("Train number and track cannot be negative");
+    }
+    if (requireNonNull(days, "Days cannot be null").isEmpty()) {
+      throw new IllegalArgumentException("Pattern has to run on at least one day");
+    }
+    if (requireNonNull(validTo, "Valid to cannot be null")
+            .isBefore(requireNonNull(validFrom, "Valid from cannot be null"))) {
+      throw new IllegalArgumentException("Valid to cannot be before valid from");
+    }
+    this.minuteOfDay = ServiceTime.of(requireNonNull(time, "Time cannot be null"));
+    this.line = requireNonNull(line, "Line cannot be null");
+    this.trainNumber = trainNumber;
+    this.destination = requireNonNull(destination, "Destination cannot be null");
+    this.days = EnumSet.copyOf(days);
+    this.validFrom = validFrom;
+    this.validTo = validTo;
+    this.defaultTrack = defaultTrack;
+  }
+
+  /**
+   * Gets the minute of the day the departures leave.
+   *
+   * @return The minute of the day, from 0 to 1439.
+   */
+  public int getMinuteOfDay() {
+    return minuteOfDay;
+  }
+
+  /**
+   * Gets the line of the departures.
+   *
+   * @return The line or route of the departures.
+   */
+  public String getLine() {
+    return line;
+  }
+
+  /**
+   * Gets the train number of the departures.
+   *
+   * @return The train number of the departures.
+   */
+  public int getTrainNumber() {
+    return trainNumber;
+  }
+
+  /**
+   * Gets the destination of the departures.
+   *
+   * @return The destination of the departures.
+   */
+  public String getDestination() {
+    return destination;
+  }
+
+  /**
+   * Gets the track the departures use unless it is overridden for a day.
+   *
+   * @return The default track, 0 if not known yet.
+   */
+  public int getDefaultTrack() {
+    return defaultTrack;
+  }
+
+  /**
+   * Checks if the pattern runs on the specified service day.
+   *
+   * @param serviceDay The service day, as days since 1970-01-01.
+   * @return True if the pattern runs on the day, false otherwise.
+   */
+  public boolean runsOn(int serviceDay) {
+    LocalDate date = LocalDate.ofEpochDay(serviceDay);
+    return days.contains(date.getDayOfWeek())
+            && !date.isBefore(validFrom) && !date.isAfter(validTo);
+  }
+
+  /**
+   * Creates the departure of the pattern on the specified service day.
+   *
+   * @param serviceDay The service day, as days since 1970-01-01.
+   * @param track      The track of the departure.
+   * @param delay      The delay (in minutes) of the departure.
+   * @return The departure on the service day.
+   */
+  public Departure createDeparture(int serviceDay, int track, int delay) {
+    return new Departure(serviceDay * ServiceTime.MINUTES_PER_DAY + minuteOfDay, line,
+            trainNumber, destination, track, delay);
+  }
+}
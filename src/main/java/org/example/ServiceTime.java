@@ -0,0 +1,132 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * <h1>ServiceTime.</h1>
+ * <p>
+ * This class converts between the time types of java.time and epoch minutes, the primitive
+ * time key used by departures and the train dispatch.
+ * </p>
+ * <p>
+ * An epoch minute is the number of minutes since 1970-01-01 00:00, so the service day of an
+ * epoch minute is the epoch day of its date. Departures created from a LocalTime alone belong to
+ * service day 0. Unlike LocalTime, epoch minutes do not wrap around at midnight, which makes a
+ * departure at 23:55 with a 10-minute delay sort after a departure at 23:59.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-10
+ */
+
+public final class ServiceTime {
+
+  /**
+   * Number of minutes in a service day.
+   */
+  public static final int MINUTES_PER_DAY = 24 * 60;
+
+  private ServiceTime() {
+  }
+
+  /**
+   * Gets the epoch minute of a time on service day 0.
+   *
+   * @param time The time of day.
+   * @return The epoch minute of the time on service day 0.
+   */
+  public static int of(LocalTime time) {
+    return time.getHour() * 60 + time.getMinute();
+  }
+
+  /**
+   * Gets the epoch minute of a time on the specified date.
+   *
+   * @param date The date of the service day.
+   * @param time The time of day.
+   * @return The epoch minute of the date and time.
+   */
+  public static int of(LocalDate date, LocalTime time) {
+    return Math.toIntExact(date.toEpochDay() * MINUTES_PER_DAY + of(time));
+  }
+
+  /**
+   * Gets the epoch minute of a time on the same service day as another epoch minute.
+   *
+   * @param epochMinute An epoch minute on the service day.
+   * @param time        The time of day.
+   * @return The epoch minute of the time on the same service day.
+   */
+  public static int withTime(int epochMinute, LocalTime time) {
+    return dayOf(epochMinute) * MINUTES_PER_DAY + of(time);
+  }
+
+  /**
+   * Gets the service day of an epoch minute.
+   *
+   * @param epochMinute The epoch minute.
+   * @return The service day, as days since 1970-01-01.
+   */
+  public static int dayOf(int epochMinute) {
+    return Math.floorDiv(epochMinute, MINUTES_PER_DAY);
+  }
+
+  /**
+   * Gets the minute of the day of an epoch minute.
+   *
+   * @param epochMinute The epoch minute.
+   * @return The minute of the day, from 0 to 1439.
+   */
+  public static int minuteOfDay(int epochMinute) {
+    return Math.floorMod(epochMinute, MINUTES_PER_DAY);
+  }
+
+  /**
+   * Gets the time of day of an epoch minute.
+   *
+   * @param epochMinute The epoch minute.
+   * @return The time of day.
+   */
+  public static LocalTime toLocalTime(int epochMinute) {
+    int minuteOfDay = minuteOfDay(epochMinute);
+    return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+  }
+
+  /**
+   * Gets the date of the service day of an epoch minute.
+   *
+   * @param epochMinute The epoch minute.
+   * @return The date of the service day.
+   */
+  public static LocalDate toLocalDate(int epochMinute) {
+    return LocalDate.ofEpochDay(dayOf(epochMinute));
+  }
+
+  /**
+   * Appends the time of day of an epoch minute in the format HH:mm, without creating
+   * temporary objects.
+   *
+   * @param sb          The string builder to append to.
+   * @param epochMinute The epoch minute.
+   * @return The same string builder.
+   */
+  public static StringBuilder appendTime(StringBuilder sb, int epochMinute) {
+    int minuteOfDay = minuteOfDay(epochMinute);
+    int hour = minuteOfDay / 60;
+    int minute = minuteOfDay % 60;
+    return sb.append((char) ('0' + hour / 10)).append((char) ('0' + hour % 10)).append(':')
+            .append((char) ('0' + minute / 10)).append((char) ('0' + minute % 10));
+  }
+
+  /**
+   * Formats the time of day of an epoch minute as HH:mm.
+   *
+   * @param epochMinute The epoch minute.
+   * @return The time of day as a String.
+   */
+  public static String format(int epochMinute) {
+    return appendTime(new StringBuilder(5), epochMinute).toString();
+  }
+}
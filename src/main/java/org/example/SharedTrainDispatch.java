@@ -0,0 +1,444 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <h1>SharedTrainDispatch.</h1>
+ * <p>
+ * The SharedTrainDispatch class is a train dispatch that several threads can use at once, such
+ * as the sessions of the ConsoleServer. Every method of the board takes one lock, so each call
+ * sees and leaves the dispatch in a consistent state. Listeners are called while the lock is
+ * held. The departures it returns are copies, so other threads can read them while the
+ * dispatch changes, and queries run under the lock as well.
+ * </p>
+ * <p>
+ * Work that needs several calls in a row must go through withLock. The delay statistics are
+ * handed out as a copy. The history, the columns, the connections and the spool are handed out
+ * as they are, since they are kept up to date by the dispatch, and may only be used inside
+ * withLock. The lock is a
+ * ReentrantLock rather than a monitor, so virtual threads waiting for it do not hold on to
+ * their carrier threads.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.6
+ * @since 2024-02-04
+ */
+
+public class SharedTrainDispatch extends TrainDispatch {
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Constructs a shared dispatch that keeps its departures in the specified store.
+   *
+   * @param currentMinute  The current time as an epoch minute.
+   * @param departureStore An empty departure store.
+   */
+  public SharedTrainDispatch(int currentMinute, DepartureStore departureStore) {
+    super(currentMinute, departureStore);
+  }
+
+  /**
+   * Runs a function while no other thread uses the dispatch.
+   *
+   * @param action The function, which gets this dispatch.
+   * @param <T>    The type of the result.
+   * @return The result of the function.
+   */
+  public <T> T withLock(Function<TrainDispatch, T> action) {
+    lock.lock();
+    try {
+      return action.apply(this);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void addDepartureListener(DepartureListener listener) {
+    withLock(dispatch -> {
+      super.addDepartureListener(listener);
+      return null;
+    });
+  }
+
+  @Override
+  public void removeDepartureListener(DepartureListener listener) {
+    withLock(dispatch -> {
+      super.removeDepartureListener(listener);
+      return null;
+    });
+  }
+
+  @Override
+  public LocalTime getTime() {
+    return withLock(dispatch -> super.getTime());
+  }
+
+  @Override
+  public int getCurrentMinute() {
+    return withLock(dispatch -> super.getCurrentMinute());
+  }
+
+  @Override
+  public void setTime(LocalTime time) {
+    withLock(dispatch -> {
+      super.setTime(time);
+      return null;
+    });
+  }
+
+  @Override
+  public void setTime(int currentMinute) {
+    withLock(dispatch -> {
+      super.setTime(currentMinute);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean setTimeIfNotBefore(int currentMinute) {
+    return withLock(dispatch -> super.setTimeIfNotBefore(currentMinute));
+  }
+
+  @Override
+  <T> T read(Supplier<T> action) {
+    return withLock(dispatch -> action.get());
+  }
+
+  @Override
+  List<Departure> handOut(List<Departure> departures) {
+    List<Departure> copies = new ArrayList<>(departures.size());
+    for (Departure departure : departures) {
+      copies.add(copy(departure));
+    }
+    return copies;
+  }
+
+  @Override
+  public DepartureHistory enableHistory(int retentionMinutes) {
+    return withLock(dispatch -> super.enableHistory(retentionMinutes));
+  }
+
+  @Override
+  public DepartureColumns enableColumns() {
+    return withLock(dispatch -> super.enableColumns());
+  }
+
+  @Override
+  public ConnectionGraph enableConnections() {
+    return withLock(dispatch -> super.enableConnections());
+  }
+
+  @Override
+  public DepartureSpool enableSpool(Path directory, int residencyWindow)
+          throws IOException, IllegalArgumentException {
+    lock.lock();
+    try {
+      return super.enableSpool(directory, residencyWindow);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      super.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public DepartureHistory getHistory() {
+    return withLock(dispatch -> super.getHistory());
+  }
+
+  @Override
+  public DepartureColumns getColumns() {
+    return withLock(dispatch -> super.getColumns());
+  }
+
+  @Override
+  public ConnectionGraph getConnections() {
+    return withLock(dispatch -> super.getConnections());
+  }
+
+  @Override
+  public DepartureSpool getSpool() {
+    return withLock(dispatch -> super.getSpool());
+  }
+
+  @Override
+  public DelayStatistics getDelayStatistics() {
+    return withLock(dispatch -> {
+      DelayStatistics copy = new DelayStatistics();
+      copy.merge(super.getDelayStatistics());
+      return copy;
+    });
+  }
+
+  @Override
+  public int getMaterializationHorizon() {
+    return withLock(dispatch -> super.getMaterializationHorizon());
+  }
+
+  @Override
+  public void setMaterializationHorizon(int materializationHorizon) {
+    withLock(dispatch -> {
+      super.setMaterializationHorizon(materializationHorizon);
+      return null;
+    });
+  }
+
+  @Override
+  public int getNumberOfPatterns() {
+    return withLock(dispatch -> super.getNumberOfPatterns());
+  }
+
+  @Override
+  public int getNumberOfOverrides() {
+    return withLock(dispatch -> super.getNumberOfOverrides());
+  }
+
+  @Override
+  public List<Departure> boardAsOf(int minute) throws IllegalStateException {
+    return withLock(dispatch -> super.boardAsOf(minute));
+  }
+
+  @Override
+  public DepartureQuery query() {
+    return withLock(dispatch -> super.query());
+  }
+
+  @Override
+  public void setDwellTimes(int dwellBefore, int dwellAfter) {
+    withLock(dispatch -> {
+      super.setDwellTimes(dwellBefore, dwellAfter);
+      return null;
+    });
+  }
+
+  @Override
+  public int getDwellBefore() {
+    return withLock(dispatch -> super.getDwellBefore());
+  }
+
+  @Override
+  public int getDwellAfter() {
+    return withLock(dispatch -> super.getDwellAfter());
+  }
+
+  @Override
+  public void registerPattern(ServicePattern pattern) {
+    withLock(dispatch -> {
+      super.registerPattern(pattern);
+      return null;
+    });
+  }
+
+  @Override
+  public void setDelay(int number, LocalDate date, int delay) {
+    withLock(dispatch -> {
+      super.setDelay(number, date, delay);
+      return null;
+    });
+  }
+
+  @Override
+  public void setTrack(int number, LocalDate date, int track) {
+    withLock(dispatch -> {
+      super.setTrack(number, date, track);
+      return null;
+    });
+  }
+
+  @Override
+  public int getNumberOfDepartures() {
+    return withLock(dispatch -> super.getNumberOfDepartures());
+  }
+
+  @Override
+  public void registerDeparture(Departure departure) {
+    withLock(dispatch -> {
+      super.registerDeparture(departure);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean registerDepartureIfAbsent(Departure departure) {
+    return withLock(dispatch -> super.registerDepartureIfAbsent(departure));
+  }
+
+  @Override
+  public void removeDeparture(Departure departure) {
+    withLock(dispatch -> {
+      super.removeDeparture(departure);
+      return null;
+    });
+  }
+
+  @Override
+  public List<Departure> sortedList() {
+    return withLock(dispatch -> List.copyOf(handOut(super.sortedList())));
+  }
+
+  @Override
+  public boolean checkIfListIsEmpty() {
+    return withLock(dispatch -> super.checkIfListIsEmpty());
+  }
+
+  @Override
+  public boolean findDuplicateTrainNumber(int trainNumber) {
+    return withLock(dispatch -> super.findDuplicateTrainNumber(trainNumber));
+  }
+
+  @Override
+  public Departure findDepartureByNumber(int number) {
+    return withLock(dispatch -> copy(super.findDepartureByNumber(number)));
+  }
+
+  @Override
+  Departure findDepartureByNumber(int number, int serviceDay) {
+    return withLock(dispatch -> super.findDepartureByNumber(number, serviceDay));
+  }
+
+  @Override
+  public DepartureHandle lookup(int number) {
+    return withLock(dispatch -> {
+      DepartureHandle handle = super.lookup(number);
+      if (handle != null) {
+        showCopy(handle);
+      }
+      return handle;
+    });
+  }
+
+  @Override
+  public boolean setTrack(DepartureHandle handle, int track) {
+    return withLock(dispatch -> {
+      boolean changed = super.setTrack(handle, track);
+      if (changed) {
+        showCopy(handle);
+      }
+      return changed;
+    });
+  }
+
+  @Override
+  public boolean setDelay(DepartureHandle handle, int delay) {
+    return withLock(dispatch -> {
+      boolean changed = super.setDelay(handle, delay);
+      if (changed) {
+        showCopy(handle);
+      }
+      return changed;
+    });
+  }
+
+  @Override
+  public boolean removeDeparture(DepartureHandle handle) {
+    return withLock(dispatch -> super.removeDeparture(handle));
+  }
+
+  @Override
+  public List<Departure> findDeparturesByDestination(String destination) {
+    return withLock(dispatch -> handOut(super.findDeparturesByDestination(destination)));
+  }
+
+  @Override
+  public List<Departure> getMostDelayed(int count) {
+    return withLock(dispatch -> handOut(super.getMostDelayed(count)));
+  }
+
+  @Override
+  public List<String> findDestinations(String query, int limit) {
+    return withLock(dispatch -> super.findDestinations(query, limit));
+  }
+
+  @Override
+  public boolean setTrack(int number, int track) {
+    return withLock(dispatch -> super.setTrack(number, track));
+  }
+
+  @Override
+  public boolean setDelay(int number, int delay) {
+    return withLock(dispatch -> super.setDelay(number, delay));
+  }
+
+  @Override
+  public Departure findTrackConflict(int number) {
+    return withLock(dispatch -> copy(super.findTrackConflict(number)));
+  }
+
+  @Override
+  public Departure findTrackConflict(int track, int effectiveMinute, int number) {
+    return withLock(dispatch -> copy(super.findTrackConflict(track, effectiveMinute,
+            number)));
+  }
+
+  @Override
+  public Departure findTrackConflict(DepartureHandle handle) {
+    return withLock(dispatch -> copy(super.findTrackConflict(handle)));
+  }
+
+  @Override
+  public Departure findTrackConflict(int track, DepartureHandle handle) {
+    return withLock(dispatch -> copy(super.findTrackConflict(track, handle)));
+  }
+
+  @Override
+  public List<Departure[]> findAllTrackConflicts() {
+    return withLock(dispatch -> {
+      List<Departure[]> conflicts = new ArrayList<>();
+      for (Departure[] pair : super.findAllTrackConflicts()) {
+        conflicts.add(new Departure[] {copy(pair[0]), copy(pair[1])});
+      }
+      return conflicts;
+    });
+  }
+
+  @Override
+  public int assignFreeTracks(int numberOfTracks) {
+    return withLock(dispatch -> super.assignFreeTracks(numberOfTracks));
+  }
+
+  @Override
+  public String toString() {
+    return withLock(dispatch -> super.toString());
+  }
+
+  /**
+   * Makes a handle show a copy of its departure, so the departure it hands out does not change
+   * after the lock is released. The dispatch keeps working on the departure in the store.
+   */
+
+  private static void showCopy(DepartureHandle handle) {
+    handle.setView(copy(handle.getDispatchDeparture()));
+  }
+
+  /**
+   * Copies a departure from the store, so it does not change after the lock is released.
+   */
+
+  private static Departure copy(Departure departure) {
+    if (departure == null) {
+      return null;
+    }
+    return new Departure(departure.getDepartureMinute(), departure.getLine(),
+            departure.getTrainNumber(), departure.getDestination(),
+            Math.max(departure.getTrack(), 0), departure.getDelay());
+  }
+}
@@ -0,0 +1,367 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>StationRegistry.</h1>
+ * <p>
+ * The StationRegistry class keeps the boards of all the stations of a network, and the stop
+ * times of the trains running between them. A train is registered once with its stops, and
+ * gets a departure on the board of every station it leaves from, all to its final destination.
+ * </p>
+ * <p>
+ * The stop times are kept by the registry rather than by the departures, since a departure only
+ * belongs to the board of one station. They are also cut into connections from one stop to the
+ * next, which a JourneyPlanner scans to find the journeys between stations. A delay set on a
+ * board applies to the connection leaving that station, and is carried on to the later
+ * connections of the train, less the time it waits at each stop. A departure removed from a
+ * board cancels its connection. The planner is made again the first time it is asked for after
+ * such a change.
+ * </p>
+ * <p>
+ * Like the boards, the registry is meant to be used by one thread. The planners it makes never
+ * change, and can be handed to other threads.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.1
+ * @since 2024-02-07
+ */
+
+public class StationRegistry {
+
+  /**
+   * The default minimum time to change trains, in minutes.
+   */
+  public static final int DEFAULT_TRANSFER_MINUTES = 2;
+
+  /**
+   * A train registered with its stops.
+   */
+  private record Trip(int trainNumber, String line, List<StopTime> stops) {
+  }
+
+  /**
+   * A train going from one stop to the next, as it is now. The delay is the one set on the
+   * board of the station it leaves from.
+   */
+  private static final class Hop {
+    final int trip;
+    final int fromStation;
+    final int toStation;
+    final int departureMinute;
+    final int arrivalMinute;
+    int delay;
+    boolean cancelled;
+
+    Hop(int trip, int fromStation, int toStation, int departureMinute, int arrivalMinute) {
+      this.trip = trip;
+      this.fromStation = fromStation;
+      this.toStation = toStation;
+      this.departureMinute = departureMinute;
+      this.arrivalMinute = arrivalMinute;
+    }
+  }
+
+  private final int transferMinutes;
+  private int currentMinute;
+
+  private final Map<String, Integer> stationIds = new HashMap<>();
+  private final List<String> stationNames = new ArrayList<>();
+  private final List<TrainDispatch> boards = new ArrayList<>();
+  private final List<Trip> trips = new ArrayList<>();
+  private final Map<Long, Trip> tripsByDeparture = new HashMap<>();
+  private final List<Hop> hops = new ArrayList<>();
+
+  /**
+   * The hops by the departure they belong to on the board of their station.
+   */
+  private final Map<Long, Hop> hopsByDeparture = new HashMap<>();
+
+  /**
+   * The planner over the current delays, or null if it must be made again.
+   */
+  private JourneyPlanner planner;
+
+  /**
+   * Constructs an empty registry with the default transfer time.
+   *
+   * @param currentMinute The current time of the boards as an epoch minute.
+   */
+  public StationRegistry(int currentMinute) {
+    this(currentMinute, DEFAULT_TRANSFER_MINUTES);
+  }
+
+  /**
+   * Constructs an empty registry.
+   *
+   * @param currentMinute   The current time of the boards as an epoch minute.
+   * @param transferMinutes The minimum time to change trains, in minutes.
+   * @throws IllegalArgumentException if the transfer time is negative.
+   */
+  public StationRegistry(int currentMinute, int transferMinutes)
+          throws IllegalArgumentException {
+    if (transferMinutes < 0) {
+      throw new IllegalArgumentException("Transfer time cannot be negative");
+    }
+    this.currentMinute = currentMinute;
+    this.transferMinutes = transferMinutes;
+  }
+
+  /**
+   * Gets the board of a station, creating an empty one if the station is new.
+   *
+   * @param station The name of the station.
+   * @return The board of the station.
+   */
+  public TrainDispatch getBoard(String station) {
+    return boards.get(stationId(station));
+  }
+
+  /**
+   * Gets the number of stations with a board.
+   *
+   * @return The number of stations.
+   */
+  public int getNumberOfStations() {
+    return stationNames.size();
+  }
+
+  /**
+   * Gets the number of registered trains.
+   *
+   * @return The number of trains.
+   */
+  public int getNumberOfTrains() {
+    return trips.size();
+  }
+
+  /**
+   * Sets the current time of every board.
+   *
+   * @param currentMinute The new current time as an epoch minute.
+   */
+  public void setTime(int currentMinute) {
+    this.currentMinute = currentMinute;
+    for (TrainDispatch board : boards) {
+      board.setTime(currentMinute);
+    }
+  }
+
+  /**
+   * Registers a train with its stops, and its departure on the board of every station it
+   * leaves from.
+   *
+   * @param line        The line of the train.
+   * @param trainNumber The train number.
+   * @param stops       The stop times, in the order the train calls at the stations.
+   * @throws IllegalArgumentException if there are fewer than two stops, the stops are not in
+   *                                  order of time, a station follows itself, or the train
+   *                                  is already registered on the day it starts.
+   */
+  public void registerTrain(String line, int trainNumber, List<StopTime> stops)
+          throws IllegalArgumentException {
+    if (stops.size() < 2) {
+      throw new IllegalArgumentException("A train needs at least two stops");
+    }
+    for (int i = 1; i < stops.size(); i++) {
+      StopTime previous = stops.get(i - 1);
+      StopTime stop = stops.get(i);
+      if (stop.arrivalMinute() < previous.departureMinute()) {
+        throw new IllegalArgumentException("Train " + trainNumber + " arrives at "
+                + stop.station() + " before it leaves " + previous.station());
+      }
+      if (stop.station().equals(previous.station())) {
+        throw new IllegalArgumentException("Train " + trainNumber + " stops at "
+                + stop.station() + " twice in a row");
+      }
+    }
+    StopTime first = stops.get(0);
+    long firstKey = departureKey(stationId(first.station()), trainNumber,
+            first.departureMinute());
+    if (tripsByDeparture.containsKey(firstKey)) {
+      throw new IllegalArgumentException("Train " + trainNumber + " is already registered");
+    }
+
+    Trip trip = new Trip(trainNumber, line, List.copyOf(stops));
+    int tripIndex = trips.size();
+    trips.add(trip);
+    String destination = stops.get(stops.size() - 1).station();
+    for (int i = 0; i + 1 < stops.size(); i++) {
+      StopTime stop = stops.get(i);
+      int station = stationId(stop.station());
+      Hop hop = new Hop(tripIndex, station, stationId(stops.get(i + 1).station()),
+              stop.departureMinute(), stops.get(i + 1).arrivalMinute());
+      long key = departureKey(station, trainNumber, stop.departureMinute());
+      hops.add(hop);
+      hopsByDeparture.put(key, hop);
+      tripsByDeparture.put(key, trip);
+      boards.get(station).registerDeparture(
+              new Departure(stop.departureMinute(), line, trainNumber, destination, 0, 0));
+    }
+    planner = null;
+  }
+
+  /**
+   * Gets the stop times of the train of a departure on the board of a station.
+   *
+   * @param departure A departure of a board of this registry.
+   * @param station   The station of the board.
+   * @return The stop times of the train, or null if it was not registered with its stops.
+   */
+  public List<StopTime> getStopTimes(Departure departure, String station) {
+    Integer id = stationIds.get(station);
+    if (id == null) {
+      return null;
+    }
+    Trip trip = tripsByDeparture.get(departureKey(id, departure.getTrainNumber(),
+            departure.getDepartureMinute()));
+    return (trip == null) ? null : trip.stops();
+  }
+
+  /**
+   * Gets a planner over the connections with their current delays. The same planner is
+   * returned until a train is registered or a board changes a delay or removes a departure.
+   *
+   * @return The planner.
+   */
+  public JourneyPlanner planner() {
+    if (planner == null) {
+      planner = buildPlanner();
+    }
+    return planner;
+  }
+
+  /**
+   * Finds the journey that arrives first at a station, leaving another station no earlier than
+   * the specified time.
+   *
+   * @param from   The station to start from.
+   * @param to     The station to go to.
+   * @param minute The earliest time to leave, as an epoch minute.
+   * @return The journey, or null if the destination cannot be reached.
+   * @throws IllegalArgumentException if a station is unknown or the stations are the same.
+   */
+  public JourneyPlanner.Journey findEarliestArrival(String from, String to, int minute)
+          throws IllegalArgumentException {
+    return planner().findEarliestArrival(from, to, minute);
+  }
+
+  /**
+   * Sorts the connections that are not cancelled by the time they leave, plus their delay,
+   * into the arrays of a planner.
+   */
+
+  private JourneyPlanner buildPlanner() {
+    int[] delays = carriedDelays();
+    // The time in the high bits and the index in the low bits sorts without boxing
+    long[] order = new long[hops.size()];
+    int count = 0;
+    for (int i = 0; i < hops.size(); i++) {
+      Hop hop = hops.get(i);
+      if (!hop.cancelled) {
+        order[count++] = (long) (hop.departureMinute + delays[i]) << 32 | i;
+      }
+    }
+    Arrays.sort(order, 0, count);
+
+    int[] departureStations = new int[count];
+    int[] arrivalStations = new int[count];
+    int[] departureMinutes = new int[count];
+    int[] arrivalMinutes = new int[count];
+    int[] tripIndexes = new int[count];
+    for (int i = 0; i < count; i++) {
+      int index = (int) order[i];
+      Hop hop = hops.get(index);
+      departureStations[i] = hop.fromStation;
+      arrivalStations[i] = hop.toStation;
+      departureMinutes[i] = hop.departureMinute + delays[index];
+      arrivalMinutes[i] = hop.arrivalMinute + delays[index];
+      tripIndexes[i] = hop.trip;
+    }
+
+    int[] tripNumbers = new int[trips.size()];
+    String[] tripLines = new String[trips.size()];
+    for (int i = 0; i < trips.size(); i++) {
+      tripNumbers[i] = trips.get(i).trainNumber();
+      tripLines[i] = trips.get(i).line();
+    }
+    return new JourneyPlanner(stationNames.toArray(new String[0]), tripNumbers, tripLines,
+            transferMinutes, departureStations, arrivalStations, departureMinutes,
+            arrivalMinutes, tripIndexes);
+  }
+
+  /**
+   * Gets the delay of every hop, carrying the delay of a train on from one stop to the next. A
+   * train cannot leave a stop before it arrives there, so a hop is at least as late as the one
+   * before it, less the time the train was to wait at the stop. The hops of a train are next to
+   * each other and in order.
+   */
+
+  private int[] carriedDelays() {
+    int[] delays = new int[hops.size()];
+    for (int i = 0; i < hops.size(); i++) {
+      Hop hop = hops.get(i);
+      delays[i] = hop.delay;
+      if (i > 0 && hops.get(i - 1).trip == hop.trip) {
+        int slack = hop.departureMinute - hops.get(i - 1).arrivalMinute;
+        delays[i] = Math.max(delays[i], delays[i - 1] - slack);
+      }
+    }
+    return delays;
+  }
+
+  /**
+   * Gets the id of a station, creating its board if the station is new.
+   */
+
+  private int stationId(String station) {
+    Integer id = stationIds.get(station);
+    if (id != null) {
+      return id;
+    }
+    int newId = stationNames.size();
+    TrainDispatch board = new TrainDispatch(currentMinute);
+    board.addDepartureListener(new DepartureListener() {
+      @Override
+      public void delayChanged(Departure departure, int oldDelay) {
+        Hop hop = hopsByDeparture.get(departureKey(newId, departure));
+        if (hop != null) {
+          hop.delay = departure.getDelay();
+          planner = null;
+        }
+      }
+
+      @Override
+      public void departureRemoved(Departure departure) {
+        Hop hop = hopsByDeparture.get(departureKey(newId, departure));
+        if (hop != null) {
+          hop.cancelled = true;
+          planner = null;
+        }
+      }
+    });
+    stationIds.put(station, newId);
+    stationNames.add(station);
+    boards.add(board);
+    return newId;
+  }
+
+  private static long departureKey(int station, Departure departure) {
+    return departureKey(station, departure.getTrainNumber(), departure.getDepartureMinute());
+  }
+
+  /**
+   * Makes a key of a departure that is unique within the registry. A train number is only used
+   * once a day, so the day is enough beside the station. Each part has room to spare: 16 bits
+   * for the station and 24 bits each for the day and the train number.
+   */
+
+  private static long departureKey(int station, int trainNumber, int departureMinute) {
+    return (long) station << 48 | (long) ServiceTime.dayOf(departureMinute) << 24 | trainNumber;
+  }
+}
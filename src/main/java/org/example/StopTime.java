@@ -0,0 +1,47 @@
+package org.example;
+
+/**
+ * <h1>StopTime.</h1>
+ * <p>
+ * A StopTime is the scheduled call of a train at a station: the station and the times it
+ * arrives and leaves, as epoch minutes (see ServiceTime). The stop times of a train are kept in
+ * the order it calls at the stations. The first stop is the station it starts from, whose
+ * arrival is the same as its departure, and the last stop is its destination.
+ * </p>
+ *
+ * @param station         The name of the station.
+ * @param arrivalMinute   The scheduled arrival as an epoch minute.
+ * @param departureMinute The scheduled departure as an epoch minute.
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-02-07
+ */
+
+public record StopTime(String station, int arrivalMinute, int departureMinute) {
+
+  /**
+   * Validates a stop time.
+   *
+   * @throws IllegalArgumentException if the station is blank or the train leaves before it
+   *                                  arrives.
+   */
+  public StopTime {
+    if (station == null || station.isBlank()) {
+      throw new IllegalArgumentException("Station cannot be empty");
+    }
+    if (departureMinute < arrivalMinute) {
+      throw new IllegalArgumentException("A train cannot leave " + station + " before it arrives");
+    }
+  }
+
+  /**
+   * Creates a stop time where the train arrives and leaves at the same minute.
+   *
+   * @param station The name of the station.
+   * @param minute  The scheduled time as an epoch minute.
+   * @return The stop time.
+   */
+  public static StopTime at(String station, int minute) {
+    return new StopTime(station, minute, minute);
+  }
+}
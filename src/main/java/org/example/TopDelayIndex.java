@@ -0,0 +1,161 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>TopDelayIndex.</h1>
+ * <p>
+ * The TopDelayIndex class keeps the delayed departures of a train dispatch sorted from the
+ * largest delay to the smallest, and by time plus delay for equal delays. The most delayed
+ * departures are read from the front of the index in O(K), without sorting the board.
+ * </p>
+ * <p>
+ * Departures without delay are not in the index. It is kept in sync with the dispatch as a
+ * DepartureListener, and each change costs O(log n).
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.4
+ * @since 2024-01-22
+ */
+
+public class TopDelayIndex implements DepartureListener {
+
+  /**
+   * Delayed departures by a key combining the delay (largest first) and the time plus delay.
+   */
+  private final TreeMap<Long, List<Departure>> departuresByDelay = new TreeMap<>();
+
+  private int size;
+
+  /**
+   * Gets the number of delayed departures in the index.
+   *
+   * @return The number of delayed departures.
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    add(departure, departure.getDelay());
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    remove(departure, departure.getDelay());
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    remove(departure, departure.getDelay());
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    // Setting the same delay again would only recreate the entries
+    if (oldDelay == departure.getDelay()) {
+      return;
+    }
+    remove(departure, oldDelay);
+    add(departure, departure.getDelay());
+  }
+
+  @Override
+  public void trackChanged(Departure departure, int oldTrack) {
+    // A store that gives out copies leaves the copy held here with the old track
+    List<Departure> departures = departuresByDelay.get(key(departure, departure.getDelay()));
+    if (departures != null) {
+      int index = Departure.indexOfSame(departures, departure);
+      if (index >= 0) {
+        departures.set(index, departure);
+      }
+    }
+  }
+
+  /**
+   * Gets the most delayed departures, largest delay first.
+   *
+   * @param count The maximum number of departures to return.
+   * @return The most delayed departures.
+   */
+  public List<Departure> getMostDelayed(int count) {
+    List<Departure> result = new ArrayList<>(Math.min(count, size));
+    for (Map.Entry<Long, List<Departure>> entry : departuresByDelay.entrySet()) {
+      for (Departure departure : entry.getValue()) {
+        if (result.size() == count) {
+          return result;
+        }
+        result.add(departure);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Passes the departures with at least the specified delay to an action, largest delay first.
+   *
+   * @param minDelay The smallest delay to include.
+   * @param action   The action to perform.
+   */
+  public void forEachWithDelayAtLeast(int minDelay, Consumer<Departure> action) {
+    for (Map.Entry<Long, List<Departure>> entry : departuresByDelay.entrySet()) {
+      int delay = Integer.MAX_VALUE - (int) (entry.getKey() >>> 32);
+      if (delay < minDelay) {
+        return;
+      }
+      entry.getValue().forEach(action);
+    }
+  }
+
+  /**
+   * Adds a departure with the specified delay, if it is delayed.
+   */
+
+  private void add(Departure departure, int delay) {
+    if (delay <= 0) {
+      return;
+    }
+    departuresByDelay.computeIfAbsent(key(departure, delay), key -> new ArrayList<>(1))
+            .add(departure);
+    size++;
+  }
+
+  /**
+   * Removes a departure that was added with the specified delay.
+   */
+
+  private void remove(Departure departure, int delay) {
+    if (delay <= 0) {
+      return;
+    }
+    long key = key(departure, delay);
+    List<Departure> departures = departuresByDelay.get(key);
+    if (departures == null) {
+      return;
+    }
+    // Prefer the same object, since equal departures can be registered more than once
+    int index = Departure.indexOfSame(departures, departure);
+    if (index >= 0) {
+      departures.remove(index);
+      size--;
+    }
+    if (departures.isEmpty()) {
+      departuresByDelay.remove(key);
+    }
+  }
+
+  /**
+   * Combines the delay, inverted so the largest delay sorts first, and the time plus delay.
+   */
+
+  private static long key(Departure departure, int delay) {
+    long effectiveMinute = departure.getDepartureMinute() + (long) delay;
+    return ((long) (Integer.MAX_VALUE - delay) << 32) | (effectiveMinute & 0xFFFFFFFFL);
+  }
+}
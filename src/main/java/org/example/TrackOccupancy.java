@@ -0,0 +1,250 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>TrackOccupancy.</h1>
+ * <p>
+ * The TrackOccupancy class keeps, for each track, the departures that use it sorted by their
+ * time plus delay. A departure occupies its track from dwellBefore minutes before it leaves
+ * until dwellAfter minutes after, and two departures conflict when these windows overlap.
+ * </p>
+ * <p>
+ * Because every window has the same length, two departures on a track conflict exactly when
+ * their times are at most dwellBefore + dwellAfter minutes apart. A conflict is therefore found
+ * with one range lookup in the sorted map of the track, in O(log n). Departures without a track
+ * are not in the index. The index is kept in sync with the dispatch as a DepartureListener.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.3
+ * @since 2024-01-17
+ */
+
+public class TrackOccupancy implements DepartureListener {
+
+  /**
+   * Default number of minutes a departure occupies its track before it leaves.
+   */
+  public static final int DEFAULT_DWELL_BEFORE = 2;
+
+  /**
+   * Default number of minutes a departure occupies its track after it leaves.
+   */
+  public static final int DEFAULT_DWELL_AFTER = 1;
+
+  /**
+   * Departures by track, then by time plus delay.
+   */
+  private final Map<Integer, TreeMap<Integer, List<Departure>>> tracks = new HashMap<>();
+
+  private int dwellBefore = DEFAULT_DWELL_BEFORE;
+  private int dwellAfter = DEFAULT_DWELL_AFTER;
+
+  /**
+   * Gets the number of minutes a departure occupies its track before it leaves.
+   *
+   * @return The dwell time before the departure in minutes.
+   */
+  public int getDwellBefore() {
+    return dwellBefore;
+  }
+
+  /**
+   * Gets the number of minutes a departure occupies its track after it leaves.
+   *
+   * @return The dwell time after the departure in minutes.
+   */
+  public int getDwellAfter() {
+    return dwellAfter;
+  }
+
+  /**
+   * Sets how long a departure occupies its track. The index is keyed by the departure time,
+   * so it does not have to be rebuilt.
+   *
+   * @param dwellBefore Minutes the track is occupied before the departure.
+   * @param dwellAfter  Minutes the track is occupied after the departure.
+   * @throws IllegalArgumentException if a dwell time is negative.
+   */
+  public void setDwellTimes(int dwellBefore, int dwellAfter) throws IllegalArgumentException {
+    if (dwellBefore < 0 || dwellAfter < 0) {
+      throw new IllegalArgumentException("Dwell times cannot be negative");
+    }
+    this.dwellBefore = dwellBefore;
+    this.dwellAfter = dwellAfter;
+  }
+
+  @Override
+  public void departureRegistered(Departure departure) {
+    add(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  @Override
+  public void departureRemoved(Departure departure) {
+    remove(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  @Override
+  public void departureExpired(Departure departure) {
+    remove(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  @Override
+  public void delayChanged(Departure departure, int oldDelay) {
+    // Setting the same delay again would only recreate the entries
+    if (oldDelay == departure.getDelay()) {
+      return;
+    }
+    remove(departure.getTrack(), departure.getDepartureMinute() + oldDelay, departure);
+    add(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  @Override
+  public void trackChanged(Departure departure, int oldTrack) {
+    remove(oldTrack, departure.getEffectiveMinute(), departure);
+    add(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  /**
+   * Finds a departure that would conflict with a departure on the specified track and time.
+   *
+   * @param track           The track to check.
+   * @param effectiveMinute The time plus delay of the departure as an epoch minute.
+   * @param ignore          A departure that does not count as a conflict, usually the one being
+   *                        changed. Can be null.
+   * @return The first conflicting departure, or null if the track is free.
+   */
+  public Departure findConflict(int track, int effectiveMinute, Departure ignore) {
+    TreeMap<Integer, List<Departure>> departures = tracks.get(track);
+    if (departures == null) {
+      return null;
+    }
+    int span = dwellBefore + dwellAfter;
+    for (List<Departure> candidates : departures
+            .subMap(effectiveMinute - span, true, effectiveMinute + span, true).values()) {
+      for (Departure candidate : candidates) {
+        if (!candidate.isSameDeparture(ignore)) {
+          return candidate;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds a departure that conflicts with the specified departure on its track.
+   *
+   * @param departure The departure to check.
+   * @return The first conflicting departure, or null if there is no conflict.
+   */
+  public Departure findConflict(Departure departure) {
+    return findConflict(departure.getTrack(), departure.getEffectiveMinute(), departure);
+  }
+
+  /**
+   * Finds every pair of conflicting departures, by comparing each departure with the ones
+   * after it on the same track.
+   *
+   * @return The conflicting pairs, each as an array of two departures.
+   */
+  public List<Departure[]> findAllConflicts() {
+    int span = dwellBefore + dwellAfter;
+    List<Departure[]> conflicts = new ArrayList<>();
+    for (TreeMap<Integer, List<Departure>> departures : tracks.values()) {
+      List<Departure> ordered = new ArrayList<>();
+      departures.values().forEach(ordered::addAll);
+      for (int i = 0; i < ordered.size(); i++) {
+        Departure first = ordered.get(i);
+        for (int j = i + 1; j < ordered.size()
+                && ordered.get(j).getEffectiveMinute() - first.getEffectiveMinute() <= span; j++) {
+          conflicts.add(new Departure[] {first, ordered.get(j)});
+        }
+      }
+    }
+    return conflicts;
+  }
+
+  /**
+   * Passes the departures on a track whose time plus delay is within a window to an action, in
+   * order.
+   *
+   * @param track      The track.
+   * @param fromMinute The first epoch minute of the window.
+   * @param toMinute   The last epoch minute of the window.
+   * @param action     The action to perform.
+   */
+  public void forEachBetween(int track, int fromMinute, int toMinute,
+                             Consumer<Departure> action) {
+    TreeMap<Integer, List<Departure>> departures = tracks.get(track);
+    if (departures == null || fromMinute > toMinute) {
+      return;
+    }
+    for (List<Departure> atMinute : departures.subMap(fromMinute, true, toMinute, true).values()) {
+      atMinute.forEach(action);
+    }
+  }
+
+  /**
+   * Gets the number of departures that use the specified track.
+   *
+   * @param track The track.
+   * @return The number of departures on the track.
+   */
+  public int getNumberOfDepartures(int track) {
+    NavigableMap<Integer, List<Departure>> departures = tracks.get(track);
+    if (departures == null) {
+      return 0;
+    }
+    int count = 0;
+    for (List<Departure> list : departures.values()) {
+      count += list.size();
+    }
+    return count;
+  }
+
+  /**
+   * Adds a departure to the index of its track. Departures without a track are skipped.
+   */
+
+  private void add(int track, int effectiveMinute, Departure departure) {
+    if (track == -1) {
+      return;
+    }
+    tracks.computeIfAbsent(track, t -> new TreeMap<>())
+            .computeIfAbsent(effectiveMinute, minute -> new ArrayList<>(1))
+            .add(departure);
+  }
+
+  /**
+   * Removes a departure from the index of a track.
+   */
+
+  private void remove(int track, int effectiveMinute, Departure departure) {
+    TreeMap<Integer, List<Departure>> departures = tracks.get(track);
+    if (departures == null) {
+      return;
+    }
+    List<Departure> atMinute = departures.get(effectiveMinute);
+    if (atMinute == null) {
+      return;
+    }
+    // Prefer the same object, since equal departures can be registered more than once
+    int index = Departure.indexOfSame(atMinute, departure);
+    if (index >= 0) {
+      atMinute.remove(index);
+    }
+    if (atMinute.isEmpty()) {
+      departures.remove(effectiveMinute);
+      if (departures.isEmpty()) {
+        tracks.remove(track);
+      }
+    }
+  }
+}
@@ -1,10 +1,13 @@
 package org.example;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * <h1>TrainDispatch.</h1>
@@ -13,7 +16,51 @@ import java.util.List;
  * retrieval, and modification of departure information.
  * </p>
  * <p>
- * It also keeps count of the number of departures and the current local time.
+ * The departures are kept in a DepartureStore, which handles their ordering, lookups and
+ * removal once they have left. The engine can be chosen when the dispatch is constructed, and
+ * the list based reference implementation is used by default.
+ * </p>
+ * <p>
+ * It also keeps count of the number of departures and the current time. The current time is an
+ * epoch minute (see ServiceTime), so the dispatch can hold departures for several service days.
+ * Methods taking or returning a LocalTime work on the current service day.
+ * </p>
+ * <p>
+ * Recurring departures are registered as service patterns. Their departures are only created
+ * for the upcoming window (the materialization horizon), and the window moves forward with the
+ * time.
+ * </p>
+ * <p>
+ * Listeners can be added to follow registrations, removals, departures that leave and changes
+ * of delay and track. The destination index used for searching destinations, the track
+ * occupancy used for finding track conflicts, the delay statistics and the index of the most
+ * delayed departures are kept in sync this way. Delays and tracks should therefore be changed
+ * through the dispatch, not directly on the departure.
+ * </p>
+ * <p>
+ * Queries combining several conditions are made with query, which picks the most selective
+ * of these indexes. Primitive columns of time, delay and track can be enabled for queries that
+ * no index narrows down much.
+ * </p>
+ * <p>
+ * A history of all changes can be enabled, so the board can be shown as it was at an earlier
+ * time.
+ * </p>
+ * <p>
+ * A long timetable does not have to be held in memory. With a departure spool enabled, the
+ * departures that leave beyond the residency window are kept on disk, and are paged in as the
+ * time moves the window forward. Like the departures of service patterns, they are not on the
+ * board until then, but their train numbers count as taken. The spool writes the departures it
+ * collects in memory when the dispatch is closed.
+ * </p>
+ * <p>
+ * Connections between trains can be enabled as well. A delay set on a feeder train then holds
+ * the connecting departures back according to their wait policies.
+ * </p>
+ * <p>
+ * A command that finds a departure and then changes it can look it up once with lookup, and
+ * make the changes through the returned handle. Every change to the dispatch moves its version
+ * forward, and a handle made at the current version is used without another lookup.
  * </p>
  * <p>
  * <b>Note:</b> Validations are performed in the UserInterface class and parameters in each method
@@ -21,15 +68,15 @@ import java.util.List;
  * </p>
  *
  * @author Mikael Stray Froeyshov
- * @version 1.2
+ * @version 2.11
  * @since 2023-11-02
  */
-public class TrainDispatch {
+public class TrainDispatch implements Closeable {
 
   /**
-   * List of train departures.
+   * The storage of the train departures.
    */
-  private final List<Departure> departureList = new ArrayList<>();
+  private final DepartureStore departureStore;
 
   /**
    * Number of registered departures.
@@ -37,16 +84,98 @@ public class TrainDispatch {
   private int numberOfDepartures;
 
   /**
-   * The current time used for various time-based operations.
+   * The current time used for various time-based operations, as an epoch minute.
+   */
+  private int currentMinute;
+
+  /**
+   * True when a departure may have left since the last time expired departures were removed.
+   */
+  private boolean expiryPending;
+
+  /**
+   * The version of the dispatch, moved forward by every change to its departures and time.
+   */
+  private long modificationCount;
+
+  /**
+   * Default number of minutes ahead of the current time that departures of service patterns
+   * are created for.
+   */
+  public static final int DEFAULT_MATERIALIZATION_HORIZON = 6 * 60;
+
+  /**
+   * Service patterns and their per-day overrides.
+   */
+  private final RecurringTimetable recurringTimetable = new RecurringTimetable();
+
+  /**
+   * Number of minutes ahead of the current time that departures of service patterns are
+   * created for.
+   */
+  private int materializationHorizon = DEFAULT_MATERIALIZATION_HORIZON;
+
+  /**
+   * The epoch minute up to which departures of service patterns have been created.
+   */
+  private int materializedUntil;
+
+  /**
+   * Listeners that are notified when departures are registered, removed or leave.
+   */
+  private final List<DepartureListener> listeners = new ArrayList<>();
+
+  /**
+   * Trie over the destinations of the departures, used for prefix and typo tolerant search.
+   */
+  private final DestinationIndex destinationIndex = new DestinationIndex();
+
+  /**
+   * Departures by track and time, used for finding track conflicts.
+   */
+  private final TrackOccupancy trackOccupancy = new TrackOccupancy();
+
+  /**
+   * Running delay statistics per line, destination and hour.
+   */
+  private final DelayStatistics delayStatistics = new DelayStatistics();
+
+  /**
+   * Delayed departures sorted from the largest delay.
+   */
+  private final TopDelayIndex topDelayIndex = new TopDelayIndex();
+
+  /**
+   * Versions of the departures, or null if the history is not enabled.
+   */
+  private DepartureHistory history;
+
+  /**
+   * The time, delay and track of the departures as primitive columns, if enabled.
+   */
+  private DepartureColumns columns;
+
+  /**
+   * The connections between trains, or null if they are not enabled.
+   */
+  private ConnectionGraph connections;
+
+  /**
+   * The departures beyond the residency window, or null if all departures are in memory.
+   */
+  private DepartureSpool spool;
+
+  /**
+   * The number of minutes ahead of the current time that departures are kept in memory.
    */
-  private LocalTime time;
+  private int residencyWindow;
 
   /**
    * Constructs a TrainDispatch object with the current time.
    */
 
   public TrainDispatch() {
-    this.time = LocalTime.now();
+    this(LocalTime.now());
   }
 
   /**
@@ -57,7 +186,52 @@ public class TrainDispatch {
    */
 
   public TrainDispatch(LocalTime time) {
-    this.time = time;
+    this(ServiceTime.of(time));
+  }
+
+  /**
+   * Constructs a TrainDispatch object with a specified time on a specific service day.
+   *
+   * @param currentMinute The current time as an epoch minute.
+   */
+
+  public TrainDispatch(int currentMinute) {
+    this(currentMinute, new ListDepartureStore());
+  }
+
+  /**
+   * Constructs a TrainDispatch object that keeps its departures in the specified store.
+   *
+   * @param currentMinute  The current time as an epoch minute.
+   * @param departureStore An empty departure store.
+   */
+
+  public TrainDispatch(int currentMinute, DepartureStore departureStore) {
+    this.departureStore = departureStore;
+    this.currentMinute = currentMinute;
+    this.materializedUntil = currentMinute;
+    listeners.add(destinationIndex);
+    listeners.add(trackOccupancy);
+    listeners.add(delayStatistics);
+    listeners.add(topDelayIndex);
+  }
+
+  /**
+   * Adds a listener that is notified when departures are registered, removed or leave.
+   *
+   * @param listener The listener to add.
+   */
+  public void addDepartureListener(DepartureListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener that was added with addDepartureListener.
+   *
+   * @param listener The listener to remove.
+   */
+  public void removeDepartureListener(DepartureListener listener) {
+    listeners.remove(listener);
   }
 
   /**
@@ -66,16 +240,325 @@ public class TrainDispatch {
    * @return The current time.
    */
   public LocalTime getTime() {
-    return time;
+    return ServiceTime.toLocalTime(currentMinute);
   }
 
   /**
-   * Sets the current time used for various time-based operations.
+   * Gets the current time used for various time-based operations as an epoch minute.
+   *
+   * @return The current time as an epoch minute.
+   */
+  public int getCurrentMinute() {
+    return currentMinute;
+  }
+
+  /**
+   * Sets the current time on the current service day.
    *
    * @param time The new current time.
    */
   public void setTime(LocalTime time) {
-    this.time = time;
+    setTime(ServiceTime.withTime(currentMinute, time));
+  }
+
+  /**
+   * Sets the current time used for various time-based operations.
+   *
+   * @param currentMinute The new current time as an epoch minute.
+   */
+  public void setTime(int currentMinute) {
+    this.currentMinute = currentMinute;
+    expiryPending = true;
+    modificationCount++;
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).timeChanged(currentMinute);
+    }
+    // The spool first, so its departures of past days get their overrides before these go
+    pageInUpcomingDepartures();
+    materializeUpcomingDepartures();
+  }
+
+  /**
+   * Sets the current time, unless it is before the current time. The check and the change are
+   * one step, so on a shared dispatch the clock never goes back because another thread moved
+   * it forward in the meantime.
+   *
+   * @param currentMinute The new current time as an epoch minute.
+   * @return True if the time was set, false if it is before the current time.
+   */
+  public boolean setTimeIfNotBefore(int currentMinute) {
+    if (currentMinute < this.currentMinute) {
+      return false;
+    }
+    setTime(currentMinute);
+    return true;
+  }
+
+  /**
+   * Gets the number of minutes ahead of the current time that departures of service
+   * patterns are created for.
+   *
+   * @return The materialization horizon in minutes.
+   */
+  public int getMaterializationHorizon() {
+    return materializationHorizon;
+  }
+
+  /**
+   * Sets the number of minutes ahead of the current time that departures of service
+   * patterns are created for. Departures that are already created are kept.
+   *
+   * @param materializationHorizon The materialization horizon in minutes.
+   */
+  public void setMaterializationHorizon(int materializationHorizon) {
+    this.materializationHorizon = materializationHorizon;
+    materializeUpcomingDepartures();
+  }
+
+  /**
+   * Registers a service pattern, and creates its departures within the upcoming window.
+   *
+   * @param pattern The service pattern to be registered.
+   */
+  public void registerPattern(ServicePattern pattern) {
+    // Departures of the window that is already created are added for this pattern only
+    recurringTimetable.materialize(pattern, currentMinute, materializedUntil,
+            this::registerDeparture);
+    recurringTimetable.addPattern(pattern);
+    materializeUpcomingDepartures();
+  }
+
+  /**
+   * Gets the number of registered service patterns.
+   *
+   * @return The number of service patterns.
+   */
+  public int getNumberOfPatterns() {
+    return recurringTimetable.getNumberOfPatterns();
+  }
+
+  /**
+   * Gets the number of delays and tracks set for departures that are not created yet.
+   *
+   * @return The number of overrides.
+   */
+  public int getNumberOfOverrides() {
+    return recurringTimetable.getNumberOfOverrides();
+  }
+
+  /**
+   * Sets the delay of a train on a specific date. If the departure is already created, it is
+   * changed directly, otherwise the delay is applied when the departure is created.
+   *
+   * @param number The train number of the departure.
+   * @param date   The date of the service day.
+   * @param delay  The delay (in minutes) for the departure.
+   */
+  public void setDelay(int number, LocalDate date, int delay) {
+    int serviceDay = Math.toIntExact(date.toEpochDay());
+    Departure departure = findDepartureByNumber(number, serviceDay);
+    if (departure == null) {
+      recurringTimetable.setDelayOverride(number, serviceDay, delay);
+      return;
+    }
+    setOperatorDelay(departure, delay);
+  }
+
+  /**
+   * Sets the track of a train on a specific date. If the departure is already created, it is
+   * changed directly, otherwise the track is applied when the departure is created.
+   *
+   * @param number The train number of the departure.
+   * @param date   The date of the service day.
+   * @param track  The track or platform number for the departure.
+   */
+  public void setTrack(int number, LocalDate date, int track) {
+    int serviceDay = Math.toIntExact(date.toEpochDay());
+    Departure departure = findDepartureByNumber(number, serviceDay);
+    if (departure == null) {
+      recurringTimetable.setTrackOverride(number, serviceDay, track);
+      return;
+    }
+    applyTrack(departure, track);
+  }
+
+  /**
+   * Creates the departures of the service patterns that leave between the end of the
+   * window that is already created and the materialization horizon, and drops the overrides
+   * of the days before the current one.
+   */
+
+  private void materializeUpcomingDepartures() {
+    recurringTimetable.removeOverridesBefore(ServiceTime.dayOf(currentMinute));
+    int from = Math.max(materializedUntil, currentMinute);
+    int to = currentMinute + materializationHorizon;
+    if (from < to) {
+      recurringTimetable.materialize(from, to, this::registerDeparture);
+      materializedUntil = to;
+    }
+  }
+
+  /**
+   * Registers the departures of the spool that have come within the residency window, applying
+   * the delays and tracks set for them in the meantime.
+   */
+
+  private void pageInUpcomingDepartures() {
+    if (spool != null) {
+      spool.pageIn(currentMinute + residencyWindow, departure -> {
+        recurringTimetable.applyOverrides(departure);
+        addDeparture(departure);
+      });
+    }
+  }
+
+  /**
+   * Gets the delay statistics of the departures registered so far, including those that have
+   * left.
+   *
+   * @return The delay statistics.
+   */
+  public DelayStatistics getDelayStatistics() {
+    return delayStatistics;
+  }
+
+  /**
+   * Starts recording the history of the departures, beginning with the current board. Old
+   * versions are dropped by a background thread once they are older than the retention.
+   *
+   * @param retentionMinutes The number of minutes of history to keep.
+   * @return The history.
+   */
+  public DepartureHistory enableHistory(int retentionMinutes) {
+    if (history == null) {
+      history = new DepartureHistory(this::getCurrentMinute, retentionMinutes);
+      departureStore.forEach(history::departureRegistered);
+      listeners.add(history);
+      history.startBackgroundCollection(60);
+    }
+    return history;
+  }
+
+  /**
+   * Starts keeping the time, delay and track of the departures in primitive columns, which
+   * queries use to check wide filters quickly.
+   *
+   * @return The columns.
+   */
+  public DepartureColumns enableColumns() {
+    if (columns == null) {
+      columns = new DepartureColumns();
+      departureStore.forEach(columns::departureRegistered);
+      listeners.add(columns);
+    }
+    return columns;
+  }
+
+  /**
+   * Starts holding connecting departures back when their feeder trains are late. Delays set
+   * through the dispatch are propagated along the connections from then on.
+   *
+   * @return The connections, empty at first.
+   */
+  public ConnectionGraph enableConnections() {
+    if (connections == null) {
+      connections = new ConnectionGraph(this);
+      listeners.add(connections);
+    }
+    return connections;
+  }
+
+  /**
+   * Starts keeping the departures that leave beyond the residency window on disk. Departures
+   * registered from then on are spooled if they leave that late, and are paged in as the time
+   * moves forward. The departures already on the board stay in memory.
+   *
+   * @param directory       The directory of the spool.
+   * @param residencyWindow The number of minutes ahead of the current time that departures are
+   *                        kept in memory.
+   * @return The spool.
+   * @throws IOException              if the directory could not be read.
+   * @throws IllegalArgumentException if the window is not positive or a spool is enabled.
+   */
+  public DepartureSpool enableSpool(Path directory, int residencyWindow)
+          throws IOException, IllegalArgumentException {
+    if (residencyWindow <= 0) {
+      throw new IllegalArgumentException("Residency window must be positive");
+    }
+    if (spool != null) {
+      throw new IllegalArgumentException("A departure spool is already enabled");
+    }
+    spool = new DepartureSpool(directory);
+    this.residencyWindow = residencyWindow;
+    pageInUpcomingDepartures();
+    return spool;
+  }
+
+  /**
+   * Gets the departure spool.
+   *
+   * @return The spool, or null if it is not enabled.
+   */
+  public DepartureSpool getSpool() {
+    return spool;
+  }
+
+  /**
+   * Writes the departures the spool holds in memory to disk, and stops the background
+   * collection of the history. The board can still be used, but the spool should be flushed
+   * or the dispatch closed again before it is dropped.
+   *
+   * @throws IOException if the spool could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (history != null) {
+      history.close();
+    }
+    if (spool != null) {
+      spool.close();
+    }
+  }
+
+  /**
+   * Gets the connections between trains.
+   *
+   * @return The connections, or null if they are not enabled.
+   */
+  public ConnectionGraph getConnections() {
+    return connections;
+  }
+
+  /**
+   * Gets the primitive columns of the departures.
+   *
+   * @return The columns, or null if they are not enabled.
+   */
+  public DepartureColumns getColumns() {
+    return columns;
+  }
+
+  /**
+   * Gets the history of the departures.
+   *
+   * @return The history, or null if it is not enabled.
+   */
+  public DepartureHistory getHistory() {
+    return history;
+  }
+
+  /**
+   * Gets the board as it was at the end of a minute.
+   *
+   * @param minute The epoch minute.
+   * @return Copies of the departures that were on the board, sorted by time plus delay.
+   * @throws IllegalStateException if the history is not enabled.
+   */
+  public List<Departure> boardAsOf(int minute) throws IllegalStateException {
+    if (history == null) {
+      throw new IllegalStateException("The history is not enabled");
+    }
+    return history.boardAsOf(minute);
   }
 
   /**
@@ -88,15 +571,52 @@ public class TrainDispatch {
   }
 
   /**
-   * Registers the specified departure and updates the number of departures.
+   * Registers the specified departure and updates the number of departures. If a departure
+   * spool is enabled and the departure leaves beyond the residency window, it is spooled
+   * instead.
    *
    * @param departure The departure to be registered.
    */
   public void registerDeparture(Departure departure) {
-    departureList.add(departure);
+    if (spool != null && departure.getDepartureMinute() >= currentMinute + residencyWindow) {
+      spool.add(departure);
+      return;
+    }
+    addDeparture(departure);
+  }
+
+  /**
+   * Adds a departure to the store and notifies the listeners.
+   *
+   * @param departure The departure to be added.
+   */
+
+  private void addDeparture(Departure departure) {
+    departureStore.add(departure);
+    modificationCount++;
+    // Departures are validated not to be in the past, so this is rarely needed
+    expiryPending |= departure.getEffectiveMinute() < currentMinute;
 
     // Update the count of registered departures
-    numberOfDepartures = departureList.size();
+    numberOfDepartures = departureStore.size();
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).departureRegistered(departure);
+    }
+  }
+
+  /**
+   * Registers the specified departure, unless a departure with the same train number is
+   * already registered.
+   *
+   * @param departure The departure to be registered.
+   * @return True if it was registered, false if the train number was taken.
+   */
+  public boolean registerDepartureIfAbsent(Departure departure) {
+    if (findDuplicateTrainNumber(departure.getTrainNumber())) {
+      return false;
+    }
+    registerDeparture(departure);
+    return true;
   }
 
   /**
@@ -105,18 +625,61 @@ public class TrainDispatch {
    * @param departure The departure to be removed.
    */
   public void removeDeparture(Departure departure) {
-    departureList.remove(departure);
+    departure = departureStore.remove(departure);
+    if (departure == null) {
+      return;
+    }
+    modificationCount++;
 
     // Update the number of registered departures
-    numberOfDepartures = departureList.size();
+    numberOfDepartures = departureStore.size();
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).departureRemoved(departure);
+    }
+  }
+
+  /**
+   * Removes the departure of a handle, without finding it again if the dispatch has not
+   * changed since the handle was used.
+   *
+   * @param handle The handle of the departure to be removed.
+   * @return True if it was removed, false if the departure is gone or has been changed since
+   *         the handle was used.
+   */
+  public boolean removeDeparture(DepartureHandle handle) {
+    Departure departure = resolve(handle);
+    if (departure == null) {
+      return false;
+    }
+    removeDeparture(departure);
+    return true;
   }
 
   /**
    * Removes the departures from the departure list that are before the current time.
    */
 
-  private void removeDepartureIfBeforeCurrentTime() {
-    departureList.removeIf(d -> d.getTime().plusMinutes(d.getDelay()).isBefore(time));
+  void removeDepartureIfBeforeCurrentTime() {
+    // Only the time, new departures and delays can make a departure leave
+    if (!expiryPending) {
+      return;
+    }
+    departureStore.removeBefore(currentMinute, this::notifyExpired);
+    numberOfDepartures = departureStore.size();
+    expiryPending = false;
+  }
+
+  /**
+   * Notifies the listeners that a departure has left.
+   *
+   * @param departure The departure that has left.
+   */
+
+  private void notifyExpired(Departure departure) {
+    modificationCount++;
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).departureExpired(departure);
+    }
   }
 
   /**
@@ -127,16 +690,23 @@ public class TrainDispatch {
    */
 
   public List<Departure> sortedList() {
+    return currentDepartures();
+  }
+
+  /**
+   * Gets the departures after the current time as they are in the store, sorted by time plus
+   * delay. The dispatch changes these itself, while sortedList may be handed out copies.
+   */
+
+  private List<Departure> currentDepartures() {
     // Remove the departures that are before the current time
     removeDepartureIfBeforeCurrentTime();
 
     // Update the number of departures
-    numberOfDepartures = departureList.size();
+    numberOfDepartures = departureStore.size();
 
-    // Sort the list by time plus delay and return a list
-    return departureList.stream()
-            .sorted(Comparator.comparing(Departure::getScheduledArrival))
-            .toList();
+    // The store returns the departures sorted by time plus delay
+    return departureStore.sortedList();
   }
 
   /**
@@ -146,7 +716,8 @@ public class TrainDispatch {
    */
 
   public boolean checkIfListIsEmpty() {
-    return sortedList().isEmpty();
+    removeDepartureIfBeforeCurrentTime();
+    return departureStore.isEmpty();
   }
 
   /**
@@ -156,8 +727,8 @@ public class TrainDispatch {
    * @return True if the train number is a duplicate, false otherwise.
    */
   public boolean findDuplicateTrainNumber(int trainNumber) {
-    return sortedList().stream()
-            .anyMatch(departure -> departure.getTrainNumber() == trainNumber);
+    return findDepartureByNumber(trainNumber) != null
+            || (spool != null && spool.containsTrainNumber(trainNumber));
   }
 
 
@@ -169,10 +740,61 @@ public class TrainDispatch {
    */
 
   public Departure findDepartureByNumber(int number) {
-    return sortedList().stream()
-            .filter(departure -> departure.getTrainNumber() == number)
-            .findFirst()
-            .orElse(null);
+    return findCurrentDeparture(number);
+  }
+
+  /**
+   * Finds a departure by its train number as it is in the store.
+   */
+
+  private Departure findCurrentDeparture(int number) {
+    removeDepartureIfBeforeCurrentTime();
+    return departureStore.findByNumber(number);
+  }
+
+  /**
+   * Finds the departure of a train on a specific service day.
+   *
+   * @param number     The train number to search for.
+   * @param serviceDay The service day, as days since 1970-01-01.
+   * @return The departure on the service day, or null if not found.
+   */
+
+  Departure findDepartureByNumber(int number, int serviceDay) {
+    removeDepartureIfBeforeCurrentTime();
+    return departureStore.findByNumber(number, serviceDay);
+  }
+
+  /**
+   * Finds a departure by its train number, and returns a handle that later changes can be
+   * made through without finding it again.
+   *
+   * @param number The train number to search for.
+   * @return A handle to the departure, or null if not found.
+   */
+
+  public DepartureHandle lookup(int number) {
+    Departure departure = findCurrentDeparture(number);
+    return (departure == null) ? null : new DepartureHandle(departure, modificationCount);
+  }
+
+  /**
+   * Gets the departure of a handle as it is now. If the dispatch has changed since the handle
+   * was used, the departure is found again, and must still have the delay and track the handle
+   * saw.
+   *
+   * @param handle The handle of the departure.
+   * @return The departure, or null if it is gone or has been changed by someone else.
+   */
+
+  private Departure resolve(DepartureHandle handle) {
+    if (handle.getVersion() == modificationCount) {
+      return handle.getDispatchDeparture();
+    }
+    Departure departure = handle.getDispatchDeparture();
+    departure = findDepartureByNumber(departure.getTrainNumber(),
+            ServiceTime.dayOf(departure.getDepartureMinute()));
+    return (departure == null || !handle.isUnchanged(departure)) ? null : departure;
   }
 
   /**
@@ -184,9 +806,70 @@ public class TrainDispatch {
    */
 
   public List<Departure> findDeparturesByDestination(String destination) {
-    return sortedList().stream()
-            .filter(departure -> departure.getDestination().trim().equalsIgnoreCase(destination.trim()))
-            .toList();
+    removeDepartureIfBeforeCurrentTime();
+    return departureStore.findByDestination(destination);
+  }
+
+  /**
+   * Gets the most delayed departures after the current time, largest delay first. Departures
+   * with equal delay are sorted by time plus delay.
+   *
+   * @param count The maximum number of departures to return.
+   * @return The most delayed departures, without the ones that are not delayed.
+   */
+
+  public List<Departure> getMostDelayed(int count) {
+    removeDepartureIfBeforeCurrentTime();
+    return topDelayIndex.getMostDelayed(count);
+  }
+
+  /**
+   * Starts a query that combines conditions on line, destination, time, track, delay and train
+   * numbers. The query reads the most selective index of the dispatch.
+   *
+   * @return A new query without conditions.
+   */
+
+  public DepartureQuery query() {
+    return new DepartureQuery(this, departureStore, destinationIndex, trackOccupancy,
+            topDelayIndex);
+  }
+
+  /**
+   * Runs a read by an object that holds on to the dispatch, such as a query. A shared dispatch
+   * runs it under its lock.
+   *
+   * @param action The read.
+   * @param <T>    The type of the result.
+   * @return The result of the read.
+   */
+  <T> T read(Supplier<T> action) {
+    return action.get();
+  }
+
+  /**
+   * Prepares departures from the store to be handed out. A shared dispatch hands out copies,
+   * since other threads change the departures in the store.
+   *
+   * @param departures The departures from the store.
+   * @return The departures to hand out.
+   */
+  List<Departure> handOut(List<Departure> departures) {
+    return departures;
+  }
+
+  /**
+   * Finds destinations by the beginning of their name, tolerating a few typos.
+   * Note: The destinations are only those that have departures after the current time.
+   *
+   * @param query The search text.
+   * @param limit The maximum number of destinations to return.
+   * @return The destination names, best match first.
+   */
+
+  public List<String> findDestinations(String query, int limit) {
+    removeDepartureIfBeforeCurrentTime();
+    return destinationIndex.search(query, limit);
   }
 
   /**
@@ -196,23 +879,244 @@ public class TrainDispatch {
    *
    * @param number The train number of the departure to modify.
    * @param track  The new track or platform number for the departure.
+   * @return True if the track was set, false if there is no departure with the number.
    */
-  public void setTrack(int number, int track) {
-    Departure departure = findDepartureByNumber(number);
-    departure.setTrack(track);
+  public boolean setTrack(int number, int track) {
+    Departure departure = findCurrentDeparture(number);
+    if (departure == null) {
+      return false;
+    }
+    applyTrack(departure, track);
+    return true;
   }
 
 
+  /**
+   * Sets the track of the departure of a handle, without finding it again if the dispatch has
+   * not changed since the handle was used.
+   *
+   * @param handle The handle of the departure to modify.
+   * @param track  The new track or platform number for the departure.
+   * @return True if the track was set, false if the departure is gone or has been changed
+   *         since the handle was used.
+   */
+  public boolean setTrack(DepartureHandle handle, int track) {
+    Departure departure = resolve(handle);
+    if (departure == null) {
+      return false;
+    }
+    applyTrack(departure, track);
+    handle.update(departure, modificationCount);
+    return true;
+  }
+
   /**
    * Finds a departure by its train number and sets the delay (in minutes) for that departure.
    * Both the parameters are assumed to be validated before calling this method in the UI class.
    *
    * @param number The train number of the departure to modify.
    * @param delay  The new delay (in minutes) for the departure.
+   * @return True if the delay was set, false if there is no departure with the number.
+   */
+  public boolean setDelay(int number, int delay) {
+    Departure departure = findCurrentDeparture(number);
+    if (departure == null) {
+      return false;
+    }
+    setOperatorDelay(departure, delay);
+    return true;
+  }
+
+  /**
+   * Sets the delay of the departure of a handle, without finding it again if the dispatch has
+   * not changed since the handle was used.
+   *
+   * @param handle The handle of the departure to modify.
+   * @param delay  The new delay (in minutes) for the departure.
+   * @return True if the delay was set, false if the departure is gone or has been changed
+   *         since the handle was used.
+   */
+  public boolean setDelay(DepartureHandle handle, int delay) {
+    Departure departure = resolve(handle);
+    if (departure == null) {
+      return false;
+    }
+    setOperatorDelay(departure, delay);
+    handle.update(departure, modificationCount);
+    return true;
+  }
+
+  /**
+   * Sets the delay asked for on a departure, and holds its connecting departures back if
+   * connections are enabled.
+   *
+   * @param departure The departure to modify.
+   * @param delay     The new delay (in minutes) for the departure.
+   */
+
+  private void setOperatorDelay(Departure departure, int delay) {
+    if (connections == null) {
+      applyDelay(departure, delay);
+      return;
+    }
+    connections.setDelay(departure, delay, this::applyDelay);
+  }
+
+  /**
+   * Sets the delay of a registered departure and notifies the listeners.
+   *
+   * @param departure The departure to modify.
+   * @param delay     The new delay (in minutes) for the departure.
+   */
+
+  private void applyDelay(Departure departure, int delay) {
+    int oldDelay = departure.getDelay();
+    departureStore.setDelay(departure, delay);
+    modificationCount++;
+    // A shorter delay can make the departure leave before the current time
+    expiryPending |= departure.getEffectiveMinute() < currentMinute;
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).delayChanged(departure, oldDelay);
+    }
+  }
+
+  /**
+   * Sets the track of a registered departure and notifies the listeners.
+   *
+   * @param departure The departure to modify.
+   * @param track     The new track or platform number for the departure.
+   */
+
+  private void applyTrack(Departure departure, int track) {
+    int oldTrack = departure.getTrack();
+    departureStore.setTrack(departure, track);
+    modificationCount++;
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).trackChanged(departure, oldTrack);
+    }
+  }
+
+  /**
+   * Sets how long a departure occupies its track before and after it leaves. Two departures
+   * on the same track conflict when these windows overlap.
+   *
+   * @param dwellBefore Minutes the track is occupied before the departure.
+   * @param dwellAfter  Minutes the track is occupied after the departure.
+   */
+  public void setDwellTimes(int dwellBefore, int dwellAfter) {
+    trackOccupancy.setDwellTimes(dwellBefore, dwellAfter);
+  }
+
+  /**
+   * Gets how many minutes a departure occupies its track before it leaves.
+   *
+   * @return The dwell time before the departure.
    */
-  public void setDelay(int number, int delay) {
-    Departure departure = findDepartureByNumber(number);
-    departure.setDelay(delay);
+  public int getDwellBefore() {
+    return trackOccupancy.getDwellBefore();
+  }
+
+  /**
+   * Gets how many minutes a departure occupies its track after it leaves.
+   *
+   * @return The dwell time after the departure.
+   */
+  public int getDwellAfter() {
+    return trackOccupancy.getDwellAfter();
+  }
+
+  /**
+   * Finds a departure on the same track whose dwell window overlaps the one of the departure
+   * with the specified train number.
+   *
+   * @param number The train number of the departure to check.
+   * @return The conflicting departure, or null if there is no conflict.
+   */
+  public Departure findTrackConflict(int number) {
+    Departure departure = findCurrentDeparture(number);
+    return (departure == null) ? null : trackOccupancy.findConflict(departure);
+  }
+
+  /**
+   * Finds a departure that would conflict if a departure at the specified time was put on the
+   * specified track.
+   *
+   * @param track           The track to check. 0 or -1 means no track, which never conflicts.
+   * @param effectiveMinute The time plus delay of the departure as an epoch minute.
+   * @param number          The train number of the departure being changed, which does not
+   *                        count as a conflict.
+   * @return The conflicting departure, or null if the track is free.
+   */
+  public Departure findTrackConflict(int track, int effectiveMinute, int number) {
+    if (track <= 0) {
+      return null;
+    }
+    removeDepartureIfBeforeCurrentTime();
+    return trackOccupancy.findConflict(track, effectiveMinute, findCurrentDeparture(number));
+  }
+
+  /**
+   * Finds a departure on the same track whose dwell window overlaps the one of the departure
+   * of a handle.
+   *
+   * @param handle The handle of the departure to check.
+   * @return The conflicting departure, or null if there is no conflict or the departure is
+   *         gone.
+   */
+  public Departure findTrackConflict(DepartureHandle handle) {
+    Departure departure = resolve(handle);
+    return (departure == null) ? null : trackOccupancy.findConflict(departure);
+  }
+
+  /**
+   * Finds a departure that would conflict if the departure of a handle was put on the
+   * specified track.
+   *
+   * @param track  The track to check. 0 or -1 means no track, which never conflicts.
+   * @param handle The handle of the departure being changed.
+   * @return The conflicting departure, or null if the track is free or the departure is gone.
+   */
+  public Departure findTrackConflict(int track, DepartureHandle handle) {
+    if (track <= 0) {
+      return null;
+    }
+    Departure departure = resolve(handle);
+    return (departure == null) ? null
+            : trackOccupancy.findConflict(track, departure.getEffectiveMinute(), departure);
+  }
+
+  /**
+   * Finds every pair of departures whose dwell windows overlap on the same track.
+   *
+   * @return The conflicting pairs, each as an array of two departures.
+   */
+  public List<Departure[]> findAllTrackConflicts() {
+    removeDepartureIfBeforeCurrentTime();
+    return trackOccupancy.findAllConflicts();
+  }
+
+  /**
+   * Assigns a free track to every departure without a track, in the order they leave. The
+   * lowest free track number is chosen. Departures with no free track are left unassigned.
+   *
+   * @param numberOfTracks The number of tracks of the station, numbered from 1.
+   * @return The number of departures that were assigned a track.
+   */
+  public int assignFreeTracks(int numberOfTracks) {
+    int assigned = 0;
+    for (Departure departure : currentDepartures()) {
+      if (departure.getTrack() != -1) {
+        continue;
+      }
+      for (int track = 1; track <= numberOfTracks; track++) {
+        if (trackOccupancy.findConflict(track, departure.getEffectiveMinute(), departure) == null) {
+          applyTrack(departure, track);
+          assigned++;
+          break;
+        }
+      }
+    }
+    return assigned;
   }
 
   /**
@@ -224,8 +1128,26 @@ public class TrainDispatch {
 
   @Override
   public String toString() {
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
     StringBuilder sb = new StringBuilder();
+    List<Departure> departures = currentDepartures();
+    appendHeader(sb);
+    // Append each departure to the string builder from the sorted list
+    for (int i = 0; i < departures.size(); i++) {
+      departures.get(i).appendTo(sb);
+    }
+    sb.append("-".repeat(80)).append("\n\n");
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends the header of the board: the title, the number of departures, the current time
+   * and the column names, one line each.
+   *
+   * @param sb The string builder to append to.
+   */
+
+  void appendHeader(StringBuilder sb) {
     // numberOfDepartures string with the correct plural form
     String departureInfo = (numberOfDepartures == 1) ? " departure" : " departures";
 
@@ -233,14 +1155,10 @@ public class TrainDispatch {
     sb.append("|").append(" ".repeat(32)).append("Train Dispatch");
     sb.append(" ".repeat(32)).append("|\n");
     sb.append("|  ").append(numberOfDepartures).append(departureInfo);
-    sb.append(" ".repeat(57)).append(formatter.format(time)).append("  |\n");
+    sb.append(" ".repeat(57));
+    ServiceTime.appendTime(sb, currentMinute).append("  |\n");
     sb.append("-".repeat(80)).append("\n");
     sb.append("|  Time   |   Line  |   Train number  |   Destination   |   Delay   |   Track  |\n");
     sb.append("-".repeat(80)).append("\n");
-    // Append each departure to the string builder from the sorted list
-    sortedList().forEach(sb::append);
-    sb.append("-".repeat(80)).append("\n\n");
-
-    return sb.toString();
   }
 }
\ No newline at end of file
@@ -1,27 +1,138 @@
 package org.example;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.Arrays;
+
 /**
  * The Main class serves as the entry point for the application.
- * It initializes and starts the user interface.
+ * It initializes and starts the user interface, or runs a command script when started with
+ * the <code>--script</code> option, or the load harness with the <code>--load</code> option.
+ * With <code>--follow</code> it follows the board of a replication leader, and with
+ * <code>--board</code> it shows that board live on the terminal. With <code>--serve</code> several
+ * operators can use the menu at once over TCP.
 
  * @author Mikael Stray Froeyshov
- * @version 1.02
+ * @version 1.10
  * @since 2023-11-02
  */
 
 public class TrainDispatchApp {
 
+  /**
+   * Size of the buffers used for reading and writing in script mode.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
   /**
    * The main method initializes and starts the user interface.
+   * <p>
+   * Use <code>--script &lt;file&gt;</code> to run the commands in a file, or
+   * <code>--script</code> without a file to run commands piped to standard input.
+   * Use <code>--load</code> followed by the options of LoadHarness to run a load test.
+   * Start with <code>--store &lt;engine&gt;</code> to choose the departure store of the user
+   * interface or the script: list (default), indexed or off-heap. Scripts can be started with
+   * <code>--archive &lt;directory&gt;</code> to archive the departures that leave, and with
+   * <code>--lead &lt;port&gt;</code> to replicate the board to followers started with
+   * <code>--follow &lt;host&gt; &lt;port&gt;</code>, or shown on a station monitor with
+   * <code>--board &lt;host&gt; &lt;port&gt; [rows]</code>. Use <code>--serve &lt;port&gt;</code>
+   * to serve the menu to several operators on the loopback interface, followed by
+   * <code>--displays &lt;port&gt;</code> to push the board to platform displays as well.
+   * </p>
    *
    * @param args Command line arguments.
+   * @throws IOException if the command script could not be read.
+   * @throws InterruptedException if the load test is interrupted.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String engine = "list";
+    Path archive = null;
+    int leadPort = -1;
+    while (args.length > 1 && (args[0].equals("--store") || args[0].equals("--archive")
+            || args[0].equals("--lead"))) {
+      if (args[0].equals("--store")) {
+        engine = args[1];
+      } else if (args[0].equals("--archive")) {
+        archive = Path.of(args[1]);
+      } else {
+        leadPort = Integer.parseInt(args[1]);
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    if (args.length > 0 && args[0].equals("--script")) {
+      runScript(args.length > 1 ? Path.of(args[1]) : null, DepartureStore.create(engine),
+              archive, leadPort);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--follow")) {
+      ReplicationFollower.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args.length > 1 && args[0].equals("--serve")) {
+      if (args.length > 3 && args[2].equals("--displays")) {
+        ConsoleServer.main(new String[] {args[1], engine, args[3]});
+      } else {
+        ConsoleServer.main(new String[] {args[1], engine});
+      }
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--board")) {
+      LiveBoard.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--load")) {
+      LoadHarness.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     // Create an instance of the UserInterface
     UserInterface userInterface = new UserInterface();
     // Initialize the user interface
-    userInterface.init();
+    userInterface.init(DepartureStore.create(engine));
     // Start the user interface
     userInterface.start();
   }
-}
\ No newline at end of file
+
+  /**
+   * Runs a command script against an empty train dispatch starting at midnight.
+   *
+   * @param script         The script file, or null to read from standard input.
+   * @param departureStore The store of the train dispatch.
+   * @param archive        The directory to archive departures that leave in, or null.
+   * @param leadPort       The port to replicate the board on, or -1.
+   * @throws IOException if the command script could not be read or the archive written.
+   */
+
+  private static void runScript(Path script, DepartureStore departureStore, Path archive,
+                                int leadPort) throws IOException {
+    TrainDispatch trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.MIDNIGHT),
+            departureStore);
+    BufferedReader reader = (script == null)
+            ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8),
+                    BUFFER_SIZE)
+            : Files.newBufferedReader(script, StandardCharsets.UTF_8);
+    PrintWriter writer = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE), false);
+    // Closed on every path, so a failing script still flushes the archive and frees the port
+    try (reader;
+         DepartureArchive departureArchive = (archive == null)
+                 ? null : new DepartureArchive(archive);
+         ReplicationLeader leader = (leadPort < 0)
+                 ? null : new ReplicationLeader(trainDispatch, leadPort)) {
+      if (departureArchive != null) {
+        trainDispatch.addDepartureListener(departureArchive);
+      }
+      CommandScriptRunner runner = new CommandScriptRunner(trainDispatch, reader, writer);
+      runner.run();
+    } finally {
+      writer.flush();
+    }
+  }
+}
@@ -1,6 +1,6 @@
 package org.example;
 
-import java.time.LocalTime;
+import java.io.PrintStream;
 import java.util.Scanner;
 
 /**
@@ -9,21 +9,50 @@ import java.util.Scanner;
  * This class handles user input by cooperating with the InputValidator class to return the input
  * when it is valid. It also handles the creation of a new Departure object.
  * </p>
+ * <p>
+ * Prompts and error messages are written to the same console the input is read from, which is
+ * the standard streams by default and a socket for sessions of the ConsoleServer.
+ * </p>
  *
  * @author Mikael Stray Froeyshov
- * @version 1.0
+ * @version 1.3
  * @since 2023-12-04
  */
 
 public class UserInputHandler {
 
   private final InputValidator inputValidator = new InputValidator();
-  private final Scanner scanner = new Scanner(System.in);
+  private final Scanner scanner;
+  private final PrintStream out;
 
   // String constants
   private static final String PLEASE_TRY_AGAIN = " Please try again: ";
   private static final String WRONG_FORMAT = "Wrong format. ";
 
+  /**
+   * Constructs a UserInputHandler that reads from the specified scanner. The scanner should be
+   * shared with the UserInterface, so that only one scanner buffers the input.
+   *
+   * @param scanner The scanner to read user input from.
+   */
+
+  public UserInputHandler(Scanner scanner) {
+    this(scanner, System.out);
+  }
+
+  /**
+   * Constructs a UserInputHandler that reads from the specified scanner and writes prompts to
+   * the specified stream.
+   *
+   * @param scanner The scanner to read user input from.
+   * @param out     The stream to write prompts and error messages to.
+   */
+
+  public UserInputHandler(Scanner scanner, PrintStream out) {
+    this.scanner = scanner;
+    this.out = out;
+  }
+
   /**
    * Method that uses the class methods to validate and get user input
    * to create a new Departure object.
@@ -33,9 +62,9 @@ public class UserInputHandler {
 
   public Departure createDepartureFromUserInput(TrainDispatch trainDispatch) {
 
-    // The timeNow variable is used to ensure that the user can only update the time to a later time
-    LocalTime timeNow = trainDispatch.getTime();
-    LocalTime time = validateAndGetTime(timeNow);
+    // The minuteNow variable is used to ensure that the departure is not before the current time
+    int minuteNow = trainDispatch.getCurrentMinute();
+    int time = validateAndGetTime(minuteNow);
 
     String line = validateAndGetLine();
 
@@ -43,33 +72,36 @@ public class UserInputHandler {
 
     String destination = validateAndGetDestination();
 
-    System.out.print("\nTrack (type 0 if not existing yet), max 3 digits: ");
-    int track = validateAndGetNumericInput();
-
-    System.out.print("\nDelay, max 3 digits: ");
+    prompt("\nDelay, max 3 digits: ");
     int delay = validateAndGetNumericInput();
 
+    // The delay is asked first, so that the track can be checked against the time plus delay
+    prompt("\nTrack (type 0 if not existing yet), max 3 digits: ");
+    int track = validateAndGetFreeTrack(trainDispatch, trainNumber, time + delay);
+
     return new Departure(time, line, trainNumber, destination, track, delay);
   }
 
   /**
    * Method to ensure right time format and getting input when creating a new departure.
+   * A time on a later service day is given as hh:mm+N, where N is the number of days.
    *
-   * @return The user input as a LocalTime object.
+   * @param minuteNow The current time as an epoch minute.
+   * @return The user input as an epoch minute.
    */
 
-  public LocalTime validateAndGetTime(LocalTime timeNow) {
-    System.out.println("Time? In format (hh:mm): ");
+  public int validateAndGetTime(int minuteNow) {
+    out.println("Time? In format (hh:mm), add +1 for the next day (hh:mm+1): ");
     // asks for right format until user input is valid
     while (true) {
       String newTime = scanner.nextLine();
       try {
         // if input is valid (validation method does not throw exception), return new time
-        return InputValidator.validateTimeInput(newTime, timeNow);
+        return InputValidator.validateTimeInput(newTime.trim(), minuteNow);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN);
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       } catch (Exception e) {
-        System.out.print("Wrong format. Should be in the format [00-23]:[00-59]."
+        prompt("Wrong format. Should be in the format [00-23]:[00-59]."
                 + PLEASE_TRY_AGAIN);
       }
     }
@@ -82,7 +114,7 @@ public class UserInputHandler {
    */
 
   private String validateAndGetLine() {
-    System.out.print("\nLine, max 5 digits: ");
+    prompt("\nLine, max 5 digits: ");
     // asks for right format until user input is valid
     while (true) {
       String line = scanner.nextLine().trim();
@@ -90,7 +122,7 @@ public class UserInputHandler {
         // if input is valid (validation method does not throw exception), return new time
         return InputValidator.validateLineInput(line);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN);
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       }
     }
   }
@@ -102,7 +134,7 @@ public class UserInputHandler {
    */
 
   private int validateAndGetTrainNumber(TrainDispatch trainDispatch) {
-    System.out.print("\nTrain number, max 4 digits: ");
+    prompt("\nTrain number, max 4 digits: ");
     // asks for right format until user input is valid
     while (true) {
       String trainNumber = scanner.nextLine();
@@ -110,9 +142,9 @@ public class UserInputHandler {
         // if input is valid (validation method does not throw exception), return new time
         return inputValidator.validateTrainNumber(trainNumber, trainDispatch);
       } catch (NumberFormatException e) {
-        System.out.print(WRONG_FORMAT);
+        prompt(WRONG_FORMAT);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN);
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       }
     }
   }
@@ -124,7 +156,7 @@ public class UserInputHandler {
    */
 
   private String validateAndGetDestination() {
-    System.out.println("\nDestination: ");
+    out.println("\nDestination: ");
     // asks for right format until user input is valid
     while (true) {
       String input = scanner.nextLine().trim();
@@ -132,7 +164,7 @@ public class UserInputHandler {
         // if input is valid (validation method does not throw exception), return new time
         return InputValidator.validateDestination(input);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN);
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       }
     }
   }
@@ -144,21 +176,33 @@ public class UserInputHandler {
    */
 
   public int validateTrainNumberToFindDeparture(TrainDispatch trainDispatch) {
-    System.out.print("\nTrain number, max 4 digits. Press 0 to exit: ");
+    DepartureHandle handle = validateDepartureToFind(trainDispatch);
+    return (handle == null) ? 0 : handle.getTrainNumber();
+  }
+
+  /**
+   * Method to ensure right train number format and getting input when finding a departure to
+   * change. The departure is looked up once, and changed later through the handle.
+   *
+   * @return A handle to the departure, or null if the user chose to exit.
+   */
+
+  public DepartureHandle validateDepartureToFind(TrainDispatch trainDispatch) {
+    prompt("\nTrain number, max 4 digits. Press 0 to exit: ");
     // asks for right format until user input is valid
     while (true) {
       String trainNumber = scanner.nextLine();
       try {
         // Check if the user wants to exit
         if (trainNumber.equals("0")) {
-          return 0;
+          return null;
         }
-        // if input is valid (validation method does not throw exception), return new time
-        return inputValidator.validateTrainNumberToFind(trainNumber, trainDispatch);
+        // if input is valid (validation method does not throw exception), return the handle
+        return inputValidator.validateDepartureToFind(trainNumber, trainDispatch);
       } catch (NumberFormatException e) {
-        System.out.print(WRONG_FORMAT);
+        prompt(WRONG_FORMAT);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN + " (0 to exit): ");
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN + " (0 to exit): ");
       }
     }
   }
@@ -170,7 +214,7 @@ public class UserInputHandler {
    */
 
   public String validateDestinationToFindDeparture(TrainDispatch trainDispatch) {
-    System.out.print("\nDestination (0 to exit): ");
+    prompt("\nDestination (0 to exit): ");
     // asks for right format until user input is valid
     while (true) {
       String destination = scanner.nextLine().trim();
@@ -182,7 +226,50 @@ public class UserInputHandler {
         // if input is valid (validation method does not throw exception), return new time
         return inputValidator.validateDestinationToFind(destination, trainDispatch);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN + " (0 to exit): ");
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN + " (0 to exit): ");
+      }
+    }
+  }
+
+  /**
+   * Method to ensure right track format and getting input when setting a track, and that the
+   * track is not occupied by another departure at the same time.
+   *
+   * @param trainDispatch The TrainDispatch instance.
+   * @param trainNumber The train number of the departure.
+   * @param effectiveMinute The time plus delay of the departure as an epoch minute.
+   * @return The user input as an Integer.
+   */
+
+  public int validateAndGetFreeTrack(TrainDispatch trainDispatch, int trainNumber,
+                                     int effectiveMinute) {
+    while (true) {
+      int track = validateAndGetNumericInput();
+      try {
+        return inputValidator.validateFreeTrack(track, effectiveMinute, trainNumber,
+                trainDispatch);
+      } catch (IllegalArgumentException e) {
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
+      }
+    }
+  }
+
+  /**
+   * Method to ensure right track format and getting input when setting the track of the
+   * departure of a handle, and that the track is not occupied by another departure.
+   *
+   * @param trainDispatch The TrainDispatch instance.
+   * @param handle The handle of the departure.
+   * @return The user input as an Integer.
+   */
+
+  public int validateAndGetFreeTrack(TrainDispatch trainDispatch, DepartureHandle handle) {
+    while (true) {
+      int track = validateAndGetNumericInput();
+      try {
+        return inputValidator.validateFreeTrack(track, handle, trainDispatch);
+      } catch (IllegalArgumentException e) {
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       }
     }
   }
@@ -200,10 +287,20 @@ public class UserInputHandler {
         // if input is valid (validation method does not throw exception), return new time
         return InputValidator.validateNumericInput(value);
       } catch (NumberFormatException e) {
-        System.out.print(WRONG_FORMAT);
+        prompt(WRONG_FORMAT);
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + PLEASE_TRY_AGAIN);
+        prompt(e.getMessage() + PLEASE_TRY_AGAIN);
       }
     }
   }
+
+  /**
+   * Writes text that the user answers on the same line, and flushes it, since a stream that
+   * flushes on new lines would hold it back.
+   */
+
+  private void prompt(String text) {
+    out.print(text);
+    out.flush();
+  }
 }
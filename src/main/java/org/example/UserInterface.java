@@ -1,7 +1,7 @@
 package org.example;
 
+import java.io.PrintStream;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Scanner;
@@ -18,9 +18,15 @@ import java.util.Scanner;
  * It uses the TrainDispatch class to retrieve and manipulate departure data, and the
  * UserInputHandler class to get and validate user input.
  * </p>
+ * <p>
+ * The console is the standard streams by default. Sessions of the ConsoleServer give each
+ * operator their own reader and writer, on a train dispatch shared by all sessions, so the
+ * departures can be changed by someone else between two questions. Such changes are reported
+ * instead of failing.
+ * </p>
  *
  * @author Mikael Stray Froeyshov
- * @version 2.1
+ * @version 2.5
  * @since 2023-11-02
  */
 
@@ -29,17 +35,27 @@ public class UserInterface {
   private TrainDispatch trainDispatch;
   private UserInputHandler userInputHandler;
   private Scanner scanner;
-  private DateTimeFormatter formatter;
+  private PrintStream out;
 
   /**
    * Initializes the user interface, creates necessary objects and registers.
    */
 
   public void init() {
-    trainDispatch = new TrainDispatch(LocalTime.parse("12:00"));
-    userInputHandler = new UserInputHandler();
-    scanner = new Scanner(System.in);
-    formatter = DateTimeFormatter.ofPattern("HH:mm");
+    init(new ListDepartureStore());
+  }
+
+  /**
+   * Initializes the user interface with a train dispatch that keeps its departures in the
+   * specified store.
+   *
+   * @param departureStore An empty departure store.
+   */
+
+  public void init(DepartureStore departureStore) {
+    // One scanner is shared with the input handler, so that they do not compete for the input
+    init(new TrainDispatch(ServiceTime.of(LocalTime.parse("12:00")), departureStore),
+            new Scanner(System.in), System.out);
 
     trainDispatch.registerDeparture(new Departure(LocalTime.of(17, 45), "F4",
             123, "Lillestrom", 1, 0));
@@ -49,6 +65,22 @@ public class UserInterface {
             789, "Trondheim", 0, 0));
   }
 
+  /**
+   * Initializes the user interface for a train dispatch that already exists, reading from and
+   * writing to the specified console.
+   *
+   * @param trainDispatch The train dispatch, which may be shared with other user interfaces.
+   * @param scanner       The scanner to read user input from.
+   * @param out           The stream to write to.
+   */
+
+  public void init(TrainDispatch trainDispatch, Scanner scanner, PrintStream out) {
+    this.trainDispatch = trainDispatch;
+    this.scanner = scanner;
+    this.out = out;
+    userInputHandler = new UserInputHandler(scanner, out);
+  }
+
   /**
    * Enum representing the different menu choices.
    */
@@ -82,7 +114,7 @@ public class UserInterface {
    */
 
   private MenuChoice getUserChoice() throws IllegalArgumentException {
-    System.out.print("Enter your choice (1-9): ");
+    prompt("Enter your choice (1-9): ");
     // The while-loop will run as long as the user has not entered a valid number
     while (true) {
       try {
@@ -95,9 +127,9 @@ public class UserInterface {
                 .orElseThrow(() -> new IllegalArgumentException("Number must be between 1 and 9."));
 
       } catch (NumberFormatException e) {
-        System.out.print("Invalid input. Please enter a valid number: ");
+        prompt("Invalid input. Please enter a valid number: ");
       } catch (IllegalArgumentException e) {
-        System.out.print(e.getMessage() + " Please try again: ");
+        prompt(e.getMessage() + " Please try again: ");
       }
     }
   }
@@ -139,13 +171,13 @@ public class UserInterface {
           updateTime();
           break;
         case EXIT:
-          System.out.println("Thank you for using the Train Dispatch!\n");
+          out.println("Thank you for using the Train Dispatch!\n");
           finished = true;
           break;
         // User choice input is validated in userChoice() method,
         // but default case is added for robustness
         default:
-          System.out.println("Invalid choice. Please try again.");
+          out.println("Invalid choice. Please try again.");
       }
     }
   }
@@ -154,17 +186,17 @@ public class UserInterface {
    * Prints the menu choices to the console.
    */
 
-  private static void showMenu() {
-    System.out.println("\n******* Train Dispatch Application v0.1 *******\n");
-    System.out.println("1. List all departures                   ++      +------");
-    System.out.println("2. Add departure                         ||      |+-+ | ");
-    System.out.println("3. Remove departure                      ||      || | | ");
-    System.out.println("4. Find departure by number            /---------|| | | ");
-    System.out.println("5. Find departure by destination      + ========  +-+ | ");
-    System.out.println("6. Set track                       _|--/~\\------/~\\-+ ");
-    System.out.println("7. Set delay                       //// \\_/      \\_/  ");
-    System.out.println("8. Update time");
-    System.out.println("9. Quit");
+  private void showMenu() {
+    out.println("\n******* Train Dispatch Application v0.1 *******\n");
+    out.println("1. List all departures                   ++      +------");
+    out.println("2. Add departure                         ||      |+-+ | ");
+    out.println("3. Remove departure                      ||      || | | ");
+    out.println("4. Find departure by number            /---------|| | | ");
+    out.println("5. Find departure by destination      + ========  +-+ | ");
+    out.println("6. Set track                       _|--/~\\------/~\\-+ ");
+    out.println("7. Set delay                       //// \\_/      \\_/  ");
+    out.println("8. Update time");
+    out.println("9. Quit");
   }
 
   /**
@@ -183,11 +215,11 @@ public class UserInterface {
    * Method to ensure right train number format and getting input when finding a departure.
    * <b>Note:</b> Made to avoid code duplication.
    *
-   * @return The user input as an integer.
+   * @return A handle to the departure, or null if the user chose to exit.
    */
 
-  private int validateAndGetTrainNumberToFindDeparture() {
-    return userInputHandler.validateTrainNumberToFindDeparture(trainDispatch);
+  private DepartureHandle validateAndGetDepartureToFind() {
+    return userInputHandler.validateDepartureToFind(trainDispatch);
   }
 
   /**
@@ -198,20 +230,32 @@ public class UserInterface {
 
   private boolean listIsEmpty() {
     if (trainDispatch.checkIfListIsEmpty()) {
-      System.out.println("List is empty, add a new departure first");
+      out.println("List is empty, add a new departure first");
       return true;
     }
     return false;
   }
 
+  /**
+   * Prints that a departure was removed, left or changed by someone else while the user was
+   * asked about it.
+   *
+   * @param trainNumber The train number of the departure.
+   */
+
+  private void printNoLongerOnBoard(int trainNumber) {
+    out.println("\nDeparture with train number " + trainNumber
+            + " is no longer on the board or was changed in the meantime");
+  }
+
   /**
    * Prints the header of the departure list.
    */
 
-  private static void printHeader() {
-    System.out.printf("\n%-12s %-7s %-18s %-15s %-12s %-10s%n",
+  private void printHeader() {
+    out.printf("\n%-12s %-7s %-18s %-15s %-12s %-10s%n",
               "| Time", "Line", "Train Number", "Destination", "Delay", "Track     |");
-    System.out.println("-".repeat(80));
+    out.println("-".repeat(80));
   }
 
   /**
@@ -223,7 +267,7 @@ public class UserInterface {
     if (listIsEmpty()) {
       return;
     }
-    System.out.println(trainDispatch);
+    out.println(trainDispatch);
   }
 
   /**
@@ -232,8 +276,13 @@ public class UserInterface {
    */
 
   private void addDeparture() {
-    trainDispatch.registerDeparture(createDepartureFromUserInput());
-    System.out.print("\nDeparture was successfully added");
+    Departure departure = createDepartureFromUserInput();
+    // Another operator can take the train number while the rest is asked for
+    if (!trainDispatch.registerDepartureIfAbsent(departure)) {
+      out.println("\nTrain number " + departure.getTrainNumber() + " was taken in the meantime");
+      return;
+    }
+    prompt("\nDeparture was successfully added");
   }
 
   /**
@@ -245,15 +294,18 @@ public class UserInterface {
     if (listIsEmpty()) {
       return;
     }
-    int trainNumber = validateAndGetTrainNumberToFindDeparture();
+    DepartureHandle handle = validateAndGetDepartureToFind();
 
     // if user chose 0 to exit when choosing train number, return to menu
-    if (trainNumber == 0) {
+    if (handle == null) {
       return;
     }
-    Departure departureToRemove = trainDispatch.findDepartureByNumber(trainNumber);
-    trainDispatch.removeDeparture(departureToRemove);
-    System.out.println("\nDeparture with train number " + trainNumber + " was removed");
+    int trainNumber = handle.getTrainNumber();
+    if (!trainDispatch.removeDeparture(handle)) {
+      printNoLongerOnBoard(trainNumber);
+      return;
+    }
+    out.println("\nDeparture with train number " + trainNumber + " was removed");
   }
 
   /**
@@ -264,14 +316,14 @@ public class UserInterface {
     if (listIsEmpty()) {
       return;
     }
-    int trainNumber = validateAndGetTrainNumberToFindDeparture();
+    DepartureHandle handle = validateAndGetDepartureToFind();
 
     // if user chose 0 to exit when choosing train number, return to menu
-    if (trainNumber == 0) {
+    if (handle == null) {
       return;
     }
     printHeader();
-    System.out.println((trainDispatch.findDepartureByNumber(trainNumber)));
+    out.println(handle.getDeparture());
   }
 
   /**
@@ -290,8 +342,9 @@ public class UserInterface {
     }
 
     List<Departure> departures = trainDispatch.findDeparturesByDestination(destination);
+    out.println("\nDepartures to " + destination + ":");
     printHeader();
-    departures.forEach(System.out::println);
+    departures.forEach(out::println);
   }
 
   /**
@@ -303,17 +356,21 @@ public class UserInterface {
     if (listIsEmpty()) {
       return;
     }
-    int trainNumber = validateAndGetTrainNumberToFindDeparture();
+    DepartureHandle handle = validateAndGetDepartureToFind();
 
     // if user wants to exit, return to menu
-    if (trainNumber == 0) {
+    if (handle == null) {
       return;
     }
+    int trainNumber = handle.getTrainNumber();
 
-    System.out.println("Track?");
-    int track = userInputHandler.validateAndGetNumericInput();
-    trainDispatch.setTrack(trainNumber, track);
-    System.out.println("\n Track for departure with train number "
+    out.println("Track?");
+    int track = userInputHandler.validateAndGetFreeTrack(trainDispatch, handle);
+    if (!trainDispatch.setTrack(handle, track)) {
+      printNoLongerOnBoard(trainNumber);
+      return;
+    }
+    out.println("\n Track for departure with train number "
             + trainNumber + " was set to " + track);
   }
 
@@ -326,18 +383,29 @@ public class UserInterface {
     if (listIsEmpty()) {
       return;
     }
-    int trainNumber = validateAndGetTrainNumberToFindDeparture();
+    DepartureHandle handle = validateAndGetDepartureToFind();
 
     // if user wants to exit
-    if (trainNumber == 0) {
+    if (handle == null) {
       return;
     }
-    System.out.println("Delay?");
+    int trainNumber = handle.getTrainNumber();
+    out.println("Delay?");
     int delay = userInputHandler.validateAndGetNumericInput();
 
-    trainDispatch.setDelay(trainNumber, delay);
-    System.out.println("\n Delay for departure with train number "
+    if (!trainDispatch.setDelay(handle, delay)) {
+      printNoLongerOnBoard(trainNumber);
+      return;
+    }
+    out.println("\n Delay for departure with train number "
             + trainNumber + " was set to " + delay);
+
+    // The new time can overlap another departure on the same track
+    Departure conflict = trainDispatch.findTrackConflict(handle);
+    if (conflict != null) {
+      out.println(" Warning: the departure now conflicts with train number "
+              + conflict.getTrainNumber() + " on track " + conflict.getTrack());
+    }
   }
 
   /**
@@ -345,11 +413,26 @@ public class UserInterface {
    */
 
   private void updateTime() {
-    LocalTime timeNow = trainDispatch.getTime();
-    // The timeNow variable is used to ensure that the user can only update the time to a later time
-    LocalTime newTime = userInputHandler.validateAndGetTime(timeNow);
+    int minuteNow = trainDispatch.getCurrentMinute();
+    // The minuteNow variable is used to ensure that the user can only update the time to a later time
+    int newTime = userInputHandler.validateAndGetTime(minuteNow);
+
+    // Another session may have moved the clock past the new time while this one was asked
+    if (!trainDispatch.setTimeIfNotBefore(newTime)) {
+      out.println("\n Time was not updated, it has been moved to "
+              + ServiceTime.format(trainDispatch.getCurrentMinute()) + " in the meantime");
+      return;
+    }
+    out.println("\n Time was updated to " + ServiceTime.format(newTime));
+  }
+
+  /**
+   * Writes text that the user answers on the same line, and flushes it, since a stream that
+   * flushes on new lines would hold it back.
+   */
 
-    trainDispatch.setTime(newTime);
-    System.out.println("\n Time was updated to " + formatter.format(newTime));
+  private void prompt(String text) {
+    out.print(text);
+    out.flush();
   }
-}
\ No newline at end of file
+}
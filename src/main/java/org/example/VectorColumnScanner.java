@@ -0,0 +1,91 @@
+package org.example;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <h1>VectorColumnScanner.</h1>
+ * <p>
+ * The VectorColumnScanner class checks as many rows at once as the widest vector of the CPU
+ * holds, using the jdk.incubator.vector API. The comparisons of each column give a mask, the
+ * masks are combined, and the matching rows are counted or read from the bits of the mask. The
+ * rows after the last whole vector are checked one at a time.
+ * </p>
+ * <p>
+ * The class can only be loaded when the vector module is available, so it is only created
+ * through ColumnScanner.create.
+ * </p>
+ *
+ * @author Mikael Stray Froeyshov
+ * @version 1.0
+ * @since 2024-01-29
+ */
+
+final class VectorColumnScanner implements ColumnScanner {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  @Override
+  public String getName() {
+    return "vector (" + SPECIES.vectorBitSize() + " bit)";
+  }
+
+  @Override
+  public int count(int[] minutes, int[] delays, int[] tracks, int start, int end,
+                   Filter filter) {
+    int count = 0;
+    int row = start;
+    for (int bound = start + SPECIES.loopBound(end - start); row < bound;
+         row += SPECIES.length()) {
+      count += mask(minutes, delays, tracks, row, filter).trueCount();
+    }
+    for (; row < end; row++) {
+      if (filter.matches(minutes[row], delays[row], tracks[row])) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int select(int[] minutes, int[] delays, int[] tracks, int start, int end,
+                    Filter filter, int[] rows) {
+    int count = 0;
+    int row = start;
+    for (int bound = start + SPECIES.loopBound(end - start); row < bound;
+         row += SPECIES.length()) {
+      long bits = mask(minutes, delays, tracks, row, filter).toLong();
+      while (bits != 0) {
+        rows[count++] = row + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+      }
+    }
+    for (; row < end; row++) {
+      if (filter.matches(minutes[row], delays[row], tracks[row])) {
+        rows[count++] = row;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Checks one vector of rows against the filter.
+   */
+
+  private static VectorMask<Integer> mask(int[] minutes, int[] delays, int[] tracks, int row,
+                                          Filter filter) {
+    IntVector minute = IntVector.fromArray(SPECIES, minutes, row);
+    IntVector delay = IntVector.fromArray(SPECIES, delays, row);
+    VectorMask<Integer> mask = minute.compare(VectorOperators.GE, filter.fromMinute())
+            .and(minute.compare(VectorOperators.LE, filter.toMinute()))
+            .and(delay.compare(VectorOperators.GE, filter.minDelay()))
+            .and(delay.compare(VectorOperators.LE, filter.maxDelay()));
+    if (filter.track() != 0) {
+      mask = mask.and(IntVector.fromArray(SPECIES, tracks, row)
+              .compare(VectorOperators.EQ, filter.track()));
+    }
+    return mask;
+  }
+}
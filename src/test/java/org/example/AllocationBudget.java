@@ -0,0 +1,63 @@
+package org.example;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the bytes a piece of code allocates on the calling thread, so tests can keep hot
+ * paths within an allocation budget. The code is run until it is warm first, then measured
+ * over many calls in a few rounds, and the lowest round counts.
+ */
+final class AllocationBudget {
+
+  private static final ThreadMXBean THREADS =
+          (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private static final int WARM_UP_CALLS = 20_000;
+  private static final int MEASURED_CALLS = 10_000;
+  private static final int ROUNDS = 3;
+
+  private AllocationBudget() {
+  }
+
+  /**
+   * Gets the bytes allocated per call of an action, after warming it up.
+   *
+   * @param action The action to measure.
+   * @return The bytes allocated per call, rounded down.
+   */
+  static long bytesPerCall(Runnable action) {
+    for (int i = 0; i < WARM_UP_CALLS; i++) {
+      action.run();
+    }
+    long lowest = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long before = THREADS.getCurrentThreadAllocatedBytes();
+      for (int i = 0; i < MEASURED_CALLS; i++) {
+        action.run();
+      }
+      lowest = Math.min(lowest, THREADS.getCurrentThreadAllocatedBytes() - before);
+    }
+    return lowest / MEASURED_CALLS;
+  }
+
+  /**
+   * Asserts that an action allocates at most a number of bytes per call. The test is skipped
+   * on a JVM that cannot measure allocations.
+   *
+   * @param what            The name of the action, for the failure message.
+   * @param maxBytesPerCall The budget.
+   * @param action          The action to measure.
+   */
+  static void assertWithin(String what, long maxBytesPerCall, Runnable action) {
+    assumeTrue(THREADS.isThreadAllocatedMemorySupported()
+            && THREADS.isThreadAllocatedMemoryEnabled());
+    long bytes = bytesPerCall(action);
+    assertTrue(bytes <= maxBytesPerCall,
+            what + " allocated " + bytes + " bytes per call, over the budget of "
+                    + maxBytesPerCall);
+  }
+}
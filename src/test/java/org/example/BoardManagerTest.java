@@ -0,0 +1,124 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardManagerTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.of(12, 0));
+
+  @TempDir
+  Path directory;
+
+  /**
+   * Adds departures to a board, with a delay and a track on the first one.
+   */
+  private static void fill(TrainDispatch board, int count) {
+    for (int i = 0; i < count; i++) {
+      board.registerDeparture(new Departure(NOON + 10 + i, (i % 2 == 0) ? "F4" : "R10", i + 1,
+              "Drammen", 0, 0));
+    }
+    board.setDelay(1, 7);
+    board.setTrack(1, 3);
+  }
+
+  @Test
+  @DisplayName("Test that a board is the same after a snapshot is written and read")
+  void testSnapshot() throws IOException {
+    TrainDispatch board = new TrainDispatch(NOON);
+    board.setDwellTimes(4, 2);
+    board.setMaterializationHorizon(120);
+    fill(board, 5);
+    Path path = directory.resolve("board");
+    BoardSnapshot.write(board, path);
+
+    TrainDispatch read = BoardSnapshot.read(path, new IndexedDepartureStore());
+    assertEquals(board.sortedList(), read.sortedList());
+    assertEquals(NOON, read.getCurrentMinute());
+    assertEquals(4, read.getDwellBefore());
+    assertEquals(2, read.getDwellAfter());
+    assertEquals(120, read.getMaterializationHorizon());
+    assertEquals(1, read.getMostDelayed(5).size());
+    assertEquals(1, read.findTrackConflict(3, NOON + 17, 0).getTrainNumber());
+
+    Files.writeString(path, "not a snapshot");
+    assertThrows(IOException.class, () -> BoardSnapshot.read(path, new ListDepartureStore()));
+  }
+
+  @Test
+  @DisplayName("Test that the delay statistics of departures that left survive a spill")
+  void testStatisticsSurviveSpill() throws IOException {
+    BoardManager manager = new BoardManager(directory, 1024 * 1024);
+    TrainDispatch board = manager.get("Oslo S", NOON);
+    fill(board, 10);
+    board.setTime(NOON + 15);
+    manager.spillAll();
+    assertFalse(manager.isResident("Oslo S"));
+
+    TrainDispatch reloaded = manager.get("Oslo S", NOON);
+    DelayStatistics statistics = reloaded.getDelayStatistics();
+    // The delayed first departure has not left yet
+    assertEquals(6, reloaded.getNumberOfDepartures());
+    assertEquals(10, statistics.getTotal().getCount());
+    assertEquals(7, statistics.getTotal().getMax());
+    assertEquals(5, statistics.getByLine("F4").getCount());
+    assertEquals(10, statistics.getByDestination(" drammen").getCount());
+    assertEquals(10, statistics.getByHour(12).getCount());
+
+    reloaded.setDelay(10, 3);
+    assertEquals(10, statistics.getTotal().getCount());
+    assertEquals(1.0, statistics.getByDestination("Drammen").getMean(), 1e-9);
+  }
+
+  @Test
+  @DisplayName("Test that the least recently used boards are spilled over the budget")
+  void testEviction() throws IOException {
+    long oneBoard = BoardManager.BYTES_PER_BOARD + 10 * BoardManager.BYTES_PER_DEPARTURE;
+    BoardManager manager = new BoardManager(directory, 2 * oneBoard);
+    fill(manager.get("Oslo S", NOON), 10);
+    fill(manager.get("Lillestrom", NOON), 10);
+    manager.get("Oslo S", NOON);
+    fill(manager.get("Ski", NOON), 10);
+
+    assertEquals(2, manager.getNumberOfResidentBoards());
+    assertFalse(manager.isResident("Lillestrom"));
+    assertTrue(manager.contains("Lillestrom"));
+    assertEquals(1, manager.getNumberOfEvictions());
+    assertTrue(manager.getEstimatedBytes() <= 2 * oneBoard);
+
+    TrainDispatch reloaded = manager.get("Lillestrom", 0);
+    assertEquals(10, reloaded.getNumberOfDepartures());
+    assertEquals(7, reloaded.findDepartureByNumber(1).getDelay());
+    assertEquals(1, manager.getNumberOfReloads());
+    assertEquals(1, manager.getReloadLatency().getCount());
+    assertFalse(manager.isResident("Oslo S"));
+    // One hit out of five accesses
+    assertEquals(0.2, manager.getHitRate(), 1e-9);
+  }
+
+  @Test
+  @DisplayName("Test that boards with state outside the snapshot stay in memory")
+  void testPinnedBoards() throws IOException {
+    BoardManager manager = new BoardManager(directory, 1, "indexed");
+    manager.get("Oslo S", NOON).enableColumns();
+    manager.get("Lillestrom", NOON).enableConnections();
+    manager.get("Ski", NOON);
+    manager.get("Asker", NOON);
+
+    assertTrue(manager.isResident("Oslo S"));
+    assertTrue(manager.isResident("Lillestrom"));
+    assertFalse(manager.isResident("Ski"));
+    manager.spillAll();
+    assertEquals(2, manager.getNumberOfResidentBoards());
+    assertFalse(manager.contains("Drammen"));
+    assertThrows(IllegalArgumentException.class, () -> new BoardManager(directory, 0));
+  }
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandDispatcherTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.of(12, 0));
+
+  @Test
+  @DisplayName("Test that commands are applied in order and published as snapshots")
+  void testApplyInOrder() throws InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    try (CommandDispatcher dispatcher = new CommandDispatcher(trainDispatch, 8)) {
+      dispatcher.register(new Departure(NOON + 10, "F4", 1, "Ski", 1, 0));
+      dispatcher.register(new Departure(NOON + 20, "R10", 2, "Asker", 0, 0));
+      dispatcher.setDelay(1, 15);
+      dispatcher.setTrack(2, 3);
+      dispatcher.remove(1);
+      dispatcher.setDelay(1, 5);
+      long last = dispatcher.setTime(NOON + 5);
+
+      DispatchSnapshot snapshot = dispatcher.awaitSnapshot(last, 5000);
+      assertNotNull(snapshot);
+      assertEquals(6, snapshot.sequence());
+      assertEquals(NOON + 5, snapshot.currentMinute());
+      assertEquals(1, snapshot.departures().size());
+      assertEquals(3, snapshot.findByNumber(2).getTrack());
+      assertNull(snapshot.findByNumber(1));
+      // The delay of a removed train is rejected
+      assertEquals(1, dispatcher.getNumberOfRejectedCommands());
+      assertThrows(UnsupportedOperationException.class,
+              () -> snapshot.departures().add(null));
+    }
+  }
+
+  @Test
+  @DisplayName("Test that many producers can publish through a small ring")
+  void testManyProducers() throws InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    int producers = 8;
+    int perProducer = 500;
+    CommandDispatcher dispatcher = new CommandDispatcher(trainDispatch, 64);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int first = p * perProducer;
+      threads.add(Thread.ofPlatform().start(() -> {
+        for (int i = 1; i <= perProducer; i++) {
+          dispatcher.register(new Departure(NOON + 1 + (first + i) % 600, "F4", first + i,
+                  "Ski", 0, 0));
+          dispatcher.setDelay(first + i, i % 10);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    dispatcher.close();
+
+    assertEquals(producers * perProducer, trainDispatch.getNumberOfDepartures());
+    assertEquals(0, dispatcher.getNumberOfRejectedCommands());
+    assertEquals(7, trainDispatch.findDepartureByNumber(perProducer + 7).getDelay());
+    assertEquals(producers * perProducer, dispatcher.getSnapshot().departures().size());
+    assertTrue(dispatcher.getNumberOfBatches() <= 2L * producers * perProducer);
+    assertThrows(IllegalStateException.class, () -> dispatcher.setTime(NOON));
+  }
+
+  @Test
+  @DisplayName("Test that a command that fails in a listener is rejected and the ring keeps going")
+  void testFailingListener() throws InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    trainDispatch.addDepartureListener(new DepartureListener() {
+      @Override
+      public void delayChanged(Departure departure, int oldDelay) {
+        if (departure.getTrainNumber() == 1) {
+          throw new IllegalStateException("The archive could not be written");
+        }
+      }
+    });
+    try (CommandDispatcher dispatcher = new CommandDispatcher(trainDispatch, 4)) {
+      dispatcher.register(new Departure(NOON + 10, "F4", 1, "Ski", 1, 0));
+      dispatcher.register(new Departure(NOON + 20, "R10", 2, "Asker", 0, 0));
+      dispatcher.setDelay(1, 15);
+      long last = 0;
+      for (int i = 1; i <= 50; i++) {
+        last = dispatcher.setDelay(2, i);
+      }
+
+      DispatchSnapshot snapshot = dispatcher.awaitSnapshot(last, 5000);
+      assertNotNull(snapshot);
+      assertEquals(50, snapshot.findByNumber(2).getDelay());
+      assertEquals(1, dispatcher.getNumberOfRejectedCommands());
+      // Snapshots are taken on demand, not after every batch
+      assertTrue(dispatcher.getNumberOfSnapshots() <= dispatcher.getNumberOfBatches() + 1);
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a track that conflicts with another departure is rejected")
+  void testConflictingTrack() throws InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    try (CommandDispatcher dispatcher = new CommandDispatcher(trainDispatch, 8)) {
+      dispatcher.register(new Departure(NOON + 20, "F4", 1, "Ski", 3, 0));
+      dispatcher.register(new Departure(NOON + 20, "R10", 2, "Asker", 0, 0));
+      dispatcher.setTrack(2, 3);
+      long last = dispatcher.setTrack(2, 4);
+
+      DispatchSnapshot snapshot = dispatcher.awaitSnapshot(last, 5000);
+      assertNotNull(snapshot);
+      assertEquals(4, snapshot.findByNumber(2).getTrack());
+      assertEquals(1, dispatcher.getNumberOfRejectedCommands());
+    }
+  }
+
+  @Test
+  @DisplayName("Test that no command is lost when the dispatcher is closed under load")
+  void testCloseWhilePublishing() throws InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    CommandDispatcher dispatcher = new CommandDispatcher(trainDispatch, 16);
+    AtomicInteger accepted = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < 8; p++) {
+      int first = p * 1_000_000;
+      threads.add(Thread.ofPlatform().start(() -> {
+        try {
+          for (int i = 1; ; i++) {
+            dispatcher.register(new Departure(NOON + 1 + i % 600, "F4", first + i, "Ski", 0, 0));
+            accepted.incrementAndGet();
+          }
+        } catch (IllegalStateException e) {
+          // Closed
+        }
+      }));
+    }
+    Thread.sleep(50);
+    dispatcher.close();
+    for (Thread thread : threads) {
+      thread.join(10_000);
+      assertFalse(thread.isAlive(), "A producer is stuck on the closed ring");
+    }
+
+    assertEquals(accepted.get(), trainDispatch.getNumberOfDepartures());
+  }
+
+  @Test
+  @DisplayName("Test that the capacity must be a power of two")
+  void testCapacity() {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    assertThrows(IllegalArgumentException.class, () -> new CommandDispatcher(trainDispatch, 6));
+  }
+}
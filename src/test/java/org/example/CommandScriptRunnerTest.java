@@ -0,0 +1,145 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandScriptRunnerTest {
+
+  private TrainDispatch trainDispatch;
+  private StringWriter output;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    output = new StringWriter();
+  }
+
+  private CommandScriptRunner runScript(String script) throws IOException {
+    CommandScriptRunner runner = new CommandScriptRunner(trainDispatch,
+            new BufferedReader(new StringReader(script)), new PrintWriter(output));
+    runner.run();
+    return runner;
+  }
+
+  @Test
+  @DisplayName("Test that add registers a departure with a multi-word destination")
+  void testAddCommand() throws IOException {
+    runScript("add 12:30 F4 123 1 0 Oslo S\n");
+
+    Departure departure = trainDispatch.findDepartureByNumber(123);
+    assertNotNull(departure);
+    assertEquals("Oslo S", departure.getDestination());
+    assertEquals(LocalTime.of(12, 30), departure.getTime());
+  }
+
+  @Test
+  @DisplayName("Test set-track, set-delay and remove commands")
+  void testModifyCommands() throws IOException {
+    runScript("""
+            add 12:30 F4 123 0 0 Lillestrom
+            set-track 123 4
+            set-delay 123 7
+            """);
+    Departure departure = trainDispatch.findDepartureByNumber(123);
+    assertEquals(4, departure.getTrack());
+    assertEquals(7, departure.getDelay());
+
+    runScript("remove 123\n");
+    assertNull(trainDispatch.findDepartureByNumber(123));
+  }
+
+  @Test
+  @DisplayName("Test that connect holds the connecting departure when the feeder is late")
+  void testConnectCommand() throws IOException {
+    runScript("""
+            add 12:30 F4 123 0 0 Lillestrom
+            add 12:35 L1 456 0 0 Asker
+            connect 123 456 5
+            set-delay 123 10
+            """);
+    assertEquals(10, trainDispatch.findDepartureByNumber(456).getDelay());
+    assertTrue(output.toString().contains("1 connecting departures were given a new delay: 456"));
+
+    output.getBuffer().setLength(0);
+    runScript("set-delay 123 12\nset-delay 123 0\n");
+    assertEquals(0, trainDispatch.findDepartureByNumber(456).getDelay());
+    assertEquals(2, output.toString().split("were given a new delay: 456", -1).length - 1);
+  }
+
+  @Test
+  @DisplayName("Test that a refused change is reported instead of success")
+  void testRefusedChanges() throws IOException {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0)) {
+      @Override
+      public boolean setTrack(DepartureHandle handle, int track) {
+        return false;
+      }
+
+      @Override
+      public boolean setDelay(DepartureHandle handle, int delay) {
+        return false;
+      }
+    };
+    runScript("""
+            add 12:30 F4 123 0 0 Lillestrom
+            set-track 123 4
+            set-delay 123 7
+            """);
+    assertFalse(output.toString().contains("was set to"));
+    assertEquals(2, output.toString().split("is no longer on the board", -1).length - 1);
+  }
+
+  @Test
+  @DisplayName("Test that update-time moves the clock and expires departures")
+  void testUpdateTimeCommand() throws IOException {
+    runScript("""
+            add 12:30 F4 123 1 0 Lillestrom
+            update-time 13:00
+            """);
+
+    assertEquals(LocalTime.of(13, 0), trainDispatch.getTime());
+    assertTrue(trainDispatch.checkIfListIsEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that find and list write the departures")
+  void testFindAndListCommands() throws IOException {
+    runScript("""
+            add 12:30 F4 123 1 0 Lillestrom
+            find 123
+            find lillestrom
+            list
+            """);
+
+    String result = output.toString();
+    assertEquals(3, result.split("Lillestrom", -1).length - 1);
+    assertTrue(result.contains("Train Dispatch"));
+  }
+
+  @Test
+  @DisplayName("Test that invalid commands are reported and the script continues")
+  void testInvalidCommandsAreReported() throws IOException {
+    CommandScriptRunner runner = runScript("""
+            # comment lines and empty lines are skipped
+
+            fly 123
+            add 11:00 F4 123 1 0 Lillestrom
+            set-delay 999 1
+            add 12:30 F4 123 1 0 Lillestrom
+            """);
+
+    assertEquals(3, runner.getNumberOfErrors());
+    assertTrue(output.toString().contains("Line 3: Unknown command: fly"));
+    assertNotNull(trainDispatch.findDepartureByNumber(123));
+  }
+}
@@ -0,0 +1,141 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionGraphTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.of(12, 0));
+
+  private TrainDispatch trainDispatch;
+  private ConnectionGraph connections;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(NOON);
+    trainDispatch.registerDeparture(new Departure(NOON + 10, "R10", 1, "Drammen", 1, 0));
+    trainDispatch.registerDeparture(new Departure(NOON + 15, "L1", 2, "Asker", 2, 0));
+    trainDispatch.registerDeparture(new Departure(NOON + 20, "F4", 3, "Ski", 3, 2));
+    trainDispatch.registerDeparture(new Departure(NOON + 40, "R11", 4, "Skien", 4, 0));
+    connections = trainDispatch.enableConnections();
+  }
+
+  private void connect(int feeder, int connecting, int minTransfer,
+                       ConnectionGraph.WaitPolicy policy, int maxWait) {
+    connections.addConnection(new ConnectionGraph.Connection(feeder, connecting, minTransfer,
+            policy, maxWait));
+  }
+
+  private int delayOf(int trainNumber) {
+    return trainDispatch.findDepartureByNumber(trainNumber).getDelay();
+  }
+
+  @Test
+  @DisplayName("Test that a late feeder holds its connections back along a chain")
+  void testPropagatesDownstream() {
+    connect(1, 2, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    connect(2, 3, 3, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    connect(3, 4, 5, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+
+    trainDispatch.setDelay(1, 10);
+
+    assertEquals(10, delayOf(1));
+    // 12:20 + 4 minutes transfer, scheduled 12:15
+    assertEquals(9, delayOf(2));
+    // 12:24 + 3 minutes transfer, scheduled 12:20
+    assertEquals(7, delayOf(3));
+    // 12:27 + 5 minutes is before 12:40
+    assertEquals(0, delayOf(4));
+    assertEquals(2, connections.getNumberOfHeldDepartures());
+    assertEquals(2, connections.getOwnDelay(trainDispatch.findDepartureByNumber(3)));
+    assertTrue(connections.findBrokenConnections().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that held departures go back to their own delay when the feeder catches up")
+  void testReleasesWhenFeederRecovers() {
+    connect(1, 2, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    connect(1, 3, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    trainDispatch.setDelay(1, 20);
+    assertEquals(19, delayOf(2));
+    assertEquals(14, delayOf(3));
+
+    trainDispatch.setDelay(1, 0);
+    assertEquals(0, delayOf(2));
+    assertEquals(2, delayOf(3));
+
+    // The operator's own delay wins when it is larger than what the feeder needs
+    trainDispatch.setDelay(1, 5);
+    trainDispatch.setDelay(2, 12);
+    assertEquals(12, delayOf(2));
+    trainDispatch.setDelay(1, 0);
+    assertEquals(12, delayOf(2));
+  }
+
+  @Test
+  @DisplayName("Test the bounded and never wait policies")
+  void testWaitPolicies() {
+    connect(1, 2, 4, ConnectionGraph.WaitPolicy.BOUNDED, 5);
+    connect(1, 3, 4, ConnectionGraph.WaitPolicy.NEVER, 0);
+
+    trainDispatch.setDelay(1, 6);
+    assertEquals(5, delayOf(2));
+    assertEquals(2, delayOf(3));
+    assertTrue(connections.findBrokenConnections().isEmpty());
+
+    trainDispatch.setDelay(1, 15);
+    assertEquals(0, delayOf(2));
+    assertEquals(2, delayOf(3));
+    assertEquals(2, connections.findBrokenConnections().size());
+  }
+
+  @Test
+  @DisplayName("Test that a departure with two feeders waits for the latest one")
+  void testTwoFeeders() {
+    connect(1, 3, 2, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    connect(2, 3, 2, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    List<Integer> changes = new ArrayList<>();
+    trainDispatch.addDepartureListener(new DepartureListener() {
+      @Override
+      public void delayChanged(Departure departure, int oldDelay) {
+        changes.add(departure.getTrainNumber());
+      }
+    });
+
+    trainDispatch.setDelay(2, 10);
+    assertEquals(7, delayOf(3));
+    // Train 1 only needs 4 minutes, so train 2 still decides
+    trainDispatch.setDelay(1, 12);
+    assertEquals(7, delayOf(3));
+    trainDispatch.setDelay(1, 20);
+    assertEquals(12, delayOf(3));
+    // Each change notifies the listeners once per departure
+    assertEquals(List.of(2, 3, 1, 1, 3), changes);
+  }
+
+  @Test
+  @DisplayName("Test that invalid connections are rejected")
+  void testInvalidConnections() {
+    connect(1, 2, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    connect(2, 3, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    assertThrows(IllegalArgumentException.class,
+            () -> connect(3, 1, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0));
+    assertThrows(IllegalArgumentException.class,
+            () -> connect(1, 1, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0));
+    assertThrows(IllegalArgumentException.class,
+            () -> connect(1, 4, -1, ConnectionGraph.WaitPolicy.ALWAYS, 0));
+    assertEquals(2, connections.getNumberOfConnections());
+
+    assertTrue(connections.removeConnection(2, 3));
+    assertFalse(connections.removeConnection(2, 3));
+    connect(3, 1, 4, ConnectionGraph.WaitPolicy.ALWAYS, 0);
+    assertEquals(2, connections.getNumberOfConnections());
+  }
+}
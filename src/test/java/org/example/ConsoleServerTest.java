@@ -0,0 +1,214 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsoleServerTest {
+
+  private SharedTrainDispatch trainDispatch;
+  private ConsoleServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    trainDispatch = new SharedTrainDispatch(ServiceTime.of(LocalTime.NOON),
+            new ListDepartureStore());
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(17, 45), "F4", 123,
+            "Lillestrom", 1, 0));
+    server = new ConsoleServer(trainDispatch, 0);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Runs a session with the lines as input, and returns everything the server wrote.
+   */
+
+  private String runSession(String input) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(input.getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      InputStream in = socket.getInputStream();
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Reads from a session until the text has been written, and returns what was read.
+   */
+
+  private static String readUntil(InputStream in, String text) throws IOException {
+    StringBuilder read = new StringBuilder();
+    while (read.indexOf(text) < 0) {
+      int b = in.read();
+      if (b < 0) {
+        fail("The session ended before it wrote: " + text);
+      }
+      read.append((char) b);
+    }
+    return read.toString();
+  }
+
+  private static void awaitSessions(ConsoleServer server, int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 10_000;
+    while (server.getNumberOfSessions() != count && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, server.getNumberOfSessions());
+  }
+
+  @Test
+  @DisplayName("Test that a session runs the menu on the shared dispatch")
+  void testSession() throws IOException {
+    String output = runSession("7\n123\n5\n1\n9\n");
+
+    assertEquals(5, trainDispatch.findDepartureByNumber(123).getDelay());
+    assertTrue(output.contains("Delay for departure with train number 123 was set to 5"));
+    assertTrue(output.contains("Lillestrom"));
+    assertTrue(output.contains("Thank you for using the Train Dispatch!"));
+  }
+
+  @Test
+  @DisplayName("Test that prompts reach the operator before they answer")
+  void testPromptIsFlushed() throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      // A prompt held back by the server makes the read time out
+      socket.setSoTimeout(10_000);
+      InputStream in = socket.getInputStream();
+      OutputStream out = socket.getOutputStream();
+      readUntil(in, "Enter your choice (1-9): ");
+      out.write("x\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      readUntil(in, "Please enter a valid number: ");
+      out.write("9\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      readUntil(in, "Thank you for using the Train Dispatch!");
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a session cannot move the clock back past another session")
+  void testTimeMovedInTheMeantime() throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      socket.setSoTimeout(10_000);
+      InputStream in = socket.getInputStream();
+      OutputStream out = socket.getOutputStream();
+      readUntil(in, "Enter your choice (1-9): ");
+      out.write("8\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      readUntil(in, "Time?");
+      // Another operator moves the clock while this one is asked
+      trainDispatch.setTime(ServiceTime.of(LocalTime.of(14, 0)));
+      out.write("13:00\n9\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      assertTrue(readUntil(in, "Thank you").contains("Time was not updated"));
+    }
+    assertEquals(ServiceTime.of(LocalTime.of(14, 0)), trainDispatch.getCurrentMinute());
+  }
+
+  @Test
+  @DisplayName("Test that sessions running at the same time all change the same board")
+  void testConcurrentSessions() throws InterruptedException {
+    List<Thread> clients = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int i = 1; i <= 20; i++) {
+      String input = "2\n18:00\nR10\n" + (1000 + i) + "\nDrammen\n0\n0\n9\n";
+      clients.add(Thread.ofPlatform().start(() -> {
+        try {
+          runSession(input);
+        } catch (IOException e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+
+    assertTrue(failures.isEmpty());
+    assertEquals(21, trainDispatch.getNumberOfDepartures());
+    assertEquals(20, trainDispatch.findDeparturesByDestination("Drammen").size());
+  }
+
+  @Test
+  @DisplayName("Test that many idle sessions are kept open and end when the server closes")
+  void testIdleSessions() throws IOException, InterruptedException {
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      for (int i = 0; i < 500; i++) {
+        sockets.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+      }
+      awaitSessions(server, 500);
+
+      sockets.get(0).close();
+      awaitSessions(server, 499);
+
+      server.close();
+      awaitSessions(server, 0);
+      assertEquals(500, server.getNumberOfSessionsStarted());
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a departure removed by another operator is reported")
+  void testRemovedInTheMeantime() {
+    assertTrue(trainDispatch.setDelay(123, 2));
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(123));
+    assertFalse(trainDispatch.setDelay(123, 3));
+    assertFalse(trainDispatch.setTrack(123, 3));
+    Departure departure = new Departure(LocalTime.of(18, 0), "R10", 456, "Drammen", 0, 0);
+    assertTrue(trainDispatch.registerDepartureIfAbsent(departure));
+    assertFalse(trainDispatch.registerDepartureIfAbsent(departure));
+  }
+
+  @Test
+  @DisplayName("Test that the shared dispatch hands out a copy of its delay statistics")
+  void testStatisticsAreCopied() {
+    DelayStatistics statistics = trainDispatch.getDelayStatistics();
+    assertEquals(1, statistics.getTotal().getCount());
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(18, 0), "R10", 456, "Drammen",
+            0, 4));
+    assertEquals(1, statistics.getTotal().getCount());
+    assertEquals(2, trainDispatch.getDelayStatistics().getTotal().getCount());
+  }
+
+  @Test
+  @DisplayName("Test that a handle of the shared dispatch shows a copy of its departure")
+  void testHandleShowsCopy() {
+    DepartureHandle handle = trainDispatch.lookup(123);
+    trainDispatch.setDelay(123, 9);
+    assertEquals(0, handle.getDeparture().getDelay());
+    // The handle is refused, since the departure changed after it was found
+    assertFalse(trainDispatch.setTrack(handle, 2));
+
+    handle = trainDispatch.lookup(123);
+    assertTrue(trainDispatch.setTrack(handle, 2));
+    assertEquals(2, handle.getDeparture().getTrack());
+    trainDispatch.setTrack(123, 3);
+    assertEquals(2, handle.getDeparture().getTrack());
+    assertEquals(3, trainDispatch.findDepartureByNumber(123).getTrack());
+  }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DelayStatisticsTest {
+
+  private TrainDispatch trainDispatch;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 20), "F4", 2, "Lillestrom", 2, 4));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(13, 5), "R10", 3, "Drammen", 3, 10));
+  }
+
+  @Test
+  @DisplayName("Test aggregates per line, destination and hour")
+  void testAggregates() {
+    DelayStatistics statistics = trainDispatch.getDelayStatistics();
+
+    assertEquals(2, statistics.getByLine("F4").getCount());
+    assertEquals(2.0, statistics.getByLine("F4").getMean());
+    assertEquals(10, statistics.getByDestination(" drammen").getMax());
+    assertEquals(2, statistics.getByHour(12).getCount());
+    assertEquals(3, statistics.getTotal().getCount());
+    assertEquals(0, statistics.getByLine("L1").getCount());
+  }
+
+  @Test
+  @DisplayName("Test that a delay change replaces the old delay")
+  void testDelayChange() {
+    trainDispatch.setDelay(3, 2);
+
+    DelayAggregate total = trainDispatch.getDelayStatistics().getTotal();
+    assertEquals(3, total.getCount());
+    assertEquals(4, total.getMax());
+    assertEquals(2.0, total.getMean());
+  }
+
+  @Test
+  @DisplayName("Test that departures that leave are kept and removed ones are not")
+  void testExpiryKeepsAndRemovalDrops() {
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(3));
+    trainDispatch.setTime(LocalTime.of(14, 0));
+    assertTrue(trainDispatch.checkIfListIsEmpty());
+
+    DelayStatistics statistics = trainDispatch.getDelayStatistics();
+    assertEquals(2, statistics.getTotal().getCount());
+    assertEquals(0, statistics.getByLine("R10").getCount());
+  }
+
+  @Test
+  @DisplayName("Test percentiles and punctuality")
+  void testPercentiles() {
+    DelayAggregate aggregate = new DelayAggregate();
+    for (int delay = 1; delay <= 100; delay++) {
+      aggregate.add(delay);
+    }
+
+    assertEquals(50, aggregate.getPercentile(0.5));
+    assertEquals(0.05, aggregate.getPunctuality(5));
+    // Delays above 64 minutes are approximate, within about 3 percent
+    assertEquals(99, aggregate.getPercentile(0.99), 3);
+    assertEquals(100, aggregate.getMax(), 3);
+  }
+
+  @Test
+  @DisplayName("Test merging the statistics of two stations")
+  void testMerge() {
+    TrainDispatch otherStation = new TrainDispatch(LocalTime.of(12, 0));
+    otherStation.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 9, "Lillestrom", 1, 20));
+    DelayStatistics merged = new DelayStatistics();
+    merged.merge(trainDispatch.getDelayStatistics());
+    merged.merge(otherStation.getDelayStatistics());
+
+    assertEquals(3, merged.getByLine("F4").getCount());
+    assertEquals(20, merged.getByDestination("Lillestrom").getMax());
+    assertEquals(4, merged.getTotal().getCount());
+  }
+}
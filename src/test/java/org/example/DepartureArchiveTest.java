@@ -0,0 +1,103 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepartureArchiveTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  @DisplayName("Test that departures that leave are archived and removed ones are not")
+  void testArchiveExpired() throws IOException {
+    DepartureArchive archive = new DepartureArchive(directory, 2);
+    TrainDispatch trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.addDepartureListener(archive);
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 3));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 20), "R10", 2, "Drammen", 0, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 3, "Oslo S", 2, 7));
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(2));
+    trainDispatch.setTime(LocalTime.of(13, 0));
+    assertTrue(trainDispatch.checkIfListIsEmpty());
+
+    assertEquals(1, archive.getNumberOfSegments());
+    List<Departure> archived = new ArrayList<>();
+    archive.query(0, Integer.MAX_VALUE, null, null, archived::add);
+    assertEquals(2, archived.size());
+    assertTrue(archived.contains(new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 3)));
+    assertEquals(5.0, archive.aggregateDelays(0, Integer.MAX_VALUE, "F4", null).getMean());
+  }
+
+  @Test
+  @DisplayName("Test that segments are read back after the archive is opened again")
+  void testReopen() throws IOException {
+    try (DepartureArchive archive = new DepartureArchive(directory, 100)) {
+      for (int i = 0; i < 250; i++) {
+        archive.departureExpired(new Departure(i * 10, (i % 2 == 0) ? "F4" : "R10", i + 1,
+                (i < 125) ? "Drammen" : "Asker", i % 5, i % 11));
+      }
+    }
+
+    DepartureArchive reopened = new DepartureArchive(directory, 100);
+    assertEquals(3, reopened.getNumberOfSegments());
+    List<Departure> found = new ArrayList<>();
+    reopened.query(0, Integer.MAX_VALUE, null, null, found::add);
+    assertEquals(250, found.size());
+    assertEquals(new Departure(2490, "R10", 250, "Asker", 4, 7), found.get(249));
+    assertEquals(7, found.get(249).getDelay());
+  }
+
+  @Test
+  @DisplayName("Test that segments outside the time window or destination range are skipped")
+  void testSegmentSkipping() throws IOException {
+    try (DepartureArchive archive = new DepartureArchive(directory, 100)) {
+      for (int i = 0; i < 300; i++) {
+        String destination = (i < 100) ? "Asker" : (i < 200) ? "Drammen" : "Ski";
+        archive.departureExpired(new Departure(i, "F4", i + 1, destination, 1, 0));
+      }
+    }
+    DepartureArchive archive = new DepartureArchive(directory, 100);
+    List<Departure> found = new ArrayList<>();
+
+    assertEquals(1, archive.query(150, 160, null, null, found::add));
+    assertEquals(10, found.size());
+    found.clear();
+    assertEquals(1, archive.query(0, 300, "F4", " ski", found::add));
+    assertEquals(100, found.size());
+    assertEquals(0, archive.query(0, 300, "R10", null, found::add));
+  }
+
+  @Test
+  @DisplayName("Test that a failed write when a departure leaves is thrown by the next flush")
+  void testFailedWriteSurfacesOnFlush() throws IOException {
+    Path segments = directory.resolve("segments");
+    DepartureArchive archive = new DepartureArchive(segments, 2);
+    Files.delete(segments);
+    Files.writeString(segments, "not a directory");
+
+    archive.departureExpired(new Departure(10, "F4", 1, "Asker", 1, 0));
+    archive.departureExpired(new Departure(20, "F4", 2, "asker ", 1, 4));
+    archive.departureExpired(new Departure(30, "R10", 3, "Ski", 1, 0));
+    assertEquals(0, archive.getNumberOfSegments());
+    assertThrows(IOException.class, archive::flush);
+
+    Files.delete(segments);
+    Files.createDirectories(segments);
+    archive.close();
+    assertEquals(1, archive.getNumberOfSegments());
+    List<Departure> found = new ArrayList<>();
+    archive.query(0, 100, "F4", "ASKER", found::add);
+    assertEquals(2, found.size());
+  }
+}
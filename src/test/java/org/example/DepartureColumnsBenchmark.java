@@ -0,0 +1,68 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares a filter over the departure objects with the scalar and vectorized column scans.
+ * Run it with <code>--add-modules jdk.incubator.vector</code> and optionally the number of
+ * rows as the first argument (one million by default).
+ */
+public class DepartureColumnsBenchmark {
+
+  private static final int ROUNDS = 20;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args The number of rows.
+   */
+  public static void main(String[] args) {
+    int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    Random random = new Random(1);
+    List<Departure> departures = new ArrayList<>(rows);
+    DepartureColumns scalar = new DepartureColumns(new ScalarColumnScanner());
+    DepartureColumns vector = new DepartureColumns();
+    for (int i = 0; i < rows; i++) {
+      Departure departure = new Departure(random.nextInt(7 * ServiceTime.MINUTES_PER_DAY), "F4",
+              i + 1, "Drammen", random.nextInt(12), random.nextInt(60));
+      departures.add(departure);
+      scalar.departureRegistered(departure);
+      vector.departureRegistered(departure);
+    }
+    int from = ServiceTime.MINUTES_PER_DAY;
+    int to = 4 * ServiceTime.MINUTES_PER_DAY;
+
+    System.out.println(rows + " rows, delay > 10 within three days");
+    report("objects", () -> {
+      int count = 0;
+      for (Departure departure : departures) {
+        int minute = departure.getEffectiveMinute();
+        if (minute >= from && minute <= to && departure.getDelay() > 10) {
+          count++;
+        }
+      }
+      return count;
+    });
+    report(scalar.getScannerName(), () -> scalar.count(from, to, 11, Integer.MAX_VALUE, 0));
+    report(vector.getScannerName(), () -> vector.count(from, to, 11, Integer.MAX_VALUE, 0));
+  }
+
+  /**
+   * Runs a count a number of times after a warm-up, and prints the best time.
+   */
+  private static void report(String name, java.util.function.IntSupplier count) {
+    int result = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      result = count.getAsInt();
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      result = count.getAsInt();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-20s %8d matches %10.3f ms%n", name, result, best / 1e6);
+  }
+}
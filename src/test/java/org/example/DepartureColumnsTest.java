@@ -0,0 +1,129 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepartureColumnsTest {
+
+  /**
+   * Fills columns with random departures, and returns the departures.
+   */
+  private static List<Departure> fill(DepartureColumns columns, int count) {
+    Random random = new Random(42);
+    List<Departure> departures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Departure departure = new Departure(random.nextInt(2000), "F4", i + 1, "Drammen",
+              random.nextInt(6), random.nextInt(30));
+      departures.add(departure);
+      columns.departureRegistered(departure);
+    }
+    return departures;
+  }
+
+  @Test
+  @DisplayName("Test that the vector scanner is used when the module is available")
+  void testScannerChoice() {
+    assertTrue(new DepartureColumns().getScannerName().startsWith("vector"));
+    assertEquals("scalar", new DepartureColumns(new ScalarColumnScanner()).getScannerName());
+  }
+
+  @Test
+  @DisplayName("Test that the vector and scalar scanners find the same departures")
+  void testScannersAgree() {
+    DepartureColumns vector = new DepartureColumns(ColumnScanner.create());
+    DepartureColumns scalar = new DepartureColumns(new ScalarColumnScanner());
+    List<Departure> departures = fill(vector, 10_003);
+    fill(scalar, 10_003);
+
+    long expected = departures.stream().filter(departure -> departure.getEffectiveMinute() >= 500
+            && departure.getEffectiveMinute() <= 1500 && departure.getDelay() >= 10
+            && departure.getTrack() == 3).count();
+    assertEquals(expected, vector.count(500, 1500, 10, Integer.MAX_VALUE, 3));
+    assertEquals(expected, scalar.count(500, 1500, 10, Integer.MAX_VALUE, 3));
+
+    List<Departure> fromVector = new ArrayList<>();
+    vector.select(500, 1500, 10, 20, 0, fromVector::add);
+    List<Departure> fromScalar = new ArrayList<>();
+    scalar.select(500, 1500, 10, 20, 0, fromScalar::add);
+    assertEquals(fromScalar, fromVector);
+    assertTrue(fromVector.stream().allMatch(departure -> departure.getDelay() <= 20));
+  }
+
+  @Test
+  @DisplayName("Test that the columns follow removals and changes in a dispatch")
+  void testSync() {
+    TrainDispatch trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 10), "F4", 1, "Ski", 0, 0));
+    DepartureColumns columns = trainDispatch.enableColumns();
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 20), "F4", 2, "Ski", 0, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 3, "Ski", 0, 0));
+    trainDispatch.setDelay(1, 15);
+    trainDispatch.setTrack(3, 4);
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(2));
+
+    assertEquals(2, columns.size());
+    assertEquals(1, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 10, 20, 0));
+    assertEquals(1, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 4));
+    assertEquals(1, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 100, -1));
+
+    trainDispatch.setTime(LocalTime.of(12, 26));
+    assertEquals(1, trainDispatch.query().count());
+    assertEquals(1, columns.size());
+  }
+
+  @Test
+  @DisplayName("Test that departures with the same train number and time keep their own rows")
+  void testSameKey() {
+    DepartureColumns columns = new DepartureColumns();
+    Departure first = new Departure(LocalTime.of(12, 40), "F4", 5, "Ski", 1, 0);
+    Departure other = new Departure(LocalTime.of(12, 50), "F4", 6, "Ski", 3, 0);
+    Departure second = new Departure(LocalTime.of(12, 40), "F4", 5, "Ski", 2, 0);
+    columns.departureRegistered(first);
+    columns.departureRegistered(other);
+    columns.departureRegistered(second);
+    assertEquals(3, columns.size());
+
+    columns.departureRemoved(first);
+    assertEquals(2, columns.size());
+    assertEquals(0, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 1));
+    assertEquals(1, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 2));
+    columns.departureRemoved(second);
+    columns.departureRemoved(second);
+    assertEquals(1, columns.size());
+    assertEquals(1, columns.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 3));
+
+    TrainDispatch trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.enableColumns();
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 40), "F4", 5, "Ski", 1, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 40), "F4", 5, "Ski", 1, 0));
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(5));
+    assertEquals(1, trainDispatch.getColumns().size());
+    assertEquals(1, trainDispatch.query().count());
+  }
+
+  @Test
+  @DisplayName("Test that queries without a selective index use the columns")
+  void testQueryPlan() {
+    TrainDispatch trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.of(0, 0)));
+    for (int i = 0; i < 100; i++) {
+      trainDispatch.registerDeparture(new Departure(60 + i, "F4", i + 1, "Ski", 1 + i % 3, i % 5));
+    }
+    assertTrue(trainDispatch.query().delayBetween(0, 2).explain().startsWith("SCAN"));
+    int withoutColumns = trainDispatch.query().delayBetween(0, 2).count();
+
+    trainDispatch.enableColumns();
+    assertTrue(trainDispatch.query().delayBetween(0, 2).explain().startsWith("COLUMNS"));
+    assertEquals(withoutColumns, trainDispatch.query().delayBetween(0, 2).count());
+    assertEquals(60, withoutColumns);
+    assertEquals(List.of(2, 17, 32), trainDispatch.query().delayBetween(1, 1).track(2).limit(3)
+            .list().stream().map(Departure::getTrainNumber).toList());
+    assertTrue(trainDispatch.query().between(60, 65).limit(3).explain().startsWith("TIME"));
+  }
+}
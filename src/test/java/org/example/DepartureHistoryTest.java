@@ -0,0 +1,136 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepartureHistoryTest {
+
+  private TrainDispatch trainDispatch;
+  private DepartureHistory history;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 0));
+    history = trainDispatch.enableHistory(60);
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "R10", 2, "Drammen", 2, 0));
+  }
+
+  @AfterEach
+  void tearDown() {
+    history.close();
+  }
+
+  @Test
+  @DisplayName("Test that the board is shown as it was at an earlier time")
+  void testBoardAsOf() {
+    trainDispatch.setTime(LocalTime.of(12, 5));
+    trainDispatch.setDelay(2, 10);
+    trainDispatch.setTime(LocalTime.of(12, 20));
+    trainDispatch.setTrack(2, 4);
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(2));
+
+    List<Departure> atNoon = trainDispatch.boardAsOf(ServiceTime.of(LocalTime.of(12, 0)));
+    assertEquals(2, atNoon.size());
+    assertEquals(0, atNoon.get(1).getDelay());
+
+    List<Departure> at1205 = trainDispatch.boardAsOf(ServiceTime.of(LocalTime.of(12, 5)));
+    assertEquals(10, at1205.get(1).getDelay());
+    assertEquals(2, at1205.get(1).getTrack());
+
+    // Train 1 has left by 12:15, even though it was only removed when the board was read
+    List<Departure> at1215 = trainDispatch.boardAsOf(ServiceTime.of(LocalTime.of(12, 15)));
+    assertEquals(1, at1215.size());
+    assertEquals(2, at1215.get(0).getTrainNumber());
+    assertTrue(trainDispatch.boardAsOf(ServiceTime.of(LocalTime.of(12, 20))).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that the board is shown as it was after a version")
+  void testBoardAsOfVersion() {
+    long before = history.getVersion();
+    trainDispatch.setDelay(1, 5);
+
+    assertEquals(0, history.boardAsOfVersion(before).get(0).getDelay());
+    assertEquals(5, history.boardAsOfVersion(history.getVersion()).get(0).getDelay());
+    assertEquals(1, history.boardAsOfVersion(1).size());
+  }
+
+  @Test
+  @DisplayName("Test that versions older than the retention are dropped")
+  void testCollectGarbage() {
+    trainDispatch.setDelay(2, 1);
+    trainDispatch.setDelay(2, 2);
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(1));
+    assertEquals(5, history.getNumberOfVersions());
+
+    assertEquals(0, history.collectGarbage());
+    trainDispatch.setTime(LocalTime.of(13, 0));
+
+    // Train 1 is dropped, and train 2 keeps only its state at 12:00
+    assertEquals(4, history.collectGarbage());
+    assertEquals(1, history.getNumberOfVersions());
+    assertEquals(2, history.boardAsOf(ServiceTime.of(LocalTime.of(12, 0))).get(0).getDelay());
+  }
+
+  @Test
+  @DisplayName("Test that a departure with very many versions is collected without recursion")
+  void testCollectManyVersions() {
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(14, 0), "L1", 3, "Ski", 3, 0));
+    trainDispatch.setDelay(3, 1);
+    trainDispatch.setTime(LocalTime.of(13, 5));
+    for (int i = 0; i < 100_000; i++) {
+      trainDispatch.setDelay(3, i % 2 + 2);
+    }
+
+    assertDoesNotThrow(() -> history.collectGarbage());
+    assertEquals(3, history.boardAsOf(ServiceTime.of(LocalTime.of(13, 5))).get(0).getDelay());
+    assertEquals(1, history.boardAsOf(ServiceTime.of(LocalTime.of(12, 5))).stream()
+            .filter(departure -> departure.getTrainNumber() == 3).findFirst()
+            .orElseThrow().getDelay());
+  }
+
+  @Test
+  @DisplayName("Test that the board cannot be read back without a history")
+  void testHistoryNotEnabled() {
+    TrainDispatch withoutHistory = new TrainDispatch(LocalTime.of(12, 0));
+
+    assertNull(withoutHistory.getHistory());
+    assertThrows(IllegalStateException.class, () -> withoutHistory.boardAsOf(0));
+  }
+
+  @Test
+  @DisplayName("Test that collecting garbage while a shared dispatch changes does not deadlock")
+  void testCollectWhileSharedDispatchChanges() throws InterruptedException {
+    SharedTrainDispatch shared = new SharedTrainDispatch(ServiceTime.of(LocalTime.of(12, 0)),
+            new ListDepartureStore());
+    shared.registerDeparture(new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 0));
+    try (DepartureHistory sharedHistory = shared.enableHistory(0)) {
+      Thread writer = Thread.ofPlatform().start(() -> {
+        for (int i = 0; i < 20_000; i++) {
+          shared.setDelay(1, i % 10);
+        }
+      });
+      Thread collector = Thread.ofPlatform().start(() -> {
+        for (int i = 0; i < 20_000; i++) {
+          sharedHistory.collectGarbage();
+        }
+      });
+      writer.join(TimeUnit.SECONDS.toMillis(20));
+      collector.join(TimeUnit.SECONDS.toMillis(20));
+      assertFalse(writer.isAlive());
+      assertFalse(collector.isAlive());
+    }
+    // The departures handed out are copies of those in the store
+    shared.findDepartureByNumber(1).setDelay(99);
+    assertNotEquals(99, shared.findDepartureByNumber(1).getDelay());
+  }
+}
@@ -0,0 +1,103 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepartureQueryTest {
+
+  private TrainDispatch trainDispatch;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.of(12, 0)),
+            new IndexedDepartureStore());
+    for (int i = 0; i < 40; i++) {
+      String destination = (i % 4 == 0) ? "Drammen" : "Lillestrom";
+      trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 5).plusMinutes(i * 5),
+              (i % 2 == 0) ? "F4" : "R10", i + 1, destination, 0, i % 3));
+    }
+    trainDispatch.setTrack(7, 2);
+    trainDispatch.setTrack(8, 2);
+  }
+
+  private static List<Integer> numbers(List<Departure> departures) {
+    List<Integer> numbers = new ArrayList<>();
+    departures.forEach(departure -> numbers.add(departure.getTrainNumber()));
+    return numbers;
+  }
+
+  @Test
+  @DisplayName("Test that all conditions are combined")
+  void testCombinedConditions() {
+    List<Departure> found = trainDispatch.query()
+            .line("f4")
+            .destination(" drammen")
+            .between(LocalTime.of(12, 30), LocalTime.of(14, 0))
+            .delayBetween(1, 2)
+            .list();
+
+    // Drammen departures are 1, 5, 9, ... and all on line F4
+    assertEquals(List.of(9, 17, 21), numbers(found));
+    assertTrue(found.stream().allMatch(departure -> departure.getDelay() > 0));
+  }
+
+  @Test
+  @DisplayName("Test that the most selective index is read")
+  void testPlan() {
+    assertTrue(trainDispatch.query().track(2).destination("Lillestrom").explain()
+            .startsWith("TRACK (2 candidates)"));
+    assertTrue(trainDispatch.query().trainNumbers(3, 4).line("F4").explain()
+            .startsWith("NUMBERS (2 candidates)"));
+    assertTrue(trainDispatch.query().destination("Drammen").explain()
+            .startsWith("DESTINATION (10 candidates)"));
+    assertTrue(trainDispatch.query().line("F4").explain().startsWith("SCAN (40 candidates)"));
+    assertTrue(trainDispatch.query().between(LocalTime.of(12, 0), LocalTime.of(12, 20))
+            .limit(2).explain().endsWith("stops at the limit"));
+
+    assertEquals(List.of(7, 8), numbers(trainDispatch.query().track(2).list()));
+    assertEquals(List.of(3), numbers(trainDispatch.query().trainNumbers(3, 4).line("F4").list()));
+  }
+
+  @Test
+  @DisplayName("Test that sorting and limits give the same result from every index")
+  void testSortAndLimit() {
+    List<Departure> byDelay = trainDispatch.query().delayBetween(2, 2)
+            .sortBy(DepartureQuery.SortKey.DELAY).limit(3).list();
+    assertEquals(List.of(3, 6, 9), numbers(byDelay));
+
+    List<Departure> byNumber = trainDispatch.query().destination("Lillestrom")
+            .sortBy(DepartureQuery.SortKey.TRAIN_NUMBER).limit(3).list();
+    assertEquals(List.of(2, 3, 4), numbers(byNumber));
+
+    List<Departure> byTime = trainDispatch.query().line("R10").limit(2).list();
+    assertEquals(List.of(2, 4), numbers(byTime));
+    assertTrue(trainDispatch.query().limit(0).list().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that departures that have left are not found")
+  void testExpired() {
+    trainDispatch.setTime(LocalTime.of(13, 0));
+
+    List<Departure> found = trainDispatch.query().destination("Drammen").limit(1).list();
+    assertEquals(List.of(13), numbers(found));
+  }
+
+  @Test
+  @DisplayName("Test that invalid conditions are rejected")
+  void testInvalidConditions() {
+    DepartureQuery query = trainDispatch.query();
+
+    assertThrows(IllegalArgumentException.class, () -> query.between(10, 5));
+    assertThrows(IllegalArgumentException.class, () -> query.delayBetween(5, 1));
+    assertThrows(IllegalArgumentException.class, () -> query.track(0));
+    assertThrows(IllegalArgumentException.class, () -> query.limit(-1));
+  }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepartureSpoolTest {
+
+  private static final LocalDate DAY = LocalDate.of(2024, 2, 8);
+
+  @TempDir
+  Path directory;
+
+  private static int at(int dayOffset, int hour) {
+    return ServiceTime.of(DAY.plusDays(dayOffset), LocalTime.of(hour, 0));
+  }
+
+  @Test
+  @DisplayName("Test that only the residency window is in memory, and the rest is paged in")
+  void testWindowMovesWithTime() throws IOException {
+    TrainDispatch trainDispatch = new TrainDispatch(at(0, 6));
+    DepartureSpool spool = trainDispatch.enableSpool(directory, 3 * 60);
+    // A departure every ten minutes for five days
+    int number = 1;
+    for (int minute = at(0, 6); minute < at(5, 6); minute += 10) {
+      trainDispatch.registerDeparture(new Departure(minute, "F4", number++, "Lillestrom", 0, 0));
+    }
+    spool.flush();
+
+    assertEquals(18, trainDispatch.getNumberOfDepartures());
+    assertEquals(number - 1 - 18, spool.getNumberOfDepartures());
+    assertTrue(spool.getNumberOfBucketFiles() > 100);
+    assertTrue(trainDispatch.findDuplicateTrainNumber(number - 1));
+    assertNull(trainDispatch.findDepartureByNumber(number - 1));
+
+    List<Integer> registered = new ArrayList<>();
+    trainDispatch.addDepartureListener(new DepartureListener() {
+      @Override
+      public void departureRegistered(Departure departure) {
+        registered.add(departure.getDepartureMinute());
+      }
+    });
+    for (int hour = 7; hour < 24; hour++) {
+      trainDispatch.setTime(at(0, hour));
+      // The window and at most the rest of the bucket at its end
+      assertTrue(trainDispatch.sortedList().size() <= 18 + 6);
+    }
+    assertEquals(registered.stream().sorted().toList(), registered);
+
+    trainDispatch.setTime(at(5, 6));
+    assertEquals(0, spool.getNumberOfDepartures());
+    assertEquals(0, spool.getNumberOfBucketFiles());
+    assertFalse(trainDispatch.findDuplicateTrainNumber(number - 1));
+  }
+
+  @Test
+  @DisplayName("Test that a delay set on a spooled departure is applied when it is paged in")
+  void testOverridesOfSpooledDeparture() throws IOException {
+    TrainDispatch trainDispatch = new TrainDispatch(at(0, 6));
+    trainDispatch.enableSpool(directory, 60);
+    trainDispatch.registerDeparture(new Departure(at(1, 8), "R10", 42, "Drammen", 0, 0));
+    assertFalse(trainDispatch.registerDepartureIfAbsent(
+            new Departure(at(0, 6), "R10", 42, "Drammen", 0, 0)));
+
+    trainDispatch.setDelay(42, DAY.plusDays(1), 7);
+    trainDispatch.setTrack(42, DAY.plusDays(1), 3);
+    trainDispatch.setTime(at(1, 8));
+
+    Departure departure = trainDispatch.findDepartureByNumber(42);
+    assertEquals(7, departure.getDelay());
+    assertEquals(3, departure.getTrack());
+  }
+
+  @Test
+  @DisplayName("Test that a spool opened again continues with its buckets")
+  void testReopen() throws IOException {
+    try (DepartureSpool spool = new DepartureSpool(directory, 2)) {
+      spool.add(new Departure(at(1, 9), "L1", 5, "Spikkestad", 0, 4));
+      spool.add(new Departure(at(1, 8), "L1", 6, "Spikkestad", 2, 0));
+      spool.add(new Departure(at(2, 8), "L1", 7, "Spikkestad", 1, 0));
+    }
+
+    DepartureSpool spool = new DepartureSpool(directory);
+    assertEquals(3, spool.getNumberOfDepartures());
+    assertTrue(spool.containsTrainNumber(7));
+    List<Departure> pagedIn = new ArrayList<>();
+    assertEquals(2, spool.pageIn(at(1, 10), pagedIn::add));
+
+    assertEquals(List.of(new Departure(at(1, 8), "L1", 6, "Spikkestad", 2, 0),
+            new Departure(at(1, 9), "L1", 5, "Spikkestad", 0, 4)), pagedIn);
+    assertEquals(-1, pagedIn.get(1).getTrack());
+    assertEquals(4, pagedIn.get(1).getDelay());
+    assertEquals(1, spool.getNumberOfBucketFiles());
+  }
+
+  @Test
+  @DisplayName("Test that a bucket cut off in the middle of a departure is cut back when opened")
+  void testPartialBucket() throws IOException {
+    try (DepartureSpool spool = new DepartureSpool(directory)) {
+      spool.add(new Departure(at(1, 8), "L1", 5, "Spikkestad", 0, 0));
+      spool.add(new Departure(at(1, 9), "L1", 6, "Spikkestad", 0, 0));
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      Path bucket = files.findFirst().orElseThrow();
+      // The time and train number of a departure that was never finished
+      Files.write(bucket, new byte[] {0, 0, 0, 1, 0, 0}, StandardOpenOption.APPEND);
+    }
+
+    try (DepartureSpool spool = new DepartureSpool(directory)) {
+      assertEquals(2, spool.getNumberOfDepartures());
+      spool.add(new Departure(at(1, 10), "L1", 7, "Spikkestad", 0, 0));
+    }
+    DepartureSpool spool = new DepartureSpool(directory);
+    List<Departure> pagedIn = new ArrayList<>();
+    assertEquals(3, spool.pageIn(at(2, 0), pagedIn::add));
+    assertEquals(7, pagedIn.get(2).getTrainNumber());
+  }
+
+  @Test
+  @DisplayName("Test that closing the dispatch writes the departures the spool holds in memory")
+  void testCloseDispatch() throws IOException {
+    TrainDispatch trainDispatch = new TrainDispatch(at(0, 6));
+    trainDispatch.enableSpool(directory, 60);
+    trainDispatch.registerDeparture(new Departure(at(1, 8), "R10", 42, "Drammen", 0, 0));
+    assertEquals(0, trainDispatch.getSpool().getNumberOfBucketFiles());
+    trainDispatch.close();
+
+    assertEquals(1, new DepartureSpool(directory).getNumberOfDepartures());
+  }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Compares ordered scans and lookups of the departure store engines, including the copy the
+ * off-heap store makes of every row it passes on. Run it with optionally the number of rows as
+ * the first argument (one million by default).
+ */
+public class DepartureStoreBenchmark {
+
+  private static final int ROUNDS = 20;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args The number of rows.
+   */
+  public static void main(String[] args) {
+    int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    int from = ServiceTime.MINUTES_PER_DAY;
+    int to = from + 60;
+
+    System.out.println(rows + " rows, full scans, one hour of a week and 100 lookups");
+    for (String engine : new String[] {"list", "indexed", "off-heap"}) {
+      DepartureStore store = DepartureStore.create(engine);
+      Random random = new Random(1);
+      for (int i = 0; i < rows; i++) {
+        store.add(new Departure(random.nextInt(7 * ServiceTime.MINUTES_PER_DAY), "F4", i + 1,
+                "Drammen", random.nextInt(12), random.nextInt(60)));
+      }
+      report(engine + " forEach", () -> {
+        int[] delays = new int[1];
+        store.forEach(departure -> delays[0] += departure.getDelay());
+        return delays[0];
+      });
+      report(engine + " sortedList", () -> store.sortedList().size());
+      report(engine + " forEachBetween", () -> {
+        int[] count = new int[1];
+        store.forEachBetween(from, to, departure -> count[0]++);
+        return count[0];
+      });
+      report(engine + " findByNumber", () -> {
+        int found = 0;
+        for (int i = 1; i <= 100; i++) {
+          found += store.findByNumber(i * (rows / 100)).getTrack();
+        }
+        return found;
+      });
+    }
+  }
+
+  /**
+   * Runs a scan a number of times after a warm-up, and prints the best time.
+   */
+  private static void report(String name, IntSupplier scan) {
+    int result = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      result = scan.getAsInt();
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      result = scan.getAsInt();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-26s %10d %10.3f ms%n", name, result, best / 1e6);
+  }
+}
@@ -0,0 +1,195 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Conformance tests that every DepartureStore engine must pass. Each engine has a subclass
+ * that creates its store.
+ */
+abstract class DepartureStoreTest {
+
+  protected DepartureStore store;
+
+  /**
+   * Creates an empty store of the engine under test.
+   */
+  abstract DepartureStore createStore();
+
+  @BeforeEach
+  void setUpStore() {
+    store = createStore();
+    store.add(new Departure(LocalTime.of(12, 30), "F4", 1, "Lillestrom", 1, 0));
+    store.add(new Departure(LocalTime.of(12, 10), "R10", 2, "Drammen", 0, 5));
+    store.add(new Departure(LocalTime.of(12, 20), "F4", 3, " lillestrom", 2, 0));
+  }
+
+  private static List<Integer> numbers(List<Departure> departures) {
+    List<Integer> numbers = new ArrayList<>();
+    departures.forEach(departure -> numbers.add(departure.getTrainNumber()));
+    return numbers;
+  }
+
+  @Test
+  @DisplayName("Conformance: the board is sorted by time plus delay")
+  void testSortedList() {
+    assertEquals(3, store.size());
+    assertFalse(store.isEmpty());
+    assertEquals(List.of(2, 3, 1), numbers(store.sortedList()));
+  }
+
+  @Test
+  @DisplayName("Conformance: lookup by train number prefers the earliest departure")
+  void testFindByNumber() {
+    store.add(new Departure(LocalTime.of(12, 5), "F4", 1, "Lillestrom", 0, 0));
+
+    assertEquals(ServiceTime.of(LocalTime.of(12, 5)), store.findByNumber(1).getDepartureMinute());
+    assertEquals(new Departure(LocalTime.of(12, 10), "R10", 2, "Drammen", 0, 5),
+            store.findByNumber(2));
+    assertNull(store.findByNumber(4));
+    assertEquals(3, store.findByNumber(3, 0).getTrainNumber());
+    assertNull(store.findByNumber(3, 1));
+  }
+
+  @Test
+  @DisplayName("Conformance: destinations are compared without case and surrounding spaces")
+  void testFindByDestination() {
+    assertEquals(List.of(3, 1), numbers(store.findByDestination("LILLESTROM ")));
+    assertTrue(store.findByDestination("Bergen").isEmpty());
+  }
+
+  @Test
+  @DisplayName("Conformance: every departure to a destination is visited without a list")
+  void testForEachWithDestination() {
+    List<Departure> visited = new ArrayList<>();
+    store.forEachWithDestination("LILLESTROM ", visited::add);
+    visited.sort((first, second) -> Integer.compare(first.getTrainNumber(), second.getTrainNumber()));
+    assertEquals(List.of(1, 3), numbers(visited));
+    store.forEachWithDestination("Bergen", departure -> fail("No departure goes to Bergen"));
+  }
+
+  @Test
+  @DisplayName("Conformance: delay and track changes are kept and reorder the board")
+  void testSetDelayAndTrack() {
+    Departure departure = store.findByNumber(3);
+    store.setDelay(departure, 15);
+    store.setTrack(departure, 4);
+
+    assertEquals(15, departure.getDelay());
+    assertEquals(15, store.findByNumber(3).getDelay());
+    assertEquals(4, store.findByNumber(3).getTrack());
+    assertEquals(List.of(2, 1, 3), numbers(store.sortedList()));
+
+    store.setTrack(departure, 0);
+    assertEquals(-1, store.findByNumber(3).getTrack());
+  }
+
+  @Test
+  @DisplayName("Conformance: removal returns the removed departure")
+  void testRemove() {
+    Departure removed = store.remove(store.findByNumber(1));
+
+    assertEquals(1, removed.getTrainNumber());
+    assertNull(store.remove(removed));
+    assertNull(store.findByNumber(1));
+    assertEquals(2, store.size());
+    assertEquals(List.of(3), numbers(store.findByDestination("Lillestrom")));
+  }
+
+  @Test
+  @DisplayName("Conformance: departures that have left are removed and reported")
+  void testRemoveBefore() {
+    List<Departure> expired = new ArrayList<>();
+
+    assertEquals(2, store.removeBefore(ServiceTime.of(LocalTime.of(12, 21)), expired::add));
+    assertEquals(List.of(2, 3), numbers(expired.stream()
+            .sorted((a, b) -> Integer.compare(a.getTrainNumber(), b.getTrainNumber())).toList()));
+    assertEquals(1, store.size());
+    assertNull(store.findByNumber(2));
+    assertEquals(0, store.removeBefore(ServiceTime.of(LocalTime.of(12, 21)), expired::add));
+  }
+
+  @Test
+  @DisplayName("Conformance: a time window is visited in order of time plus delay")
+  void testForEachBetween() {
+    List<Departure> visited = new ArrayList<>();
+    store.forEachBetween(ServiceTime.of(LocalTime.of(12, 16)),
+            ServiceTime.of(LocalTime.of(12, 40)), visited::add);
+
+    assertEquals(List.of(3, 1), numbers(visited));
+    assertTrue(store.estimateBetween(ServiceTime.of(LocalTime.of(12, 16)),
+            ServiceTime.of(LocalTime.of(12, 40))) >= 2);
+  }
+
+  @Test
+  @DisplayName("Conformance: every departure with a train number is visited")
+  void testForEachWithNumber() {
+    store.add(new Departure(ServiceTime.MINUTES_PER_DAY + 600, "F4", 1, "Lillestrom", 1, 0));
+    List<Departure> visited = new ArrayList<>();
+    store.forEachWithNumber(1, visited::add);
+
+    assertEquals(2, visited.size());
+    visited.clear();
+    store.forEachWithNumber(4, visited::add);
+    assertTrue(visited.isEmpty());
+  }
+
+  @Test
+  @DisplayName("Conformance: forEach visits every departure")
+  void testForEach() {
+    List<Departure> visited = new ArrayList<>();
+    store.forEach(visited::add);
+
+    assertEquals(3, visited.size());
+  }
+
+  @Test
+  @DisplayName("Conformance: the indexes of a dispatch stay in sync with the store")
+  void testTrainDispatch() {
+    TrainDispatch trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.of(12, 0)),
+            createStore());
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 1, "Lillestrom", 1, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 40), "R10", 2, "Drammen", 1, 0));
+    trainDispatch.setDelay(1, 9);
+    trainDispatch.setTrack(2, 3);
+    trainDispatch.setDelay(1, 7);
+
+    assertEquals(1, trainDispatch.getMostDelayed(5).size());
+    assertEquals(7, trainDispatch.getMostDelayed(5).get(0).getDelay());
+    assertNull(trainDispatch.findTrackConflict(1));
+    trainDispatch.setTrack(2, 1);
+    assertEquals(1, trainDispatch.findTrackConflict(2).getTrainNumber());
+
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(2));
+    assertNull(trainDispatch.findTrackConflict(1));
+    trainDispatch.setTime(LocalTime.of(12, 50));
+    assertTrue(trainDispatch.checkIfListIsEmpty());
+    assertTrue(trainDispatch.getMostDelayed(5).isEmpty());
+    assertEquals(0, trainDispatch.getNumberOfDepartures());
+  }
+
+  @Test
+  @DisplayName("Conformance: a track change is visible through the most delayed and a query")
+  void testTrackChangeOfDelayedDeparture() {
+    TrainDispatch trainDispatch = new TrainDispatch(ServiceTime.of(LocalTime.of(12, 0)),
+            createStore());
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 1, "Lillestrom", 1, 0));
+    trainDispatch.setDelay(1, 5);
+    trainDispatch.setTrack(1, 7);
+
+    assertEquals(7, trainDispatch.getMostDelayed(5).get(0).getTrack());
+    DepartureQuery byDelay = trainDispatch.query().delayBetween(5, 60)
+            .sortBy(DepartureQuery.SortKey.DELAY);
+    assertTrue(byDelay.explain().startsWith("DELAY"));
+    assertEquals(7, byDelay.list().get(0).getTrack());
+    assertEquals(1, trainDispatch.query().delayBetween(5, 60).track(7)
+            .sortBy(DepartureQuery.SortKey.DELAY).count());
+  }
+}
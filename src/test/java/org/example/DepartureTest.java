@@ -268,4 +268,33 @@ class DepartureTest {
 
         assertNotEquals(departure.hashCode(), departure1.hashCode());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test getEffectiveMinute() past midnight")
+    void testGetEffectiveMinutePastMidnight() {
+        Departure departure = new Departure(LocalTime.of(23, 55), "Line", 123, "Destination", 1, 10);
+
+        assertEquals(ServiceTime.MINUTES_PER_DAY + 5, departure.getEffectiveMinute());
+        assertEquals(LocalTime.of(0, 5), departure.getScheduledArrival());
+    }
+
+    @Test
+    @DisplayName("Test that a row is the same as the formatted string, and allocates nothing")
+    void testAppendToMatchesFormat() {
+        Departure longNames = new Departure(LocalTime.of(9, 5), "Regional Express", 12, "Lillehammer Skysstasjon", 0, 0);
+        for (Departure row : new Departure[] {departure, longNames}) {
+            String delayInfo = (row.getDelay() == 0) ? "" : Integer.toString(row.getDelay());
+            String trackInfo = (row.getTrack() == -1) ? "" : Integer.toString(row.getTrack());
+            assertEquals(String.format("%-14s %-12s %-15d %-17s %-11s %-4s %-1s",
+                    "|  " + ServiceTime.format(row.getDepartureMinute()), row.getLine(),
+                    row.getTrainNumber(), row.getDestination(), delayInfo, trackInfo, "|\n"),
+                    row.toString());
+        }
+
+        StringBuilder board = new StringBuilder(160);
+        AllocationBudget.assertWithin("Rendering a board row", 0, () -> {
+            board.setLength(0);
+            departure.appendTo(board);
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DestinationIndexTest {
+
+  private DestinationIndex destinationIndex;
+
+  @BeforeEach
+  void setUp() {
+    destinationIndex = new DestinationIndex();
+    destinationIndex.add("Lillestrom");
+    destinationIndex.add("Lillehammer");
+    destinationIndex.add("Lillehammer");
+    destinationIndex.add("Oslo S");
+    destinationIndex.add("Trondheim");
+  }
+
+  @Test
+  @DisplayName("Test that the exact name ranks first")
+  void testExactMatchRanksFirst() {
+    assertEquals(List.of("Oslo S"), destinationIndex.search("oslo s", 1));
+  }
+
+  @Test
+  @DisplayName("Test prefix search ranks destinations with more departures first")
+  void testPrefixSearch() {
+    assertEquals(List.of("Lillehammer", "Lillestrom"), destinationIndex.search("Lille", 0, 5));
+  }
+
+  @Test
+  @DisplayName("Test that typos are tolerated")
+  void testTypoTolerantSearch() {
+    assertEquals(List.of("Trondheim"), destinationIndex.search("Trondhiem", 5));
+    assertEquals(List.of("Lillestrom"), destinationIndex.search("Lilestrom", 5));
+    assertTrue(destinationIndex.search("Bergen", 5).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that destinations without departures are not found")
+  void testRemovedDestinationIsNotFound() {
+    destinationIndex.remove("Oslo S");
+    destinationIndex.remove("Lillehammer");
+
+    assertFalse(destinationIndex.contains("Oslo S"));
+    assertTrue(destinationIndex.contains("Lillehammer"));
+    assertTrue(destinationIndex.search("Oslo", 5).isEmpty());
+    assertEquals(3, destinationIndex.getNumberOfDestinations());
+  }
+
+  @Test
+  @DisplayName("Test that the dispatch keeps the index in sync when departures leave")
+  void testIndexFollowsTrainDispatch() {
+    TrainDispatch trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 30), "F4", 1, "Lillestrom", 1, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(13, 30), "R10", 2, "Drammen", 2, 0));
+
+    assertEquals(List.of("Lillestrom"), trainDispatch.findDestinations("lille", 5));
+
+    trainDispatch.setTime(LocalTime.of(13, 0));
+    assertTrue(trainDispatch.findDestinations("lille", 5).isEmpty());
+    assertEquals(List.of("Drammen"), trainDispatch.findDestinations("dram", 5));
+  }
+
+  @Test
+  @DisplayName("Test search among thousands of destinations")
+  void testSearchWithManyDestinations() {
+    for (int i = 0; i < 5000; i++) {
+      destinationIndex.add("Station " + Integer.toString(i, 26).replaceAll("\\d", "x"));
+    }
+
+    List<String> result = destinationIndex.search("Trondheim", 10);
+    assertEquals("Trondheim", result.get(0));
+    assertEquals(10, destinationIndex.search("Station", 10).size());
+  }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DisplayServerTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.NOON);
+
+  private SharedTrainDispatch trainDispatch;
+  private DisplayServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    trainDispatch = new SharedTrainDispatch(NOON, new ListDepartureStore());
+    trainDispatch.registerDeparture(new Departure(NOON + 10, "F4", 1, "Lillestrom", 1, 0));
+    trainDispatch.registerDeparture(new Departure(NOON + 20, "R10", 2, "Drammen", 2, 0));
+    trainDispatch.registerDeparture(new Departure(NOON + 30, "L1", 3, "Lillestrom", 1, 5));
+    server = new DisplayServer(trainDispatch, 0);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Connects a display and subscribes with a filter.
+   */
+
+  private Socket subscribe(byte filter, int track, String destination) throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    socket.setSoTimeout(5000);
+    ByteBuffer message = ByteBuffer.allocate(64);
+    DisplayProtocol.putSubscribe(message, filter, track, destination);
+    socket.getOutputStream().write(message.array(), 0, message.position());
+    return socket;
+  }
+
+  private static DataInputStream input(Socket socket) throws IOException {
+    return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+  }
+
+  @Test
+  @DisplayName("Test that a track display gets a snapshot and then the changes of its track")
+  void testTrackDisplay() throws IOException {
+    try (Socket socket = subscribe(DisplayProtocol.FILTER_TRACK, 1, null)) {
+      DataInputStream in = input(socket);
+      DisplayProtocol.Frame snapshot = DisplayProtocol.read(in);
+      assertEquals(DisplayProtocol.SNAPSHOT, snapshot.type());
+      assertEquals(NOON, snapshot.currentMinute());
+      assertEquals(2, snapshot.updates().size());
+      DisplayProtocol.Update first = snapshot.updates().get(0);
+      assertEquals(1, first.trainNumber());
+      assertEquals("F4", first.line());
+      assertEquals("Lillestrom", first.destination());
+      assertEquals(5, snapshot.updates().get(1).delay());
+
+      trainDispatch.setDelay(1, 7);
+      trainDispatch.setDelay(2, 3);
+      trainDispatch.setTrack(3, 2);
+      trainDispatch.setTrack(2, 1);
+      trainDispatch.setTime(NOON + 1);
+
+      DisplayProtocol.Update delay = DisplayProtocol.read(in).updates().get(0);
+      assertEquals(DisplayProtocol.UPSERT, delay.operation());
+      assertEquals(7, delay.delay());
+      DisplayProtocol.Update moved = DisplayProtocol.read(in).updates().get(0);
+      assertEquals(DisplayProtocol.REMOVE, moved.operation());
+      assertEquals(3, moved.trainNumber());
+      DisplayProtocol.Update arrived = DisplayProtocol.read(in).updates().get(0);
+      assertEquals(DisplayProtocol.UPSERT, arrived.operation());
+      assertEquals(2, arrived.trainNumber());
+      assertEquals(3, arrived.delay());
+      DisplayProtocol.Frame time = DisplayProtocol.read(in);
+      assertEquals(DisplayProtocol.TIME, time.type());
+      assertEquals(NOON + 1, time.currentMinute());
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a destination display only gets its destination, cut to fit")
+  void testDestinationDisplay() throws IOException {
+    trainDispatch.registerDeparture(new Departure(NOON + 40, "R11", 4,
+            "Porsgrunnstasjonsomraade", 3, 0));
+    try (Socket socket = subscribe(DisplayProtocol.FILTER_DESTINATION, 0,
+            "porsgrunnstasjonsomraade")) {
+      DataInputStream in = input(socket);
+      DisplayProtocol.Frame snapshot = DisplayProtocol.read(in);
+      assertEquals(1, snapshot.updates().size());
+      assertEquals("Porsgrunnstasjon", snapshot.updates().get(0).destination());
+
+      trainDispatch.setDelay(1, 2);
+      trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(4));
+      DisplayProtocol.Update removed = DisplayProtocol.read(in).updates().get(0);
+      assertEquals(DisplayProtocol.REMOVE, removed.operation());
+      assertEquals(4, removed.trainNumber());
+    }
+  }
+
+  @Test
+  @DisplayName("Test that many changes reach every display and reuse the pooled buffers")
+  void testManyChanges() throws IOException, InterruptedException {
+    try (Socket first = subscribe(DisplayProtocol.FILTER_ALL, 0, null);
+         Socket second = subscribe(DisplayProtocol.FILTER_TRACK, 2, null)) {
+      DataInputStream firstIn = input(first);
+      DataInputStream secondIn = input(second);
+      DisplayProtocol.read(firstIn);
+      DisplayProtocol.read(secondIn);
+      long end = System.currentTimeMillis() + 5000;
+      while (server.getNumberOfDisplays() < 2 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+
+      for (int round = 1; round <= 2000; round++) {
+        trainDispatch.setDelay(2, round % 100);
+      }
+      for (int round = 1; round <= 2000; round++) {
+        assertEquals(round % 100, DisplayProtocol.read(firstIn).updates().get(0).delay());
+        assertEquals(round % 100, DisplayProtocol.read(secondIn).updates().get(0).delay());
+      }
+      // Each change is encoded once for both displays
+      assertTrue(server.getNumberOfBuffersAllocated() <= 2000 + 2);
+      assertTrue(server.getNumberOfWrites() <= server.getNumberOfFramesSent());
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a malformed subscription closes that display and no other")
+  void testMalformedSubscribe() throws IOException {
+    byte[][] requests = {
+        {DisplayProtocol.SUBSCRIBE, DisplayProtocol.FILTER_DESTINATION, (byte) 0xFF, (byte) 0xF0},
+        {DisplayProtocol.SUBSCRIBE, DisplayProtocol.FILTER_DESTINATION, 0x01, 0x00},
+        {DisplayProtocol.SUBSCRIBE, 9}
+    };
+    for (byte[] request : requests) {
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(request);
+        assertEquals(-1, socket.getInputStream().read());
+      }
+    }
+
+    try (Socket socket = subscribe(DisplayProtocol.FILTER_ALL, 0, null)) {
+      assertEquals(3, DisplayProtocol.read(input(socket)).updates().size());
+    }
+  }
+}
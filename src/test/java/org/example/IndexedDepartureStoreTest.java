@@ -0,0 +1,29 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedDepartureStoreTest extends DepartureStoreTest {
+
+  @Override
+  DepartureStore createStore() {
+    return new IndexedDepartureStore();
+  }
+
+  @Test
+  @DisplayName("Test that removing one of two equal departures keeps the other indexed")
+  void testEqualDepartures() {
+    Departure first = new Departure(LocalTime.of(13, 0), "L1", 9, "Ski", 1, 0);
+    Departure second = new Departure(LocalTime.of(13, 0), "L1", 9, "Ski", 1, 0);
+    store.add(first);
+    store.add(second);
+
+    assertSame(second, store.remove(second));
+    assertSame(first, store.findByNumber(9));
+    assertEquals(1, store.findByDestination("Ski").size());
+  }
+}
@@ -147,4 +147,21 @@ class InputValidatorTest {
   void validateNumericInput_negativeNumber_throwsException() {
     assertThrows(IllegalArgumentException.class, () -> InputValidator.validateNumericInput("-1"));
   }
+
+  @Test
+  void validateTimeInput_nextServiceDay_returnsEpochMinute() {
+    int minuteNow = ServiceTime.of(LocalTime.of(23, 0));
+    int result = InputValidator.validateTimeInput("01:00+1", minuteNow);
+
+    assertEquals(ServiceTime.MINUTES_PER_DAY + 60, result);
+    assertThrows(IllegalArgumentException.class, () -> InputValidator.validateTimeInput("01:00", minuteNow));
+  }
+
+  @Test
+  void validateDestinationToFind_prefixWithTypo_returnsDestination() {
+    trainDispatch.setTime(LocalTime.of(12, 0));
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 1), "A", 1234, "Lillestrom", 1, 0));
+
+    assertEquals("Lillestrom", inputValidator.validateDestinationToFind("lilestr", trainDispatch));
+  }
 }
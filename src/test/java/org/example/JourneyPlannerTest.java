@@ -0,0 +1,221 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JourneyPlannerTest {
+
+  private static final LocalDate DAY = LocalDate.of(2024, 2, 7);
+
+  private StationRegistry registry;
+
+  private static int at(int hour, int minute) {
+    return ServiceTime.of(DAY, LocalTime.of(hour, minute));
+  }
+
+  @BeforeEach
+  void setUp() {
+    registry = new StationRegistry(at(6, 0), 3);
+    // Oslo - Lillestrom - Hamar - Trondheim, and a local train from Lillestrom to Hamar
+    registry.registerTrain("R10", 41, List.of(
+            StopTime.at("Oslo", at(8, 0)),
+            new StopTime("Lillestrom", at(8, 12), at(8, 14)),
+            new StopTime("Hamar", at(9, 20), at(9, 22)),
+            StopTime.at("Trondheim", at(14, 30))));
+    registry.registerTrain("L1", 2201, List.of(
+            StopTime.at("Lillestrom", at(8, 16)),
+            StopTime.at("Hamar", at(9, 40))));
+    registry.registerTrain("R10", 43, List.of(
+            StopTime.at("Oslo", at(9, 0)),
+            StopTime.at("Lillestrom", at(9, 12))));
+  }
+
+  @Test
+  @DisplayName("Test that every station a train leaves from gets its departure")
+  void testBoardsOfStations() {
+    assertEquals(4, registry.getNumberOfStations());
+    assertEquals(3, registry.getNumberOfTrains());
+    Departure fromHamar = registry.getBoard("Hamar").findDepartureByNumber(41);
+    assertEquals(at(9, 22), fromHamar.getDepartureMinute());
+    assertEquals("Trondheim", fromHamar.getDestination());
+    assertEquals(0, registry.getBoard("Trondheim").getNumberOfDepartures());
+    assertEquals(4, registry.getStopTimes(fromHamar, "Hamar").size());
+  }
+
+  @Test
+  @DisplayName("Test that a direct train is found, and that it can be joined on the way")
+  void testDirectJourney() {
+    JourneyPlanner.Journey journey = registry.findEarliestArrival("Oslo", "Trondheim", at(7, 0));
+
+    assertEquals(1, journey.legs().size());
+    assertEquals(41, journey.legs().get(0).trainNumber());
+    assertEquals(at(8, 0), journey.departureMinute());
+    assertEquals(at(14, 30), journey.arrivalMinute());
+
+    JourneyPlanner.Journey fromHamar =
+            registry.findEarliestArrival("Lillestrom", "Hamar", at(8, 13));
+    assertEquals(41, fromHamar.legs().get(0).trainNumber());
+    assertEquals(at(9, 20), fromHamar.arrivalMinute());
+  }
+
+  @Test
+  @DisplayName("Test that a delay on a board moves the connection and allows a transfer")
+  void testDelayAndTransfer() {
+    // Too late for train 41, and train 43 arrives after the last train to Hamar
+    assertNull(registry.findEarliestArrival("Oslo", "Hamar", at(8, 30)));
+
+    registry.getBoard("Lillestrom").setDelay(2201, 60);
+    JourneyPlanner.Journey journey = registry.findEarliestArrival("Oslo", "Hamar", at(8, 30));
+
+    assertEquals(1, journey.numberOfTransfers());
+    assertEquals(43, journey.legs().get(0).trainNumber());
+    assertEquals("Lillestrom", journey.legs().get(1).from());
+    assertEquals(at(10, 40), journey.arrivalMinute());
+  }
+
+  @Test
+  @DisplayName("Test that the minimum transfer time is kept")
+  void testTransferTime() {
+    registry.getBoard("Lillestrom").setDelay(2201, 57);
+    // Train 43 arrives 09:12, train 2201 leaves 09:13: only a minute to change
+    assertNull(registry.findEarliestArrival("Oslo", "Hamar", at(8, 30)));
+
+    registry.getBoard("Lillestrom").setDelay(2201, 59);
+    assertNotNull(registry.findEarliestArrival("Oslo", "Hamar", at(8, 30)));
+  }
+
+  @Test
+  @DisplayName("Test that a delay is carried on to the later stops of the train")
+  void testDelayCarriedForward() {
+    StationRegistry line = new StationRegistry(at(0, 0), 2);
+    line.registerTrain("L", 1, List.of(
+            StopTime.at("A", at(8, 0)),
+            new StopTime("B", at(8, 10), at(8, 12)),
+            StopTime.at("C", at(8, 30))));
+
+    line.getBoard("A").setDelay(1, 30);
+    JourneyPlanner.Journey journey = line.findEarliestArrival("A", "C", at(7, 30));
+
+    assertNotNull(journey);
+    assertEquals(1, journey.legs().size());
+    assertEquals(at(8, 30), journey.departureMinute());
+    // Two minutes of the delay are made up while the train waits at B
+    assertEquals(at(8, 58), journey.arrivalMinute());
+    assertEquals(at(8, 40), line.findEarliestArrival("B", "C", at(8, 11)).departureMinute());
+  }
+
+  @Test
+  @DisplayName("Test that a removed departure cancels its connection")
+  void testCancelledConnection() {
+    JourneyPlanner before = registry.planner();
+    assertSame(before, registry.planner());
+
+    TrainDispatch oslo = registry.getBoard("Oslo");
+    oslo.removeDeparture(oslo.findDepartureByNumber(41));
+
+    assertNotSame(before, registry.planner());
+    JourneyPlanner.Journey journey = registry.findEarliestArrival("Oslo", "Trondheim", at(7, 0));
+    assertNull(journey);
+    assertEquals(before.getNumberOfConnections() - 1, registry.planner().getNumberOfConnections());
+  }
+
+  @Test
+  @DisplayName("Test that invalid trains and queries are rejected")
+  void testValidation() {
+    assertThrows(IllegalArgumentException.class, () -> registry.registerTrain("R10", 45,
+            List.of(StopTime.at("Oslo", at(10, 0)))));
+    assertThrows(IllegalArgumentException.class, () -> registry.registerTrain("R10", 45,
+            List.of(StopTime.at("Oslo", at(10, 0)), StopTime.at("Hamar", at(9, 0)))));
+    assertThrows(IllegalArgumentException.class, () -> registry.registerTrain("R10", 41,
+            List.of(StopTime.at("Oslo", at(8, 0)), StopTime.at("Hamar", at(9, 0)))));
+    assertThrows(IllegalArgumentException.class,
+            () -> new StopTime("Oslo", at(9, 0), at(8, 0)));
+    assertThrows(IllegalArgumentException.class,
+            () -> registry.findEarliestArrival("Oslo", "Bergen", at(7, 0)));
+    assertThrows(IllegalArgumentException.class,
+            () -> registry.findEarliestArrival("Oslo", "Oslo", at(7, 0)));
+  }
+
+  @Test
+  @DisplayName("Test that the planner agrees with a search over all journeys on a random network")
+  void testRandomNetwork() {
+    Random random = new Random(48);
+    int stations = 30;
+    StationRegistry network = new StationRegistry(at(0, 0), 2);
+    for (int number = 1; number <= 400; number++) {
+      List<StopTime> stops = new ArrayList<>();
+      int minute = at(5, 0) + random.nextInt(16 * 60);
+      int station = random.nextInt(stations);
+      for (int i = random.nextInt(5) + 2; i > 0; i--) {
+        stops.add(new StopTime("S" + station, minute, minute + random.nextInt(3)));
+        minute = stops.get(stops.size() - 1).departureMinute() + 5 + random.nextInt(40);
+        station = (station + 1 + random.nextInt(stations - 1)) % stations;
+      }
+      network.registerTrain("L", number, stops);
+    }
+
+    for (int query = 0; query < 50; query++) {
+      int from = random.nextInt(stations);
+      int to = (from + 1 + random.nextInt(stations - 1)) % stations;
+      int start = at(5, 0) + random.nextInt(12 * 60);
+      JourneyPlanner.Journey journey =
+              network.findEarliestArrival("S" + from, "S" + to, start);
+      int expected = earliestArrival(network, stations, from, to, start);
+      assertEquals(expected, journey == null ? Integer.MAX_VALUE : journey.arrivalMinute());
+      if (journey != null) {
+        assertEquals("S" + from, journey.legs().get(0).from());
+        assertTrue(journey.departureMinute() >= start);
+        for (int i = 1; i < journey.legs().size(); i++) {
+          assertEquals(journey.legs().get(i - 1).to(), journey.legs().get(i).from());
+          assertTrue(journey.legs().get(i).departureMinute()
+                  >= journey.legs().get(i - 1).arrivalMinute() + 2);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the earliest arrival by relaxing the stop times of every train until nothing
+   * changes, as a reference for the planner.
+   */
+  private static int earliestArrival(StationRegistry network, int stations, int from, int to,
+                                     int start) {
+    int[] arrival = new int[stations];
+    Arrays.fill(arrival, Integer.MAX_VALUE);
+    arrival[from] = start;
+    List<List<StopTime>> trains = new ArrayList<>();
+    for (int s = 0; s < stations; s++) {
+      TrainDispatch board = network.getBoard("S" + s);
+      for (Departure departure : board.sortedList()) {
+        trains.add(network.getStopTimes(departure, "S" + s));
+      }
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (List<StopTime> stops : trains) {
+        boolean onBoard = false;
+        for (StopTime stop : stops) {
+          int station = Integer.parseInt(stop.station().substring(1));
+          if (onBoard && stop.arrivalMinute() < arrival[station]) {
+            arrival[station] = stop.arrivalMinute();
+            changed = true;
+          }
+          int ready = arrival[station] == Integer.MAX_VALUE ? Integer.MAX_VALUE
+                  : arrival[station] + (station == from ? 0 : 2);
+          onBoard |= ready <= stop.departureMinute();
+        }
+      }
+    }
+    return arrival[to];
+  }
+}
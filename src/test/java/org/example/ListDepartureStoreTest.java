@@ -0,0 +1,9 @@
+package org.example;
+
+class ListDepartureStoreTest extends DepartureStoreTest {
+
+  @Override
+  DepartureStore createStore() {
+    return new ListDepartureStore();
+  }
+}
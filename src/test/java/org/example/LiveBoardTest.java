@@ -0,0 +1,97 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveBoardTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.of(12, 0));
+
+  private TrainDispatch trainDispatch;
+  private LiveBoard board;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    trainDispatch = new TrainDispatch(NOON);
+    for (int i = 1; i <= 40; i++) {
+      trainDispatch.registerDeparture(new Departure(NOON + i, "F4", i, "Ski", 1, 0));
+    }
+    board = new LiveBoard(24);
+    board.refresh(trainDispatch, new StringBuilder());
+  }
+
+  @Test
+  @DisplayName("Test that the first refresh clears the screen and draws the whole board")
+  void testFirstRefresh() throws IOException {
+    StringBuilder out = new StringBuilder();
+    new LiveBoard(24).refresh(trainDispatch, out);
+
+    assertTrue(out.toString().startsWith(LiveBoard.CLEAR_SCREEN));
+    assertTrue(out.toString().contains("Train Dispatch"));
+    // 24 rows: the header, 16 departures, a row for the rest and the line under them
+    assertTrue(out.toString().contains("|  24 more"));
+    assertTrue(out.toString().contains("\u001b[24;1H"));
+  }
+
+  @Test
+  @DisplayName("Test that a refresh without changes writes nothing")
+  void testNoChanges() throws IOException {
+    StringBuilder out = new StringBuilder();
+    assertEquals(0, board.refresh(trainDispatch, out));
+    assertEquals("", out.toString());
+    assertEquals(2, board.getNumberOfRefreshes());
+  }
+
+  @Test
+  @DisplayName("Test that a change only sends the changed cells")
+  void testChangedCells() throws IOException {
+    trainDispatch.setTrack(3, 5);
+    StringBuilder out = new StringBuilder();
+    int written = board.refresh(trainDispatch, out);
+
+    // Train 3 is on the ninth row, and the track is the only cell that changed
+    assertTrue(out.toString().startsWith("\u001b[9;"));
+    assertTrue(out.toString().contains("5"));
+    assertFalse(out.toString().contains("Ski"));
+    assertTrue(written < 20, "Wrote " + written);
+  }
+
+  @Test
+  @DisplayName("Test that a clock tick and a departure leaving redraw only what changed")
+  void testClockTick() throws IOException {
+    trainDispatch.setTime(NOON + 2);
+    StringBuilder out = new StringBuilder();
+    int written = board.refresh(trainDispatch, out);
+
+    String full = trainDispatch.toString();
+    assertTrue(written > 0);
+    assertTrue(written < full.length() / 2, "Wrote " + written);
+    // Only the changed digits of the count and the time in the third row are sent
+    assertTrue(out.toString().startsWith("\u001b[3;4H39\u001b[3;"));
+    assertFalse(out.toString().contains("departures"));
+  }
+
+  @Test
+  @DisplayName("Test that a shorter row is erased to its end")
+  void testShorterRow() throws IOException {
+    trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(40));
+    for (int i = 1; i < 30; i++) {
+      trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(i));
+    }
+    StringBuilder out = new StringBuilder();
+    board.refresh(trainDispatch, out);
+    assertTrue(out.toString().contains(LiveBoard.ERASE_TO_END_OF_ROW));
+
+    board.invalidate();
+    out.setLength(0);
+    board.refresh(trainDispatch, out);
+    assertTrue(out.toString().startsWith(LiveBoard.CLEAR_SCREEN));
+    assertThrows(IllegalArgumentException.class, () -> new LiveBoard(7));
+  }
+}
@@ -0,0 +1,47 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadHarnessTest {
+
+  @Test
+  @DisplayName("Test a short run on platform threads")
+  void testPlatformThreads() throws InterruptedException {
+    LoadHarness.Report report = new LoadHarness(
+            new LoadHarness.Profile(4, 2, false, 500, 0, 0, 200)).run();
+
+    for (LoadHarness.Operation operation : LoadHarness.Operation.values()) {
+      assertTrue(report.getCount(operation) > 0, operation + " was never run");
+    }
+    assertTrue(report.toString().startsWith("# readers=4 writers=2 threads=platform"));
+    assertEquals(8, report.toString().lines().count());
+  }
+
+  @Test
+  @DisplayName("Test that corrected latencies are never below the service latencies")
+  void testVirtualThreadsWithFixedRate() throws InterruptedException {
+    LoadHarness.Report report = new LoadHarness(
+            new LoadHarness.Profile(50, 5, true, 500, 200, 200, 300)).run();
+
+    for (LoadHarness.Operation operation : LoadHarness.Operation.values()) {
+      assertTrue(report.getCount(operation) > 0, operation + " was never run");
+      assertTrue(report.getCorrectedLatency(operation).getPercentile(0.99)
+              >= report.getServiceLatency(operation).getPercentile(0.99));
+    }
+    // 50 readers at 200 reads per second for 0.3 seconds, however slow the machine is
+    long reads = report.getCount(LoadHarness.Operation.BOARD)
+            + report.getCount(LoadHarness.Operation.NUMBER)
+            + report.getCount(LoadHarness.Operation.DESTINATION);
+    assertTrue(reads <= 3100, "More reads than the rate allows: " + reads);
+  }
+
+  @Test
+  @DisplayName("Test that a profile without threads is rejected")
+  void testInvalidProfile() {
+    assertThrows(IllegalArgumentException.class,
+            () -> new LoadHarness.Profile(0, 0, true, 10, 1, 1, 1));
+  }
+}
@@ -0,0 +1,78 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapDepartureStoreTest extends DepartureStoreTest {
+
+  private OffHeapDepartureStore offHeapStore;
+
+  @Override
+  DepartureStore createStore() {
+    // Small chunks, so the tests also cover more than one chunk
+    offHeapStore = new OffHeapDepartureStore(4);
+    return offHeapStore;
+  }
+
+  @AfterEach
+  void tearDown() {
+    offHeapStore.close();
+  }
+
+  @Test
+  @DisplayName("Test that records are read back as copies")
+  void testCopies() {
+    Departure departure = offHeapStore.findByNumber(2);
+
+    assertNotSame(departure, offHeapStore.findByNumber(2));
+    assertEquals(-1, departure.getTrack());
+    departure.setDelay(20);
+    assertEquals(5, offHeapStore.findByNumber(2).getDelay());
+  }
+
+  @Test
+  @DisplayName("Test removal by train number and time, and reuse of slots")
+  void testRemoveAndReuse() {
+    assertTrue(offHeapStore.remove(1, ServiceTime.of(LocalTime.of(12, 30))));
+    assertFalse(offHeapStore.remove(1, ServiceTime.of(LocalTime.of(12, 30))));
+
+    List<Departure> expired = new ArrayList<>();
+    assertEquals(2, offHeapStore.removeBefore(ServiceTime.of(LocalTime.of(12, 25)), expired::add));
+    assertEquals(0, offHeapStore.size());
+
+    offHeapStore.add(new Departure(LocalTime.of(13, 0), "L1", 3, "Spikkestad", 4, 0));
+    assertEquals("Spikkestad", offHeapStore.findByNumber(3).getDestination());
+  }
+
+  @Test
+  @DisplayName("Test that several chunks and many train numbers are handled")
+  void testGrowth() {
+    for (int number = 10; number < 1010; number++) {
+      offHeapStore.add(new Departure(number, "L" + (number % 7), number, "Stop" + (number % 13), 1, 0));
+    }
+    for (int number = 10; number < 1010; number += 2) {
+      offHeapStore.remove(number, number);
+    }
+
+    assertEquals(503, offHeapStore.size());
+    assertNull(offHeapStore.findByNumber(500));
+    assertEquals("Stop2", offHeapStore.findByNumber(1003).getDestination());
+    assertTrue(offHeapStore.getOffHeapBytes() >= 1010 * 32);
+  }
+
+  @Test
+  @DisplayName("Test that a closed store cannot be used")
+  void testClose() {
+    offHeapStore.close();
+
+    assertEquals(0, offHeapStore.getOffHeapBytes());
+    assertThrows(IllegalStateException.class, () -> offHeapStore.findByNumber(1));
+  }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+
+  private static final int NOON = ServiceTime.of(LocalTime.of(12, 0));
+
+  @Test
+  @DisplayName("Test that a follower applies the mutations of the leader in order")
+  void testFollowMutations() throws IOException, InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    trainDispatch.registerDeparture(new Departure(NOON + 10, "F4", 1, "Lillestrom", 1, 0));
+    try (ReplicationLeader leader = new ReplicationLeader(trainDispatch, 0);
+         ReplicationFollower follower = new ReplicationFollower("localhost", leader.getPort())) {
+      trainDispatch.registerDeparture(new Departure(NOON + 20, "R10", 2, "Drammen", 0, 0));
+      trainDispatch.registerDeparture(new Departure(NOON + 30, "L1", 3, "Ski", 2, 0));
+      trainDispatch.setDelay(2, 15);
+      trainDispatch.setTrack(2, 4);
+      trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(3));
+      trainDispatch.setTime(LocalTime.of(12, 20));
+
+      assertEquals(6, leader.getSequence());
+      assertTrue(follower.awaitSequence(6, 10_000));
+      assertEquals(trainDispatch.sortedList(), follower.read(TrainDispatch::sortedList));
+      assertEquals(NOON + 20, (int) follower.read(TrainDispatch::getCurrentMinute));
+      assertEquals(15, (int) follower.read(board -> board.getMostDelayed(1).get(0).getDelay()));
+      assertEquals(0, follower.getLag());
+      assertEquals(0, follower.getLagMillis());
+      assertTrue(follower.isConnected());
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a late follower catches up from the snapshot and the log tail")
+  void testCatchUp() throws IOException, InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    try (ReplicationLeader leader = new ReplicationLeader(trainDispatch, 0)) {
+      for (int i = 1; i <= 20; i++) {
+        trainDispatch.registerDeparture(new Departure(NOON + i, "F4", i, "Ski", 0, 0));
+      }
+      leader.checkpoint();
+      assertEquals(0, leader.getLogLength());
+      trainDispatch.setDelay(5, 30);
+      trainDispatch.registerDeparture(new Departure(NOON + 50, "F4", 50, "Asker", 0, 0));
+      assertEquals(2, leader.getLogLength());
+
+      try (ReplicationFollower follower =
+                   new ReplicationFollower("localhost", leader.getPort())) {
+        assertTrue(follower.awaitSequence(22, 10_000));
+        assertEquals(trainDispatch.sortedList(), follower.read(TrainDispatch::sortedList));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test that the log is compacted into the snapshot without a checkpoint")
+  void testCompaction() throws IOException, InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    try (ReplicationLeader leader = new ReplicationLeader(trainDispatch, 0, 100)) {
+      for (int i = 1; i <= 20; i++) {
+        trainDispatch.registerDeparture(new Departure(NOON + i, "F4", i, "Ski", 0, 0));
+      }
+      for (int i = 1; i <= 1000; i++) {
+        trainDispatch.setDelay(i % 20 + 1, i % 50);
+      }
+      long end = System.currentTimeMillis() + 10_000;
+      while (leader.getLogLength() >= 100 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      assertTrue(leader.getLogLength() < 100);
+
+      try (ReplicationFollower follower =
+                   new ReplicationFollower("localhost", leader.getPort())) {
+        assertTrue(follower.awaitSequence(leader.getSequence(), 10_000));
+        assertEquals(trainDispatch.sortedList(), follower.read(TrainDispatch::sortedList));
+        assertEquals(trainDispatch.getMostDelayed(20).size(),
+                (int) follower.read(board -> board.getMostDelayed(20).size()));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test that a follower in another JVM receives the board over loopback")
+  void testFollowerProcess() throws IOException, InterruptedException {
+    TrainDispatch trainDispatch = new TrainDispatch(NOON);
+    try (ReplicationLeader leader = new ReplicationLeader(trainDispatch, 0)) {
+      trainDispatch.registerDeparture(new Departure(NOON + 10, "F4", 1, "Lillestrom", 1, 0));
+      trainDispatch.registerDeparture(new Departure(NOON + 20, "R10", 2, "Drammen", 0, 0));
+
+      Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+      Process process = new ProcessBuilder(java.toString(), "-cp",
+              System.getProperty("java.class.path"), ReplicationFollower.class.getName(),
+              "localhost", String.valueOf(leader.getPort()), "3")
+              .redirectErrorStream(true).start();
+      // The follower waits for sequence 3, which is made after it has started
+      trainDispatch.setDelay(2, 7);
+      assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+      String output = new String(process.getInputStream().readAllBytes(),
+              StandardCharsets.UTF_8);
+
+      assertEquals(0, process.exitValue(), output);
+      assertTrue(output.startsWith("Applied 3"), output);
+      assertTrue(output.contains(trainDispatch.findDepartureByNumber(2).toString()), output);
+    }
+  }
+}
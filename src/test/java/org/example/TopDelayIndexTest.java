@@ -0,0 +1,64 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopDelayIndexTest {
+
+  private TrainDispatch trainDispatch;
+  private Departure slightlyDelayed;
+  private Departure veryDelayed;
+  private Departure onTime;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    slightlyDelayed = new Departure(LocalTime.of(12, 10), "F4", 1, "Lillestrom", 1, 3);
+    veryDelayed = new Departure(LocalTime.of(12, 20), "R10", 2, "Drammen", 2, 15);
+    onTime = new Departure(LocalTime.of(12, 30), "L1", 3, "Oslo S", 3, 0);
+    trainDispatch.registerDeparture(slightlyDelayed);
+    trainDispatch.registerDeparture(veryDelayed);
+    trainDispatch.registerDeparture(onTime);
+  }
+
+  @Test
+  @DisplayName("Test that the most delayed departures come first and on-time ones are left out")
+  void testMostDelayedOrder() {
+    assertEquals(List.of(veryDelayed, slightlyDelayed), trainDispatch.getMostDelayed(20));
+    assertEquals(List.of(veryDelayed), trainDispatch.getMostDelayed(1));
+  }
+
+  @Test
+  @DisplayName("Test that delay changes reorder the index")
+  void testDelayChangeReorders() {
+    trainDispatch.setDelay(3, 20);
+    trainDispatch.setDelay(2, 0);
+
+    assertEquals(List.of(onTime, slightlyDelayed), trainDispatch.getMostDelayed(20));
+  }
+
+  @Test
+  @DisplayName("Test that removed and expired departures leave the index")
+  void testRemovalAndExpiry() {
+    trainDispatch.removeDeparture(veryDelayed);
+    assertEquals(List.of(slightlyDelayed), trainDispatch.getMostDelayed(20));
+
+    trainDispatch.setTime(LocalTime.of(12, 14));
+    assertTrue(trainDispatch.getMostDelayed(20).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that equal delays are ordered by time plus delay")
+  void testEqualDelays() {
+    Departure earlier = new Departure(LocalTime.of(12, 5), "F4", 4, "Ski", 4, 15);
+    trainDispatch.registerDeparture(earlier);
+
+    assertEquals(List.of(earlier, veryDelayed, slightlyDelayed), trainDispatch.getMostDelayed(3));
+  }
+}
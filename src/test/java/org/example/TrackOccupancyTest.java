@@ -0,0 +1,81 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackOccupancyTest {
+
+  private TrainDispatch trainDispatch;
+  private Departure first;
+  private Departure second;
+
+  @BeforeEach
+  void setUp() {
+    trainDispatch = new TrainDispatch(LocalTime.of(12, 0));
+    trainDispatch.setDwellTimes(2, 1);
+    first = new Departure(LocalTime.of(12, 30), "F4", 1, "Lillestrom", 1, 0);
+    second = new Departure(LocalTime.of(12, 40), "R10", 2, "Drammen", 1, 0);
+    trainDispatch.registerDeparture(first);
+    trainDispatch.registerDeparture(second);
+  }
+
+  @Test
+  @DisplayName("Test that departures far enough apart do not conflict")
+  void testNoConflict() {
+    assertNull(trainDispatch.findTrackConflict(1));
+    assertTrue(trainDispatch.findAllTrackConflicts().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that overlapping dwell windows on a track conflict")
+  void testConflictOnSameTrack() {
+    int minute = ServiceTime.of(LocalTime.of(12, 33));
+
+    assertEquals(first, trainDispatch.findTrackConflict(1, minute, 3));
+    assertNull(trainDispatch.findTrackConflict(1, minute + 1, 3));
+    assertNull(trainDispatch.findTrackConflict(2, minute, 3));
+    assertNull(trainDispatch.findTrackConflict(0, minute, 3));
+  }
+
+  @Test
+  @DisplayName("Test that a delay moves the departure in the index")
+  void testDelayCreatesConflict() {
+    trainDispatch.setDelay(1, 8);
+
+    assertEquals(second, trainDispatch.findTrackConflict(1));
+    assertEquals(1, trainDispatch.findAllTrackConflicts().size());
+
+    trainDispatch.setTrack(1, 3);
+    assertNull(trainDispatch.findTrackConflict(1));
+  }
+
+  @Test
+  @DisplayName("Test that departures without a track get the lowest free track")
+  void testAssignFreeTracks() {
+    Departure unassigned = new Departure(LocalTime.of(12, 31), "L1", 3, "Oslo S", 0, 0);
+    Departure noTrackLeft = new Departure(LocalTime.of(12, 41), "L1", 4, "Oslo S", 0, 0);
+    trainDispatch.registerDeparture(unassigned);
+    trainDispatch.registerDeparture(noTrackLeft);
+    trainDispatch.registerDeparture(new Departure(LocalTime.of(12, 40), "L2", 5, "Ski", 2, 0));
+
+    assertEquals(2, trainDispatch.assignFreeTracks(3));
+    assertEquals(2, unassigned.getTrack());
+    assertEquals(3, noTrackLeft.getTrack());
+    assertTrue(trainDispatch.findAllTrackConflicts().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Test that validation rejects an occupied track")
+  void testValidateFreeTrack() {
+    InputValidator inputValidator = new InputValidator();
+
+    assertThrows(IllegalArgumentException.class,
+            () -> inputValidator.validateFreeTrack(1, second.getEffectiveMinute(), 1, trainDispatch));
+    assertEquals(2, inputValidator.validateFreeTrack(2, second.getEffectiveMinute(), 1, trainDispatch));
+  }
+}
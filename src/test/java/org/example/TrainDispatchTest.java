@@ -3,7 +3,10 @@ package org.example;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.EnumSet;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -200,4 +203,203 @@ class TrainDispatchTest {
         assertEquals(2, departure.getDelay());
     }
 
-}
\ No newline at end of file
+    @Test
+    @DisplayName("Test that a delay past midnight does not wrap around")
+    void testDelayPastMidnightKeepsOrderAndDeparture() {
+        trainDispatch.setTime(LocalTime.of(23, 50));
+        Departure lateDeparture = new Departure(LocalTime.of(23, 55), "A", 123, "B", 1, 10);
+        Departure departure = new Departure(LocalTime.of(23, 59), "A", 456, "B", 2, 0);
+        trainDispatch.registerDeparture(lateDeparture);
+        trainDispatch.registerDeparture(departure);
+        List<Departure> sortedList = trainDispatch.sortedList();
+
+        assertEquals(2, sortedList.size());
+        assertEquals(departure, sortedList.get(0));
+        assertEquals(lateDeparture, sortedList.get(1));
+    }
+
+    @Test
+    @DisplayName("Test that departures on the next service day are kept until they leave")
+    void testMultiDayDepartures() {
+        int nextDay = ServiceTime.MINUTES_PER_DAY;
+        Departure today = new Departure(LocalTime.of(12, 30), "A", 123, "B", 1, 0);
+        Departure tomorrow = new Departure(nextDay + 9 * 60, "A", 456, "B", 1, 0);
+        trainDispatch.registerDeparture(tomorrow);
+        trainDispatch.registerDeparture(today);
+
+        assertEquals(List.of(today, tomorrow), trainDispatch.sortedList());
+
+        trainDispatch.setTime(nextDay + 8 * 60);
+        assertEquals(List.of(tomorrow), trainDispatch.sortedList());
+        assertEquals(LocalTime.of(8, 0), trainDispatch.getTime());
+    }
+
+    @Test
+    @DisplayName("Test that service patterns only create departures within the horizon")
+    void testServicePatternIsMaterializedLazily() {
+        // 2024-01-15 is a Monday
+        LocalDate monday = LocalDate.of(2024, 1, 15);
+        TrainDispatch dispatch = new TrainDispatch(ServiceTime.of(monday, LocalTime.of(12, 0)));
+        dispatch.setMaterializationHorizon(12 * 60);
+        dispatch.registerPattern(new ServicePattern(LocalTime.of(17, 45), "F4", 123, "Lillestrom",
+                EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), monday, monday.plusMonths(1), 1));
+
+        assertEquals(1, dispatch.getNumberOfDepartures());
+        assertEquals(ServiceTime.of(monday, LocalTime.of(17, 45)),
+                dispatch.findDepartureByNumber(123).getDepartureMinute());
+
+        // Friday evening: the Saturday departure is never created
+        dispatch.setTime(ServiceTime.of(monday.plusDays(4), LocalTime.of(18, 0)));
+        dispatch.setTime(ServiceTime.of(monday.plusDays(6), LocalTime.of(6, 0)));
+        assertTrue(dispatch.checkIfListIsEmpty());
+
+        // Next Monday 06:00: the departure at 17:45 is within the 12 hour horizon again
+        dispatch.setTime(ServiceTime.of(monday.plusDays(7), LocalTime.of(6, 0)));
+        assertEquals(1, dispatch.sortedList().size());
+    }
+
+    @Test
+    @DisplayName("Test that per-day overrides are applied when the departure is created")
+    void testServicePatternOverrides() {
+        LocalDate monday = LocalDate.of(2024, 1, 15);
+        TrainDispatch dispatch = new TrainDispatch(ServiceTime.of(monday, LocalTime.of(12, 0)));
+        dispatch.registerPattern(new ServicePattern(LocalTime.of(13, 0), "F4", 123, "Lillestrom",
+                EnumSet.allOf(DayOfWeek.class), monday, monday.plusMonths(1), 1));
+        dispatch.setDelay(123, monday.plusDays(1), 5);
+        dispatch.setTrack(123, monday.plusDays(1), 3);
+        dispatch.setDelay(123, monday, 2);
+
+        assertEquals(2, dispatch.findDepartureByNumber(123).getDelay());
+
+        dispatch.setTime(ServiceTime.of(monday.plusDays(1), LocalTime.of(12, 0)));
+        Departure tuesday = dispatch.findDepartureByNumber(123);
+        assertEquals(5, tuesday.getDelay());
+        assertEquals(3, tuesday.getTrack());
+    }
+
+    @Test
+    @DisplayName("Test that overrides of days that have passed are dropped")
+    void testPassedOverridesAreDropped() {
+        LocalDate monday = LocalDate.of(2024, 1, 15);
+        TrainDispatch dispatch = new TrainDispatch(ServiceTime.of(monday, LocalTime.of(12, 0)));
+        dispatch.registerPattern(new ServicePattern(LocalTime.of(13, 0), "F4", 123, "Lillestrom",
+                EnumSet.of(DayOfWeek.MONDAY), monday, monday.plusMonths(1), 1));
+        // The pattern does not run on Tuesday, and 456 is not a pattern
+        dispatch.setDelay(123, monday.plusDays(1), 5);
+        dispatch.setDelay(456, monday.plusDays(1), 5);
+        dispatch.setTrack(456, monday.plusDays(2), 2);
+        assertEquals(3, dispatch.getNumberOfOverrides());
+
+        dispatch.setTime(ServiceTime.of(monday.plusDays(2), LocalTime.of(6, 0)));
+        assertEquals(1, dispatch.getNumberOfOverrides());
+        dispatch.setTime(ServiceTime.of(monday.plusDays(3), LocalTime.of(0, 0)));
+        assertEquals(0, dispatch.getNumberOfOverrides());
+    }
+
+    /**
+     * A list store that counts the lookups by train number.
+     */
+    private static class CountingStore extends ListDepartureStore {
+        int lookups;
+
+        @Override
+        public Departure findByNumber(int trainNumber) {
+            lookups++;
+            return super.findByNumber(trainNumber);
+        }
+
+        @Override
+        public Departure findByNumber(int trainNumber, int serviceDay) {
+            lookups++;
+            return super.findByNumber(trainNumber, serviceDay);
+        }
+    }
+
+    @Test
+    @DisplayName("Test that a command through a handle costs one lookup")
+    void testHandleLooksUpOnce() {
+        CountingStore store = new CountingStore();
+        TrainDispatch dispatch = new TrainDispatch(ServiceTime.of(defaultTime), store);
+        dispatch.registerDeparture(new Departure(LocalTime.of(13, 0), "A", 1, "B", 1, 0));
+        dispatch.registerDeparture(new Departure(LocalTime.of(13, 1), "A", 2, "B", 2, 0));
+
+        DepartureHandle handle = dispatch.lookup(1);
+        assertEquals(2, dispatch.findTrackConflict(2, handle).getTrainNumber());
+        assertNull(dispatch.findTrackConflict(3, handle));
+        assertTrue(dispatch.setTrack(handle, 3));
+        assertTrue(dispatch.setDelay(handle, 4));
+        assertNull(dispatch.findTrackConflict(handle));
+
+        assertEquals(1, store.lookups);
+        assertEquals(3, dispatch.findDepartureByNumber(1).getTrack());
+        assertEquals(4, handle.getDeparture().getDelay());
+        assertNull(dispatch.lookup(99));
+    }
+
+    @Test
+    @DisplayName("Test that a stale handle is found again if the departure is unchanged")
+    void testStaleHandleUnchangedDeparture() {
+        dispatchWithTwoDepartures();
+        DepartureHandle handle = trainDispatch.lookup(1);
+        // Another operator changes a different departure
+        trainDispatch.setDelay(2, 5);
+
+        assertTrue(trainDispatch.setTrack(handle, 4));
+        assertEquals(4, trainDispatch.findDepartureByNumber(1).getTrack());
+    }
+
+    @Test
+    @DisplayName("Test that a stale handle is refused if the departure was changed or removed")
+    void testStaleHandleChangedDeparture() {
+        dispatchWithTwoDepartures();
+        DepartureHandle handle = trainDispatch.lookup(1);
+        trainDispatch.setDelay(1, 10);
+
+        assertFalse(trainDispatch.setTrack(handle, 4));
+        assertEquals(1, trainDispatch.findDepartureByNumber(1).getTrack());
+
+        DepartureHandle removed = trainDispatch.lookup(2);
+        trainDispatch.removeDeparture(trainDispatch.findDepartureByNumber(2));
+        assertFalse(trainDispatch.setDelay(removed, 3));
+        assertFalse(trainDispatch.removeDeparture(removed));
+
+        DepartureHandle fresh = trainDispatch.lookup(1);
+        assertTrue(trainDispatch.removeDeparture(fresh));
+        assertEquals(0, trainDispatch.getNumberOfDepartures());
+    }
+
+    @Test
+    @DisplayName("Test that a handle is refused once its departure has left")
+    void testHandleAfterDepartureLeft() {
+        dispatchWithTwoDepartures();
+        DepartureHandle handle = trainDispatch.lookup(1);
+        trainDispatch.setTime(LocalTime.of(13, 30));
+
+        assertFalse(trainDispatch.setDelay(handle, 1));
+    }
+
+    private void dispatchWithTwoDepartures() {
+        trainDispatch.registerDeparture(new Departure(LocalTime.of(13, 0), "A", 1, "B", 1, 0));
+        trainDispatch.registerDeparture(new Departure(LocalTime.of(14, 0), "A", 2, "B", 2, 0));
+    }
+
+    @Test
+    @DisplayName("Test that lookups and delays stay within their allocation budgets")
+    void testAllocationBudgets() {
+        for (int i = 1; i <= 200; i++) {
+            trainDispatch.registerDeparture(new Departure(LocalTime.of(13 + i / 60, i % 60),
+                    "F" + i % 5, i, "Destination " + i % 7, i % 9, 0));
+        }
+        int[] next = {0};
+
+        // The store boxes the train number. Numbers up to 127 come from the Integer cache, so
+        // the budget of 0 holds even if C2 does not eliminate the boxing of larger ones.
+        AllocationBudget.assertWithin("A lookup by train number", 0,
+                () -> trainDispatch.findDepartureByNumber(1 + next[0]++ % 127));
+        // A new delay moves the departure in the sorted track and delay indexes
+        AllocationBudget.assertWithin("A change of delay", 512,
+                () -> trainDispatch.setDelay(1 + next[0]++ % 200, next[0] % 3));
+        AllocationBudget.assertWithin("Setting the same delay again", 64,
+                () -> trainDispatch.setDelay(1 + next[0]++ % 200, 0));
+    }
+}